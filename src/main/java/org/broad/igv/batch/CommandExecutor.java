@@ -87,6 +87,19 @@ public class CommandExecutor {
     }
 
 
+    /**
+     * Return true if the command only reports state and can run concurrently with other commands, without waiting
+     * for them to finish or for the display to refresh.
+     *
+     * @param command the command line
+     */
+    public static boolean isReadOnly(String command) {
+        if (command == null) return false;
+        String[] tokens = Globals.whitespacePattern.split(command.trim(), 2);
+        String cmd = tokens[0];
+        return cmd.equalsIgnoreCase("echo") || cmd.equalsIgnoreCase("version") || cmd.equalsIgnoreCase("cachestats");
+    }
+
     public String execute(String command) {
 
         List<String> args = getArgs(StringUtils.breakQuotedString(command, ' ').toArray(new String[]{}));
@@ -110,7 +123,7 @@ public class CommandExecutor {
 
 
             if (cmd.equalsIgnoreCase("echo")) {
-                result = cmd;
+                return cmd;
             } else if (cmd.equalsIgnoreCase("gotoimmediate")) {
                 return gotoImmediate(args);
             } else if (cmd.equalsIgnoreCase("goto")) {
@@ -123,6 +136,8 @@ public class CommandExecutor {
             } else if (cmd.equalsIgnoreCase("snapshot")) {
                 String filename = param1;
                 result = createSnapshot(filename, param2);
+            } else if (cmd.equalsIgnoreCase("snapshotregions")) {
+                result = snapshotRegions(param1, param2, param3);
             } else if ((cmd.equalsIgnoreCase("loadfile") || cmd.equalsIgnoreCase("load")) && param1 != null) {
                 result = load(param1, param2, param3, param4);
             } else if (cmd.equalsIgnoreCase("genome") && args.size() > 1) {
@@ -173,6 +188,8 @@ public class CommandExecutor {
                 return this.overridePreference(param1, param2);
             } else if (cmd.equalsIgnoreCase("version")) {
                 return Globals.VERSION;
+            } else if (cmd.equalsIgnoreCase("cachestats")) {
+                return CacheManager.getInstance().getSummary();
             } else if (cmd.equals("exit")) {
                 System.exit(0);
             } else if (cmd.equals("zoomin")) {
@@ -843,6 +860,52 @@ public class CommandExecutor {
     }
 
 
+    /**
+     * Snapshot each region of a BED file or locus list into the output directory,  prefetching the data for the
+     * next regions while each is painted.  If the output directory is not specified the snapshot directory is used.
+     *
+     * @param regionFile    path or URL to the region list
+     * @param directory     output directory
+     * @param prefetchCount number of regions to load ahead,  optional
+     * @return
+     */
+    private String snapshotRegions(String regionFile, String directory, String prefetchCount) {
+
+        if (regionFile == null) {
+            return "ERROR: missing region file parameter";
+        }
+
+        File outputDir = snapshotDirectory;
+        if (directory != null) {
+            try {
+                outputDir = getFile(StringUtils.stripQuotes(directory));
+            } catch (URISyntaxException e) {
+                log.error("Error parsing directory path: " + directory, e);
+                return "Error parsing directory path: " + directory;
+            }
+            outputDir.mkdirs();
+        }
+        if (outputDir == null || !outputDir.isDirectory()) {
+            return "ERROR: missing or invalid output directory " + (directory == null ? "" : directory);
+        }
+
+        int prefetch = SnapshotFarm.DEFAULT_PREFETCH_COUNT;
+        if (prefetchCount != null) {
+            try {
+                prefetch = Integer.parseInt(prefetchCount);
+            } catch (NumberFormatException e) {
+                return "ERROR: prefetch count is not a number: " + prefetchCount;
+            }
+        }
+
+        try {
+            return new SnapshotFarm(igv, prefetch).run(StringUtils.stripQuotes(regionFile), outputDir);
+        } catch (IOException e) {
+            log.error("Error reading regions from " + regionFile, e);
+            return "ERROR: " + e.getMessage();
+        }
+    }
+
     private String createSnapshot(String filename, String region) {
 
         if (filename == null) {
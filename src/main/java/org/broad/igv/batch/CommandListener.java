@@ -41,6 +41,10 @@ import java.net.URLDecoder;
 import java.nio.channels.ClosedByInterruptException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class CommandListener implements Runnable {
 
@@ -59,9 +63,21 @@ public class CommandListener implements Runnable {
 
     private int port = -1;
     private ServerSocket serverSocket = null;
-    private Socket clientSocket = null;
+    private final Set<Socket> clientSockets = ConcurrentHashMap.newKeySet();
+    private ExecutorService sessionExecutor;
     private Thread listenerThread;
-    boolean halt = false;
+    volatile boolean halt = false;
+
+    /**
+     * Commands which change IGV state are executed one at a time, in arrival order, across all client sessions.
+     * Read-only commands (see {@link CommandExecutor#isReadOnly(String)}) bypass the lock.
+     */
+    private static final ReentrantLock commandLock = new ReentrantLock(true);
+
+    /**
+     * Number of port sessions currently in batch mode.  Batch mode is turned off when the last one ends.
+     */
+    private static int batchSessionCount = 0;
 
 
     /**
@@ -108,12 +124,18 @@ public class CommandListener implements Runnable {
     }
 
     /**
-     * Loop forever, processing client requests synchronously.  The server is single threaded.
+     * Loop forever, accepting client connections.  Each client session is processed on its own thread, with its own
+     * {@link CommandExecutor} so snapshot directory and sleep interval settings are not shared between clients.
+     * Commands within a session are executed in order.
      * dwm08 - set isListening appropriately
      */
     public void run() {
 
-        CommandExecutor cmdExe = new CommandExecutor();
+        sessionExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Command session");
+            t.setDaemon(true);
+            return t;
+        });
 
         try {
             serverSocket = new ServerSocket(port);
@@ -121,19 +143,24 @@ public class CommandListener implements Runnable {
             currentListenerPort = port;
             isListening = true;
             while (!halt) {
-            	
-                clientSocket = serverSocket.accept();
-                processClientSession(cmdExe);
-                if (clientSocket != null) {
+
+                final Socket clientSocket = serverSocket.accept();
+                clientSockets.add(clientSocket);
+                sessionExecutor.execute(() -> {
                     try {
-                        clientSocket.close();
-                        clientSocket = null;
-                        // We do NOT set isListening = false here, otherwise logout/login state change falls back to OOB
+                        processClientSession(clientSocket, new CommandExecutor());
                     } catch (IOException e) {
-                        log.error("Error in client socket loop", e);
-                        isListening = false;
+                        log.error("Error processing client session", e);
+                    } finally {
+                        clientSockets.remove(clientSocket);
+                        try {
+                            clientSocket.close();
+                            // We do NOT set isListening = false here, otherwise logout/login state change falls back to OOB
+                        } catch (IOException e) {
+                            log.error("Error in client socket loop", e);
+                        }
                     }
-                }
+                });
             }
 
 
@@ -150,18 +177,22 @@ public class CommandListener implements Runnable {
             if (!halt) {
                 log.error("IO Error on port socket ", e);
             }
+        } finally {
+            sessionExecutor.shutdown();
         }
     }
 
     /**
      * Process a client session.  Loop continuously until client sends the "halt" message, or closes the connection.
      *
+     * @param clientSocket
      * @param cmdExe
      * @throws IOException
      */
-    private void processClientSession(CommandExecutor cmdExe) throws IOException {
+    private void processClientSession(Socket clientSocket, CommandExecutor cmdExe) throws IOException {
         PrintWriter out = null;
         BufferedReader in = null;
+        boolean batch = false;
         try {
             out = new PrintWriter(clientSocket.getOutputStream(), true);
             in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
@@ -217,7 +248,17 @@ public class CommandListener implements Runnable {
                         // Process the request.
 
 
-                        String result = processGet(command, params, cmdExe);
+                        String result;
+                        if (command.equals("/execute") && CommandExecutor.isReadOnly(StringUtils.decodeURL(params.get("command")))) {
+                            result = processGet(command, params, cmdExe);
+                        } else {
+                            commandLock.lock();
+                            try {
+                                result = processGet(command, params, cmdExe);
+                            } finally {
+                                commandLock.unlock();
+                            }
+                        }
 
                         // If no callback was specified write back response now
                         if (callback == null) {
@@ -233,9 +274,11 @@ public class CommandListener implements Runnable {
 
                 } else {
                     // Port command
-                    Globals.setBatch(true);
-                    Globals.setSuppressMessages(true);
-                    final String response = cmdExe.execute(inputLine);
+                    if (!batch) {
+                        beginBatch();
+                        batch = true;
+                    }
+                    final String response = execute(inputLine, cmdExe);
                     out.println(response);
                     out.flush();
                 }
@@ -243,23 +286,51 @@ public class CommandListener implements Runnable {
         } catch (IOException e) {
             log.error("Error processing client session", e);
         } finally {
-            Globals.setSuppressMessages(false);
-            Globals.setBatch(false);
+            if (batch) endBatch();
             if (out != null) out.close();
             if (in != null) in.close();
         }
     }
 
+    /**
+     * Execute a port command.  Commands which change IGV state wait for commands from other sessions to finish.
+     */
+    private String execute(String command, CommandExecutor cmdExe) {
+        if (CommandExecutor.isReadOnly(command)) {
+            return cmdExe.execute(command);
+        }
+        commandLock.lock();
+        try {
+            return cmdExe.execute(command);
+        } finally {
+            commandLock.unlock();
+        }
+    }
+
+    private static synchronized void beginBatch() {
+        if (batchSessionCount++ == 0) {
+            Globals.setBatch(true);
+            Globals.setSuppressMessages(true);
+        }
+    }
+
+    private static synchronized void endBatch() {
+        if (--batchSessionCount == 0) {
+            Globals.setSuppressMessages(false);
+            Globals.setBatch(false);
+        }
+    }
+
 
     private void closeSockets() {
-        if (clientSocket != null) {
+        for (Socket clientSocket : clientSockets) {
             try {
                 clientSocket.close();
-                clientSocket = null;
             } catch (IOException e) {
                 log.error("Error closing clientSocket", e);
             }
         }
+        clientSockets.clear();
 
         if (serverSocket != null) {
             try {
@@ -0,0 +1,273 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.batch;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.event.IGVEventBus;
+import org.broad.igv.feature.Locus;
+import org.broad.igv.track.Track;
+import org.broad.igv.ui.IGV;
+import org.broad.igv.ui.panel.FrameManager;
+import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.ui.util.SnapshotUtilities;
+import org.broad.igv.util.ParsingUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Takes a snapshot of each region in a list,  pipelining the work.  While the snapshot of region N is loaded and
+ * painted,  data for regions N+1..N+k is loaded in the background into reference frames that are not displayed,
+ * and the images of earlier regions are encoded and written on a pool of writer threads.
+ * <p>
+ * Alignments are cached by genomic range,  so they are reused directly when the view moves to a prefetched region.
+ * For TDF and bigWig tracks prefetching warms the file level caches.  Other tracks keep the data they load per
+ * reference frame,  so they are not prefetched,  see {@link Track#isLoadCachedAcrossFrames()}.
+ */
+public class SnapshotFarm {
+
+    private static Logger log = Logger.getLogger(SnapshotFarm.class);
+
+    public static final int DEFAULT_PREFETCH_COUNT = 2;
+
+    private final IGV igv;
+    private final int prefetchCount;
+    private final int writerCount;
+
+    public SnapshotFarm(IGV igv, int prefetchCount) {
+        this.igv = igv;
+        this.prefetchCount = Math.max(0, prefetchCount);
+        this.writerCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Snapshot each region in the region file into the output directory.
+     *
+     * @return "OK" followed by the throughput,  or an error message
+     */
+    public String run(String regionFile, File outputDir) throws IOException {
+
+        List<Region> regions = parseRegions(regionFile);
+        if (regions.isEmpty()) {
+            return "ERROR: no regions found in " + regionFile;
+        }
+
+        Component target = igv.getContentPane().getMainPanel();
+        ReferenceFrame defaultFrame = FrameManager.getDefaultFrame();
+        List<Track> tracks = igv.getAllTracks();
+
+        ExecutorService prefetchExecutor = prefetchCount > 0 ? createExecutor(prefetchCount, "Snapshot prefetch") : null;
+        ExecutorService writeExecutor = createExecutor(writerCount, "Snapshot writer");
+
+        // Bound the number of painted images waiting to be written
+        Semaphore pendingImages = new Semaphore(2 * writerCount);
+
+        List<Future<?>> prefetches = new ArrayList<>(regions.size());
+        List<Future<Boolean>> writes = new ArrayList<>(regions.size());
+        long t0 = System.currentTimeMillis();
+
+        try {
+            for (int i = 0; i < regions.size(); i++) {
+
+                // Keep the next regions loading
+                if (prefetchExecutor != null) {
+                    for (int j = prefetches.size(); j <= Math.min(i + prefetchCount, regions.size() - 1); j++) {
+                        final Region region = regions.get(j);
+                        // Frames are reused,  but not while the region prefetched into them may still be loading
+                        final String frameName = "Snapshot prefetch " + (j % (prefetchCount + 1));
+                        prefetches.add(j == 0 ? null :
+                                prefetchExecutor.submit(() -> prefetch(region, defaultFrame, frameName, tracks)));
+                    }
+                    // Wait for a load in progress,  rather than starting a second one
+                    waitFor(prefetches.get(i));
+                }
+
+                Region region = regions.get(i);
+                igv.goToLocus(region.locus);
+                load(tracks);
+                BufferedImage image = paint(target);
+
+                File file = new File(outputDir, region.fileName);
+                pendingImages.acquire();
+                writes.add(writeExecutor.submit(() -> {
+                    try {
+                        log.debug("Writing image to " + file.getAbsolutePath());
+                        return ImageIO.write(image, "png", file);
+                    } catch (IOException e) {
+                        log.error("Error writing snapshot " + file.getAbsolutePath(), e);
+                        return false;
+                    } finally {
+                        pendingImages.release();
+                    }
+                }));
+            }
+
+            int failed = 0;
+            for (Future<Boolean> write : writes) {
+                if (!Boolean.TRUE.equals(waitFor(write))) {
+                    failed++;
+                }
+            }
+
+            double seconds = (System.currentTimeMillis() - t0) / 1000.0;
+            double perMinute = seconds > 0 ? 60 * (regions.size() - failed) / seconds : 0;
+            String summary = String.format("%d snapshots written to %s in %.1f s (%.1f snapshots per minute)",
+                    regions.size() - failed, outputDir.getAbsolutePath(), seconds, perMinute);
+            log.info(summary);
+            return failed == 0 ? "OK " + summary : "ERROR: " + failed + " snapshots could not be written. " + summary;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR: interrupted";
+        } finally {
+            if (prefetchExecutor != null) {
+                prefetchExecutor.shutdownNow();
+            }
+            writeExecutor.shutdown();
+            // Release data loaded for the prefetch frames
+            IGVEventBus.getInstance().post(new FrameManager.ChangeEvent(FrameManager.getFrames()));
+        }
+    }
+
+    /**
+     * Load the visible tracks that cache loads across frames for a region,  into a reference frame that is not
+     * displayed
+     */
+    private static void prefetch(Region region, ReferenceFrame defaultFrame, String frameName, List<Track> tracks) {
+        Locus locus = Locus.fromString(region.locus);
+        if (locus == null) {
+            return;  // e.g. a feature name,  resolved by goto
+        }
+        ReferenceFrame frame = new ReferenceFrame(defaultFrame, frameName, new IGVEventBus());
+        frame.jumpTo(locus);
+        for (Track track : tracks) {
+            if (track.isVisible() && track.isLoadCachedAcrossFrames() && !track.isReadyToPaint(frame)) {
+                track.load(frame);
+            }
+        }
+    }
+
+    /**
+     * Load the visible tracks for all displayed frames,  as the data panels do before painting in batch mode
+     */
+    private static void load(List<Track> tracks) {
+        for (ReferenceFrame frame : FrameManager.getFrames()) {
+            for (Track track : tracks) {
+                if (track.isVisible() && !track.isReadyToPaint(frame)) {
+                    track.load(frame);
+                }
+            }
+        }
+    }
+
+    private BufferedImage paint(Component target) {
+        try {
+            igv.setExportingSnapshot(true);
+            return SnapshotUtilities.createOffscreenImage(target);
+        } finally {
+            igv.setExportingSnapshot(false);
+        }
+    }
+
+    private static <T> T waitFor(Future<T> future) throws InterruptedException {
+        if (future == null) return null;
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            log.error("Error preparing snapshot", e.getCause());
+            return null;
+        }
+    }
+
+    private static ExecutorService createExecutor(int nThreads, String name) {
+        return Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Parse a region list.  Lines with at least 3 whitespace delimited columns and numeric start and end are read
+     * as BED (0-based start,  optional name in column 4).  Other lines are taken as a locus string or feature name,
+     * as for goto.  Blank lines,  comments,  and track and browser lines are skipped.
+     */
+    static List<Region> parseRegions(String path) throws IOException {
+
+        List<Region> regions = new ArrayList<>();
+        try (BufferedReader reader = ParsingUtils.openBufferedReader(path)) {
+            String nextLine;
+            while ((nextLine = reader.readLine()) != null) {
+                String line = nextLine.trim();
+                if (line.length() == 0 || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] tokens = Globals.whitespacePattern.split(line);
+                Region region = null;
+                if (tokens.length >= 3) {
+                    try {
+                        String chr = tokens[0];
+                        int start = Integer.parseInt(tokens[1].replace(",", ""));
+                        int end = Integer.parseInt(tokens[2].replace(",", ""));
+                        String locus = chr + ":" + (start + 1) + "-" + end;
+                        String name = tokens.length > 3 ? tokens[3] + "_" : "";
+                        region = new Region(locus, name + chr + "_" + start + "_" + end);
+                    } catch (NumberFormatException e) {
+                        // Not BED
+                    }
+                }
+                if (region == null) {
+                    region = new Region(line, line);
+                }
+                regions.add(region);
+            }
+        }
+        return regions;
+    }
+
+    static class Region {
+
+        final String locus;
+        final String fileName;
+
+        Region(String locus, String name) {
+            this.locus = locus;
+            this.fileName = name.replaceAll("[^A-Za-z0-9._-]", "_") + ".png";
+        }
+    }
+}
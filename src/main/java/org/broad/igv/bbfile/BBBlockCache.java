@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.CacheManager;
+import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.ManagedCache;
+import org.broad.igv.util.stream.MappedSeekableStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.broad.igv.prefs.Constants.BB_CACHE_SIZE;
+
+/**
+ * Process-wide cache of decoded bigWig / bigBed index nodes and inflated data and zoom blocks,  shared by all
+ * readers and bounded by the estimated heap size of the entries.  Entries are keyed by file path and file offset,
+ * and evicted in least-recently-used order.  Concurrent requests for an entry that is being read wait for the
+ * single read in progress.
+ * <p>
+ * All file access goes through {@link #read(SeekableStream, long, int)},  which does not depend on the stream
+ * position of other threads,  so queries on one reader can run concurrently.
+ */
+public class BBBlockCache implements ManagedCache {
+
+    private static Logger log = Logger.getLogger(BBBlockCache.class);
+
+    private static final BBBlockCache instance = new BBBlockCache();
+
+    private static final ThreadLocal<CompressionUtils> compressionUtils = ThreadLocal.withInitial(CompressionUtils::new);
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+    private long sizeInBytes = 0;
+    private int hitCount = 0;
+    private int missCount = 0;
+    private long lastAccessTime = 0;
+
+    public static BBBlockCache getInstance() {
+        return instance;
+    }
+
+    private BBBlockCache() {
+        CacheManager.getInstance().register(this, 1);
+    }
+
+    /**
+     * Return the data block at the file offset,  inflated if uncompressBufSize > 0.  Used for bigWig, bigBed,
+     * and zoom level data blocks.
+     */
+    public byte[] getDataBlock(SeekableStream fis, long offset, int size, int uncompressBufSize) {
+        return (byte[]) get(fis.getSource(), offset, () -> {
+            if (uncompressBufSize <= 0) {
+                return read(fis, offset, size);
+            } else if (fis instanceof MappedSeekableStream) {
+                ByteBuffer buffer = ((MappedSeekableStream) fis).getByteBuffer(offset, size);
+                return compressionUtils.get().decompress(buffer, uncompressBufSize);
+            } else {
+                return compressionUtils.get().decompress(read(fis, offset, size), uncompressBufSize);
+            }
+        });
+    }
+
+    /**
+     * Return the R+ tree node at the file offset,  with all of its descendants.
+     */
+    public RPTreeNode getNode(SeekableStream fis, long offset, boolean isLowToHigh) {
+        return (RPTreeNode) get(fis.getSource(), offset,
+                () -> RPTree.readRPTreeNode(fis, offset, isLowToHigh, true));
+    }
+
+    private Object get(String path, long offset, Loader loader) {
+
+        Key key = new Key(path, offset);
+        CompletableFuture<Object> future;
+        boolean owner = false;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCount++;
+                lastAccessTime = System.currentTimeMillis();
+                return entry.value;
+            }
+            missCount++;
+            future = pending.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(key, future);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            Object value = null;
+            try {
+                value = loader.load();
+                future.complete(value);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+                log.error("Error reading block at " + offset + " from " + path, e);
+                throw new RuntimeException("Error reading block at " + offset + " from " + path, e);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    pending.remove(key);
+                    if (value != null) {
+                        put(key, value, estimateSize(value));
+                    }
+                }
+            }
+            return value;
+        } else {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted reading block at " + offset + " from " + path, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            }
+        }
+    }
+
+    private void put(Key key, Object value, long size) {
+        lastAccessTime = System.currentTimeMillis();
+        Entry previous = entries.put(key, new Entry(value, size));
+        if (previous != null) {
+            sizeInBytes -= previous.size;
+        }
+        sizeInBytes += size;
+        evict(getMaxBytes());
+    }
+
+    private void evict(long maxBytes) {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (sizeInBytes > maxBytes && iter.hasNext()) {
+            sizeInBytes -= iter.next().size;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Remove all entries for the file
+     */
+    public synchronized void remove(String path) {
+        Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().path.equals(path)) {
+                sizeInBytes -= e.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    public synchronized boolean contains(String path, long offset) {
+        return entries.containsKey(new Key(path, offset));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeInBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public String getCacheName() {
+        return "bigWig/bigBed blocks";
+    }
+
+    public synchronized long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Evict least recently used entries to free at least the given number of bytes.  Called by the {@link CacheManager}.
+     */
+    public synchronized long trim(long bytes) {
+        long before = sizeInBytes;
+        evict(Math.max(0, sizeInBytes - bytes));
+        return before - sizeInBytes;
+    }
+
+    /**
+     * Read n bytes at the file offset.  Memory mapped streams are read positionally without locking;  other streams
+     * are locked only for the duration of the seek and read.
+     */
+    static byte[] read(SeekableStream fis, long offset, int n) throws IOException {
+        byte[] buffer = new byte[n];
+        if (fis instanceof MappedSeekableStream) {
+            if (((MappedSeekableStream) fis).read(offset, buffer, 0, n) < n) {
+                throw new EOFException("Unexpected end of file reading " + fis.getSource() + " at " + offset);
+            }
+        } else {
+            synchronized (fis) {
+                fis.seek(offset);
+                fis.readFully(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * The cache budget in bytes,  from the bigWig / bigBed cache size preference (MB)
+     */
+    private static long getMaxBytes() {
+        return PreferencesManager.getPreferences().getAsInt(BB_CACHE_SIZE) * 1000000L;
+    }
+
+    /**
+     * Estimate the heap size of a block (its length) or a tree node (its items and their child nodes)
+     */
+    static long estimateSize(Object value) {
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        RPTreeNode node = (RPTreeNode) value;
+        long size = 32;
+        for (int i = 0; i < node.getItemCount(); i++) {
+            RPTreeNodeItem item = node.getItem(i);
+            size += 64;
+            if (item instanceof RPTreeChildNodeItem) {
+                RPTreeNode child = ((RPTreeChildNodeItem) item).getLoadedChildNode();
+                if (child != null) {
+                    size += estimateSize(child);
+                }
+            }
+        }
+        return size;
+    }
+
+    private interface Loader {
+        Object load() throws IOException;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private static class Key {
+        final String path;
+        final long offset;
+
+        Key(String path, long offset) {
+            this.path = path;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return offset == key.offset && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, offset);
+        }
+    }
+}
@@ -27,7 +27,6 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
 import java.io.ByteArrayOutputStream;
@@ -126,7 +125,11 @@ public class BBFileReader {
 
         log.debug("Opening BBFile source  " + path);
 
-        fis = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), 128000);
+        IGVSeekableStreamFactory streamFactory = IGVSeekableStreamFactory.getInstance();
+        fis = streamFactory.getBufferedStream(streamFactory.getMappedStreamFor(path), 128000);
+
+        // Cached blocks from a previous load of this path may be stale if the file has been rewritten
+        BBBlockCache.getInstance().remove(fis.getSource());
 
         // read in file header
         fileOffset = BBFILE_HEADER_OFFSET;
@@ -314,8 +317,8 @@ public class BBFileReader {
      * 1) An empty iterator is returned if region has no data available
      * 2) A null object is returned if the file is not BigBed.(see isBigBedFile method)
      */
-    synchronized public BigBedIterator getBigBedIterator(String startChromosome, int startBase,
-                                                         String endChromosome, int endBase, boolean contained) {
+    public BigBedIterator getBigBedIterator(String startChromosome, int startBase,
+                                            String endChromosome, int endBase, boolean contained) {
 
         if (!isBigBedFile())
             return null;
@@ -356,8 +359,8 @@ public class BBFileReader {
      * 1) An empty iterator is returned if region has no data available
      * 2) A null object is returned if the file is not BigWig.(see isBigWigFile method)
      */
-    synchronized public BigWigIterator getBigWigIterator(String startChromosome, int startBase,
-                                                         String endChromosome, int endBase, boolean contained) {
+    public BigWigIterator getBigWigIterator(String startChromosome, int startBase,
+                                            String endChromosome, int endBase, boolean contained) {
 
 
         if (!isBigWigFile())
@@ -398,8 +401,8 @@ public class BBFileReader {
      * Error conditions:
      * 1) An empty iterator is returned if region has no data available
      */
-    synchronized public ZoomLevelIterator getZoomLevelIterator(int zoomLevel, String startChromosome, int startBase,
-                                                               String endChromosome, int endBase, boolean contained) {
+    public ZoomLevelIterator getZoomLevelIterator(int zoomLevel, String startChromosome, int startBase,
+                                                  String endChromosome, int endBase, boolean contained) {
         // check for valid zoom level
         if (zoomLevel < 1 || zoomLevel > zoomLevelCount)
             throw new RuntimeException("Error: ZoomLevelIterator zoom level is out of range\n");
@@ -436,7 +439,7 @@ public class BBFileReader {
      * Error conditions:
      * 1) An empty iterator is returned if region has no data available
      */
-    synchronized public ZoomLevelIterator getZoomLevelIterator(int zoomLevel) {
+    public ZoomLevelIterator getZoomLevelIterator(int zoomLevel) {
 
         // check for valid zoom level
         if (zoomLevel < 1 || zoomLevel > zoomLevelCount)
@@ -27,7 +27,6 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.LittleEndianInputStream;
 
 import java.io.ByteArrayOutputStream;
@@ -91,27 +90,12 @@ public class BigBedDataBlock {
         this.isLowToHigh = isLowToHigh;
 
         dataBlockSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) dataBlockSize];
 
         fileOffset = this.leafHitItem.getDataOffset();
 
-        // read Bed data block into a buffer
-        try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
-            // decompress if necessary - the buffer size is 0 for uncompressed data
-            // Note:  BBFile Table C specifies a decompression buffer size
-            if (uncompressBufSize > 0)
-                bedBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                bedBuffer = buffer;    // use uncompressed read buffer directly
-
-        } catch (IOException ex) {
-            String error = String.format("Error reading Bed data for leaf item %d \n");
-            log.error(error, ex);
-            throw new RuntimeException(error, ex);
-        }
+        // read the data block,  decompressed if necessary,  through the shared block cache
+        // Note:  BBFile Table C specifies a decompression buffer size,  0 for uncompressed data
+        bedBuffer = BBBlockCache.getInstance().getDataBlock(fis, fileOffset, (int) dataBlockSize, uncompressBufSize);
 
         // wrap the bed buffer as an input stream
         if (this.isLowToHigh)
@@ -552,14 +552,13 @@ public class RPTree {
         LittleEndianInputStream lbdis = null; // low o high byte stream reader
         DataInputStream bdis = null;    // high to low byte stream reader
 
-        byte[] buffer = new byte[RPTREE_NODE_FORMAT_SIZE];
+        byte[] buffer;
         RPTreeNode thisNode = null;
 
         try {
 
-            // Read node format into a buffer
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
+            // Read node format into a buffer.  Reads are positional so nodes can be read concurrently.
+            buffer = BBBlockCache.read(fis, fileOffset, RPTREE_NODE_FORMAT_SIZE);
 
             if (isLowToHigh) {
                 lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
@@ -598,8 +597,7 @@ public class RPTree {
             }
 
             int itemBlockSize = itemCount * itemSize;
-            buffer = new byte[itemBlockSize];            // allocate buffer for item sisze
-            fis.readFully(buffer);
+            buffer = BBBlockCache.read(fis, fileOffset + RPTREE_NODE_FORMAT_SIZE, itemBlockSize);
             if (isLowToHigh)
                 lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
             else
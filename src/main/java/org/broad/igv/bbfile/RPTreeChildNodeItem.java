@@ -71,13 +71,20 @@ public class RPTreeChildNodeItem extends RPTreeNodeItem {
         this.childNodeProxy = childNodeProxy;
     }
 
+    /**
+     * Return the child node.  Nodes behind a proxy (per-chromosome subtrees) are not held by the item,  they are
+     * read on demand through the shared block cache so memory use stays bounded.
+     */
     public RPTreeNode getChildNode() {
 
-        if (childNode == null) {
-            RPTreeNodeProxy proxy = childNodeProxy;
-            childNode = RPTree.readRPTreeNode(proxy.fis, proxy.fileOffset, proxy.isLowToHigh, true);
+        if (childNode != null) {
+            return childNode;
         }
+        RPTreeNodeProxy proxy = childNodeProxy;
+        return BBBlockCache.getInstance().getNode(proxy.fis, proxy.fileOffset, proxy.isLowToHigh);
+    }
 
+    RPTreeNode getLoadedChildNode() {
         return childNode;
     }
 
@@ -86,7 +93,7 @@ public class RPTreeChildNodeItem extends RPTreeNodeItem {
         super.print();
 
         // child node specific entries
-        childNode.printItems();
+        getChildNode().printItems();
     }
 
 }
@@ -27,7 +27,6 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.LittleEndianInputStream;
 
 import java.io.ByteArrayInputStream;
@@ -94,25 +93,10 @@ public class ZoomDataBlock {
 
         fileOffset = this.leafHitItem.getDataOffset();
         dataBlockSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) dataBlockSize];
 
-        // read Bed data block into a buffer
-        try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
-            // decompress if necessary - the buffer size is 0 for uncomressed data
-            // Note:  BBFile Table C specifies a decompression buffer size
-            if (uncompressBufSize > 0)
-                zoomBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                zoomBuffer = buffer;    // use uncompressed read buffer directly
-
-        } catch (IOException ex) {
-            log.error("Error reading Zoom level " + this.zoomLevel + " data for leaf item ",  ex);
-            String error = String.format("Error reading zoom level %d data for leaf item %d\n", this.zoomLevel);
-            throw new RuntimeException(error, ex);
-        }
+        // read the data block,  decompressed if necessary,  through the shared block cache
+        // Note:  BBFile Table C specifies a decompression buffer size,  0 for uncompressed data
+        zoomBuffer = BBBlockCache.getInstance().getDataBlock(fis, fileOffset, (int) dataBlockSize, uncompressBufSize);
 
         // wrap the bed buffer as an input stream
         if (this.isLowToHigh)
@@ -69,7 +69,8 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     // Lookup table to support chromosome aliasing.
     private Map<String, String> chrNameMap = new HashMap();
 
-    private RawDataInterval currentInterval = null;
+    // Most recent raw data query.  getRawData is not synchronized,  BBFileReader queries are thread safe.
+    private volatile RawDataInterval currentInterval = null;
 
     private double dataMin = 0;
     private double dataMax = 100;
@@ -281,15 +282,16 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
 
     @Override
-    protected synchronized DataTile getRawData(String chr, int start, int end) {
+    protected DataTile getRawData(String chr, int start, int end) {
 
         if (chr.equals(Globals.CHR_ALL)) {
             return null;
         }
 
 
-        if (currentInterval != null && currentInterval.contains(chr, start, end)) {
-            return currentInterval.tile;
+        RawDataInterval interval = currentInterval;
+        if (interval != null && interval.contains(chr, start, end)) {
+            return interval.tile;
         }
 
         // TODO -- fetch data directly in arrays to avoid creation of multiple "WigItem" objects?
@@ -35,7 +35,7 @@ import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.tdf.Accumulator;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.panel.FrameManager;
-import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.collections.ManagedLRUCache;
 
 import java.util.*;
 
@@ -57,10 +57,16 @@ public abstract class AbstractDataSource implements DataSource {
     });
     private static Logger log = Logger.getLogger(AbstractDataSource.class);
 
+    /**
+     * Maximum estimated size in bytes of the summary tile cache
+     */
+    private static final long SUMMARY_CACHE_BYTES = 5000000;
+
     // DataManager dataManager;
     boolean cacheSummaryTiles = true;
     protected WindowFunction windowFunction = WindowFunction.mean;
-    LRUCache<String, SummaryTile> summaryTileCache = new LRUCache(10);
+    ManagedLRUCache<String, SummaryTile> summaryTileCache = new ManagedLRUCache<>("Summary tiles", SUMMARY_CACHE_BYTES,
+            (key, tile) -> tile == null ? 64 : tile.estimateSize(), 0.25);
     protected Genome genome;
 
     public AbstractDataSource(Genome genome) {
@@ -197,9 +203,7 @@ public abstract class AbstractDataSource implements DataSource {
                     summaryTile = computeSummaryTile(chr, tileStart, tileEnd, 700);
 
                     if (cacheSummaryTiles && !FrameManager.isGeneListMode()) {
-                        synchronized (summaryTileCache) {
-                            summaryTileCache.put(key, summaryTile);
-                        }
+                        summaryTileCache.put(key, summaryTile);
                     }
                 }
 
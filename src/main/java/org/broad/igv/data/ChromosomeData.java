@@ -83,4 +83,23 @@ public class ChromosomeData {
     public void setProbes(String[] probes) {
         this.probes = probes;
     }
+
+    /**
+     * Estimate the heap size of the data:  the location arrays,  probe names,  and a value array per heading
+     */
+    long estimateSize() {
+        long size = 64;
+        if (startLocations != null) size += 16 + 4L * startLocations.length;
+        if (endLocations != null) size += 16 + 4L * endLocations.length;
+        if (probes != null) {
+            size += 16 + 8L * probes.length;
+            for (String probe : probes) {
+                if (probe != null) size += 48 + 2L * probe.length();
+            }
+        }
+        for (float[] values : data.values()) {
+            size += 64 + (values == null ? 0 : 4L * values.length);
+        }
+        return size;
+    }
 }
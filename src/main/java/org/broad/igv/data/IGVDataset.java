@@ -32,8 +32,8 @@ package org.broad.igv.data;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackProperties;
 import org.broad.igv.track.TrackType;
-import org.broad.igv.util.ObjectCache;
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.collections.ManagedLRUCache;
 
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -44,6 +44,11 @@ import java.util.Map;
  */
 public class IGVDataset implements Dataset {
 
+    /**
+     * Maximum estimated size in bytes of the chromosome data cache
+     */
+    private static final long CHROMOSOME_CACHE_BYTES = 50000000;
+
     private String name;
 
     private TrackType type = TrackType.OTHER;
@@ -53,7 +58,8 @@ public class IGVDataset implements Dataset {
     private Map<String, ChromosomeSummary> chromosomeSummaries = new LinkedHashMap();
     private GenomeSummaryData genomeSummary;
     private IGVDatasetParser parser;
-    private ObjectCache<String, ChromosomeData> chromsomeDataCache = new ObjectCache(30);
+    private ManagedLRUCache<String, ChromosomeData> chromsomeDataCache = new ManagedLRUCache<>("IGV dataset chromosomes",
+            CHROMOSOME_CACHE_BYTES, (chr, cd) -> cd == null ? 64 : cd.estimateSize(), 0.5);
     private float dataMin;
     private float dataMax;
     TrackProperties trackProperties = new TrackProperties();
@@ -79,5 +79,12 @@ public class SummaryTile {
         return summaryScores.isEmpty();
     }
 
+    /**
+     * Estimate the heap size of the tile:  a score object and list slot per score
+     */
+    public long estimateSize() {
+        return 64 + 40L * summaryScores.size();
+    }
+
 
 }
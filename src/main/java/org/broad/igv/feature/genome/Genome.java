@@ -450,6 +450,29 @@ public class Genome {
         return sequence.getSequence(chr, start, end, useCache);
     }
 
+    /**
+     * Copy the sequence for the interval into dest,  starting at off,  without allocating.
+     *
+     * @return the number of bases copied,  0 if there is no sequence
+     * @see Sequence#getSequence(String, int, int, byte[], int)
+     */
+    public int getSequence(String chr, int start, int end, byte[] dest, int off) {
+
+        if (sequence == null) {
+            return 0;
+        }
+
+        Chromosome c = getChromosome(chr);
+        if (c == null) {
+            return 0;
+        }
+        end = Math.min(end, c.getLength());
+        if (end <= start) {
+            return 0;
+        }
+        return sequence.getSequence(chr, start, end, dest, off);
+    }
+
     public boolean sequenceIsRemote() {
         return sequence.isRemote();
     }
@@ -223,6 +223,9 @@ public class GenomeManager {
             } else if (genomePath.endsWith(".json")) {
                 altGenomePath = genomePath;
                 newGenome = loadJsonFile(genomePath);
+            } else if (genomePath.endsWith(".2bit")) {
+                altGenomePath = genomePath;
+                newGenome = loadTwoBitFile(genomePath);
             } else {
 
                 // Assume a fasta file
@@ -401,6 +404,27 @@ public class GenomeManager {
         return newGenome;
     }
 
+    /**
+     * Create a Genome from a UCSC .2bit file.
+     *
+     * @param genomePath
+     * @return
+     * @throws IOException
+     */
+    private Genome loadTwoBitFile(String genomePath) throws IOException {
+
+        GenomeListItem item = genomeListManager.buildItemFromPath(genomePath);
+        if (item == null) {
+            throw new IOException(genomePath + " does not exist, could not load genome");
+        }
+
+        // Sequences in .2bit files are usually sorted by name,  not in karyotype order
+        Sequence sequence = new SequenceWrapper(new TwoBitSequence(genomePath));
+        Genome newGenome = new Genome(item.getId(), item.getDisplayableName(), sequence, false);
+        setCurrentGenome(newGenome);
+        return newGenome;
+    }
+
     private Genome loadJsonFile(String genomePath) throws IOException {
 
         Genome newGenome = null;
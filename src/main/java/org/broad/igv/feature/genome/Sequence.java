@@ -39,6 +39,23 @@ public interface Sequence {
 
     byte[] getSequence(String chr, int start, int end, boolean useCache);
 
+    /**
+     * Copy the sequence for the interval [start, end) into dest,  starting at off,  without allocating a result
+     * array.  Start must be >= 0.
+     *
+     * @return the number of bases copied,  which is less than end - start if the interval extends past the end of
+     * the chromosome,  or 0 if there is no sequence
+     */
+    default int getSequence(String chr, int start, int end, byte[] dest, int off) {
+        byte[] seq = getSequence(chr, start, end, true);
+        if (seq == null) {
+            return 0;
+        }
+        int n = Math.min(seq.length, end - start);
+        System.arraycopy(seq, 0, dest, off, n);
+        return n;
+    }
+
     public byte getBase(String chr, int position);
 
     List<String> getChromosomeNames();
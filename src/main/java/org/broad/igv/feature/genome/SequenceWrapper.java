@@ -31,7 +31,7 @@ package org.broad.igv.feature.genome;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.ui.panel.ReferenceFrame;
-import org.broad.igv.util.ObjectCache;
+import org.broad.igv.util.collections.ManagedLRUCache;
 
 import java.util.Hashtable;
 import java.util.List;
@@ -47,8 +47,14 @@ public class SequenceWrapper implements Sequence  {
     private static boolean cacheSequences = true;
     private static int tileSize = 1000000;
 
+    /**
+     * Maximum estimated size in bytes of the sequence tile cache,  about 50 tiles of the default size
+     */
+    private static final long SEQUENCE_CACHE_BYTES = 50000000;
+
     private Sequence sequence;
-    private ObjectCache<String, SequenceTile> sequenceCache = new ObjectCache<String, SequenceTile>(50);
+    private ManagedLRUCache<String, SequenceTile> sequenceCache = new ManagedLRUCache<>("Sequence tiles",
+            SEQUENCE_CACHE_BYTES, (key, tile) -> 64 + tile.getSize(), 0.5);
 
     public SequenceWrapper(Sequence sequence) {
         this.sequence = sequence;
@@ -125,53 +131,76 @@ public class SequenceWrapper implements Sequence  {
 
         if (cacheSequences && useCache) {
             byte[] seqbytes = new byte[end - start];
+            return copyFromTiles(chr, start, end, seqbytes, 0) < 0 ? null : seqbytes;
+        } else {
+            return sequence.getSequence(chr, start, end, useCache);
+        }
+    }
+
+    /**
+     * Copy the reference dna sequence for the interval into dest,  from the cached tiles.
+     *
+     * @return the number of bases copied
+     */
+    @Override
+    public int getSequence(String chr, int start, int end, byte[] dest, int off) {
+        if (cacheSequences) {
+            return Math.max(0, copyFromTiles(chr, start, end, dest, off));
+        } else {
+            return sequence.getSequence(chr, start, end, dest, off);
+        }
+    }
 
-            int startTile = start / tileSize;
-            int endTile = end / tileSize;
+    /**
+     * @return the number of bytes copied,  or -1 if there is no sequence
+     */
+    private int copyFromTiles(String chr, int start, int end, byte[] dest, int off) {
 
-            SequenceTile[] tiles = getSequenceTiles(chr, startTile, endTile);
+        final int length = end - start;
+        int startTile = start / tileSize;
+        int endTile = end / tileSize;
 
-            // Get first chunk
-            SequenceTile tile = tiles[0];
-            if (tile == null) {
-                return null;   // Can this ever happen?
-            }
+        SequenceTile[] tiles = getSequenceTiles(chr, startTile, endTile);
 
-            byte[] tileBytes = tile.getBytes();
-            if (tileBytes == null) {
-                return null;
-            }
+        // Get first chunk
+        SequenceTile tile = tiles[0];
+        if (tile == null) {
+            return -1;   // Can this ever happen?
+        }
 
-            int fromOffset = start - tile.getStart();
-            int toOffset = 0;
+        byte[] tileBytes = tile.getBytes();
+        if (tileBytes == null) {
+            return -1;
+        }
 
-            // A negative offset means the requested start is < the the first tile start.  This situation can arise at the
-            // left end of chromosomes.  In this case we want to copy the first tile to some offset location in the
-            // destination sequence array.
-            if (fromOffset < 0) {
-                toOffset = -fromOffset;
-                fromOffset = 0;
-            }
+        int fromOffset = start - tile.getStart();
+        int toOffset = 0;
 
-            // # of bytes to copy.  Note that only one of fromOffset or toOffset is non-zero.
-            int nBytes = Math.min(tileBytes.length - Math.abs(fromOffset), seqbytes.length - Math.abs(toOffset));
+        // A negative offset means the requested start is < the the first tile start.  This situation can arise at the
+        // left end of chromosomes.  In this case we want to copy the first tile to some offset location in the
+        // destination sequence array.
+        if (fromOffset < 0) {
+            toOffset = -fromOffset;
+            fromOffset = 0;
+        }
 
-            // Copy first chunk
-            System.arraycopy(tileBytes, fromOffset, seqbytes, toOffset, nBytes);
+        // # of bytes to copy.  Note that only one of fromOffset or toOffset is non-zero.
+        int nBytes = Math.max(0, Math.min(tileBytes.length - Math.abs(fromOffset), length - Math.abs(toOffset)));
 
-            // If multiple chunks ...
-            for (int t = startTile + 1; t <= endTile; t++) {
-                tile = tiles[t - startTile];
-                int nNext = Math.min(seqbytes.length - nBytes, tile.getSize());
+        // Copy first chunk
+        System.arraycopy(tileBytes, fromOffset, dest, off + toOffset, nBytes);
 
-                System.arraycopy(tile.getBytes(), 0, seqbytes, nBytes, nNext);
-                nBytes += nNext;
-            }
+        // If multiple chunks ...
+        for (int t = startTile + 1; t <= endTile; t++) {
+            tile = tiles[t - startTile];
+            if (tile.getBytes() == null) break;
+            int nNext = Math.min(length - nBytes, tile.getSize());
 
-            return seqbytes;
-        } else {
-            return sequence.getSequence(chr, start, end, useCache);
+            System.arraycopy(tile.getBytes(), 0, dest, off + nBytes, nNext);
+            nBytes += nNext;
         }
+
+        return nBytes;
     }
 
 
@@ -1,26 +1,67 @@
 package org.broad.igv.feature.genome;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
 import org.broad.igv.util.FileUtils;
-import org.broad.igv.util.LittleEndianInputStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.MappedSeekableStream;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Implementation of Sequence backed by a UCSC .2bit file.  Bases are packed 4 per byte,  with runs of N and of
+ * soft-masked (lower case) bases stored as block lists per sequence.  See
+ * https://genome.ucsc.edu/goldenPath/help/twoBit.html
+ * <p>
+ * Sequence lengths are read when the file is opened,  the block lists of a sequence on first access.  Queries read
+ * only the packed bytes spanning the interval,  which are unpacked by table lookup,  then overlaid with N and mask
+ * blocks.
+ * <p>
  * Created by jrobinso on 6/13/17.
  */
 public class TwoBitSequence implements Sequence {
 
+    private static Logger log = Logger.getLogger(TwoBitSequence.class);
+
     static int SIGNATURE_LE = 0x1a412743;
     static int SIGNATURE_BE = 0x4327411a;
     static int HEADER_BLOCK_SIZE = 12500;
+    static final int BIN_SHIFT = 12;
+
+    /**
+     * Bases for each packed byte,  4 per byte,  most significant bits first.  T=0, C=1, A=2, G=3
+     */
+    private static final byte[] UNPACK = new byte[256 * 4];
+
+    static {
+        byte[] bases = {'T', 'C', 'A', 'G'};
+        for (int b = 0; b < 256; b++) {
+            for (int k = 0; k < 4; k++) {
+                UNPACK[b * 4 + k] = bases[(b >> (6 - 2 * k)) & 3];
+            }
+        }
+    }
 
     String path;
 
+    private ByteOrder byteOrder;
+    private final List<String> chromosomeNames = new ArrayList<>();
+    private final Map<String, SequenceRecord> records = new HashMap<>();
+
+    /**
+     * Memory mapped stream for local files,  shared by all reads.  Null if the file is remote or not mapped.
+     */
+    private MappedSeekableStream mappedStream;
+    private boolean mappedChecked = false;
+
     public TwoBitSequence(String path) throws IOException {
         this.path = path;
         init();
@@ -31,92 +72,329 @@ public class TwoBitSequence implements Sequence {
     private void init() throws IOException {
 
         SeekableStream is = null;
+        try {
+            is = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+
+            SeekableStream bis = IGVSeekableStreamFactory.getInstance().getBufferedStream(is, HEADER_BLOCK_SIZE);
+            DataInputStream dis = new DataInputStream(bis);
+
+            // The signature is written in the byte order of the file
+            int signature = Integer.reverseBytes(dis.readInt());
+            if (signature == SIGNATURE_LE) {
+                byteOrder = ByteOrder.LITTLE_ENDIAN;
+            } else if (signature == SIGNATURE_BE) {
+                byteOrder = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new IOException("Not a .2bit file: " + path);
+            }
 
-        is = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+            int version = readInt(dis);       // 0, or 1 for 64-bit offsets
+            int seqCount = readInt(dis);
+            readInt(dis);                     // reserved
 
-        SeekableStream bis = IGVSeekableStreamFactory.getInstance().getBufferedStream(is, 1000);
+            List<Long> offsets = new ArrayList<>(seqCount);
+            for (int i = 0; i < seqCount; i++) {
 
-        LittleEndianInputStream lis = new LittleEndianInputStream(bis);
+                int nameSize = dis.readUnsignedByte();
+                byte[] seqNameBytes = new byte[nameSize];
+                dis.readFully(seqNameBytes);
+                chromosomeNames.add(new String(seqNameBytes));
 
-        int signature = lis.readInt();
+                offsets.add(version == 1 ? readLong(dis) : readInt(dis) & 0xffffffffL);
+            }
 
-        boolean littleEndian = SIGNATURE_LE == signature;
-        // TODO -- handle big endian
+            // Sequence sizes are needed to build the genome.  Block lists are read on demand.
+            for (int i = 0; i < seqCount; i++) {
+                long offset = offsets.get(i);
+                bis.seek(offset);
+                int dnaSize = readInt(dis);
+                records.put(chromosomeNames.get(i), new SequenceRecord(offset, dnaSize));
+            }
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+    }
 
-        int version = lis.readInt();   // Should be zero
+    private int readInt(DataInputStream dis) throws IOException {
+        int i = dis.readInt();
+        return byteOrder == ByteOrder.BIG_ENDIAN ? i : Integer.reverseBytes(i);
+    }
 
-        int seqCount = lis.readInt();
+    private long readLong(DataInputStream dis) throws IOException {
+        long l = dis.readLong();
+        return byteOrder == ByteOrder.BIG_ENDIAN ? l : Long.reverseBytes(l);
+    }
 
-        int reserved = lis.readInt();    // Should be zero
+    /**
+     * Return the sequence for the query interval as a byte array.  Coordinates are "ucsc" style (0 based,  end
+     * exclusive).  Soft-masked bases are returned in lower case.
+     */
+    @Override
+    public byte[] getSequence(String chr, int qstart, int qend, boolean useCache) {
 
-        Map<String, Integer> offsets = new LinkedHashMap<>();
+        SequenceRecord record = records.get(chr);
+        if (record == null) {
+            log.info("No .2bit sequence entry for: " + chr);
+            return null;
+        }
 
-        for (int i = 0; i < seqCount; i++) {
+        final int start = Math.max(0, qstart);
+        final int end = Math.min(record.dnaSize, qend);
+        if (start >= end) {
+            return null;
+        }
 
-            byte nameSize = lis.readByte();
+        byte[] seq = new byte[end - start];
+        int n = getSequence(chr, start, end, seq, 0);
+        return n == seq.length ? seq : null;
+    }
+
+    /**
+     * Copy the sequence for the query interval into dest,  starting at off.  Bases are unpacked straight from the
+     * read buffer,  which for local files is a view of the memory mapped file.
+     *
+     * @return the number of bases copied,  or 0 if there is no sequence for the interval
+     */
+    @Override
+    public int getSequence(String chr, int qstart, int qend, byte[] dest, int off) {
+
+        SequenceRecord record = records.get(chr);
+        if (record == null) {
+            log.info("No .2bit sequence entry for: " + chr);
+            return 0;
+        }
+
+        final int start = Math.max(0, qstart);
+        final int end = Math.min(record.dnaSize, qend);
+        if (start >= end) {
+            return 0;
+        }
+
+        try {
+            record.loadBlocks();
 
-            byte[] seqNameBytes = new byte[nameSize];
-            lis.readFully(seqNameBytes);
-            String seqName = new String(seqNameBytes);
+            int firstByte = start >> 2;
+            int lastByte = (end - 1) >> 2;
+            ByteBuffer packed = readBuffer(record.packedPosition + firstByte, lastByte - firstByte + 1);
 
-            int offset = lis.readInt();
+            unpack(packed, start & 3, dest, off, end - start);
 
-            offsets.put(seqName, offset);
+            fill(record.nBlockStarts, record.nBlockSizes, record.nBlockBins, start, end, dest, off, false);
+            fill(record.maskBlockStarts, record.maskBlockSizes, record.maskBlockBins, start, end, dest, off, true);
 
+            return end - start;
+
+        } catch (IOException e) {
+            log.error("Error loading sequence " + chr + ":" + qstart + "-" + qend, e);
+            return 0;
         }
+    }
 
-        for (Integer offset : offsets.values()) {
+    /**
+     * Unpack n bases into dest at off,  starting at base {@code skip} (0-3) of the first packed byte.
+     */
+    static void unpack(ByteBuffer packed, int skip, byte[] dest, int off, int n) {
 
-            bis.seek(offset);
-            int dnaSize = lis.readInt();
+        int i = off;
+        final int iEnd = off + n;
 
-            int nBlockCount = lis.readInt();
-            int [] nBlockStarts = new int[nBlockCount];
-            for(int i=0; i<nBlockCount; i++) {
-                nBlockStarts[i] = lis.readInt();
-            }
-            int [] nBlockSizes = new int[nBlockCount];
-            for(int i=0; i<nBlockCount; i++) {
-                nBlockSizes[i] = lis.readInt();
+        // Partial first byte
+        if (skip > 0) {
+            int idx = (packed.get() & 0xff) << 2;
+            for (int k = skip; k < 4 && i < iEnd; k++) {
+                dest[i++] = UNPACK[idx + k];
             }
+        }
 
-            int maskBlockCount = lis.readInt();
-            int [] maskBlockStarts = new int[maskBlockCount];
-            for(int i=0; i<maskBlockCount; i++) {
-                maskBlockStarts[i] = lis.readInt();
-            }
-            int [] maskBlockSizes = new int[maskBlockCount];
-            for(int i=0; i<maskBlockCount; i++) {
-                maskBlockSizes[i] = lis.readInt();
-            }
+        // Whole bytes
+        final int wholeEnd = iEnd - 3;
+        while (i < wholeEnd) {
+            int idx = (packed.get() & 0xff) << 2;
+            dest[i] = UNPACK[idx];
+            dest[i + 1] = UNPACK[idx + 1];
+            dest[i + 2] = UNPACK[idx + 2];
+            dest[i + 3] = UNPACK[idx + 3];
+            i += 4;
+        }
 
+        // Partial last byte
+        if (i < iEnd) {
+            int idx = (packed.get() & 0xff) << 2;
+            for (int k = 0; i < iEnd; k++) {
+                dest[i++] = UNPACK[idx + k];
+            }
         }
+    }
+
+    /**
+     * Overlay the blocks intersecting [start, end) on dest,  either as N or by lower casing.  Blocks are sorted by
+     * start and do not overlap.  The first candidate is found from the bin index,  see {@link #binIndex}.
+     */
+    static void fill(int[] blockStarts, int[] blockSizes, int[] bins, int start, int end, byte[] dest, int off,
+                     boolean mask) {
 
+        int b = bins[start >> BIN_SHIFT];
+        while (b < blockStarts.length && blockStarts[b] + blockSizes[b] <= start) {
+            b++;
+        }
 
+        final int shift = off - start;
+        for (; b < blockStarts.length && blockStarts[b] < end; b++) {
+            int s = Math.max(start, blockStarts[b]) + shift;
+            int e = Math.min(end, blockStarts[b] + blockSizes[b]) + shift;
+            if (mask) {
+                for (int i = s; i < e; i++) {
+                    dest[i] |= 0x20;
+                }
+            } else {
+                Arrays.fill(dest, s, e, (byte) 'N');
+            }
+        }
     }
 
-    @Override
-    public byte[] getSequence(String chr, int start, int end, boolean useCache) {
-        return new byte[0];
+    /**
+     * Return, for each bin of 2^BIN_SHIFT bases,  the index of the first block ending after the start of the bin.
+     * Draft assemblies can have 100,000s of blocks per sequence,  a binary search over which costs more than
+     * unpacking a short query.
+     */
+    static int[] binIndex(int[] blockStarts, int[] blockSizes, int dnaSize) {
+        int[] bins = new int[(dnaSize >> BIN_SHIFT) + 1];
+        int b = 0;
+        for (int i = 0; i < bins.length; i++) {
+            long binStart = (long) i << BIN_SHIFT;
+            while (b < blockStarts.length && (long) blockStarts[b] + blockSizes[b] <= binStart) {
+                b++;
+            }
+            bins[i] = b;
+        }
+        return bins;
     }
 
     @Override
     public byte getBase(String chr, int position) {
-        return 0;
+        byte[] seq = getSequence(chr, position, position + 1, false);
+        return seq == null ? 0 : seq[0];
     }
 
     @Override
     public List<String> getChromosomeNames() {
-        return null;
+        return chromosomeNames;
     }
 
     @Override
     public int getChromosomeLength(String chrname) {
-        return 0;
+        SequenceRecord record = records.get(chrname);
+        return record == null ? 0 : record.dnaSize;
     }
 
     @Override
     public boolean isRemote() {
         return FileUtils.isRemote(path);
     }
+
+    /**
+     * Read nBytes starting at file position pos
+     */
+    private byte[] readBytes(long pos, int nBytes) throws IOException {
+
+        byte[] bytes = new byte[nBytes];
+        SeekableStream ss = null;
+        try {
+            ss = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+            ss.seek(pos);
+            ss.readFully(bytes);
+            return bytes;
+        } finally {
+            if (ss != null) {
+                ss.close();
+            }
+        }
+    }
+
+    /**
+     * Return a buffer over nBytes starting at file position pos.  For memory mapped files this is a view of the
+     * mapping.
+     */
+    private ByteBuffer readBuffer(long pos, int nBytes) throws IOException {
+        MappedSeekableStream mapped = getMappedStream();
+        ByteBuffer bb = mapped != null ? mapped.getByteBuffer(pos, nBytes) : ByteBuffer.wrap(readBytes(pos, nBytes));
+        return bb.order(byteOrder);
+    }
+
+    private synchronized MappedSeekableStream getMappedStream() throws IOException {
+        if (!mappedChecked) {
+            mappedChecked = true;
+            if (!FileUtils.isRemote(path)) {
+                SeekableStream ss = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+                if (ss instanceof MappedSeekableStream) {
+                    mappedStream = (MappedSeekableStream) ss;
+                } else {
+                    ss.close();
+                }
+            }
+        }
+        return mappedStream;
+    }
+
+    /**
+     * Location and block lists of one sequence.  Layout:  dnaSize, nBlockCount, nBlockStarts, nBlockSizes,
+     * maskBlockCount, maskBlockStarts, maskBlockSizes, reserved, packed bases.
+     */
+    private class SequenceRecord {
+
+        final long offset;
+        final int dnaSize;
+
+        int[] nBlockStarts;
+        int[] nBlockSizes;
+        int[] maskBlockStarts;
+        int[] maskBlockSizes;
+        int[] nBlockBins;
+        int[] maskBlockBins;
+        long packedPosition;
+        volatile boolean loaded;
+
+        SequenceRecord(long offset, int dnaSize) {
+            this.offset = offset;
+            this.dnaSize = dnaSize;
+        }
+
+        void loadBlocks() throws IOException {
+
+            if (loaded) return;
+
+            synchronized (this) {
+                if (loaded) return;
+
+                long pos = offset + 4;
+                int nBlockCount = readBuffer(pos, 4).getInt();
+                pos += 4;
+                ByteBuffer bb = readBuffer(pos, 8 * nBlockCount + 4);
+                nBlockStarts = readInts(bb, nBlockCount);
+                nBlockSizes = readInts(bb, nBlockCount);
+                int maskBlockCount = bb.getInt();
+                pos += 8 * nBlockCount + 4;
+
+                bb = readBuffer(pos, 8 * maskBlockCount + 4);
+                maskBlockStarts = readInts(bb, maskBlockCount);
+                maskBlockSizes = readInts(bb, maskBlockCount);
+                pos += 8 * maskBlockCount + 4;   // includes reserved word
+
+                packedPosition = pos;
+                nBlockBins = binIndex(nBlockStarts, nBlockSizes, dnaSize);
+                maskBlockBins = binIndex(maskBlockStarts, maskBlockSizes, dnaSize);
+                loaded = true;
+            }
+        }
+
+        private int[] readInts(ByteBuffer bb, int n) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = bb.getInt();
+            }
+            return values;
+        }
+    }
 }
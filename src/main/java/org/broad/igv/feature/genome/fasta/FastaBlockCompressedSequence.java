@@ -11,6 +11,7 @@ import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by jrobinso on 6/23/17.
@@ -40,7 +41,7 @@ public class FastaBlockCompressedSequence extends FastaIndexedSequence {
      *
      * @throws IOException
      */
-    protected byte[] readBytes(long posStart, long posEnd) throws IOException {
+    protected ByteBuffer readBuffer(long posStart, long posEnd) throws IOException {
 
         Mapping m1 = findBlockContaining(posStart);
         int d1 = (int) (posStart - m1.uncompressedOffset);
@@ -61,7 +62,7 @@ public class FastaBlockCompressedSequence extends FastaIndexedSequence {
             bis.seek(vp1);
             readFully(bytes, bis);
 
-            return bytes;
+            return ByteBuffer.wrap(bytes);
         } finally {
             if (ss != null) {
                 ss.close();
@@ -31,9 +31,11 @@ import org.broad.igv.feature.genome.Sequence;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.MappedSeekableStream;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,11 +49,24 @@ public class FastaIndexedSequence implements Sequence {
 
     static Logger log = Logger.getLogger(FastaIndexedSequence.class);
 
+    /**
+     * Per-thread buffers for reads of files that are not memory mapped.  Buffers for larger reads,  such as whole
+     * chromosomes for the CRAM reference source,  are not kept.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final ThreadLocal<byte[]> READ_BUFFERS = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
     final FastaIndex index;
     final String path;
 
     private final ArrayList<String> chromoNamesList;
 
+    /**
+     * Memory mapped stream for local files,  shared by all reads.  Null if the file is remote or not mapped.
+     */
+    private MappedSeekableStream mappedStream;
+    private boolean mappedChecked = false;
+
     public FastaIndexedSequence(String path) throws IOException {
         this(path, null);
     }
@@ -99,6 +114,34 @@ public class FastaIndexedSequence implements Sequence {
             return null;
         }
 
+        final int start = Math.max(0, qstart);    // qstart should never be < 0
+        final int end = Math.min((int) idxEntry.getSize(), qend);
+        if (start >= end) {
+            return null;
+        }
+
+        byte[] seq = new byte[end - start];
+        int n = getSequence(chr, start, end, seq, 0);
+        return n == seq.length ? seq : null;
+    }
+
+    /**
+     * Copy the sequence for the query interval into dest,  starting at off.  Bases are copied line by line from the
+     * read buffer,  which for local files is a view of the memory mapped file,  skipping line terminators,  so there
+     * are no intermediate arrays.
+     *
+     * @return the number of bases copied,  or 0 if there is no sequence for the interval
+     */
+    @Override
+    public int getSequence(String chr, int qstart, int qend, byte[] dest, int off) {
+
+        FastaIndex.FastaSequenceIndexEntry idxEntry = index.getIndexEntry(chr);
+
+        if (idxEntry == null) {
+            log.info("No fasta sequence entry for: " + chr);
+            return 0;
+        }
+
         try {
 
             final int start = Math.max(0, qstart);    // qstart should never be < 0
@@ -106,7 +149,7 @@ public class FastaIndexedSequence implements Sequence {
 
             final int bytesPerLine = idxEntry.getBytesPerLine();
             final int basesPerLine = idxEntry.getBasesPerLine();
-            int nEndBytes = bytesPerLine - basesPerLine;
+            final int nEndBytes = bytesPerLine - basesPerLine;
 
             int startLine = start / basesPerLine;
             int endLine = end / basesPerLine;
@@ -115,43 +158,35 @@ public class FastaIndexedSequence implements Sequence {
 
             int offset = start - base0;
             final long position = idxEntry.getPosition();
-            long startByte = position + startLine * bytesPerLine + offset;
+            long startByte = position + (long) startLine * bytesPerLine + offset;
 
             int base1 = endLine * basesPerLine;
             int offset1 = end - base1;
-            long endByte = position + endLine * bytesPerLine + offset1;
+            long endByte = position + (long) endLine * bytesPerLine + offset1;
 
             if (startByte >= endByte) {
-                return null;
-            }
-
-            // Read all the bytes in the range.  This will include endline characters
-            byte[] allBytes = readBytes(startByte, endByte);
-
-            // Create the array for the sequence -- this will be "allBytes" without the endline characters.
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(end - start);
-
-            int srcPos = 0;
-
-            // Copy first line
-            final int allBytesLength = allBytes.length;
-            if (offset > 0) {
-                int nBases = Math.min(end - start, basesPerLine - offset);
-                bos.write(allBytes, srcPos, nBases);
-                srcPos += (nBases + nEndBytes);
+                return 0;
             }
 
-            while (srcPos < allBytesLength) {
-                int nBases = Math.min(basesPerLine, allBytesLength - srcPos);
-                bos.write(allBytes, srcPos, nBases);
-                srcPos += (nBases + nEndBytes);
+            // The range includes endline characters
+            ByteBuffer buffer = readBuffer(startByte, endByte);
+
+            final int nBases = end - start;
+            int nCopied = 0;
+            int lineBases = Math.min(nBases, basesPerLine - offset);
+            while (nCopied < nBases) {
+                buffer.get(dest, off + nCopied, lineBases);
+                nCopied += lineBases;
+                lineBases = Math.min(basesPerLine, nBases - nCopied);
+                if (lineBases > 0) {
+                    buffer.position(buffer.position() + nEndBytes);
+                }
             }
-
-            return bos.toByteArray();
+            return nCopied;
 
         } catch (IOException e) {
             log.error("Error loading sequence " + chr + ":" + qstart + "-" + qend, e);
-            return null;
+            return 0;
         }
     }
 
@@ -163,20 +198,40 @@ public class FastaIndexedSequence implements Sequence {
 
 
     /**
-     * Read the bytes between file position posStart and posEnd
+     * Return a buffer over the bytes between file position posStart and posEnd.  For memory mapped files this is a
+     * view of the mapping,  otherwise the bytes are read into a per-thread buffer,  which is valid until the next
+     * read on the same thread.
      *
      * @throws IOException
      */
-    protected byte[] readBytes(long posStart, long posEnd) throws IOException {
+    protected ByteBuffer readBuffer(long posStart, long posEnd) throws IOException {
+
+        int nBytes = (int) (posEnd - posStart);
+        MappedSeekableStream mapped = getMappedStream();
+        if (mapped != null) {
+            return mapped.getByteBuffer(posStart, nBytes);
+        }
+
+        byte[] bytes = READ_BUFFERS.get();
+        if (bytes.length < nBytes) {
+            bytes = new byte[nBytes];
+            if (nBytes <= MAX_POOLED_BUFFER_SIZE) {
+                READ_BUFFERS.set(bytes);
+            }
+        }
 
         SeekableStream ss = null;
         try {
             ss = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
-            int nBytes = (int) (posEnd - posStart);
-            byte[] bytes = new byte[nBytes];
             ss.seek(posStart);
-            ss.readFully(bytes);
-            return bytes;
+            for (int n = 0; n < nBytes; ) {
+                int count = ss.read(bytes, n, nBytes - n);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                n += count;
+            }
+            return ByteBuffer.wrap(bytes, 0, nBytes);
         } finally {
             if (ss != null) {
                 ss.close();
@@ -184,6 +239,25 @@ public class FastaIndexedSequence implements Sequence {
         }
     }
 
+    /**
+     * Open the memory mapped stream for a local file on first use.  Mapping is cheap,  but there is no need to
+     * repeat it for every query.
+     */
+    private synchronized MappedSeekableStream getMappedStream() throws IOException {
+        if (!mappedChecked) {
+            mappedChecked = true;
+            if (!FileUtils.isRemote(path)) {
+                SeekableStream ss = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+                if (ss instanceof MappedSeekableStream) {
+                    mappedStream = (MappedSeekableStream) ss;
+                } else {
+                    ss.close();
+                }
+            }
+        }
+        return mappedStream;
+    }
+
     @Override
     public List<String> getChromosomeNames() {
         return chromoNamesList;
@@ -28,6 +28,7 @@ package org.broad.igv.feature.tribble;
 import htsjdk.samtools.util.LocationAware;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.variant.vcf.GenotypeCalls;
 import org.broad.igv.variant.vcf.VCFVariant;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.FeatureCodec;
@@ -36,6 +37,7 @@ import htsjdk.tribble.readers.AsciiLineReader;
 import htsjdk.tribble.readers.AsciiLineReaderIterator;
 import htsjdk.tribble.readers.PositionalBufferedStream;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,6 +52,7 @@ public class BCF2WrapperCodec implements FeatureCodec<VCFVariant, PositionalBuff
 
     FeatureCodec<VariantContext, PositionalBufferedStream> wrappedCodec;
     Genome genome;
+    GenotypeCalls genotypeCalls;
 
     public BCF2WrapperCodec(FeatureCodec<VariantContext, PositionalBufferedStream> wrappedCodec, Genome genome) {
         this.wrappedCodec = wrappedCodec;
@@ -63,7 +66,11 @@ public class BCF2WrapperCodec implements FeatureCodec<VCFVariant, PositionalBuff
             return null;
         }
         String chr = genome == null ? vc.getChr() : genome.getCanonicalChrName(vc.getChr());
-        return new VCFVariant(vc, chr);
+        if (genotypeCalls == null) {
+            return new VCFVariant(vc, chr);
+        } else {
+            return new VCFVariant(vc, chr, genotypeCalls, genotypeCalls.decode(vc));
+        }
 
     }
 
@@ -74,7 +81,11 @@ public class BCF2WrapperCodec implements FeatureCodec<VCFVariant, PositionalBuff
 
     @Override
     public FeatureCodecHeader readHeader(PositionalBufferedStream stream) throws IOException {
-        return this.wrappedCodec.readHeader(stream);
+        FeatureCodecHeader header = this.wrappedCodec.readHeader(stream);
+        if (header != null && header.getHeaderValue() instanceof VCFHeader) {
+            genotypeCalls = new GenotypeCalls((VCFHeader) header.getHeaderValue());
+        }
+        return header;
     }
 
     @Override
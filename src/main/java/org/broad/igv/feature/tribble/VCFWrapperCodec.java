@@ -28,13 +28,17 @@ package org.broad.igv.feature.tribble;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.variant.Variant;
+import org.broad.igv.variant.vcf.GenotypeCalls;
 import org.broad.igv.variant.vcf.VCFVariant;
 import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.IOException;
+import java.util.Collections;
 
 /**
  * @author Jim Robinson
@@ -47,6 +51,17 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
     AsciiFeatureCodec wrappedCodec;
     Genome genome;
 
+    /**
+     * Codec for the site columns only,  used when genotypes are decoded lazily.  See readActualHeader.
+     */
+    AbstractVCFCodec sitesCodec;
+
+    /**
+     * Codec for record lines with a single sample column,  used to decode the genotype of one sample on request.
+     */
+    AbstractVCFCodec sampleCodec;
+    GenotypeCalls genotypeCalls;
+
     public VCFWrapperCodec(AsciiFeatureCodec wrappedCodec, Genome genome) {
         super(VCFVariant.class);
         this.wrappedCodec = wrappedCodec;
@@ -60,36 +75,97 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
 
     @Override
     public VCFVariant decode(String line) {
+
+        if (genotypeCalls != null) {
+            // Decode the site columns, and the GT field of each sample.  Other genotype fields are parsed
+            // on request from the retained genotype columns.
+            int sitesEnd = GenotypeCalls.getSitesEnd(line);
+            VariantContext vc = decode(sitesCodec, sitesEnd < 0 ? line : line.substring(0, sitesEnd));
+            if (vc == null) {
+                return null;
+            }
+            String chr = genome == null ? vc.getChr() : genome.getCanonicalChrName(vc.getChr());
+            return new VCFVariant(vc, chr, genotypeCalls, genotypeCalls.decode(line),
+                    sitesEnd < 0 ? null : line.substring(sitesEnd + 1));
+        }
+
+        VariantContext vc = decode(wrappedCodec, line);
+        if (vc == null) {
+            return null;
+        }
+        String chr = genome == null ? vc.getChr() : genome.getCanonicalChrName(vc.getChr());
+        return new VCFVariant(vc, chr);
+
+    }
+
+    private VariantContext decode(AsciiFeatureCodec codec, String line) {
         // VCFCodec supports completely missing fields (which would simply have a ".")
         // but does not currently support missing only certain elements of a field.
         // IGV is much more permissive.
 
         VariantContext vc = null;
         try {
-            vc = (VariantContext) wrappedCodec.decode(line);
+            vc = (VariantContext) codec.decode(line);
             //The genotype fields are loaded lazily, we force parsing here to
             //catch the exception if necessary
-            if (vc != null) vc.getSampleNames();
+            if (vc != null && codec != sitesCodec) vc.getSampleNames();
         } catch (NumberFormatException e) {
             String msg = String.format("NumberFormatException on line: %s \n Attempting to reformat by replacing ,., with ,0,", line);
             log.warn(msg);
             String refLine = line.replaceAll(",\\.", ",0");
             refLine = refLine.replaceAll("\\.,", "0,");
-            vc = (VariantContext) wrappedCodec.decode(refLine);
+            vc = (VariantContext) codec.decode(refLine);
         }
+        return vc;
+    }
 
-
-        if (vc == null) {
-            return null;
+    /**
+     * Fully decode a record line,  including all genotype fields.  Called when all genotypes of a lazily
+     * decoded variant are requested.
+     */
+    private VariantContext decodeGenotypes(String line) {
+        synchronized (wrappedCodec) {
+            return decode(wrappedCodec, line);
         }
-        String chr = genome == null ? vc.getChr() : genome.getCanonicalChrName(vc.getChr());
-        return new VCFVariant(vc, chr);
+    }
 
+    /**
+     * Decode a record line with a single sample column.  Called when the genotype of one sample of a lazily
+     * decoded variant is requested.
+     */
+    private VariantContext decodeSample(String line) {
+        synchronized (sampleCodec) {
+            return decode(sampleCodec, line);
+        }
     }
 
+    /**
+     * Read the header.  If the file has samples the record lines are decoded in two parts, site columns by a
+     * second codec set up with a sample-free copy of the header, and GT calls by {@link GenotypeCalls}.  This
+     * avoids parsing every genotype of every record,  which htsjdk does whenever the header samples are not sorted.
+     * A third codec,  with a single sample header,  decodes the genotype of one sample on request.
+     */
     @Override
     public Object readActualHeader(LineIterator reader) {
-        return wrappedCodec.readActualHeader(reader);
+        Object header = wrappedCodec.readActualHeader(reader);
+        if (header instanceof VCFHeader && ((VCFHeader) header).hasGenotypingData() &&
+                wrappedCodec instanceof AbstractVCFCodec) {
+            try {
+                AbstractVCFCodec vcfCodec = (AbstractVCFCodec) wrappedCodec;
+                sitesCodec = vcfCodec.getClass().getDeclaredConstructor().newInstance();
+                sitesCodec.setVCFHeader(new VCFHeader(((VCFHeader) header).getMetaDataInInputOrder()), vcfCodec.getVersion());
+                sampleCodec = vcfCodec.getClass().getDeclaredConstructor().newInstance();
+                sampleCodec.setVCFHeader(new VCFHeader(((VCFHeader) header).getMetaDataInInputOrder(),
+                        Collections.singleton(((VCFHeader) header).getGenotypeSamples().get(0))), vcfCodec.getVersion());
+                genotypeCalls = new GenotypeCalls((VCFHeader) header, this::decodeGenotypes, this::decodeSample);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Genotypes will be decoded with sites: " + e.getMessage());
+                sitesCodec = null;
+                sampleCodec = null;
+                genotypeCalls = null;
+            }
+        }
+        return header;
     }
 
     /**
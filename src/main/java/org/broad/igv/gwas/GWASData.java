@@ -53,6 +53,7 @@ public class GWASData {
     private DescriptionCache descriptionCache = new DescriptionCache();
     private IntArrayList fileIndex = new IntArrayList(100);
     private double maxValue = 0;
+    private GWASSummary summary;
 
     public DescriptionCache getDescriptionCache() {
         return descriptionCache;
@@ -67,6 +68,18 @@ public class GWASData {
         return maxValue;
     }
 
+    /**
+     * Return the multi-resolution summary of the data points, built on first use.
+     *
+     * @return
+     */
+    public synchronized GWASSummary getSummary() {
+        if (summary == null) {
+            summary = new GWASSummary(this);
+        }
+        return summary;
+    }
+
 
     /**
      * Count cumulative index for chromosomes before given chromosome.
@@ -197,6 +197,9 @@ public class GWASParser {
 
                 lastEntry = entry;
             }
+
+            // Build the zoomed out summary now rather than on the first paint
+            gData.getSummary();
             return gData;
 
         } catch (Exception e) {
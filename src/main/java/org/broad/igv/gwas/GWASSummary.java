@@ -0,0 +1,262 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.gwas;
+
+import org.broad.igv.util.collections.DoubleArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-resolution summary of a GWAS data set, used to render zoomed out views without visiting every point.
+ * <p/>
+ * For each chromosome the points are binned at {@link #MIN_BIN_SIZE} bp, and each coarser level merges
+ * {@link #BIN_FACTOR} bins of the previous one.  A bin records the number of points it covers, their minimum value,
+ * and the indexes of its {@link #TOP_K} highest (most significant) points.  Only non-empty bins are stored.
+ */
+public class GWASSummary {
+
+    /**
+     * Number of most significant points kept per bin
+     */
+    public static final int TOP_K = 4;
+
+    /**
+     * Bin size of the finest level, in bp.  Views with fewer bp per pixel draw the raw points.
+     */
+    public static final int MIN_BIN_SIZE = 10000;
+
+    static final int BIN_FACTOR = 4;
+
+    // Levels per chromosome, finest first
+    private Map<String, List<Level>> levels = new LinkedHashMap<>();
+
+    public GWASSummary(GWASData data) {
+        for (String chr : data.getLocations().keySet()) {
+            IntArrayList locations = data.getLocations().get(chr);
+            DoubleArrayList values = data.getValues().get(chr);
+            if (values == null) continue;
+
+            List<Level> chrLevels = new ArrayList<>();
+            Level level = summarize(locations, values);
+            chrLevels.add(level);
+            while (level.getBinCount() > 1 && level.binSize <= Integer.MAX_VALUE / BIN_FACTOR) {
+                level = merge(level, values);
+                chrLevels.add(level);
+            }
+            levels.put(chr, chrLevels);
+        }
+    }
+
+    /**
+     * Return the coarsest level whose bins are no larger than {@code bpPerPixel}, or null if the view is zoomed
+     * in far enough that the raw points should be drawn.
+     */
+    public Level getLevel(String chr, double bpPerPixel) {
+        List<Level> chrLevels = levels.get(chr);
+        if (chrLevels == null || bpPerPixel < MIN_BIN_SIZE) {
+            return null;
+        }
+        Level level = chrLevels.get(0);
+        for (Level l : chrLevels) {
+            if (l.binSize > bpPerPixel) break;
+            level = l;
+        }
+        return level;
+    }
+
+    List<Level> getLevels(String chr) {
+        return levels.get(chr);
+    }
+
+    private static Level summarize(IntArrayList locations, DoubleArrayList values) {
+        LevelBuilder builder = new LevelBuilder(MIN_BIN_SIZE);
+        int size = Math.min(locations.size(), values.size());
+        for (int i = 0; i < size; i++) {
+            double value = values.get(i);
+            if (Double.isNaN(value)) continue;
+            builder.startBin(Math.floorDiv(locations.get(i), MIN_BIN_SIZE));
+            builder.addCount(1, value);
+            builder.addPoint(i, value);
+        }
+        return builder.build();
+    }
+
+    private static Level merge(Level child, DoubleArrayList values) {
+        LevelBuilder builder = new LevelBuilder(child.binSize * BIN_FACTOR);
+        for (int b = 0; b < child.getBinCount(); b++) {
+            builder.startBin(Math.floorDiv(child.bins[b], BIN_FACTOR));
+            builder.addCount(child.counts[b], child.minValues[b]);
+            // The top points of a bin are among the top points of its children
+            for (int t = 0; t < TOP_K; t++) {
+                int index = child.getPoint(b, t);
+                if (index < 0) break;
+                builder.addPoint(index, values.get(index));
+            }
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * One resolution level of a chromosome.  Bins are ordered by position, and the top points of each bin are
+     * ordered by index, and therefore by location.
+     */
+    public static class Level {
+
+        final int binSize;
+        final int[] bins;
+        final int[] counts;
+        final double[] minValues;
+        final int[] top;
+
+        Level(int binSize, int[] bins, int[] counts, double[] minValues, int[] top) {
+            this.binSize = binSize;
+            this.bins = bins;
+            this.counts = counts;
+            this.minValues = minValues;
+            this.top = top;
+        }
+
+        public int getBinSize() {
+            return binSize;
+        }
+
+        public int getBinCount() {
+            return bins.length;
+        }
+
+        public long getBinStart(int b) {
+            return (long) bins[b] * binSize;
+        }
+
+        public int getCount(int b) {
+            return counts[b];
+        }
+
+        public double getMinValue(int b) {
+            return minValues[b];
+        }
+
+        /**
+         * Return the data index of the t-th top point of bin b, or -1 if the bin has no more than t points.
+         */
+        public int getPoint(int b, int t) {
+            return top[b * TOP_K + t];
+        }
+
+        /**
+         * Return the index of the first bin ending after the given position.
+         */
+        public int findBin(long position) {
+            long bin = Math.floorDiv(position, binSize);
+            int low = 0;
+            int high = bins.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bins[mid] < bin) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+
+    private static class LevelBuilder {
+
+        private final int binSize;
+        private final IntArrayList bins = new IntArrayList();
+        private final IntArrayList counts = new IntArrayList();
+        private final DoubleArrayList minValues = new DoubleArrayList();
+        private final IntArrayList top = new IntArrayList();
+
+        // Current bin, top points are kept in descending order of value
+        private int bin = Integer.MIN_VALUE;
+        private int count;
+        private double minValue;
+        private final int[] topIndexes = new int[TOP_K];
+        private final double[] topValues = new double[TOP_K];
+        private int topCount;
+
+        LevelBuilder(int binSize) {
+            this.binSize = binSize;
+        }
+
+        void startBin(int bin) {
+            if (bin != this.bin) {
+                flush();
+                this.bin = bin;
+                count = 0;
+                minValue = Double.MAX_VALUE;
+                topCount = 0;
+            }
+        }
+
+        void addCount(int n, double min) {
+            count += n;
+            minValue = Math.min(minValue, min);
+        }
+
+        void addPoint(int index, double value) {
+            int pos = topCount;
+            while (pos > 0 && topValues[pos - 1] < value) {
+                pos--;
+            }
+            if (pos == TOP_K) return;
+            int last = Math.min(topCount, TOP_K - 1);
+            System.arraycopy(topIndexes, pos, topIndexes, pos + 1, last - pos);
+            System.arraycopy(topValues, pos, topValues, pos + 1, last - pos);
+            topIndexes[pos] = index;
+            topValues[pos] = value;
+            topCount = last + 1;
+        }
+
+        private void flush() {
+            if (bin == Integer.MIN_VALUE) return;
+            bins.add(bin);
+            counts.add(count);
+            minValues.add(minValue);
+            int[] sorted = Arrays.copyOf(topIndexes, topCount);
+            Arrays.sort(sorted);
+            for (int t = 0; t < TOP_K; t++) {
+                top.add(t < topCount ? sorted[t] : -1);
+            }
+        }
+
+        Level build() {
+            flush();
+            bin = Integer.MIN_VALUE;
+            return new Level(binSize, bins.toArray(), counts.toArray(), minValues.toArray(), top.toArray());
+        }
+    }
+}
@@ -156,12 +156,8 @@ public class GWASTrack extends AbstractTrack {
         Rectangle adjustedRect = calculateDrawingRect(arect);
         double adjustedRectMaxX = adjustedRect.getMaxX();
         double adjustedRectMaxY = adjustedRect.getMaxY();
-        double adjustedRectY = adjustedRect.getY();
         this.maxY = adjustedRectMaxY;
         this.scale = context.getScale();
-        int bufferX = (int) adjustedRectMaxX;
-        int bufferY = (int) adjustedRectMaxY;
-        Color[][] drawBuffer = new Color[bufferX + 1][bufferY + 1];
         double origin = context.getOrigin();
         double locScale = context.getScale();
 
@@ -177,8 +173,9 @@ public class GWASTrack extends AbstractTrack {
 
         //int lastPx = 0;
         String chrName = context.getChr();
+        boolean wholeGenome = chrName.equals("All");
         ArrayList<String> chrList = new ArrayList();
-        if (chrName.equals("All")) {
+        if (wholeGenome) {
             for (String key : gData.getLocations().keySet()) {
                 chrList.add(key);
             }
@@ -192,11 +189,22 @@ public class GWASTrack extends AbstractTrack {
 
         double pointSizeScale = rangeMaxValue / maxPointSize;
 
+        // Genome coordinates of the whole genome view are in kb
+        double bpPerPixel = wholeGenome ? locScale * 1000 : locScale;
+
         Color drawColor = this.primaryColor;
         Object[] chrs = this.gData.getLocations().keySet().toArray();
 
         int xMinPointSize = (int) (1 / locScale);
 
+        // If x minimum size is smaller than point minimum size, use minimum point size
+        if (xMinPointSize < minPointSize)
+            xMinPointSize = minPointSize;
+
+        PointBuffer drawBuffer = new PointBuffer(adjustedRect, maxValue, yScaleFactor, pointSizeScale,
+                minPointSize, xMinPointSize);
+        GWASSummary summary = this.gData.getSummary();
+
         // Loop through data points, chromosome by chromosome
 
         for (String chr : chrList) {
@@ -227,84 +235,54 @@ public class GWASTrack extends AbstractTrack {
 
                 int size = locations.size();
 
-                // Loop through data points in a chromosome
-                for (int j = 0; j < size; j++) {
+                // Origin of the view in chromosome coordinates
+                double chrOrigin = wholeGenome ? origin * 1000 - genome.getCumulativeOffset(chr) : origin;
+                double startLocation = chrOrigin - dx * bpPerPixel;
 
-                    // Get location, e.g. start for the data point
-                    int start;
-                    if (chrName.equals("All"))
-                        start = genome.getGenomeCoordinate(chr, locations.get(j));
-                    else
-                        start = locations.get(j);
-
-                    // Based on location, calculate X-coordinate, or break if outside of the view
-                    double pX = ((start - origin) / locScale);
-                    if ((pX + dx < 0))
-                        continue;
-                    else if (pX > adjustedRectMaxX)
-                        break;
-
-                    // Based on value of the data point, calculate Y-coordinate
-                    double dataY = values.get(j);
-
-                    if (!Double.isNaN(dataY)) {
-
-                        int xPointSize = (int) Math.ceil(dataY / pointSizeScale);
-
-                        // Scale y size based on the used range, data value and max point size
-                        int yPointSize = xPointSize;
-                        if (yPointSize < minPointSize)
-                            yPointSize = minPointSize;
-
-                        // If x minimum size is smaller than point minimum size, use minimum point size
-                        if (xMinPointSize < minPointSize)
-                            xMinPointSize = minPointSize;
-
-                        if (xPointSize < xMinPointSize)
-                            xPointSize = xMinPointSize;
-
-                        // Point sizes divided by two to center locations of large points
-                        int x = (int) pX - (xPointSize / 2);
-                        int y = ((int) Math.min(adjustedRectMaxY, adjustedRectY + (maxValue - dataY) * yScaleFactor)) - (yPointSize / 2);
-
-                        int maxDrawX = x + xPointSize;
-                        int maxDrawY = y + yPointSize;
-                        if (x < 0)
-                            x = 0;
-                        if (y < 0)
-                            y = 0;
-
-                        if (maxDrawX > adjustedRectMaxX)
-                            maxDrawX = (int) adjustedRectMaxX;
-                        if (maxDrawY > adjustedRectMaxY)
-                            maxDrawY = (int) adjustedRectMaxY;
-
-                        // Loop through all the pixels of the data point and fill in drawing buffer
-                        for (int drawX = x; drawX < maxDrawX; drawX++)
-                            for (int drawY = y; drawY < maxDrawY; drawY++)
-                                drawBuffer[drawX][drawY] = drawColor;
-                    }
-                }
-            }
-        }
+                GWASSummary.Level level = summary.getLevel(chr, bpPerPixel);
+                if (level == null) {
 
-        // Draw the pixels from the drawing buffer to the canvas
+                    // Zoomed in, loop through the data points in view
+                    for (int j = findFirstIndex(locations, startLocation); j < size; j++) {
 
-        Graphics2D g = context.getGraphics();
-        Color color;
-        Color prevColor = null;
+                        // Based on location, calculate X-coordinate, or break if outside of the view
+                        double pX = (locations.get(j) - chrOrigin) / bpPerPixel;
+                        if (pX > adjustedRectMaxX)
+                            break;
 
-        for (int x = 0; x < bufferX; x++)
-            for (int y = 0; y < bufferY; y++) {
-                color = drawBuffer[x][y];
-                if (color != null) {
-                    if (!color.equals(prevColor)) {
-                        g.setColor(color);
-                        prevColor = color;
+                        drawBuffer.drawPoint(pX, values.get(j), drawColor);
+                    }
+                } else {
+
+                    // Zoomed out, draw only the most significant points of each bin, and a bar spanning the
+                    // values of the remaining ones
+                    for (int b = level.findBin((long) startLocation); b < level.getBinCount(); b++) {
+
+                        double binX = (level.getBinStart(b) - chrOrigin) / bpPerPixel;
+                        if (binX > adjustedRectMaxX)
+                            break;
+
+                        double minTopValue = Double.MAX_VALUE;
+                        for (int t = 0; t < GWASSummary.TOP_K; t++) {
+                            int j = level.getPoint(b, t);
+                            if (j < 0)
+                                break;
+                            double dataY = values.get(j);
+                            drawBuffer.drawPoint((locations.get(j) - chrOrigin) / bpPerPixel, dataY, drawColor);
+                            minTopValue = Math.min(minTopValue, dataY);
+                        }
+
+                        if (level.getCount(b) > GWASSummary.TOP_K) {
+                            double binCenterX = binX + level.getBinSize() / (2 * bpPerPixel);
+                            drawBuffer.drawRange(binCenterX, level.getMinValue(b), minTopValue, drawColor);
+                        }
                     }
-                    g.fillRect(x, y, 1, 1);
                 }
             }
+        }
+
+        // Draw the pixels from the drawing buffer to the canvas
+        drawBuffer.paint(context.getGraphics());
 
         // Draw the legend axis
         if (showAxis) {
@@ -313,6 +291,23 @@ public class GWASTrack extends AbstractTrack {
 
     }
 
+    /**
+     * Return the index of the first location >= the given location.  Locations are sorted.
+     */
+    static int findFirstIndex(IntArrayList locations, double location) {
+        int low = 0;
+        int high = locations.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (locations.get(mid) < location) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
 
     void renderAxis(RenderContext context, Rectangle arect) {
 
@@ -823,4 +818,109 @@ public class GWASTrack extends AbstractTrack {
             secondaryColor = ColorUtilities.stringToColor(element.getAttribute("secondaryColor"));
         }
     }
+
+
+    /**
+     * Pixel buffer for the data points of a paint.  Overlapping points are drawn once.
+     */
+    private static class PointBuffer {
+
+        private final Color[][] pixels;
+        private final double maxX;
+        private final double maxY;
+        private final double minY;
+        private final double maxValue;
+        private final double yScaleFactor;
+        private final double pointSizeScale;
+        private final int minPointSize;
+        private final int xMinPointSize;
+
+        PointBuffer(Rectangle rect, double maxValue, double yScaleFactor, double pointSizeScale,
+                    int minPointSize, int xMinPointSize) {
+            this.maxX = rect.getMaxX();
+            this.maxY = rect.getMaxY();
+            this.minY = rect.getY();
+            this.pixels = new Color[(int) maxX + 1][(int) maxY + 1];
+            this.maxValue = maxValue;
+            this.yScaleFactor = yScaleFactor;
+            this.pointSizeScale = pointSizeScale;
+            this.minPointSize = minPointSize;
+            this.xMinPointSize = xMinPointSize;
+        }
+
+        void drawPoint(double pX, double dataY, Color color) {
+
+            if (Double.isNaN(dataY)) return;
+
+            int xPointSize = (int) Math.ceil(dataY / pointSizeScale);
+
+            // Scale y size based on the used range, data value and max point size
+            int yPointSize = xPointSize;
+            if (yPointSize < minPointSize)
+                yPointSize = minPointSize;
+
+            if (xPointSize < xMinPointSize)
+                xPointSize = xMinPointSize;
+
+            // Point sizes divided by two to center locations of large points
+            int x = (int) pX - (xPointSize / 2);
+            int y = getY(dataY) - (yPointSize / 2);
+
+            fill(x, y, x + xPointSize, y + yPointSize, color);
+        }
+
+        /**
+         * Draw a bar of minimum size points covering the values from {@code low} to {@code high}.
+         */
+        void drawRange(double pX, double low, double high, Color color) {
+
+            int x = (int) pX - (minPointSize / 2);
+            int y = getY(high) - (minPointSize / 2);
+            int maxDrawY = getY(low) - (minPointSize / 2) + minPointSize;
+
+            fill(x, y, x + minPointSize, maxDrawY, color);
+        }
+
+        private int getY(double dataY) {
+            return (int) Math.min(maxY, minY + (maxValue - dataY) * yScaleFactor);
+        }
+
+        private void fill(int x, int y, int maxDrawX, int maxDrawY, Color color) {
+
+            if (x < 0)
+                x = 0;
+            if (y < 0)
+                y = 0;
+
+            if (maxDrawX > maxX)
+                maxDrawX = (int) maxX;
+            if (maxDrawY > maxY)
+                maxDrawY = (int) maxY;
+
+            // Loop through all the pixels of the data point and fill in drawing buffer
+            for (int drawX = x; drawX < maxDrawX; drawX++)
+                for (int drawY = y; drawY < maxDrawY; drawY++)
+                    pixels[drawX][drawY] = color;
+        }
+
+        void paint(Graphics2D g) {
+
+            int bufferX = (int) maxX;
+            int bufferY = (int) maxY;
+            Color color;
+            Color prevColor = null;
+
+            for (int x = 0; x < bufferX; x++)
+                for (int y = 0; y < bufferY; y++) {
+                    color = pixels[x][y];
+                    if (color != null) {
+                        if (!color.equals(prevColor)) {
+                            g.setColor(color);
+                            prevColor = color;
+                        }
+                        g.fillRect(x, y, 1, 1);
+                    }
+                }
+        }
+    }
 }
@@ -26,7 +26,7 @@
 package org.broad.igv.methyl;
 
 import org.apache.log4j.Logger;
-import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.collections.ManagedLRUCache;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -40,10 +40,23 @@ public class CachingMethylSource implements MethylDataSource {
 
     private static Logger log = Logger.getLogger(CachingMethylSource.class);
     private static int DEFAULT_TILE_COUNT = 4;
+
+    /**
+     * Estimated heap size of a score,  and of a bin's cache entry without its scores
+     */
+    private static final long SCORE_SIZE = 48;
+    private static final long BIN_SIZE = 64;
+
+    /**
+     * Maximum estimated size in bytes of the cache for whole chromosome bins
+     */
+    private static final long CHROMOSOME_CACHE_BYTES = 50000000;
+
+    private int tileCount;
     private int binSize;
 
     MethylDataSource reader;
-    LRUCache<String, Bin> cache;
+    ManagedLRUCache<String, Bin> cache;
 
 
     public CachingMethylSource(MethylDataSource reader, int binSize) {
@@ -53,8 +66,16 @@ public class CachingMethylSource implements MethylDataSource {
 
     public CachingMethylSource(MethylDataSource reader, int tileCount, int binSize) {
         this.reader = reader;
-        this.cache = new LRUCache(tileCount);
+        this.tileCount = tileCount;
         this.binSize = binSize;
+        this.cache = new ManagedLRUCache<>("Methylation bins", getMaxBytes(), (key, bin) -> bin.estimateSize(), 0.25);
+    }
+
+    /**
+     * The cache bound,  room for tileCount full bins at a score per base,  at most
+     */
+    private long getMaxBytes() {
+        return binSize > 0 ? tileCount * (BIN_SIZE + SCORE_SIZE * binSize) : CHROMOSOME_CACHE_BYTES;
     }
 
 
@@ -66,6 +87,7 @@ public class CachingMethylSource implements MethylDataSource {
     public void setBinSize(int newSize) {
         this.binSize = newSize;
         cache.clear();
+        cache.setMaxBytes(getMaxBytes());
 
     }
 
@@ -197,6 +219,11 @@ public class CachingMethylSource implements MethylDataSource {
 
             for (Bin t : tiles) {
                 t.setLoaded(true);
+                // Replace the entry to account for the loaded scores
+                String key = seq + "_" + t.getBinNumber();
+                if (cache.containsKey(key)) {
+                    cache.put(key, t);
+                }
             }
             if (log.isDebugEnabled()) {
                 long dt = System.currentTimeMillis() - t0;
@@ -255,6 +282,10 @@ public class CachingMethylSource implements MethylDataSource {
             this.loaded = loaded;
         }
 
+        long estimateSize() {
+            return BIN_SIZE + SCORE_SIZE * containedRecords.size();
+        }
+
     }
 
     /**
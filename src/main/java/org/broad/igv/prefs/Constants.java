@@ -48,6 +48,9 @@ final public class Constants {
 
     public static final String GENOMES_SERVER_URL = "IGV.genome.sequence.dir";
     public static final String BLAT_URL = "BLAT_URL";
+    public static final String MEMORY_MAP_LOCAL_FILES = "MEMORY_MAP_LOCAL_FILES";
+    public static final String SESSION_LOAD_THREADS = "SESSION.LOAD_THREADS";
+    public static final String SESSION_HOST_CONNECTIONS = "SESSION.HOST_CONNECTIONS";
     public static final String EXTVIEW_URL = "EXTVIEW_URL";
     public static final String DATA_SERVER_URL_KEY = "MASTER_RESOURCE_FILE_KEY";
 
@@ -83,6 +86,12 @@ final public class Constants {
 
     // Chart (bar, heatmap, plots) options
     public static final String NORMALIZE_COVERAGE = "NORMALIZE_COVERAGE";
+    public static final String CACHE_HEAP_BUDGET = "CACHE.HEAP_BUDGET";
+    public static final String TDF_CACHE_SIZE = "TDF.CACHE_SIZE";
+    public static final String TDF_PREFETCH_TILES = "TDF.PREFETCH_TILES";
+    public static final String BB_CACHE_SIZE = "BB.CACHE_SIZE";
+    public static final String RENDER_TILE_CACHE_SIZE = "RENDER.TILE_CACHE_SIZE";
+    public static final String RENDER_THREADS = "RENDER.THREADS";
     public static final String CHART_DRAW_TOP_BORDER = "CHART.DRAW_TOP_BORDER";
     public static final String CHART_DRAW_BOTTOM_BORDER = "CHART.DRAW_BOTTOM_BORDER";
     public static final String CHART_COLOR_BORDERS = "CHART.COLOR_BORDERS";
@@ -149,6 +158,14 @@ final public class Constants {
     public static final String SAM_CLIPPING_THRESHOLD = "SAM.CLIPPING_THRESHOLD";
     public static final String SAM_SHOW_GROUP_SEPARATOR = "SAM.SHOW_GROUP_SEPARATOR";
     public static final String SAM_REDUCED_MEMORY_MODE = "SAM.REDUCED_MEMORY_MODE";
+    public static final String SAM_LOADER_THREADS = "SAM.LOADER_THREADS";
+    public static final String SAM_INFLATE_THREADS = "SAM.INFLATE_THREADS";
+    public static final String SAM_INFLATE_BLOCKS = "SAM.INFLATE_BLOCKS";
+    public static final String SAM_PACK_THREADS = "SAM.PACK_THREADS";
+    public static final String SAM_CACHE_SIZE = "SAM.CACHE_SIZE";
+    public static final String SAM_COMPACT_COUNTS = "SAM.COMPACT_COUNTS";
+    public static final String SAM_COLUMNAR_STORE = "SAM.COLUMNAR_STORE";
+    public static final String SAM_LITE_BAM_READER = "SAM.LITE_BAM_READER";
     public static final String SAM_HIDE_SMALL_INDEL = "SAM.HIDE_SMALL_INDEL";
     public static final String SAM_SMALL_INDEL_BP_THRESHOLD = "SAM.SMALL_INDEL_BP_THRESHOLD";
     public static final String SAM_LINK_READS = "SAM.LINK_READS";
@@ -146,7 +146,8 @@ public abstract class XYPlotRenderer extends DataRenderer {
 
     }
 
-    static DecimalFormat formatter = new DecimalFormat();
+    // DecimalFormat is not thread safe,  and tracks may be rendered in parallel
+    static final ThreadLocal<DecimalFormat> formatter = ThreadLocal.withInitial(DecimalFormat::new);
 
     /**
      * Method description
@@ -199,14 +200,14 @@ public abstract class XYPlotRenderer extends DataRenderer {
             int pY = computeYPixelValue(drawingRect, axisDefinition, minValue);
 
             labelGraphics.drawLine(axisRect.x + AXIS_AREA_WIDTH - 10, pY, axisRect.x + AXIS_AREA_WIDTH - 5, pY);
-            GraphicUtils.drawRightJustifiedText(formatter.format(minValue), axisRect.x + AXIS_AREA_WIDTH - 15, pY, labelGraphics);
+            GraphicUtils.drawRightJustifiedText(formatter.get().format(minValue), axisRect.x + AXIS_AREA_WIDTH - 15, pY, labelGraphics);
 
             // Top (maximum tick mark)
             int topPY = computeYPixelValue(drawingRect, axisDefinition, maxValue);
 
             labelGraphics.drawLine(axisRect.x + AXIS_AREA_WIDTH - 10, topPY,
                     axisRect.x + AXIS_AREA_WIDTH - 5, topPY);
-            GraphicUtils.drawRightJustifiedText(formatter.format(maxValue),
+            GraphicUtils.drawRightJustifiedText(formatter.get().format(maxValue),
                     axisRect.x + AXIS_AREA_WIDTH - 15, topPY + 4, labelGraphics);
 
             // Connect top and bottom
@@ -219,7 +220,7 @@ public abstract class XYPlotRenderer extends DataRenderer {
             if ((midPY < pY - 15) && (midPY > topPY + 15)) {
                 labelGraphics.drawLine(axisRect.x + AXIS_AREA_WIDTH - 10, midPY,
                         axisRect.x + AXIS_AREA_WIDTH - 5, midPY);
-                GraphicUtils.drawRightJustifiedText(formatter.format(baseValue),
+                GraphicUtils.drawRightJustifiedText(formatter.get().format(baseValue),
                         axisRect.x + AXIS_AREA_WIDTH - 15, midPY + 4, labelGraphics);
             }
 
@@ -346,7 +347,10 @@ public abstract class XYPlotRenderer extends DataRenderer {
         return (int) Math.max(drawingRect.getMinY(), Math.min(drawingRect.getMaxY(), pY));
     }
 
-    protected Rectangle calculateDrawingRect(Rectangle arect) {
+    /**
+     * Return the rectangle data values are mapped onto,  within the track bounds
+     */
+    public Rectangle calculateDrawingRect(Rectangle arect) {
 
         double buffer = Math.min(arect.getHeight() * marginFraction, 10);
         Rectangle adjustedRect = new Rectangle(arect);
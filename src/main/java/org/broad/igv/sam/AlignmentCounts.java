@@ -71,4 +71,11 @@ public interface AlignmentCounts extends Feature {
 
     void finish();
 
+    /**
+     * Return an estimate of the heap retained by these counts.  Used to budget the alignment interval cache.
+     */
+    default long getSizeInBytes() {
+        return 80L * getNumberOfPoints();
+    }
+
 }
@@ -42,12 +42,15 @@ import org.broad.igv.track.Track;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.util.AmazonUtils;
+import org.broad.igv.util.CacheManager;
+import org.broad.igv.util.ManagedCache;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.collections.IntArrayList;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.function.Predicate;
 
 import static org.broad.igv.prefs.Constants.*;
 
@@ -60,8 +63,14 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     private static Logger log = Logger.getLogger(AlignmentDataManager.class);
 
+    /**
+     * Managers of the open alignment files,  which share the alignment cache budget equally
+     */
+    private static final Set<AlignmentDataManager> openManagers =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
 
-    private List<AlignmentInterval> intervalCache;
+    private IntervalCache intervalCache;
     private ResourceLocator locator;
     private HashMap<String, String> chrMappings = new HashMap();
     private Set<Range> isLoading = new HashSet<>();
@@ -78,11 +87,14 @@ public class AlignmentDataManager implements IGVEventObserver {
         // The time-gated limit for an AWS signed URL has expired, we need to re-sign the URL with the newly acquired
         // access token, otherwise we will face an Access Denied error. CheckReader() provides a very low overhead
         // mechanism to refresh expired presigned URLs.
-        reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator));
+        reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator), () -> AlignmentReaderFactory.getReader(locator));
         peStats = new HashMap();
         initLoadOptions();
         initChrMap(genome);
-        intervalCache = Collections.synchronizedList(new ArrayList<>());
+        intervalCache = new IntervalCache(getCacheBudget(), "Alignments " + locator.getFileName());
+        CacheManager.getInstance().register(intervalCache, 2);
+        openManagers.add(this);
+        shareCacheBudget();
         subscribedTracks = Collections.synchronizedSet(new HashSet<>());
 
         IGVEventBus.getInstance().subscribe(FrameManager.ChangeEvent.class, this);
@@ -92,7 +104,8 @@ public class AlignmentDataManager implements IGVEventObserver {
     public void receiveEvent(Object event) {
 
         if (event instanceof FrameManager.ChangeEvent) {
-            trimCache();
+            // Intervals for the previous frames are retained, subject to the cache budget,  so flipping back is cheap
+            intervalCache.setMaxBytes(getCacheShare());
         } else if (event instanceof RefreshEvent) {
             clear();
         } else {
@@ -109,6 +122,8 @@ public class AlignmentDataManager implements IGVEventObserver {
         if (subscribedTracks.isEmpty()) {
             dumpAlignments();
             IGVEventBus.getInstance().unsubscribe(this);
+            openManagers.remove(this);
+            shareCacheBudget();
         }
     }
 
@@ -245,14 +260,7 @@ public class AlignmentDataManager implements IGVEventObserver {
 
 
     public AlignmentInterval getLoadedInterval(ReferenceFrame frame) {
-
-        for (AlignmentInterval interval : intervalCache) {
-            if (interval.contains(frame.getCurrentRange())) {
-                return interval;
-            }
-        }
-
-        return null;
+        return intervalCache.getIntervalForRange(frame.getCurrentRange());
     }
 
     /**
@@ -298,8 +306,12 @@ public class AlignmentDataManager implements IGVEventObserver {
      * @return Whether repacking was performed
      */
     void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
-        for (AlignmentInterval interval : intervalCache) {
-            interval.packAlignments(renderOptions);
+        for (AlignmentInterval interval : intervalCache.values()) {
+            if (intervalInView(interval)) {
+                interval.packAlignments(renderOptions);
+            } else {
+                interval.packAlignmentsLazily(renderOptions);
+            }
         }
     }
 
@@ -322,7 +334,7 @@ public class AlignmentDataManager implements IGVEventObserver {
                      AlignmentTrack.RenderOptions renderOptions,
                      boolean expandEnds) {
 
-        if (isLoaded(referenceFrame)) return;  // Already loaded
+        if (intervalCache.fetch(referenceFrame.getCurrentRange()) != null) return;  // Already loaded
 
         if (isLoading(referenceFrame)) return;   // Already oading
 
@@ -354,8 +366,13 @@ public class AlignmentDataManager implements IGVEventObserver {
 
             AlignmentInterval loadedInterval = loadInterval(chr, adjustedStart, adjustedEnd, renderOptions);
 
-            trimCache();
+            // Alignments loaded again keep their rows from the interval the view was extended from
+            AlignmentInterval previous = intervalCache.getOverlappingInterval(loadedInterval);
+            if (previous != null) {
+                loadedInterval.setPreviousPacking(previous);
+            }
 
+            intervalCache.setMaxBytes(getCacheShare());
             intervalCache.add(loadedInterval);
 
             packAlignments(renderOptions);
@@ -368,21 +385,37 @@ public class AlignmentDataManager implements IGVEventObserver {
 
 
     /**
-     * Remove out-of-view intervals from the cache.  This is O(N) where N = #frames X #intervals.   It is assumed
-     * that N is small
+     * The cache budget in bytes for all alignment files,  from the alignment cache size preference (MB)
      */
-    private synchronized void trimCache() {
+    private static long getCacheBudget() {
+        return PreferencesManager.getPreferences().getAsInt(SAM_CACHE_SIZE) * 1000000L;
+    }
 
-        Iterator<AlignmentInterval> iter = intervalCache.iterator();
-        while (iter.hasNext()) {
-            AlignmentInterval interval = iter.next();
-            if (!intervalInView(interval)) {
-                iter.remove();
-            }
+    /**
+     * The share of the cache budget for one file
+     */
+    private static long getCacheShare() {
+        return getCacheBudget() / Math.max(1, openManagers.size());
+    }
+
+    /**
+     * Divide the cache budget among the open files.  Called when a file is opened or closed.
+     */
+    private static void shareCacheBudget() {
+        List<AlignmentDataManager> managers;
+        synchronized (openManagers) {
+            managers = new ArrayList<>(openManagers);
+        }
+        long share = getCacheShare();
+        for (AlignmentDataManager manager : managers) {
+            manager.intervalCache.setMaxBytes(share);
         }
     }
 
 
+    /**
+     * Is the interval in view in any frame?  This is O(N) where N = #frames.   It is assumed that N is small
+     */
     private boolean intervalInView(AlignmentInterval interval) {
 
         for (ReferenceFrame frame : FrameManager.getFrames()) {
@@ -394,9 +427,16 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
 
+    /**
+     * @return the name of a genome chromosome in the alignment file
+     */
+    String getSequenceName(String chr) {
+        return chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
+    }
+
     AlignmentInterval loadInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
 
-        String sequence = chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
+        String sequence = getSequenceName(chr);
 
         DownsampleOptions downsampleOptions = new DownsampleOptions();
 
@@ -454,9 +494,7 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
     public void dumpAlignments() {
-        for (AlignmentInterval interval : intervalCache) {
-            interval.dumpAlignments();
-        }
+        intervalCache.dumpAlignments();
     }
 
     /**
@@ -488,7 +526,8 @@ public class AlignmentDataManager implements IGVEventObserver {
     public int getNLevels() {
         int nLevels = 0;
 
-        for (AlignmentInterval interval : intervalCache) {
+        for (AlignmentInterval interval : intervalCache.values()) {
+            if (!intervalInView(interval)) continue;
             PackedAlignments packedAlignments = interval.getPackedAlignments();
             if (packedAlignments != null) {
                 int intervalNLevels = packedAlignments.getNLevels();
@@ -505,8 +544,8 @@ public class AlignmentDataManager implements IGVEventObserver {
     public int getMaxGroupCount() {
         int groupCount = 0;
 
-        for (AlignmentInterval interval : intervalCache) {
-            if (interval != null) {  // Not sure how this happens but it does
+        for (AlignmentInterval interval : intervalCache.values()) {
+            if (interval != null && intervalInView(interval)) {  // Not sure how this happens but it does
                 PackedAlignments packedAlignments = interval.getPackedAlignments();
                 if (packedAlignments != null) {
                     groupCount = Math.max(groupCount, packedAlignments.size());
@@ -543,7 +582,7 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     public void setMinJunctionCoverage(int minJunctionCoverage) {
         this.loadOptions = new SpliceJunctionHelper.LoadOptions(minJunctionCoverage, this.loadOptions.minReadFlankingWidth);
-        for (AlignmentInterval interval : intervalCache) {
+        for (AlignmentInterval interval : intervalCache.values()) {
             interval.getSpliceJunctionHelper().setLoadOptions(this.loadOptions);
         }
     }
@@ -565,14 +604,30 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
     public Collection<AlignmentInterval> getLoadedIntervals() {
-        return intervalCache;
+        return intervalCache.values();
+    }
+
+    public int getCacheHitCount() {
+        return intervalCache.getHitCount();
+    }
+
+    public int getCacheMissCount() {
+        return intervalCache.getMissCount();
+    }
+
+    public int getCacheEvictionCount() {
+        return intervalCache.getEvictionCount();
+    }
+
+    public long getCacheSizeInBytes() {
+        return intervalCache.getSizeInBytes();
     }
 
     private AlignmentTileLoader checkReader() {
         try {
             String aPath = locator.getPath();
             if (AmazonUtils.isAwsS3Path(aPath) && !AmazonUtils.isS3PresignedValid(aPath)) {
-                reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator));
+                reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator), () -> AlignmentReaderFactory.getReader(locator));
             }
         } catch(MalformedURLException e){
             e.printStackTrace();
@@ -619,71 +674,198 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     }
 
-    static class IntervalCache {
+    /**
+     * A cache of loaded intervals, bounded by the estimated heap size of the intervals.  Intervals are evicted in
+     * least-recently-used order.  The most recently added interval,  and intervals in view in any reference frame,
+     * are never evicted,  even if they exceed the budget.
+     */
+    static class IntervalCache implements ManagedCache {
+
+        private final String name;
+        private long maxBytes;
+        private long sizeInBytes = 0;
+        private int hitCount = 0;
+        private int missCount = 0;
+        private int evictionCount = 0;
+        private long lastAccessTime = 0;
+
+        /**
+         * Intervals in access order, least recently used first.  The number of intervals is small, so linear
+         * searches are fine.
+         */
+        private ArrayList<AlignmentInterval> intervals = new ArrayList<>();
 
-        private int maxSize;
-        ArrayList<AlignmentInterval> intervals;
+        /**
+         * Tests whether an interval is in view,  and must be kept
+         */
+        private final Predicate<AlignmentInterval> inView;
 
-        public IntervalCache() {
-            this(1);
+        public IntervalCache(long maxBytes) {
+            this(maxBytes, "Alignments");
         }
 
-        public IntervalCache(int ms) {
-            this.maxSize = Math.max(1, ms);
-            intervals = new ArrayList<>(maxSize);
+        public IntervalCache(long maxBytes, String name) {
+            this(maxBytes, name, IntervalCache::overlapsFrame);
         }
 
-        void setMaxSize(int ms, List<ReferenceFrame> frames) {
-            this.maxSize = Math.max(1, ms);
-            if (intervals.size() > maxSize) {
-                // Reduce size.  Try to keep intervals that cover frame ranges.  This involves a linear search
-                // of potentially (intervals.size X frames.size) elements.  Don't attempt if this number is too large
-                if (frames.size() * intervals.size() < 25) {
-                    ArrayList<AlignmentInterval> tmp = new ArrayList<>(maxSize);
-                    for (AlignmentInterval interval : intervals) {
-                        if (tmp.size() == maxSize) break;
-                        for (ReferenceFrame frame : frames) {
-                            Range range = frame.getCurrentRange();
-                            if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
-                                tmp.add(interval);
-                                break;
-                            }
-                        }
-                    }
-                    intervals = tmp;
-                } else {
-                    intervals = new ArrayList(intervals.subList(0, maxSize));
-                    intervals.trimToSize();
+        IntervalCache(long maxBytes, String name, Predicate<AlignmentInterval> inView) {
+            this.maxBytes = maxBytes;
+            this.name = name;
+            this.inView = inView;
+        }
+
+        private static boolean overlapsFrame(AlignmentInterval interval) {
+            for (ReferenceFrame frame : FrameManager.getFrames()) {
+                if (frame.getCurrentRange().overlaps(interval.getChr(), interval.getStart(), interval.getEnd())) {
+                    return true;
                 }
             }
+            return false;
         }
 
-        public void add(AlignmentInterval interval) {
-            if (intervals.size() >= maxSize) {
-                intervals.remove(0);
-            }
+        synchronized void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+
+        public synchronized void add(AlignmentInterval interval) {
+            lastAccessTime = System.currentTimeMillis();
             intervals.add(interval);
+            sizeInBytes += interval.getSizeInBytes();
+            evict();
         }
 
-        public AlignmentInterval getIntervalForRange(Range range) {
+        private void evict() {
+            int i = 0;
+            while (sizeInBytes > maxBytes && i < intervals.size() - 1) {
+                AlignmentInterval interval = intervals.get(i);
+                if (inView.test(interval)) {
+                    i++;
+                } else {
+                    intervals.remove(i);
+                    sizeInBytes -= interval.getSizeInBytes();
+                    evictionCount++;
+                }
+            }
+        }
 
+        /**
+         * Release the alignments of all intervals,  keeping their coverage
+         */
+        public synchronized void dumpAlignments() {
             for (AlignmentInterval interval : intervals) {
+                long size = interval.getSizeInBytes();
+                interval.dumpAlignments();
+                sizeInBytes -= size - interval.getSizeInBytes();
+            }
+        }
+
+        /**
+         * Return an interval covering the range, if any,  and mark it as most recently used.
+         */
+        public synchronized AlignmentInterval getIntervalForRange(Range range) {
+            for (int i = intervals.size() - 1; i >= 0; i--) {
+                AlignmentInterval interval = intervals.get(i);
                 if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
+                    if (i < intervals.size() - 1) {
+                        intervals.remove(i);
+                        intervals.add(interval);
+                    }
                     return interval;
                 }
             }
+            return null;
+        }
 
+        /**
+         * Return the most recently used interval overlapping the given interval,  if any.
+         */
+        synchronized AlignmentInterval getOverlappingInterval(AlignmentInterval interval) {
+            for (int i = intervals.size() - 1; i >= 0; i--) {
+                AlignmentInterval cached = intervals.get(i);
+                if (cached.overlaps(interval.getChr(), interval.getStart(), interval.getEnd())) {
+                    return cached;
+                }
+            }
             return null;
+        }
 
+        /**
+         * As {@link #getIntervalForRange(Range)},  but also records a cache hit or miss.  Used for load requests,
+         * as opposed to lookups while painting.
+         */
+        synchronized AlignmentInterval fetch(Range range) {
+            AlignmentInterval interval = getIntervalForRange(range);
+            if (interval == null) {
+                missCount++;
+            } else {
+                hitCount++;
+                lastAccessTime = System.currentTimeMillis();
+            }
+            return interval;
         }
 
-        public Collection<AlignmentInterval> values() {
-            return intervals;
+        /**
+         * @return a snapshot of the cached intervals, least recently used first
+         */
+        public synchronized List<AlignmentInterval> values() {
+            return new ArrayList<>(intervals);
         }
 
-        public void clear() {
+        public synchronized void clear() {
             intervals.clear();
+            sizeInBytes = 0;
+        }
+
+        public synchronized int size() {
+            return intervals.size();
+        }
+
+        public synchronized long getSizeInBytes() {
+            return sizeInBytes;
+        }
+
+        public synchronized int getHitCount() {
+            return hitCount;
+        }
+
+        public synchronized int getMissCount() {
+            return missCount;
+        }
+
+        public synchronized int getEvictionCount() {
+            return evictionCount;
+        }
+
+        public String getCacheName() {
+            return name;
+        }
+
+        public synchronized long getLastAccessTime() {
+            return lastAccessTime;
+        }
+
+        /**
+         * Evict least recently used intervals to free at least the given number of bytes,  keeping the most recently
+         * used interval and intervals in view.  Called by the {@link CacheManager}.
+         *
+         * @return the number of bytes freed,  which is less than requested if the remaining intervals are in use
+         */
+        public synchronized long trim(long bytes) {
+            long freed = 0;
+            int i = 0;
+            while (freed < bytes && i < intervals.size() - 1) {
+                AlignmentInterval interval = intervals.get(i);
+                if (inView.test(interval)) {
+                    i++;
+                } else {
+                    intervals.remove(i);
+                    freed += interval.getSizeInBytes();
+                    evictionCount++;
+                }
+            }
+            sizeInBytes -= freed;
+            return freed;
         }
     }
 }
-
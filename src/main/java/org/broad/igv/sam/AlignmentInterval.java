@@ -46,6 +46,21 @@ public class AlignmentInterval extends Locus {
     private SpliceJunctionHelper spliceJunctionHelper;
     private List<DownsampledInterval> downsampledIntervals;
     private PackedAlignments packedAlignments;
+    private AlignmentTrack.RenderOptions pendingPackOptions;
+    private AlignmentPacker alignmentPacker;
+
+    /**
+     * Rows of an overlapping interval,  loaded before this one,  that the first packing places alignments in where
+     * possible.  Released after use.
+     */
+    private PackedAlignments previousPacking;
+    private long sizeInBytes = -1;
+
+    /**
+     * Rough per-object overheads used for size estimates, in bytes
+     */
+    private static final int ALIGNMENT_OVERHEAD = 250;
+    private static final int JUNCTION_OVERHEAD = 200;
 
     public AlignmentInterval(String chr, int start, int end,
                              List<Alignment> alignments,
@@ -164,19 +179,74 @@ public class AlignmentInterval extends Locus {
         return new Range(getChr(), getStart(), getEnd());
     }
 
-    public void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
+    public synchronized void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
+
+        // The packer is kept with the interval,  it caches the sorted alignments and group keys for repacking
+        if (alignmentPacker == null) {
+            alignmentPacker = new AlignmentPacker();
+        }
+        this.packedAlignments = alignmentPacker.packAlignments(this, renderOptions, previousPacking);
+        this.pendingPackOptions = null;
+        this.previousPacking = null;
+    }
+
+    /**
+     * Keep the rows of alignments loaded again from an overlapping interval,  so that they do not move when the view
+     * is extended.  Applies to the next packing only.
+     *
+     * @param previous a packed interval overlapping this one
+     */
+    public synchronized void setPreviousPacking(AlignmentInterval previous) {
+        this.previousPacking = previous.packedAlignments;
+    }
 
-        final AlignmentPacker alignmentPacker = new AlignmentPacker();
-        this.packedAlignments = alignmentPacker.packAlignments(this, renderOptions);
+    /**
+     * Defer packing until the packed alignments are next requested.  Used for cached intervals that are not in view,
+     * so that changing render options does not repack every cached interval.
+     */
+    public void packAlignmentsLazily(AlignmentTrack.RenderOptions renderOptions) {
+        this.pendingPackOptions = renderOptions;
     }
 
-    public PackedAlignments getPackedAlignments() {
+    public synchronized PackedAlignments getPackedAlignments() {
+        if (pendingPackOptions != null) {
+            packAlignments(pendingPackOptions);
+        }
         return packedAlignments;
     }
 
+    /**
+     * Return an estimate of the heap retained by this interval:  alignments,  coverage counts,  and splice junctions.
+     * Computed once,  the contents of an interval do not change after loading.
+     */
+    public long getSizeInBytes() {
+        if (sizeInBytes < 0) {
+            long size = counts == null ? 0 : counts.getSizeInBytes();
+            if (alignments != null) {
+                for (Alignment a : alignments) {
+                    size += ALIGNMENT_OVERHEAD;
+                    AlignmentBlock[] blocks = a.getAlignmentBlocks();
+                    if (blocks != null) {
+                        for (AlignmentBlock b : blocks) {
+                            size += 2 * b.getLength();   // bases and qualities
+                        }
+                    }
+                }
+            }
+            if (spliceJunctionHelper != null) {
+                size += JUNCTION_OVERHEAD * spliceJunctionHelper.getJunctionCount();
+            }
+            sizeInBytes = size;
+        }
+        return sizeInBytes;
+    }
+
     public void dumpAlignments() {
         if (this.alignments != null) this.alignments.clear();
         this.packedAlignments = null;
+        this.pendingPackOptions = null;
+        this.alignmentPacker = null;
+        this.sizeInBytes = -1;
     }
 
 
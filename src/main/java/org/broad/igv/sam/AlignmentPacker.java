@@ -32,9 +32,18 @@ package org.broad.igv.sam;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.Range;
 import org.broad.igv.feature.Strand;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.AlignmentTrack.GroupOption;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.broad.igv.prefs.Constants.SAM_PACK_THREADS;
 
 /**
  * Packs alignments such that there is no overlap
@@ -49,16 +58,32 @@ public class AlignmentPacker {
      * Minimum gap between the end of one alignment and start of another.
      */
     public static final int MIN_ALIGNMENT_SPACING = 2;
-    private static final Comparator<Alignment> lengthComparator = new Comparator<Alignment>() {
-        public int compare(Alignment row1, Alignment row2) {
-            return (row2.getEnd() - row2.getStart()) -
-                    (row1.getEnd() - row2.getStart());
-
-        }
+    /**
+     * Orders alignments by start position,  and longest first for alignments with equal starts.
+     */
+    private static final Comparator<Alignment> startComparator = (a1, a2) -> {
+        int d = Integer.compare(a1.getStart(), a2.getStart());
+        return d != 0 ? d : Integer.compare(a2.getEnd(), a1.getEnd());
     };
 
     private static final String NULL_GROUP_VALUE = "";
-    public static final int tenMB = 10000000;
+
+    // Minimum number of alignments per task when grouping in parallel
+    private static final int MIN_CHUNK_SIZE = 10000;
+
+    private static ForkJoinPool packPool;
+    private static int packPoolThreads;
+
+    // Alignments of the last packed interval,  linked if requested and sorted by start,  and their group keys.  These
+    // are kept so that repacking the same interval with a new grouping or view-as-pairs option neither re-sorts the
+    // alignments nor,  for a previously used grouping,  recomputes the group keys.
+    private AlignmentInterval sortedInterval;
+    private String sortedLinkByTag;
+    private Alignment[] sortedAlignments;
+    private Object[] groupKeys;
+    private GroupOption groupKeysOption;
+    private String groupKeysTag;
+    private Range groupKeysPos;
 
     /**
      * Allocates each alignment to row such that there is no overlap.
@@ -66,49 +91,65 @@ public class AlignmentPacker {
     public PackedAlignments packAlignments(
             AlignmentInterval interval,
             AlignmentTrack.RenderOptions renderOptions) {
+        return packAlignments(interval, renderOptions, null);
+    }
+
+    /**
+     * Allocates each alignment to row such that there is no overlap.  Alignments that were packed in an overlapping
+     * interval,  typically the interval in view before the view was extended,  are placed in the same row of the
+     * same group if it has room,  so that reloaded alignments do not move when panning.
+     *
+     * @param previous rows of an overlapping interval,  or null
+     */
+    public PackedAlignments packAlignments(
+            AlignmentInterval interval,
+            AlignmentTrack.RenderOptions renderOptions,
+            PackedAlignments previous) {
 
         LinkedHashMap<String, List<Row>> packedAlignments = new LinkedHashMap<String, List<Row>>();
 
-        List<Alignment> alList = interval.getAlignments();
-        // TODO -- means to undo this
-        if (renderOptions.isLinkedReads()) {
-            alList = linkByTag(alList, renderOptions.getLinkByTag());
-        }
+        Alignment[] alignments = getSortedAlignments(interval, renderOptions);
 
         if (renderOptions.getGroupByOption() == AlignmentTrack.GroupOption.NONE) {
-            List<Row> alignmentRows = new ArrayList<>(10000);
-            pack(alList, renderOptions, alignmentRows);
+            List<Row> alignmentRows = new ArrayList<>();
+            pack(Arrays.asList(alignments), renderOptions, alignmentRows, getPreviousRows(previous, "", interval));
             packedAlignments.put("", alignmentRows);
         } else {
 
-            // Separate alignments into groups.
-            Map<Object, List<Alignment>> groupedAlignments = new HashMap<Object, List<Alignment>>();
-            Iterator<Alignment> iter = alList.iterator();
-            while (iter.hasNext()) {
-                Alignment alignment = iter.next();
-                Object groupKey = getGroupValue(alignment, renderOptions);
-                if (groupKey == null) {
-                    groupKey = NULL_GROUP_VALUE;
-                }
-                List<Alignment> groupList = groupedAlignments.get(groupKey);
-                if (groupList == null) {
-                    groupList = new ArrayList<>(1000);
-                    groupedAlignments.put(groupKey, groupList);
-                }
-                groupList.add(alignment);
-            }
+            int nThreads = Math.max(1, PreferencesManager.getPreferences().getAsInt(SAM_PACK_THREADS));
+            ForkJoinPool pool = nThreads > 1 ? getPackPool(nThreads) : null;
 
+            // Separate alignments into groups.  Each group list stays sorted by start.
+            Object[] keys = getGroupKeys(alignments, renderOptions, pool);
+            Map<Object, List<Alignment>> groupedAlignments = groupAlignments(alignments, keys, pool);
 
-            // Now alphabetize (sort) and pack the groups
-            List<Object> keys = new ArrayList<Object>(groupedAlignments.keySet());
+            // Now alphabetize (sort) and pack the groups.  Groups are independent and packed in parallel if
+            // enabled,  results are added in sorted group order.
+            List<Object> groups = new ArrayList<Object>(groupedAlignments.keySet());
             Comparator<Object> groupComparator = getGroupComparator(renderOptions.getGroupByOption());
-            Collections.sort(keys, groupComparator);
-
-            for (Object key : keys) {
-                List<Row> alignmentRows = new ArrayList<>(10000);
-                List<Alignment> group = groupedAlignments.get(key);
-                pack(group, renderOptions, alignmentRows);
-                packedAlignments.put(key.toString(), alignmentRows);
+            Collections.sort(groups, groupComparator);
+
+            if (pool == null || groups.size() == 1) {
+                for (Object key : groups) {
+                    List<Row> alignmentRows = new ArrayList<>();
+                    pack(groupedAlignments.get(key), renderOptions, alignmentRows,
+                            getPreviousRows(previous, key.toString(), interval));
+                    packedAlignments.put(key.toString(), alignmentRows);
+                }
+            } else {
+                List<Callable<List<Row>>> tasks = new ArrayList<>(groups.size());
+                for (Object key : groups) {
+                    List<Alignment> group = groupedAlignments.get(key);
+                    tasks.add(() -> {
+                        List<Row> alignmentRows = new ArrayList<>();
+                        pack(group, renderOptions, alignmentRows, getPreviousRows(previous, key.toString(), interval));
+                        return alignmentRows;
+                    });
+                }
+                List<List<Row>> rows = invokeAll(pool, tasks);
+                for (int i = 0; i < groups.size(); i++) {
+                    packedAlignments.put(groups.get(i).toString(), rows.get(i));
+                }
             }
         }
 
@@ -117,139 +158,260 @@ public class AlignmentPacker {
         return new PackedAlignments(tmp, packedAlignments);
     }
 
-
-    private void pack(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
-
-        Map<String, PairedAlignment> pairs = null;
-
-        boolean isPairedAlignments = renderOptions.isViewPairs();
-        String linkByTag = renderOptions.getLinkByTag();
-
-        if (isPairedAlignments) {
-            pairs = new HashMap<>(1000);
+    /**
+     * Return the row index of each alignment of a group in a previous packing that overlaps the interval,  by
+     * {@link #getRowKey(Alignment)}.  Null if there is no previous packing of the group.
+     */
+    private static Map<String, Integer> getPreviousRows(PackedAlignments previous, String group,
+                                                        AlignmentInterval interval) {
+        List<Row> rows = previous == null ? null : previous.get(group);
+        if (rows == null) {
+            return null;
         }
+        Map<String, Integer> previousRows = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            for (Alignment alignment : rows.get(i).alignments) {
+                if (alignment.getEnd() >= interval.getStart() && alignment.getStart() <= interval.getEnd()) {
+                    previousRows.put(getRowKey(alignment), i);
+                }
+            }
+        }
+        return previousRows;
+    }
 
+    /**
+     * Identifies an alignment across loads,  which create new alignment objects for the same records
+     */
+    private static String getRowKey(Alignment alignment) {
+        return alignment.getReadName() + ':' + alignment.getStart() + (alignment.isNegativeStrand() ? '-' : '+');
+    }
 
-        // Allocate alignemnts to buckets for each range.
-        // We use priority queues to keep the buckets sorted by alignment length.  However this  is probably a needless
-        // complication,  any collection type would do.
-
-        int totalCount = 0;
+    /**
+     * Return the interval's alignments,  linked by tag if requested,  sorted by start.  The sorted array is reused
+     * while the interval and link option are unchanged.
+     */
+    private Alignment[] getSortedAlignments(AlignmentInterval interval, AlignmentTrack.RenderOptions renderOptions) {
 
+        String linkByTag = renderOptions.isLinkedReads() ? renderOptions.getLinkByTag() : null;
+        List<Alignment> alList = interval.getAlignments();
 
-        if (alList == null || alList.size() == 0) return;
+        if (sortedAlignments == null || sortedInterval != interval || !Objects.equals(sortedLinkByTag, linkByTag) ||
+                (linkByTag == null && sortedAlignments.length != alList.size())) {
 
-        Range curRange = getAlignmentListRange(alList);
+            // TODO -- means to undo this
+            if (linkByTag != null) {
+                alList = linkByTag(alList, linkByTag);
+            }
+            Alignment[] alignments = alList.toArray(new Alignment[alList.size()]);
+            Arrays.sort(alignments, startComparator);
 
-        BucketCollection bucketCollection;
+            sortedInterval = interval;
+            sortedLinkByTag = linkByTag;
+            sortedAlignments = alignments;
+            groupKeys = null;
+        }
+        return sortedAlignments;
+    }
 
-        // Use dense buckets for < 10,000,000 bp windows sparse otherwise
-        int bpLength = curRange.getLength();
+    /**
+     * Return the group key of each sorted alignment.  Keys are reused while the grouping option is unchanged,  with the
+     * exception of pair orientation which depends on the insert size options,  and haplotype which depends on the
+     * haplotype names assigned by clustering.
+     */
+    private Object[] getGroupKeys(Alignment[] alignments, AlignmentTrack.RenderOptions renderOptions, ForkJoinPool pool) {
 
-        if (bpLength < tenMB) {
-            bucketCollection = new DenseBucketCollection(bpLength, curRange);
-        } else {
-            bucketCollection = new SparseBucketCollection(curRange);
-        }
+        GroupOption option = renderOptions.getGroupByOption();
+        String tag = renderOptions.getGroupByTag();
+        Range pos = renderOptions.getGroupByPos();
 
-        int curRangeStart = curRange.getStart();
-        for (Alignment al : alList) {
+        if (groupKeys == null || option == GroupOption.PAIR_ORIENTATION || option == GroupOption.HAPLOTYPE ||
+                option != groupKeysOption || !Objects.equals(tag, groupKeysTag) || !Objects.equals(pos, groupKeysPos)) {
 
-            if (al.isMapped()) {
-                Alignment alignment = al;
+            Object[] keys = new Object[alignments.length];
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int[] chunk : getChunks(alignments.length, pool)) {
+                tasks.add(() -> {
+                    for (int i = chunk[0]; i < chunk[1]; i++) {
+                        Object groupKey = getGroupValue(alignments[i], renderOptions);
+                        keys[i] = groupKey == null ? NULL_GROUP_VALUE : groupKey;
+                    }
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+            groupKeys = keys;
+            groupKeysOption = option;
+            groupKeysTag = tag;
+            groupKeysPos = pos;
+        }
+        return groupKeys;
+    }
 
-                // Pair alignments -- do not pair secondaryalignments
-                if (isPairedAlignments && isPairable(al)) {
-                    String readName = al.getReadName();
-                    PairedAlignment pair = pairs.get(readName);
-                    if (pair == null) {
-                        pair = new PairedAlignment(al);
-                        pairs.put(readName, pair);
-                        alignment = pair;
-                    } else {
-                        // Add second alignment to pair.
-                        pair.setSecondAlignment(al);
-                        pairs.remove(readName);
-                        continue;
 
+    /**
+     * Partition the alignments by group key.  Chunks of the array are partitioned in parallel and merged in order,  so
+     * each group list stays sorted by start.
+     */
+    private static Map<Object, List<Alignment>> groupAlignments(Alignment[] alignments, Object[] keys, ForkJoinPool pool) {
+
+        List<Callable<Map<Object, List<Alignment>>>> tasks = new ArrayList<>();
+        for (int[] chunk : getChunks(alignments.length, pool)) {
+            tasks.add(() -> {
+                Map<Object, List<Alignment>> chunkGroups = new HashMap<>();
+                for (int i = chunk[0]; i < chunk[1]; i++) {
+                    List<Alignment> groupList = chunkGroups.get(keys[i]);
+                    if (groupList == null) {
+                        groupList = new ArrayList<>(1000);
+                        chunkGroups.put(keys[i], groupList);
                     }
+                    groupList.add(alignments[i]);
                 }
+                return chunkGroups;
+            });
+        }
 
-                // Allocate to bucket.
-                // Negative "bucketNumbers" can arise with soft clips at the left edge of the chromosome. Allocate
-                // these alignments to the first bucket.
-                int bucketNumber = Math.max(0, al.getStart() - curRangeStart);
-                if (bucketNumber < bucketCollection.getBucketCount()) {
-                    PriorityQueue<Alignment> bucket = bucketCollection.get(bucketNumber);
-                    if (bucket == null) {
-                        bucket = new PriorityQueue<Alignment>(5, lengthComparator);
-                        bucketCollection.set(bucketNumber, bucket);
-                    }
-                    bucket.add(alignment);
-                    totalCount++;
+        List<Map<Object, List<Alignment>>> chunkGroups = invokeAll(pool, tasks);
+        Map<Object, List<Alignment>> groupedAlignments = chunkGroups.get(0);
+        for (int c = 1; c < chunkGroups.size(); c++) {
+            for (Map.Entry<Object, List<Alignment>> entry : chunkGroups.get(c).entrySet()) {
+                List<Alignment> groupList = groupedAlignments.get(entry.getKey());
+                if (groupList == null) {
+                    groupedAlignments.put(entry.getKey(), entry.getValue());
                 } else {
-                    log.debug("Alignment out of bounds. name: " + alignment.getReadName() + " startPos:" + alignment.getStart());
+                    groupList.addAll(entry.getValue());
                 }
             }
         }
-        bucketCollection.finishedAdding();
-
-
-        // Now allocate alignments to rows.
-        long t0 = System.currentTimeMillis();
-        int allocatedCount = 0;
-        Row currentRow = new Row();
-
-        while (allocatedCount < totalCount) {
+        return groupedAlignments;
+    }
 
-            curRange = bucketCollection.getRange();
+    /**
+     * Split [0, n) into ranges for parallel tasks,  a single range if pool is null
+     */
+    private static List<int[]> getChunks(int n, ForkJoinPool pool) {
+        int nChunks = pool == null ? 1 : Math.max(1, Math.min(4 * pool.getParallelism(), n / MIN_CHUNK_SIZE));
+        List<int[]> chunks = new ArrayList<>(nChunks);
+        for (int c = 0; c < nChunks; c++) {
+            chunks.add(new int[]{(int) ((long) n * c / nChunks), (int) ((long) n * (c + 1) / nChunks)});
+        }
+        return chunks;
+    }
 
-            curRangeStart = curRange.getStart();
-            int nextStart = curRangeStart;
-            List<Integer> emptyBuckets = new ArrayList<Integer>(100);
+    /**
+     * Run the tasks,  on the pool if not null,  and return their results in task order.  If the pool has been shut
+     * down,  because the thread count changed,  the tasks are run on this thread.  Tasks only compute their results,
+     * so any that did start on the pool can safely be run again.
+     */
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            List<Future<T>> futures = null;
+            if (pool != null) {
+                try {
+                    futures = pool.invokeAll(tasks);
+                } catch (RejectedExecutionException e) {
+                    log.debug("Pack pool was replaced,  packing on the calling thread");
+                }
+            }
+            if (futures == null) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
 
-            while (true) {
-                int bucketNumber = nextStart - curRangeStart;
-                PriorityQueue<Alignment> bucket = bucketCollection.getNextBucket(bucketNumber, emptyBuckets);
+    /**
+     * Return the shared packing pool,  replacing it if the thread count has changed.  The replaced pool is shut down,
+     * which lets running packs finish.
+     */
+    private static synchronized ForkJoinPool getPackPool(int nThreads) {
+        if (packPool == null || packPoolThreads != nThreads) {
+            if (packPool != null) {
+                packPool.shutdown();
+            }
+            packPool = new ForkJoinPool(nThreads, pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("Alignment packer " + t.getPoolIndex());
+                return t;
+            }, null, false);
+            packPoolThreads = nThreads;
+        }
+        return packPool;
+    }
 
-                // Pull the next alignment out of the bucket and add to the current row
-                if (bucket != null) {
-                    Alignment alignment = bucket.remove();
-                    currentRow.addAlignment(alignment);
-                    allocatedCount++;
+    /**
+     * Pack alignments,  sorted by start,  into rows.
+     *
+     * @param previousRows row index of alignments in a previous packing,  see {@link #getPreviousRows}.  Can be null.
+     */
+    private void pack(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows,
+                      Map<String, Integer> previousRows) {
 
-                    nextStart = alignment.getEnd() + MIN_ALIGNMENT_SPACING;
+        if (alList == null || alList.size() == 0) return;
 
-                }
+        long t0 = System.currentTimeMillis();
 
-                //Reached the end of this range, move to the next
-                if (bucket == null || nextStart > curRange.getEnd()) {
-                    //Remove empty buckets.  This has no affect on the dense implementation,
-                    //they are removed on the fly, but is needed for the sparse implementation
-                    bucketCollection.removeBuckets(emptyBuckets);
-                    emptyBuckets.clear();
-                    break;
+        List<Alignment> packList;
+        if (renderOptions.isViewPairs()) {
+
+            // Pair alignments -- do not pair secondary alignments.  The pair takes the place of its first alignment,
+            // so the list remains sorted by start.
+            Map<String, PairedAlignment> pairs = new HashMap<>(1000);
+            packList = new ArrayList<>(alList.size());
+            for (Alignment al : alList) {
+                if (al.isMapped()) {
+                    if (isPairable(al)) {
+                        String readName = al.getReadName();
+                        PairedAlignment pair = pairs.remove(readName);
+                        if (pair == null) {
+                            pair = new PairedAlignment(al);
+                            pairs.put(readName, pair);
+                            packList.add(pair);
+                        } else {
+                            // Add second alignment to pair.
+                            pair.setSecondAlignment(al);
+                        }
+                    } else {
+                        packList.add(al);
+                    }
                 }
             }
+        } else {
+            packList = alList;
+        }
 
-
-            // We've reached the end of the interval,  start a new row
-            if (currentRow.alignments.size() > 0) {
-                alignmentRows.add(currentRow);
+        RowPacker rowPacker = new RowPacker(alignmentRows);
+        for (Alignment alignment : packList) {
+            if (alignment.isMapped()) {
+                if (previousRows == null) {
+                    rowPacker.add(alignment);
+                } else {
+                    Integer row = previousRows.get(getRowKey(alignment));
+                    rowPacker.add(alignment, row == null ? -1 : row);
+                }
             }
-            currentRow = new Row();
         }
+        if (previousRows != null) {
+            rowPacker.removeEmptyRows();
+        }
+
         if (log.isDebugEnabled()) {
             long dt = System.currentTimeMillis() - t0;
             log.debug("Packed alignments in " + dt);
         }
-
-        // Add the last row
-        if (currentRow != null && currentRow.alignments.size() > 0) {
-            alignmentRows.add(currentRow);
-        }
-
-
     }
 
     private boolean isPairable(Alignment al) {
@@ -485,189 +647,107 @@ public class AlignmentPacker {
         return null;
     }
 
-    interface BucketCollection {
-
-        Range getRange();
-
-        void set(int idx, PriorityQueue<Alignment> bucket);
-
-        PriorityQueue<Alignment> get(int idx);
-
-        PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets);
-
-        void removeBuckets(Collection<Integer> emptyBuckets);
-
-        void finishedAdding();
-
-        int getBucketCount();
-    }
-
     /**
-     * Dense array implementation of BucketCollection.  Assumption is all or nearly all the genome region is covered
-     * with reads.
+     * Allocates alignments,  in order of start position,  to the first row with room for them.  This gives the same
+     * rows as filling one row at a time from left to right,  but each alignment is placed in O(log rows) time with no
+     * per-position buckets.  The position at which each row is next free is kept in a primitive min-tree.
+     * <p>
+     * An alignment can instead be given a preferred row,  from a previous packing,  which it is placed in if the row
+     * has room.  Rows are created as needed to reach the preferred row,  any left empty are removed when done.
      */
-    static class DenseBucketCollection implements BucketCollection {
+    static class RowPacker {
 
-        Range range;
-        int lastBucketNumber = -1;
-        final PriorityQueue[] bucketArray;
+        private final List<Row> rows;
+        private int capacity;
 
-        DenseBucketCollection(int bucketCount, Range range) {
-            this.bucketArray = new PriorityQueue[bucketCount];
-            this.range = range;
-        }
-
-        public void set(int idx, PriorityQueue<Alignment> bucket) {
-            bucketArray[idx] = bucket;
-        }
-
-        public PriorityQueue<Alignment> get(int idx) {
-            return bucketArray[idx];
-        }
+        // Leaves (capacity + i) hold the next free position of row i,  internal nodes the minimum of their children
+        private int[] tree;
 
-        public int getBucketCount() {
-            return this.bucketArray.length;
+        RowPacker(List<Row> rows) {
+            this.rows = rows;
+            this.capacity = 16;
+            this.tree = new int[2 * capacity];
+            Arrays.fill(tree, Integer.MAX_VALUE);
         }
 
-        public Range getRange() {
-            return range;
+        void add(Alignment alignment) {
+            add(alignment, -1);
         }
 
         /**
-         * Return the next occupied bucket after bucketNumber
-         *
-         * @param bucketNumber
-         * @param emptyBuckets ignored
-         * @return
+         * @param preferredRow the row to place the alignment in if it has room,  or -1 for the first free row
          */
-        public PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets) {
-
-            if (bucketNumber == lastBucketNumber) {
-                // TODO -- detect inf loop here
-            }
-
-            PriorityQueue<Alignment> bucket = null;
-            while (bucketNumber < bucketArray.length) {
-
-                if (bucketNumber < 0) {
-                    log.info("Negative bucket number: " + bucketNumber);
+        void add(Alignment alignment, int preferredRow) {
+            int row = -1;
+            if (preferredRow >= 0) {
+                while (rows.size() <= preferredRow) {
+                    addRow();
                 }
-
-                bucket = bucketArray[bucketNumber];
-                if (bucket != null) {
-                    if (bucket.isEmpty()) {
-                        bucketArray[bucketNumber] = null;
-                    } else {
-                        return bucket;
-                    }
+                if (tree[capacity + preferredRow] <= alignment.getStart()) {
+                    row = preferredRow;
                 }
-                bucketNumber++;
             }
-            return null;
-        }
-
-        public void removeBuckets(Collection<Integer> emptyBuckets) {
-            // Nothing to do, empty buckets are removed "on the fly"
-        }
-
-        public void finishedAdding() {
-            // nothing to do
-        }
-    }
-
-
-    /**
-     * "Sparse" implementation of an alignment BucketCollection.  Assumption is there are small clusters of alignments
-     * along the genome, with mostly "white space".
-     */
-    static class SparseBucketCollection implements BucketCollection {
-
-        Range range;
-        boolean finished = false;
-        List<Integer> keys;
-        final HashMap<Integer, PriorityQueue<Alignment>> buckets;
-
-        SparseBucketCollection(Range range) {
-            this.range = range;
-            this.buckets = new HashMap(1000);
-        }
-
-        public void set(int idx, PriorityQueue<Alignment> bucket) {
-            if (finished) {
-                log.error("Error: bucket added after finishAdding() called");
+            if (row < 0) {
+                row = firstFreeRow(alignment.getStart());
+            }
+            if (row < 0) {
+                row = addRow();
             }
-            buckets.put(idx, bucket);
+            rows.get(row).addAlignment(alignment);
+            setNextFree(row, alignment.getEnd() + MIN_ALIGNMENT_SPACING);
         }
 
-        public PriorityQueue<Alignment> get(int idx) {
-            return buckets.get(idx);
+        /**
+         * Add an empty row,  free at every position
+         */
+        private int addRow() {
+            int row = rows.size();
+            if (row == capacity) {
+                grow();
+            }
+            rows.add(new Row());
+            setNextFree(row, Integer.MIN_VALUE);
+            return row;
         }
 
-        public Range getRange() {
-            return range;
+        /**
+         * Remove rows left empty by preferred row placement
+         */
+        void removeEmptyRows() {
+            rows.removeIf(row -> row.alignments.isEmpty());
         }
 
         /**
-         * Return the next occupied bucket at or after after bucketNumber.
-         *
-         * @param bucketNumber -- the hash bucket index for the alignments, essential the position relative to the start
-         *                     of this packing interval
-         * @return the next occupied bucket at or after bucketNumber, or null if there are none.
+         * Return the lowest numbered row which is free at position,  or -1 if there is none.
          */
-        public PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets) {
-
-            PriorityQueue<Alignment> bucket = null;
-            int min = 0;
-            int max = keys.size() - 1;
-
-            // Get close to the right index, rather than scan from the beginning
-            while ((max - min) > 5) {
-                int mid = (max + min) / 2;
-                Integer key = keys.get(mid);
-                if (key > bucketNumber) {
-                    max = mid;
-                } else {
-                    min = mid;
-                }
+        private int firstFreeRow(int position) {
+            if (tree[1] > position) {
+                return -1;
             }
-
-            // Now march from min to max until we cross bucketNumber
-            for (int i = min; i < keys.size(); i++) {
-                Integer key = keys.get(i);
-                if (key >= bucketNumber) {
-                    bucket = buckets.get(key);
-                    if (bucket.isEmpty()) {
-                        emptyBuckets.add(key);
-                        bucket = null;
-                    } else {
-                        return bucket;
-                    }
-                }
+            int node = 1;
+            while (node < capacity) {
+                node = tree[2 * node] <= position ? 2 * node : 2 * node + 1;
             }
-            return null;     // No bucket found
+            return node - capacity;
         }
 
-        public void removeBuckets(Collection<Integer> emptyBuckets) {
-
-            if (emptyBuckets.isEmpty()) {
-                return;
+        private void setNextFree(int row, int position) {
+            int node = capacity + row;
+            tree[node] = position;
+            for (node >>= 1; node >= 1; node >>= 1) {
+                tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
             }
-
-            for (Integer i : emptyBuckets) {
-                buckets.remove(i);
-            }
-            keys = new ArrayList<Integer>(buckets.keySet());
-            Collections.sort(keys);
         }
 
-        public void finishedAdding() {
-            finished = true;
-            keys = new ArrayList<Integer>(buckets.keySet());
-            Collections.sort(keys);
-        }
-
-        public int getBucketCount() {
-            return Integer.MAX_VALUE;
+        private void grow() {
+            int[] newTree = new int[4 * capacity];
+            Arrays.fill(newTree, Integer.MAX_VALUE);
+            System.arraycopy(tree, capacity, newTree, 2 * capacity, capacity);
+            capacity *= 2;
+            tree = newTree;
+            for (int node = capacity - 1; node >= 1; node--) {
+                tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+            }
         }
     }
 
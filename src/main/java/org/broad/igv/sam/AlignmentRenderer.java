@@ -45,6 +45,7 @@ import org.broad.igv.util.ChromosomeColors;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -98,6 +99,8 @@ public class AlignmentRenderer {
     public static final Color GROUP_DIVIDER_COLOR = new Color(200, 200, 200);
     // A "dummy" reference for soft-clipped reads.
     private static byte[] softClippedReference = new byte[1000];
+    // Reused reference buffer for aligned blocks, grown as needed.  One per thread,  as tracks may be rendered in parallel
+    private static final ThreadLocal<byte[]> referenceBuffer = ThreadLocal.withInitial(() -> new byte[1000]);
 
     private static ColorTable readGroupColors;
     private static ColorTable sampleColors;
@@ -399,13 +402,13 @@ public class AlignmentRenderer {
                         continue;
                     }
 
-                    int bpWidth = aBlock.getBases().length;
+                    int bpWidth = aBlock.getLength() - aBlock.getPadding();
                     double pxWidthExact = ((double) bpWidth) / locScale;
                     int h = (int) Math.max(1, rect.getHeight() - 2);
                     int y = (int) (rect.getY() + (rect.getHeight() - h) / 2) - 1;
 
 
-                    if (aBlock.getBases() == null) {
+                    if (!aBlock.hasBases()) {
                         g.setColor(purple);
                         g.fillRect(x, y, (int) pxWidthExact, h);
 
@@ -868,6 +871,27 @@ public class AlignmentRenderer {
     }
 
 
+    /**
+     * Return the reference sequence for an aligned block in the calling thread's reference buffer,  which is valid
+     * until the thread's next call.  Positions past the end of the chromosome are 0.
+     *
+     * @return the buffer,  or null if there is no sequence
+     */
+    private static byte[] getReference(Genome genome, String chr, int start, int end) {
+        int length = end - start;
+        byte[] buffer = referenceBuffer.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, 2 * buffer.length)];
+            referenceBuffer.set(buffer);
+        }
+        int n = genome.getSequence(chr, start, end, buffer, 0);
+        if (n <= 0) {
+            return null;
+        }
+        Arrays.fill(buffer, n, length, (byte) 0);
+        return buffer;
+    }
+
     /**
      * Draw bases for an alignment block.  The bases are "overlaid" on the block with a transparency value (alpha)
      * that is proportional to the base quality score, or flow signal deviation, whichever is selected.
@@ -902,12 +926,21 @@ public class AlignmentRenderer {
         final int end = block.getEnd();
         Genome genome = GenomeManager.getInstance().getCurrentGenome();
 
-        final byte[] reference = isSoftClipped ? softClippedReference : genome.getSequence(chr, start, end);
+        ShadeBasesOption shadeBasesOption = renderOptions.getShadeBasesOption();
+        ColorOption colorOption = renderOptions.getColorOption();
+
+        final byte[] reference;
+        if (isSoftClipped) {
+            reference = softClippedReference;
+        } else if (AlignmentTrack.isBisulfiteColorType(colorOption)) {
+            // Bisulfite context matching depends on the reference array length
+            reference = genome.getSequence(chr, start, end);
+        } else {
+            reference = getReference(genome, chr, start, end);
+        }
 
         boolean haveBases = (block.hasBases() && block.getLength() > 0);
 
-        ShadeBasesOption shadeBasesOption = renderOptions.getShadeBasesOption();
-        ColorOption colorOption = renderOptions.getColorOption();
         final boolean quickConsensus = renderOptions.isQuickConsensusMode();
         final float snpThreshold = prefs.getAsFloat(SAM_ALLELE_THRESHOLD);
 
@@ -1128,7 +1161,7 @@ public class AlignmentRenderer {
                 if (aBlock.getStart() == expandedPosition) continue;   // Skip, will be drawn expanded
 
                 int x = (int) ((aBlock.getStart() - origin) / locScale);
-                int bpWidth = aBlock.getBases().length;
+                int bpWidth = aBlock.getLength() - aBlock.getPadding();
                 double pxWidthExact = ((double) bpWidth) / locScale;
                 int h = (int) Math.max(1, rect.getHeight() - (leaveMargin ? 2 : 0));
                 int y = (int) (rect.getY() + (rect.getHeight() - h) / 2) - (leaveMargin ? 1 : 0);
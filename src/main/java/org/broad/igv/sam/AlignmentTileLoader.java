@@ -32,12 +32,14 @@ import org.broad.igv.Globals;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.BAMReader;
 import org.broad.igv.sam.reader.ReadGroupFilter;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.event.IGVEventBus;
 import org.broad.igv.event.IGVEventObserver;
 import org.broad.igv.event.StopEvent;
 import org.broad.igv.ui.util.MessageUtils;
+import org.broad.igv.util.CacheManager;
 import org.broad.igv.util.ObjectCache;
 import org.broad.igv.util.RuntimeUtils;
 
@@ -45,6 +47,7 @@ import javax.swing.*;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.broad.igv.prefs.Constants.*;
 
@@ -59,13 +62,31 @@ public class AlignmentTileLoader implements IGVEventObserver {
 
     private static Set<WeakReference<AlignmentTileLoader>> activeLoaders = Collections.synchronizedSet(new HashSet());
 
+    /**
+     * Minimum width of a parallel load shard in base pairs.  Alignments that straddle a shard boundary are decoded
+     * twice,  so narrow shards waste work.
+     */
+    static final int MIN_SHARD_WIDTH = 10000;
+
+    /**
+     * Maximum number of shards per loading thread.  Shards are loaded fully into memory before they are consumed,
+     * so a query is split into many small shards of which only a few are in flight at once.
+     */
+    static final int MAX_SHARDS_PER_THREAD = 16;
+
+    private static ExecutorService loadExecutor;
+    private static int loadExecutorThreads;
+
     /**
      * Flag to mark a corrupt index.  Without this attempted reads will continue in an infinite loop
      */
     private boolean corruptIndex = false;
 
     private AlignmentReader reader;
-    private boolean cancel = false;
+    private ReaderFactory shardReaderFactory;
+    private Queue<AlignmentReader> shardReaders = new ConcurrentLinkedQueue<>();
+    private List<AlignmentReader> allShardReaders = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean cancel = false;
     private boolean pairedEnd = false;
     private boolean tenX = false;
     private boolean phased = false;
@@ -85,7 +106,17 @@ public class AlignmentTileLoader implements IGVEventObserver {
 
 
     public AlignmentTileLoader(AlignmentReader reader) {
+        this(reader, null);
+    }
+
+    /**
+     * @param reader             the primary reader
+     * @param shardReaderFactory factory for additional readers on the same file,  used to load tiles on multiple
+     *                           threads.  May be null,  in which case tiles are always loaded serially.
+     */
+    public AlignmentTileLoader(AlignmentReader reader, ReaderFactory shardReaderFactory) {
         this.reader = reader;
+        this.shardReaderFactory = shardReaderFactory;
 
         Set<String> platforms = this.reader.getPlatforms();
         moleculo = platforms != null && platforms.contains("MOLECULO");
@@ -93,6 +124,13 @@ public class AlignmentTileLoader implements IGVEventObserver {
 
     public void close() throws IOException {
         reader.close();
+        synchronized (allShardReaders) {
+            for (AlignmentReader r : allShardReaders) {
+                r.close();
+            }
+            allShardReaders.clear();
+        }
+        shardReaders.clear();
     }
 
     public SAMFileHeader getFileHeader() {
@@ -159,7 +197,7 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 IGV.getInstance().enableStopButton(true);
             }
 
-            iter = reader.query(chr, start, end, false);
+            iter = query(chr, start, end);
 
             while (iter != null && iter.hasNext()) {
 
@@ -301,6 +339,10 @@ public class AlignmentTileLoader implements IGVEventObserver {
             // TODO -- make this optional (on a preference)
             InsertionManager.getInstance().processAlignments(chr, t.alignments);
 
+            if (!reducedMemory && prefMgr.getAsBoolean(SAM_COLUMNAR_STORE)) {
+                t.packColumnar(chr);
+            }
+
 
         } catch (java.nio.BufferUnderflowException e) {
             // This almost always indicates a corrupt BAM index, or less frequently a corrupt bam file
@@ -340,13 +382,95 @@ public class AlignmentTileLoader implements IGVEventObserver {
     }
 
 
+    /**
+     * Query alignments overlapping the range,  in file order.  If parallel loading is enabled and supported by the
+     * reader the range is split into shards which are decoded concurrently,  otherwise this is a simple pass-through
+     * to the reader.
+     */
+    private CloseableIterator<Alignment> query(String chr, int start, int end) throws IOException {
+
+        int nThreads = PreferencesManager.getPreferences().getAsInt(SAM_LOADER_THREADS);
+        int nShards = Math.min(MAX_SHARDS_PER_THREAD * nThreads, (end - start) / MIN_SHARD_WIDTH);
+
+        if (nThreads < 2 || nShards < 2 || shardReaderFactory == null ||
+                !(reader instanceof BAMReader) || !reader.hasIndex()) {
+            return reader.query(chr, start, end, false);
+        }
+
+        int shardWidth = (int) Math.ceil(((double) (end - start)) / nShards);
+        List<Callable<List<Alignment>>> shards = new ArrayList<>(nShards);
+        for (int s = start; s < end; s += shardWidth) {
+            final int shardStart = s;
+            final int shardEnd = Math.min(end, s + shardWidth);
+            final boolean first = (s == start);
+            shards.add(() -> loadShard(chr, shardStart, shardEnd, first));
+        }
+        return new ShardIterator(shards, getLoadExecutor(nThreads), 2 * nThreads);
+    }
+
+    /**
+     * Decode all alignments overlapping the shard.  Alignments starting before the shard start are skipped, they
+     * belong to the previous shard,  unless this is the first shard of the query.
+     */
+    private List<Alignment> loadShard(String chr, int shardStart, int shardEnd, boolean first) throws IOException {
+
+        List<Alignment> alignments = new ArrayList<>();
+        if (cancel) return alignments;
+
+        AlignmentReader shardReader = shardReaders.poll();
+        if (shardReader == null) {
+            shardReader = shardReaderFactory.getReader();
+            allShardReaders.add(shardReader);
+        }
+        CloseableIterator<Alignment> iter = null;
+        try {
+            iter = shardReader.query(chr, shardStart, shardEnd, false);
+            while (iter.hasNext() && !cancel) {
+                Alignment alignment = iter.next();
+                if (first || alignment.getAlignmentStart() >= shardStart) {
+                    alignments.add(alignment);
+                }
+            }
+        } finally {
+            if (iter != null) iter.close();
+            shardReaders.add(shardReader);
+        }
+        return alignments;
+    }
+
+    /**
+     * Return the shared loader pool,  replacing it if the thread count has changed.  The replaced pool is shut down,
+     * which lets its queued shards finish,  queries still holding it load their remaining shards on the consuming
+     * thread.
+     */
+    private static synchronized ExecutorService getLoadExecutor(int nThreads) {
+        if (loadExecutor == null || loadExecutorThreads != nThreads) {
+            if (loadExecutor != null) {
+                loadExecutor.shutdown();
+            }
+            loadExecutor = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r, "Alignment loader");
+                t.setDaemon(true);
+                return t;
+            });
+            loadExecutorThreads = nThreads;
+        }
+        return loadExecutor;
+    }
+
     private static synchronized boolean memoryTooLow() {
         if (RuntimeUtils.getAvailableMemoryFraction() < 0.2) {
             System.gc();
             if (RuntimeUtils.getAvailableMemoryFraction() < 0.2) {
-                String msg = "Memory is low, reading terminating.";
-                MessageUtils.showMessage(msg);
-                return true;
+                // Release cached data,  least valuable caches first,  before giving up on the load
+                if (CacheManager.getInstance().reclaimForLowMemory(0.2) > 0) {
+                    System.gc();
+                }
+                if (RuntimeUtils.getAvailableMemoryFraction() < 0.2) {
+                    String msg = "Memory is low, reading terminating.";
+                    MessageUtils.showMessage(msg);
+                    return true;
+                }
             }
 
         }
@@ -394,6 +518,88 @@ public class AlignmentTileLoader implements IGVEventObserver {
         return reader.getSequenceDictionary();
     }
 
+    /**
+     * Creates additional readers for the file,  one per parallel loading thread.
+     */
+    public interface ReaderFactory {
+        AlignmentReader getReader() throws IOException;
+    }
+
+    /**
+     * Iterates over the results of parallel shard loads,  in shard order.  The concatenation of shards is identical
+     * to the result of a serial query over the entire range.  Shards are submitted as the consumer advances,  so at
+     * most {@code maxInFlight} shards are loading or waiting to be consumed,  bounding memory use independently of
+     * the query width.
+     */
+    private class ShardIterator implements CloseableIterator<Alignment> {
+
+        private final Iterator<Callable<List<Alignment>>> shards;
+        private final ExecutorService executor;
+        private final Deque<Future<List<Alignment>>> futures = new ArrayDeque<>();
+        private Iterator<Alignment> current = Collections.emptyIterator();
+
+        ShardIterator(List<Callable<List<Alignment>>> shards, ExecutorService executor, int maxInFlight) {
+            this.shards = shards.iterator();
+            this.executor = executor;
+            for (int i = 0; i < maxInFlight && this.shards.hasNext(); i++) {
+                futures.add(submit(this.shards.next()));
+            }
+        }
+
+        /**
+         * Submit a shard to the executor,  or load it on this thread if the executor has been shut down because the
+         * loader thread count changed.
+         */
+        private Future<List<Alignment>> submit(Callable<List<Alignment>> shard) {
+            try {
+                return executor.submit(shard);
+            } catch (RejectedExecutionException e) {
+                FutureTask<List<Alignment>> task = new FutureTask<>(shard);
+                task.run();
+                return task;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && !futures.isEmpty() && !cancel) {
+                Future<List<Alignment>> future = futures.poll();
+                if (shards.hasNext()) {
+                    futures.add(submit(shards.next()));
+                }
+                try {
+                    current = future.get().iterator();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
+                }
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Alignment next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            for (Future<List<Alignment>> future : futures) {
+                future.cancel(false);
+            }
+            futures.clear();
+            current = Collections.emptyIterator();
+        }
+    }
+
     /**
      * Caches alignments, coverage, splice junctions, and downsampled intervals
      */
@@ -451,6 +657,8 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 this.counts = new ReducedMemoryAlignment.ReducedMemoryAlignmentCounts(start, end, 25);
             } else if ((end - start) > 10000000) {
                 this.counts = new SparseAlignmentCounts(start, end, bisulfiteContext);
+            } else if (PreferencesManager.getPreferences().getAsBoolean(SAM_COMPACT_COUNTS)) {
+                this.counts = new CompactAlignmentCounts(start, end, bisulfiteContext);
             } else {
                 this.counts = new DenseAlignmentCounts(start, end, bisulfiteContext);
             }
@@ -670,6 +878,16 @@ public class AlignmentTileLoader implements IGVEventObserver {
             return counts;
         }
 
+        /**
+         * Move the alignments to an off-heap columnar store.  Must be called after {@link #finish()}, the counts
+         * and mate sequences are computed from the original alignments.
+         */
+        void packColumnar(String chr) {
+            if (alignments != null && alignments.size() > 0) {
+                alignments = ColumnarAlignmentStore.pack(chr, alignments);
+            }
+        }
+
 
         private void finalizeSpliceJunctions() {
             if (spliceJunctionHelper != null) {
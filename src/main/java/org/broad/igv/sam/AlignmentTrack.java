@@ -418,6 +418,14 @@ public class AlignmentTrack extends AbstractTrack implements IGVEventObserver {
         dataManager.load(referenceFrame, renderOptions, true);
     }
 
+    /**
+     * Loaded intervals are cached by genomic range in the data manager
+     */
+    @Override
+    public boolean isLoadCachedAcrossFrames() {
+        return true;
+    }
+
     public void render(RenderContext context, Rectangle rect) {
 
         Graphics2D g = context.getGraphics2D("LABEL");
@@ -0,0 +1,861 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.BinaryTagCodec;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTag;
+import htsjdk.samtools.util.BinaryCodec;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.sam.lite.BAMAlignment;
+import org.broad.igv.track.WindowFunction;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Columnar, off-heap storage for the alignments of a tile.  Fixed width fields (positions, flags, mapping quality,
+ * block and gap tables) are stored in direct int buffers,  variable length data (read names, cigars, sequences,
+ * bases, qualities, and tags) in a direct byte buffer.  Alignments are accessed through small {@link Alignment}
+ * views which hold the store and a record index,  so heap use and GC work are independent of read length,
+ * block count, and tag content.  Block, insertion, and gap objects, and copies of bases and qualities, are decoded
+ * on each request and not retained by the views,  so painting a region does not move its reads back onto the heap.
+ * <p>
+ * The store is immutable once built,  with the exception of the block pixel ranges which are set by the renderer,
+ * and haplotype labels which are set by read clustering.
+ */
+public class ColumnarAlignmentStore {
+
+    // Record fields
+    private static final int R_START = 0;
+    private static final int R_END = 1;
+    private static final int R_ALIGNMENT_START = 2;
+    private static final int R_ALIGNMENT_END = 3;
+    private static final int R_FLAGS = 4;
+    private static final int R_MAPQ = 5;
+    private static final int R_INSERT_SIZE = 6;
+    private static final int R_MATE_CHR = 7;
+    private static final int R_MATE_START = 8;
+    private static final int R_BLOCKS = 9;
+    private static final int R_N_BLOCKS = 10;
+    private static final int R_N_INSERTIONS = 11;
+    private static final int R_GAPS = 12;
+    private static final int R_N_GAPS = 13;
+    private static final int R_NAME = 14;
+    private static final int R_CIGAR = 15;
+    private static final int R_SEQUENCE = 16;
+    private static final int R_TAGS = 17;
+    private static final int R_READ_GROUP = 18;
+    private static final int R_SAMPLE = 19;
+    private static final int R_LIBRARY = 20;
+    private static final int R_PAIR_ORIENTATION = 21;
+    private static final int R_YC_COLOR = 22;
+    private static final int R_STRANDS = 23;
+    private static final int R_READ_LENGTH = 24;
+    private static final int R_MATE_SEQUENCE = 25;
+    private static final int R_HAP_DISTANCE = 26;
+    private static final int RECORD_INTS = 27;
+
+    // Block fields.  Insertions are stored in the block table,  following the alignment blocks of a record
+    private static final int B_START = 0;
+    private static final int B_LENGTH = 1;
+    private static final int B_PADDING = 2;
+    private static final int B_BASES = 3;
+    private static final int B_QUALITIES = 4;
+    private static final int B_FLAGS = 5;
+    private static final int B_PIXEL_START = 6;
+    private static final int B_PIXEL_END = 7;
+    private static final int BLOCK_INTS = 8;
+
+    // Gap fields
+    private static final int G_START = 0;
+    private static final int G_N_BASES = 1;
+    private static final int G_TYPE = 2;
+    private static final int G_FLANKING_LEFT = 3;
+    private static final int G_FLANKING_RIGHT = 4;
+    private static final int GAP_INTS = 5;
+
+    // Record flags
+    private static final int F_NEGATIVE_STRAND = 0x1;
+    private static final int F_PAIRED = 0x2;
+    private static final int F_PROPER_PAIR = 0x4;
+    private static final int F_FIRST_OF_PAIR = 0x8;
+    private static final int F_SECOND_OF_PAIR = 0x10;
+    private static final int F_DUPLICATE = 0x20;
+    private static final int F_PRIMARY = 0x40;
+    private static final int F_SUPPLEMENTARY = 0x80;
+    private static final int F_VENDOR_FAILED = 0x100;
+    private static final int F_HAS_MATE = 0x200;
+    private static final int F_MATE_NEGATIVE_STRAND = 0x400;
+    private static final int F_MATE_UNMAPPED = 0x800;
+    private static final int F_SPLICE_GAP = 0x1000;
+
+    // Block flags
+    private static final int BF_SOFT_CLIPPED = 0x1;
+    private static final int BF_HAS_BASES = 0x2;
+    private static final int BF_HAS_QUALITIES = 0x4;
+
+    private static final int NULL = -1;
+
+    private final String chr;
+    private final int size;
+    private final IntBuffer records;
+    private final IntBuffer blocks;
+    private final IntBuffer gaps;
+    private final ByteBuffer data;
+
+    /**
+     * Distinct strings (mate chromosomes, read groups, samples, libraries, pair orientations).  These are few
+     * per tile so are kept on the heap.
+     */
+    private final List<String> strings;
+
+    /**
+     * Haplotype labels,  allocated when the first label is set
+     */
+    private volatile String[] haplotypeNames;
+
+    /**
+     * Pack the alignments into a new store, and return views of the packed alignments in the same order.
+     * The source alignments are not retained.
+     */
+    public static List<Alignment> pack(String chr, List<Alignment> alignments) {
+        ColumnarAlignmentStore store = new ColumnarAlignmentStore(chr, alignments);
+        List<Alignment> views = new ArrayList<>(store.size);
+        for (int i = 0; i < store.size; i++) {
+            views.add(new ColumnarAlignment(store, i));
+        }
+        return views;
+    }
+
+    private ColumnarAlignmentStore(String chr, List<Alignment> alignments) {
+
+        this.chr = chr;
+        this.size = alignments.size();
+
+        // First pass,  compute buffer sizes
+        int nBlocks = 0;
+        int nGaps = 0;
+        int nBytes = 0;
+        List<byte[]> tags = new ArrayList<>(size);
+        for (Alignment a : alignments) {
+            for (AlignmentBlock[] bs : new AlignmentBlock[][]{a.getAlignmentBlocks(), a.getInsertions()}) {
+                if (bs == null) continue;
+                nBlocks += bs.length;
+                for (AlignmentBlock b : bs) {
+                    if (b.getBases() != null) nBytes += b.getBases().length;
+                    if (b.getQualities() != null) nBytes += b.getQualities().length;
+                }
+            }
+            if (a.getGaps() != null) nGaps += a.getGaps().size();
+            byte[] t = encodeTags(a);
+            tags.add(t);
+            nBytes += byteLength(a.getReadName()) + byteLength(a.getCigarString()) + byteLength(a.getReadSequence()) +
+                    byteLength(getMateSequence(a)) + (t == null ? 0 : 4 + t.length);
+        }
+
+        records = ByteBuffer.allocateDirect(4 * RECORD_INTS * size).asIntBuffer();
+        blocks = ByteBuffer.allocateDirect(4 * BLOCK_INTS * nBlocks).asIntBuffer();
+        gaps = ByteBuffer.allocateDirect(4 * GAP_INTS * nGaps).asIntBuffer();
+        data = ByteBuffer.allocateDirect(nBytes);
+        strings = new ArrayList<>();
+        Map<String, Integer> stringIndex = new HashMap<>();
+
+        // Second pass, copy
+        int blockIdx = 0;
+        int gapIdx = 0;
+        for (int i = 0; i < size; i++) {
+            Alignment a = alignments.get(i);
+            int r = i * RECORD_INTS;
+
+            records.put(r + R_START, a.getStart());
+            records.put(r + R_END, a.getEnd());
+            records.put(r + R_ALIGNMENT_START, a.getAlignmentStart());
+            records.put(r + R_ALIGNMENT_END, a.getAlignmentEnd());
+            records.put(r + R_MAPQ, a.getMappingQuality());
+            records.put(r + R_INSERT_SIZE, a.getInferredInsertSize());
+            records.put(r + R_NAME, putString(a.getReadName()));
+            records.put(r + R_CIGAR, putString(a.getCigarString()));
+            records.put(r + R_SEQUENCE, putString(a.getReadSequence()));
+            records.put(r + R_TAGS, putBytes(tags.get(i)));
+            records.put(r + R_MATE_SEQUENCE, putString(getMateSequence(a)));
+            records.put(r + R_READ_LENGTH, a instanceof SAMAlignment ? ((SAMAlignment) a).getReadLength() :
+                    (a.getReadSequence() == null ? 0 : a.getReadSequence().length()));
+            records.put(r + R_HAP_DISTANCE, a.getHapDistance());
+            records.put(r + R_READ_GROUP, internString(a.getReadGroup(), stringIndex));
+            records.put(r + R_SAMPLE, internString(a.getSample(), stringIndex));
+            records.put(r + R_LIBRARY, internString(a.getLibrary(), stringIndex));
+            records.put(r + R_PAIR_ORIENTATION, internString(a.getPairOrientation(), stringIndex));
+            Color yc = a.getYcColor();
+            records.put(r + R_YC_COLOR, yc == null ? NULL : yc.getRGB() & 0xFFFFFF);
+            records.put(r + R_STRANDS, (encodeStrand(a.getFirstOfPairStrand()) << 2) | encodeStrand(a.getSecondOfPairStrand()));
+
+            int flags = 0;
+            if (a.isNegativeStrand()) flags |= F_NEGATIVE_STRAND;
+            if (a.isPaired()) flags |= F_PAIRED;
+            if (a.isProperPair()) flags |= F_PROPER_PAIR;
+            if (a.isFirstOfPair()) flags |= F_FIRST_OF_PAIR;
+            if (a.isSecondOfPair()) flags |= F_SECOND_OF_PAIR;
+            if (a.isDuplicate()) flags |= F_DUPLICATE;
+            if (a.isPrimary()) flags |= F_PRIMARY;
+            if (a.isSupplementary()) flags |= F_SUPPLEMENTARY;
+            if (a.isVendorFailedRead()) flags |= F_VENDOR_FAILED;
+
+            ReadMate mate = a.getMate();
+            if (mate != null) {
+                flags |= F_HAS_MATE;
+                if (mate.isNegativeStrand()) flags |= F_MATE_NEGATIVE_STRAND;
+                if (!mate.isMapped()) flags |= F_MATE_UNMAPPED;
+                records.put(r + R_MATE_CHR, internString(mate.getChr(), stringIndex));
+                records.put(r + R_MATE_START, mate.getStart());
+            }
+
+            records.put(r + R_BLOCKS, blockIdx);
+            AlignmentBlock[] alignmentBlocks = a.getAlignmentBlocks();
+            records.put(r + R_N_BLOCKS, alignmentBlocks == null ? NULL : alignmentBlocks.length);
+            if (alignmentBlocks != null) {
+                for (AlignmentBlock b : alignmentBlocks) putBlock(blockIdx++, b);
+            }
+            AlignmentBlock[] insertions = a.getInsertions();
+            records.put(r + R_N_INSERTIONS, insertions == null ? NULL : insertions.length);
+            if (insertions != null) {
+                for (AlignmentBlock b : insertions) putBlock(blockIdx++, b);
+            }
+
+            records.put(r + R_GAPS, gapIdx);
+            List<Gap> alignmentGaps = a.getGaps();
+            records.put(r + R_N_GAPS, alignmentGaps == null ? NULL : alignmentGaps.size());
+            if (alignmentGaps != null) {
+                for (Gap gap : alignmentGaps) {
+                    int g = gapIdx * GAP_INTS;
+                    gaps.put(g + G_START, gap.getStart());
+                    gaps.put(g + G_N_BASES, gap.getnBases());
+                    gaps.put(g + G_TYPE, gap.getType());
+                    if (gap instanceof SpliceGap) {
+                        flags |= F_SPLICE_GAP;
+                        gaps.put(g + G_FLANKING_LEFT, ((SpliceGap) gap).getFlankingLeft());
+                        gaps.put(g + G_FLANKING_RIGHT, ((SpliceGap) gap).getFlankingRight());
+                    }
+                    gapIdx++;
+                }
+            }
+            records.put(r + R_FLAGS, flags);
+
+            String hap = a.getHaplotypeName();
+            if (hap != null) setHaplotypeName(i, hap);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes allocated off-heap
+     */
+    public long getOffHeapBytes() {
+        return 4L * (records.capacity() + blocks.capacity() + gaps.capacity()) + data.capacity();
+    }
+
+    private void putBlock(int idx, AlignmentBlock b) {
+        int o = idx * BLOCK_INTS;
+        byte[] bases = b.getBases();
+        byte[] quals = b.getQualities();
+        blocks.put(o + B_START, b.getStart());
+        blocks.put(o + B_LENGTH, bases != null ? bases.length : b.getLength() - b.getPadding());
+        blocks.put(o + B_PADDING, b.getPadding());
+        blocks.put(o + B_BASES, bases == null ? NULL : putRaw(bases));
+        blocks.put(o + B_QUALITIES, quals == null ? NULL : putRaw(quals));
+        int flags = 0;
+        if (b.isSoftClipped()) flags |= BF_SOFT_CLIPPED;
+        if (bases != null) flags |= BF_HAS_BASES;
+        if (quals != null) flags |= BF_HAS_QUALITIES;
+        blocks.put(o + B_FLAGS, flags);
+    }
+
+    private static int byteLength(String s) {
+        return s == null ? 0 : 4 + s.length();
+    }
+
+    private int putString(String s) {
+        return s == null ? NULL : putBytes(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Store a length prefixed byte array, return its offset
+     */
+    private int putBytes(byte[] bytes) {
+        if (bytes == null) return NULL;
+        int offset = data.position();
+        data.putInt(bytes.length);
+        data.put(bytes);
+        return offset;
+    }
+
+    /**
+     * Store a byte array without a length prefix,  the length is known from the block table
+     */
+    private int putRaw(byte[] bytes) {
+        int offset = data.position();
+        data.put(bytes);
+        return offset;
+    }
+
+    private int internString(String s, Map<String, Integer> stringIndex) {
+        if (s == null) return NULL;
+        Integer idx = stringIndex.get(s);
+        if (idx == null) {
+            idx = strings.size();
+            strings.add(s);
+            stringIndex.put(s, idx);
+        }
+        return idx;
+    }
+
+    private static int encodeStrand(Strand strand) {
+        return strand == Strand.POSITIVE ? 1 : (strand == Strand.NEGATIVE ? 2 : 0);
+    }
+
+    private static Strand decodeStrand(int code) {
+        return code == 1 ? Strand.POSITIVE : (code == 2 ? Strand.NEGATIVE : Strand.NONE);
+    }
+
+    private static String getMateSequence(Alignment a) {
+        return a instanceof SAMAlignment ? ((SAMAlignment) a).mateSequence : null;
+    }
+
+    /**
+     * Encode the tags of an alignment in BAM binary form,  which preserves the value types.  Only alignments read
+     * with htsjdk or the lite BAM reader have enumerable tags.
+     */
+    private static byte[] encodeTags(Alignment a) {
+        if (a instanceof BAMAlignment) {
+            byte[] bytes = ((BAMAlignment) a).getTagBytes();
+            return bytes.length == 0 ? null : bytes;
+        }
+        if (!(a instanceof PicardAlignment)) return null;
+        SAMRecord record = ((PicardAlignment) a).getRecord();
+        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
+        if (attributes == null || attributes.isEmpty()) return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryTagCodec codec = new BinaryTagCodec(new BinaryCodec(bytes));
+        for (SAMRecord.SAMTagAndValue tv : attributes) {
+            codec.writeTag(SAMTag.makeBinaryTag(tv.tag), tv.value, record.isUnsignedArrayAttribute(tv.tag));
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] getBytes(int offset) {
+        if (offset == NULL) return null;
+        int len = data.getInt(offset);
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = data.get(offset + 4 + i);
+        }
+        return bytes;
+    }
+
+    private String getString(int offset) {
+        byte[] bytes = getBytes(offset);
+        return bytes == null ? null : new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private String getInterned(int idx) {
+        return idx == NULL ? null : strings.get(idx);
+    }
+
+    private int get(int record, int field) {
+        return records.get(record * RECORD_INTS + field);
+    }
+
+    private boolean hasFlag(int record, int flag) {
+        return (get(record, R_FLAGS) & flag) != 0;
+    }
+
+    /**
+     * Return a little endian buffer positioned at the tags of a record,  limited to their end,  or null if the
+     * record has no tags
+     */
+    private ByteBuffer getTagBuffer(int record) {
+        int offset = get(record, R_TAGS);
+        if (offset == NULL) return null;
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(offset + 4 + data.getInt(offset));
+        buffer.position(offset + 4);
+        return buffer;
+    }
+
+    /**
+     * Return the value of a tag.  The tags are scanned in place,  only the requested value is decoded.
+     */
+    private Object getTag(int record, String key) {
+        ByteBuffer buffer = getTagBuffer(record);
+        if (buffer == null) return null;
+        byte k0 = (byte) key.charAt(0);
+        byte k1 = (byte) key.charAt(1);
+        while (buffer.hasRemaining()) {
+            int p = buffer.position();
+            buffer.position(p + 2);
+            char type = (char) buffer.get();
+            if (buffer.get(p) == k0 && buffer.get(p + 1) == k1) {
+                return BAMAlignment.readValue(type, buffer);
+            }
+            BAMAlignment.skipValue(type, buffer);
+        }
+        return null;
+    }
+
+    private List<SAMRecord.SAMTagAndValue> getTags(int record) {
+        ByteBuffer buffer = getTagBuffer(record);
+        if (buffer == null) return null;
+        List<SAMRecord.SAMTagAndValue> tags = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            int p = buffer.position();
+            String tag = new String(new byte[]{buffer.get(p), buffer.get(p + 1)}, StandardCharsets.US_ASCII);
+            buffer.position(p + 2);
+            char type = (char) buffer.get();
+            tags.add(new SAMRecord.SAMTagAndValue(tag, BAMAlignment.readValue(type, buffer)));
+        }
+        return tags;
+    }
+
+    private synchronized void setHaplotypeName(int record, String name) {
+        if (haplotypeNames == null) {
+            haplotypeNames = new String[size];
+        }
+        haplotypeNames[record] = name;
+    }
+
+    private String getHaplotypeName(int record) {
+        String[] names = haplotypeNames;
+        return names == null ? null : names[record];
+    }
+
+    /**
+     * Flyweight view of a stored alignment
+     */
+    static class ColumnarAlignment implements Alignment {
+
+        private final ColumnarAlignmentStore store;
+        private final int idx;
+
+        ColumnarAlignment(ColumnarAlignmentStore store, int idx) {
+            this.store = store;
+            this.idx = idx;
+        }
+
+        public String getReadName() {
+            return store.getString(store.get(idx, R_NAME));
+        }
+
+        public String getReadSequence() {
+            return store.getString(store.get(idx, R_SEQUENCE));
+        }
+
+        public String getChr() {
+            return store.chr;
+        }
+
+        @Override
+        public String getContig() {
+            return store.chr;
+        }
+
+        public int getStart() {
+            return store.get(idx, R_START);
+        }
+
+        public void setStart(int start) {
+            store.records.put(idx * RECORD_INTS + R_START, start);
+        }
+
+        public int getEnd() {
+            return store.get(idx, R_END);
+        }
+
+        public void setEnd(int end) {
+            store.records.put(idx * RECORD_INTS + R_END, end);
+        }
+
+        public int getAlignmentStart() {
+            return store.get(idx, R_ALIGNMENT_START);
+        }
+
+        public int getAlignmentEnd() {
+            return store.get(idx, R_ALIGNMENT_END);
+        }
+
+        public boolean contains(double location) {
+            return location >= getStart() && location < getEnd();
+        }
+
+        public AlignmentBlock[] getAlignmentBlocks() {
+            int n = store.get(idx, R_N_BLOCKS);
+            return n == NULL ? null : blockViews(store.get(idx, R_BLOCKS), n);
+        }
+
+        public AlignmentBlock[] getInsertions() {
+            int n = store.get(idx, R_N_INSERTIONS);
+            return n == NULL ? null : blockViews(firstInsertion(), n);
+        }
+
+        private int firstInsertion() {
+            return store.get(idx, R_BLOCKS) + Math.max(0, store.get(idx, R_N_BLOCKS));
+        }
+
+        @Override
+        public AlignmentBlock getInsertionAt(int position) {
+            // Scan the block table,  only the matching insertion is decoded
+            int n = store.get(idx, R_N_INSERTIONS);
+            int first = firstInsertion();
+            for (int i = first; i < first + n; i++) {
+                int start = store.blocks.get(i * BLOCK_INTS + B_START);
+                if (start == position) return new ColumnarBlock(store, i);
+                if (start > position) return null;  // Blocks increase linearly
+            }
+            return null;
+        }
+
+        private AlignmentBlock[] blockViews(int first, int n) {
+            AlignmentBlock[] views = new AlignmentBlock[n];
+            for (int i = 0; i < n; i++) {
+                views[i] = new ColumnarBlock(store, first + i);
+            }
+            return views;
+        }
+
+        public String getCigarString() {
+            return store.getString(store.get(idx, R_CIGAR));
+        }
+
+        public List<Gap> getGaps() {
+            int n = store.get(idx, R_N_GAPS);
+            if (n == NULL) return null;
+            boolean splice = store.hasFlag(idx, F_SPLICE_GAP);
+            int first = store.get(idx, R_GAPS);
+            List<Gap> gapList = new ArrayList<>(n);
+            for (int i = first; i < first + n; i++) {
+                int g = i * GAP_INTS;
+                int start = store.gaps.get(g + G_START);
+                int nBases = store.gaps.get(g + G_N_BASES);
+                char type = (char) store.gaps.get(g + G_TYPE);
+                if (splice && type == SAMAlignment.SKIPPED_REGION) {
+                    gapList.add(new SpliceGap(start, nBases, type,
+                            store.gaps.get(g + G_FLANKING_LEFT), store.gaps.get(g + G_FLANKING_RIGHT)));
+                } else {
+                    gapList.add(new Gap(start, nBases, type));
+                }
+            }
+            return Collections.unmodifiableList(gapList);
+        }
+
+        public int getInferredInsertSize() {
+            return store.get(idx, R_INSERT_SIZE);
+        }
+
+        public int getMappingQuality() {
+            return store.get(idx, R_MAPQ);
+        }
+
+        public ReadMate getMate() {
+            if (!store.hasFlag(idx, F_HAS_MATE)) return null;
+            return new ReadMate(store.getInterned(store.get(idx, R_MATE_CHR)), store.get(idx, R_MATE_START),
+                    store.hasFlag(idx, F_MATE_NEGATIVE_STRAND), store.hasFlag(idx, F_MATE_UNMAPPED));
+        }
+
+        public Strand getReadStrand() {
+            return isNegativeStrand() ? Strand.NEGATIVE : Strand.POSITIVE;
+        }
+
+        public boolean isProperPair() {
+            return store.hasFlag(idx, F_PROPER_PAIR);
+        }
+
+        public boolean isMapped() {
+            return true;
+        }
+
+        public boolean isPaired() {
+            return store.hasFlag(idx, F_PAIRED);
+        }
+
+        public boolean isFirstOfPair() {
+            return store.hasFlag(idx, F_FIRST_OF_PAIR);
+        }
+
+        public boolean isSecondOfPair() {
+            return store.hasFlag(idx, F_SECOND_OF_PAIR);
+        }
+
+        public boolean isNegativeStrand() {
+            return store.hasFlag(idx, F_NEGATIVE_STRAND);
+        }
+
+        public boolean isDuplicate() {
+            return store.hasFlag(idx, F_DUPLICATE);
+        }
+
+        public boolean isPrimary() {
+            return store.hasFlag(idx, F_PRIMARY);
+        }
+
+        public boolean isSupplementary() {
+            return store.hasFlag(idx, F_SUPPLEMENTARY);
+        }
+
+        public boolean isVendorFailedRead() {
+            return store.hasFlag(idx, F_VENDOR_FAILED);
+        }
+
+        public byte getBase(double position) {
+            AlignmentBlock block = getBlockContaining((int) position);
+            return block == null ? 0 : block.getBase((int) position - block.getStart());
+        }
+
+        public byte getPhred(double position) {
+            AlignmentBlock block = getBlockContaining((int) position);
+            return block == null ? 0 : block.getQuality((int) position - block.getStart());
+        }
+
+        private AlignmentBlock getBlockContaining(int position) {
+            int n = store.get(idx, R_N_BLOCKS);
+            int first = store.get(idx, R_BLOCKS);
+            for (int i = first; i < first + n; i++) {
+                int b = i * BLOCK_INTS;
+                int o = position - store.blocks.get(b + B_START);
+                if (o >= 0 && o < store.blocks.get(b + B_LENGTH) + store.blocks.get(b + B_PADDING)) {
+                    return new ColumnarBlock(store, i);
+                }
+            }
+            return null;
+        }
+
+        public Object getAttribute(String key) {
+            return key.length() == 2 ? store.getTag(idx, key) :
+                    (key.equals("TEMPLATE_ORIENTATION") ? getPairOrientation() : null);
+        }
+
+        public void setMateSequence(String sequence) {
+            // Ignore,  the store is immutable.  Mate sequences are set before packing.
+        }
+
+        @Override
+        public void setHaplotypeName(String hap) {
+            store.setHaplotypeName(idx, hap);
+        }
+
+        @Override
+        public String getHaplotypeName() {
+            return store.getHaplotypeName(idx);
+        }
+
+        @Override
+        public void setHapDistance(int dist) {
+            store.records.put(idx * RECORD_INTS + R_HAP_DISTANCE, dist);
+        }
+
+        @Override
+        public int getHapDistance() {
+            return store.get(idx, R_HAP_DISTANCE);
+        }
+
+        public String getPairOrientation() {
+            String po = store.getInterned(store.get(idx, R_PAIR_ORIENTATION));
+            return po == null ? "" : po;
+        }
+
+        public Strand getFirstOfPairStrand() {
+            return decodeStrand(store.get(idx, R_STRANDS) >> 2);
+        }
+
+        public Strand getSecondOfPairStrand() {
+            return decodeStrand(store.get(idx, R_STRANDS) & 0x3);
+        }
+
+        public Color getYcColor() {
+            int rgb = store.get(idx, R_YC_COLOR);
+            return rgb == NULL ? null : new Color(rgb);
+        }
+
+        public String getSample() {
+            return store.getInterned(store.get(idx, R_SAMPLE));
+        }
+
+        public String getReadGroup() {
+            return store.getInterned(store.get(idx, R_READ_GROUP));
+        }
+
+        public String getLibrary() {
+            return store.getInterned(store.get(idx, R_LIBRARY));
+        }
+
+        public float getScore() {
+            return getMappingQuality();
+        }
+
+        public String getClipboardString(double location, int mouseX) {
+            return getValueString(location, mouseX, false);
+        }
+
+        public String getValueString(double position, int mouseX, WindowFunction ignored) {
+            return getValueString(position, mouseX, true);
+        }
+
+        private String getValueString(double position, int mouseX, boolean truncate) {
+            return SAMAlignment.getValueString(this, position, mouseX, store.get(idx, R_READ_LENGTH),
+                    () -> {
+                        List<SAMRecord.SAMTagAndValue> tags = store.getTags(idx);
+                        return tags == null ? null : PicardAlignment.getAttributeString(tags, truncate);
+                    },
+                    store.getString(store.get(idx, R_MATE_SEQUENCE)));
+        }
+
+        public void finish() {
+        }
+
+        public LocusScore copy() {
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ColumnarAlignment && ((ColumnarAlignment) o).store == store && ((ColumnarAlignment) o).idx == idx;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + idx;
+        }
+    }
+
+    /**
+     * Flyweight view of a stored alignment block
+     */
+    static class ColumnarBlock implements AlignmentBlock {
+
+        private final ColumnarAlignmentStore store;
+        private final int offset;
+
+        ColumnarBlock(ColumnarAlignmentStore store, int idx) {
+            this.store = store;
+            this.offset = idx * BLOCK_INTS;
+        }
+
+        private int get(int field) {
+            return store.blocks.get(offset + field);
+        }
+
+        public boolean contains(int position) {
+            int o = position - getStart();
+            return o >= 0 && o < getLength();
+        }
+
+        public int getLength() {
+            return get(B_LENGTH) + get(B_PADDING);
+        }
+
+        @Override
+        public int getPadding() {
+            return get(B_PADDING);
+        }
+
+        public byte getBase(int o) {
+            int bases = get(B_BASES);
+            return bases != NULL && o < get(B_LENGTH) ? store.data.get(bases + o) : 0;
+        }
+
+        /**
+         * @return a copy of the bases,  prefer {@link #getBase(int)} which reads the store directly
+         */
+        public byte[] getBases() {
+            return copy(get(B_BASES));
+        }
+
+        public int getStart() {
+            return get(B_START);
+        }
+
+        public byte getQuality(int o) {
+            int quals = get(B_QUALITIES);
+            return quals == NULL || o >= get(B_LENGTH) ? (byte) 126 : store.data.get(quals + o);
+        }
+
+        /**
+         * @return a copy of the qualities,  prefer {@link #getQuality(int)} which reads the store directly
+         */
+        public byte[] getQualities() {
+            return copy(get(B_QUALITIES));
+        }
+
+        private byte[] copy(int dataOffset) {
+            if (dataOffset == NULL) return null;
+            byte[] bytes = new byte[get(B_LENGTH)];
+            ByteBuffer buffer = store.data.duplicate();
+            buffer.position(dataOffset);
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        public int getEnd() {
+            return getStart() + getLength();
+        }
+
+        public boolean isSoftClipped() {
+            return (get(B_FLAGS) & BF_SOFT_CLIPPED) != 0;
+        }
+
+        public boolean hasBases() {
+            return (get(B_FLAGS) & BF_HAS_BASES) != 0;
+        }
+
+        public void setPixelRange(int s, int e) {
+            store.blocks.put(offset + B_PIXEL_START, s);
+            store.blocks.put(offset + B_PIXEL_END, e);
+        }
+
+        public boolean containsPixel(int x) {
+            return x >= get(B_PIXEL_START) && x <= get(B_PIXEL_END);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ColumnarBlock && ((ColumnarBlock) o).store == store && ((ColumnarBlock) o).offset == offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + offset;
+        }
+    }
+}
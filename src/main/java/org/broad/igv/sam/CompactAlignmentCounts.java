@@ -0,0 +1,349 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+
+/**
+ * A memory efficient alternative to {@link DenseAlignmentCounts}.  All counts for a position are stored together
+ * in a single interleaved array of 16-bit unsigned counters,  ~ 40 bytes per base versus 80 for the dense
+ * implementation.  Counters for a position are promoted to a 32-bit overflow row the first time any of them
+ * would exceed 65535,  which in practice happens only for the quality sums at high depth.
+ */
+public class CompactAlignmentCounts extends BaseAlignmentCounts {
+
+    private static Logger log = Logger.getLogger(CompactAlignmentCounts.class);
+
+    // Field offsets within a position record
+    static final int POS_A = 0;
+    static final int POS_C = 1;
+    static final int POS_G = 2;
+    static final int POS_T = 3;
+    static final int POS_N = 4;
+    static final int NEG_A = 5;
+    static final int NEG_C = 6;
+    static final int NEG_G = 7;
+    static final int NEG_T = 8;
+    static final int NEG_N = 9;
+    static final int Q_A = 10;
+    static final int Q_C = 11;
+    static final int Q_G = 12;
+    static final int Q_T = 13;
+    static final int Q_N = 14;
+    static final int POS_TOTAL = 15;
+    static final int NEG_TOTAL = 16;
+    static final int DEL = 17;
+    static final int INS = 18;
+    static final int TOTAL_Q = 19;
+    static final int N_FIELDS = 20;
+
+    private static final int MAX_COMPACT_VALUE = Character.MAX_VALUE;
+
+    private final int nPts;
+
+    /**
+     * Interleaved counts,  N_FIELDS per position
+     */
+    private final char[] counts;
+
+    /**
+     * Index + 1 of the overflow row for each position,  0 if the position has not overflowed.  Allocated on the first
+     * overflow.
+     */
+    private int[] overflowIndex;
+
+    /**
+     * Overflow rows, N_FIELDS ints per promoted position
+     */
+    private int[] overflow;
+    private int nOverflow = 0;
+
+    /**
+     * We store the maximum number of counts over intervals
+     * For autoscaling, doesn't have to be super precise
+     */
+    protected static int MAX_COUNT_INTERVAL = 100;
+    protected int[] maxCounts;
+
+    public CompactAlignmentCounts(int start, int end, AlignmentTrack.BisulfiteContext bisulfiteContext) {
+        super(start, end, bisulfiteContext);
+        nPts = end - start;
+        counts = new char[nPts * N_FIELDS];
+        maxCounts = new int[(nPts / MAX_COUNT_INTERVAL) + 1];
+    }
+
+    public int getNumberOfPoints() {
+        return nPts;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = 2L * counts.length + 4L * maxCounts.length;
+        if (overflowIndex != null) {
+            size += 4L * overflowIndex.length + 4L * overflow.length;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of positions promoted to 32-bit counters
+     */
+    int getOverflowCount() {
+        return nOverflow;
+    }
+
+    private int get(int offset, int field) {
+        if (overflowIndex != null) {
+            int idx = overflowIndex[offset];
+            if (idx > 0) {
+                return overflow[(idx - 1) * N_FIELDS + field];
+            }
+        }
+        return counts[offset * N_FIELDS + field];
+    }
+
+    private void add(int offset, int field, int value) {
+        if (overflowIndex != null) {
+            int idx = overflowIndex[offset];
+            if (idx > 0) {
+                overflow[(idx - 1) * N_FIELDS + field] += value;
+                return;
+            }
+        }
+        int i = offset * N_FIELDS + field;
+        int v = counts[i] + value;
+        if (v > MAX_COMPACT_VALUE) {
+            promote(offset);
+            overflow[(overflowIndex[offset] - 1) * N_FIELDS + field] += value;
+        } else {
+            counts[i] = (char) v;
+        }
+    }
+
+    /**
+     * Move the counters for a position to the 32-bit overflow rows
+     */
+    private void promote(int offset) {
+        if (overflowIndex == null) {
+            overflowIndex = new int[nPts];
+            overflow = new int[16 * N_FIELDS];
+        }
+        if ((nOverflow + 1) * N_FIELDS > overflow.length) {
+            overflow = Arrays.copyOf(overflow, 2 * overflow.length);
+        }
+        int base = offset * N_FIELDS;
+        int obase = nOverflow * N_FIELDS;
+        for (int f = 0; f < N_FIELDS; f++) {
+            overflow[obase + f] = counts[base + f];
+        }
+        nOverflow++;
+        overflowIndex[offset] = nOverflow;
+    }
+
+    private boolean inRange(int offset, int pos) {
+        if (offset < 0 || offset >= nPts) {
+            if (log.isDebugEnabled()) {
+                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Offset of the nucleotide within a group of per-base fields, any unrecognized base is counted as "N"
+     */
+    private static int baseOffset(byte b) {
+        switch (b) {
+            case 'a':
+            case 'A':
+                return 0;
+            case 'c':
+            case 'C':
+                return 1;
+            case 'g':
+            case 'G':
+                return 2;
+            case 't':
+            case 'T':
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    private static boolean isNucleotide(byte b) {
+        switch (b) {
+            case 'a':
+            case 'A':
+            case 'c':
+            case 'C':
+            case 'g':
+            case 'G':
+            case 't':
+            case 'T':
+            case 'n':
+            case 'N':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public int getMaxCount(int strt, int end) {
+
+        if (maxCounts == null || maxCounts.length == 0) return 1;
+
+        strt = Math.max(0, strt);
+        end = Math.min(getEnd(), end);
+        int startMCI = Math.max(0, (strt - this.start) / MAX_COUNT_INTERVAL);
+        int endMCI = Math.max(0, (end - this.start) / MAX_COUNT_INTERVAL);
+        endMCI = Math.min(endMCI, maxCounts.length - 1);
+
+        int max = 1;
+        for (int mci = startMCI; mci <= endMCI; mci++) {
+            max = Math.max(max, maxCounts[mci]);
+        }
+        return max;
+    }
+
+    public void finish() {
+        // Noop
+    }
+
+    public int getTotalCount(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? get(offset, POS_TOTAL) + get(offset, NEG_TOTAL) : 0;
+    }
+
+    public int getTotalQuality(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? get(offset, TOTAL_Q) : 0;
+    }
+
+    public int getCount(int pos, byte b) {
+        int offset = pos - start;
+        if (!inRange(offset, pos)) return 0;
+        if (!isNucleotide(b)) {
+            log.debug("Unknown nucleotide: " + b);
+            return 0;
+        }
+        int bo = baseOffset(b);
+        return get(offset, POS_A + bo) + get(offset, NEG_A + bo);
+    }
+
+    public int getNegCount(int pos, byte b) {
+        int offset = pos - start;
+        if (!inRange(offset, pos)) return 0;
+        if (!isNucleotide(b)) {
+            log.error("Unknown nucleotide: " + b);
+            return 0;
+        }
+        return get(offset, NEG_A + baseOffset(b));
+    }
+
+    public int getPosCount(int pos, byte b) {
+        int offset = pos - start;
+        if (!inRange(offset, pos)) return 0;
+        if (!isNucleotide(b)) {
+            log.error("Unknown nucleotide: " + b);
+            return 0;
+        }
+        return get(offset, POS_A + baseOffset(b));
+    }
+
+    public int getDelCount(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? get(offset, DEL) : 0;
+    }
+
+    public int getInsCount(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? get(offset, INS) : 0;
+    }
+
+    public int getQuality(int pos, byte b) {
+        int offset = pos - start;
+        if (!inRange(offset, pos)) return 0;
+        if (!isNucleotide(b)) {
+            log.error("Unknown nucleotide: " + b);
+            return 0;
+        }
+        return get(offset, Q_A + baseOffset(b));
+    }
+
+    protected void incrementDeletion(int pos, boolean negativeStrand) {
+        int offset = pos - start;
+        if (offset >= 0 && offset < nPts) {
+            add(offset, DEL, 1);
+            if (countDeletedBasesCovered) {
+                add(offset, negativeStrand ? NEG_TOTAL : POS_TOTAL, 1);
+            }
+        }
+    }
+
+    protected void incrementInsertion(AlignmentBlock insBlock) {
+        int offset = insBlock.getStart() - start;
+        // Insertions are between bases.  increment count at position just before insertion
+        if (offset >= 0 && offset < nPts) {
+            add(offset, INS, 1);
+        }
+    }
+
+    protected void incBlockCounts(AlignmentBlock block, boolean isNegativeStrand) {
+        int start = block.getStart();
+        byte[] bases = block.getBases();
+        if (bases != null) {
+            // NOTE:  the direct access block.qualities is intentional,  profiling reveals this to be a critical bottleneck
+            byte[] qualities = ((AlignmentBlockImpl) block).qualities;
+            for (int i = 0; i < bases.length; i++) {
+                incPositionCount(start + i, bases[i], qualities[i], isNegativeStrand);
+            }
+        }
+    }
+
+    protected void incPositionCount(int pos, byte b, byte q, boolean isNegativeStrand) {
+
+        int offset = pos - start;
+        if (offset >= 0 && offset < nPts) {
+            int bo = baseOffset(b);
+            add(offset, (isNegativeStrand ? NEG_A : POS_A) + bo, 1);
+            add(offset, Q_A + bo, q);
+            add(offset, isNegativeStrand ? NEG_TOTAL : POS_TOTAL, 1);
+            add(offset, TOTAL_Q, q);
+
+            int tmp = get(offset, POS_TOTAL) + get(offset, NEG_TOTAL);
+            int maxCountInt = offset / MAX_COUNT_INTERVAL;
+            if (tmp > maxCounts[maxCountInt]) {
+                maxCounts[maxCountInt] = tmp;
+            }
+        }
+    }
+
+}
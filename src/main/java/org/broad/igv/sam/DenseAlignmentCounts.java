@@ -98,6 +98,12 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
         return end - start;
     }
 
+    @Override
+    public long getSizeInBytes() {
+        // 20 int arrays,  1 per count type
+        return 80L * posA.length + 4L * maxCounts.length;
+    }
+
     @Override
     public int getMaxCount(int strt, int end) {
 
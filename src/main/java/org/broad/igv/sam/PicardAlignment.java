@@ -230,6 +230,13 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
     }
 
     protected String getAttributeString(boolean truncate) {
+        return getAttributeString(getRecord().getAttributes(), truncate);
+    }
+
+    /**
+     * Format tags for the popup text,  omitting those listed in the SAM_HIDDEN_TAGS preference.
+     */
+    static String getAttributeString(List<SAMRecord.SAMTagAndValue> attributes, boolean truncate) {
         // List of tags to skip.  Some tags, like MD and SA, are both quite verbose and not easily
         // interpreted by a human reader.  It is best to just hide these tags.  The list of tags
         // to hide is set through the SAM_HIDDEN_TAGS preference.
@@ -244,8 +251,6 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
         }
 
         StringBuffer buf = new StringBuffer();
-        SAMRecord record = getRecord();
-        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
         if (attributes != null && !attributes.isEmpty()) {
 
             for (SAMRecord.SAMTagAndValue tag : attributes) {
@@ -482,6 +482,11 @@ public class ReducedMemoryAlignment implements Alignment {
             return nBuckets;
         }
 
+        @Override
+        public long getSizeInBytes() {
+            return 8L * total.length;
+        }
+
 
         @Override
         public int getTotalCount(int pos) {
@@ -42,6 +42,7 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -467,16 +468,27 @@ public abstract class SAMAlignment implements Alignment {
     }
 
     private String getValueStringImpl(double position, int mouseX, boolean truncate) {
+        return getValueString(this, position, mouseX, getReadLength(), () -> getAttributeString(truncate), mateSequence);
+    }
+
+    /**
+     * Return the popup text for an alignment.  Shared with alignment implementations that do not extend this class.
+     *
+     * @param attributeString supplier of the formatted tags,  only called if the position is not over an insertion
+     */
+    static String getValueString(Alignment alignment, double position, int mouseX, int readLength,
+                                 Supplier<String> attributeString, String mateSequence) {
 
         int basePosition = (int) position;
         StringBuffer buf = new StringBuffer();
 
-        buf.append("Hap name: " + getHaplotypeName() + "<br>");
-        buf.append("Dist: " + getHapDistance() + "<br>");
+        buf.append("Hap name: " + alignment.getHaplotypeName() + "<br>");
+        buf.append("Dist: " + alignment.getHapDistance() + "<br>");
 
         // First check insertions.  Position is zero based, block coords 1 based
-        if (this.insertions != null) {
-            for (AlignmentBlock block : this.insertions) {
+        AlignmentBlock[] insertions = alignment.getInsertions();
+        if (insertions != null) {
+            for (AlignmentBlock block : insertions) {
 
                 if (block.containsPixel(mouseX)) {
 
@@ -499,24 +511,24 @@ public abstract class SAMAlignment implements Alignment {
 
         // Not over an insertion
 
-        buf.append("Read name = " + getReadName() + "<br>");
+        buf.append("Read name = " + alignment.getReadName() + "<br>");
 
-        String sample = getSample();
+        String sample = alignment.getSample();
         if (sample != null) {
             buf.append("Sample = " + sample + "<br>");
         }
-        String library = getLibrary();
+        String library = alignment.getLibrary();
         if (library != null) {
             buf.append("Library = " + library + "<br>");
         }
-        String readGroup = getReadGroup();
+        String readGroup = alignment.getReadGroup();
         if (readGroup != null) {
             buf.append("Read group = " + readGroup + "<br>");
         }
-        buf.append("Read length = " + Globals.DECIMAL_FORMAT.format(getReadLength()) + "bp<br>");
+        buf.append("Read length = " + Globals.DECIMAL_FORMAT.format(readLength) + "bp<br>");
 
 
-        String cigarString = getCigarString();
+        String cigarString = alignment.getCigarString();
         // Abbreviate long CIGAR strings.  Retain the start and end of the CIGAR, which show
         // clipping; trim the middle.
         int maxCigarStringLength = 1000;
@@ -529,12 +541,12 @@ public abstract class SAMAlignment implements Alignment {
 
 
         buf.append("----------------------" + "<br>");
-        buf.append("Mapping = " + (isPrimary() ? (isSupplementary() ? "Supplementary" : "Primary") : "Secondary") +
-                (isDuplicate() ? " Duplicate" : "") + (isVendorFailedRead() ? " Failed QC" : "") +
-                " @ MAPQ " + Globals.DECIMAL_FORMAT.format(getMappingQuality()) + "<br>");
-        buf.append("Reference span = " + getChr() + ":" + Globals.DECIMAL_FORMAT.format(getAlignmentStart() + 1) + "-" +
-                Globals.DECIMAL_FORMAT.format(getAlignmentEnd()) + " (" + (isNegativeStrand() ? "-" : "+") + ")" +
-                " = " + Globals.DECIMAL_FORMAT.format(getAlignmentEnd() - getAlignmentStart()) + "bp<br>");
+        buf.append("Mapping = " + (alignment.isPrimary() ? (alignment.isSupplementary() ? "Supplementary" : "Primary") : "Secondary") +
+                (alignment.isDuplicate() ? " Duplicate" : "") + (alignment.isVendorFailedRead() ? " Failed QC" : "") +
+                " @ MAPQ " + Globals.DECIMAL_FORMAT.format(alignment.getMappingQuality()) + "<br>");
+        buf.append("Reference span = " + alignment.getChr() + ":" + Globals.DECIMAL_FORMAT.format(alignment.getAlignmentStart() + 1) + "-" +
+                Globals.DECIMAL_FORMAT.format(alignment.getAlignmentEnd()) + " (" + (alignment.isNegativeStrand() ? "-" : "+") + ")" +
+                " = " + Globals.DECIMAL_FORMAT.format(alignment.getAlignmentEnd() - alignment.getAlignmentStart()) + "bp<br>");
         buf.append("Cigar = " + cigarString + "<br>");
         buf.append("Clipping = ");
 
@@ -578,28 +590,28 @@ public abstract class SAMAlignment implements Alignment {
 
         Genome genome = GenomeManager.getInstance().getCurrentGenome();
 
-        if (this.isPaired()) {
+        if (alignment.isPaired()) {
             buf.append("----------------------<br>");
-            buf.append("Mate is mapped = " + (getMate().isMapped() ? "yes" : "no") + "<br>");
-            if (getMate().isMapped()) {
-                buf.append("Mate start = " + getMate().positionString() + "<br>");
+            buf.append("Mate is mapped = " + (alignment.getMate().isMapped() ? "yes" : "no") + "<br>");
+            if (alignment.getMate().isMapped()) {
+                buf.append("Mate start = " + alignment.getMate().positionString() + "<br>");
                 //buf.append("Pair is proper = " + (getProperPairFlag() ? "yes" : "no") + "<br>");
-                if (getChr().equals(getMate().getChr())) {
-                    buf.append("Insert size = " + getInferredInsertSize() + "<br>");
+                if (alignment.getChr().equals(alignment.getMate().getChr())) {
+                    buf.append("Insert size = " + alignment.getInferredInsertSize() + "<br>");
                 }
             }
-            if (isFirstOfPair()) {
+            if (alignment.isFirstOfPair()) {
                 buf.append("First in pair<br>");
             }
-            if (isSecondOfPair()) {
+            if (alignment.isSecondOfPair()) {
                 buf.append("Second in pair<br>");
             }
-            if (getPairOrientation().length() > 0) {
-                buf.append("Pair orientation = " + getPairOrientation() + "<br>");
+            if (alignment.getPairOrientation().length() > 0) {
+                buf.append("Pair orientation = " + alignment.getPairOrientation() + "<br>");
             }
         }
 
-        Object suppAlignment = this.getAttribute("SA");
+        Object suppAlignment = alignment.getAttribute("SA");
         if (suppAlignment != null) {
             buf.append("----------------------<br>");
             buf.append(getSupplAlignmentString(suppAlignment.toString()));
@@ -607,10 +619,10 @@ public abstract class SAMAlignment implements Alignment {
         }
 
 
-        String attributeString = getAttributeString(truncate);
-        if (attributeString != null && attributeString.length() > 0) {
+        String attributes = attributeString.get();
+        if (attributes != null && attributes.length() > 0) {
             buf.append("----------------------");
-            buf.append(getAttributeString(truncate));
+            buf.append(attributes);
         }
 
 
@@ -622,20 +634,20 @@ public abstract class SAMAlignment implements Alignment {
 
         // Specific base
 
-        for (AlignmentBlock block : this.alignmentBlocks) {
+        for (AlignmentBlock block : alignment.getAlignmentBlocks()) {
             if (block.contains(basePosition)) {
 
                 buf.append("<hr>");
                 int offset = basePosition - block.getStart();
                 byte base = block.getBase(offset);
 
-                if (base == 0 && this.getReadSequence().equals("=") && !block.isSoftClipped() && genome != null) {
-                    base = genome.getReference(chr, basePosition);
+                if (base == 0 && alignment.getReadSequence().equals("=") && !block.isSoftClipped() && genome != null) {
+                    base = genome.getReference(alignment.getChr(), basePosition);
 
                 }
 
                 byte quality = block.getQuality(offset);
-                buf.append("Location = " + getChr() + ":" + Globals.DECIMAL_FORMAT.format(1 + (long) position) + "<br>");
+                buf.append("Location = " + alignment.getChr() + ":" + Globals.DECIMAL_FORMAT.format(1 + (long) position) + "<br>");
                 buf.append("Base = " + (char) base + " @ QV " + Globals.DECIMAL_FORMAT.format(quality) + "<br>");
 
                 break;
@@ -648,7 +660,7 @@ public abstract class SAMAlignment implements Alignment {
 
     // chr21,26002386,-,11785S1115M,60,0;chr21,26001844,+,1115S111M1D41M1D394M11239S,60,4;
 
-    private String getSupplAlignmentString(String sa) {
+    private static String getSupplAlignmentString(String sa) {
 
         StringBuffer buf = new StringBuffer();
         buf.append("SupplementaryAlignments");
@@ -30,6 +30,7 @@ import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.feature.Range;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.sam.reader.BAMReader;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
@@ -258,6 +259,14 @@ public class SAMWriter {
         if (interval != null) {
             List<Alignment> alignments = new ArrayList(interval.getAlignments());
 
+            // Alignments held in the columnar store,  or read by the lite BAM reader,  have no htsjdk record.  Read
+            // the range from the file instead.
+            for (Alignment a : alignments) {
+                if (!(a instanceof PicardAlignment)) {
+                    return writeAlignmentFile(inlocator, outFile, dataManager.getSequenceName(sequence), sequence, start, end);
+                }
+            }
+
             // We need to sort if soft-clipping is on, so just sort always.  Its cheap.
             alignments.sort((o1, o2) -> o1.getAlignmentStart() - o2.getAlignmentStart());
             Iterator<PicardAlignment> samIter = new SamAlignmentIterable(alignments.iterator(), sequence, start, end);
@@ -283,16 +292,33 @@ public class SAMWriter {
                                                String sequence, int start, int end) throws IOException {
 
         checkExportableAlignmentFile(inlocator.getTypeString());
+        return writeAlignmentFile(inlocator, new File(outPath), sequence, sequence, start, end);
+    }
 
-        AlignmentReader reader = AlignmentReaderFactory.getReader(inlocator);
-        CloseableIterator<PicardAlignment> iter = reader.query(sequence, start, end, false);
-        final SAMFileHeader fileHeader = reader.getFileHeader();
+    /**
+     * Write alignments overlapping a range,  as read from a file with htsjdk
+     *
+     * @param sequence the chromosome name in the file
+     * @param chr      the chromosome name in the genome
+     */
+    private static int writeAlignmentFile(ResourceLocator inlocator, File outFile, String sequence, String chr,
+                                          int start, int end) throws IOException {
 
-        SAMWriter writer = new SAMWriter(fileHeader);
-        int count = writer.writeToFile(new File(outPath), iter, true);
-        iter.close();
+        // The htsjdk reader is used for BAM files,  the lite reader's alignments have no htsjdk record
+        AlignmentReader reader = inlocator.getTypeString().endsWith(".bam") ?
+                new BAMReader(inlocator, true) : AlignmentReaderFactory.getReader(inlocator);
+        try {
+            CloseableIterator<Alignment> iter = reader.query(sequence, start, end, false);
+            final SAMFileHeader fileHeader = reader.getFileHeader();
 
-        return count;
+            SAMWriter writer = new SAMWriter(fileHeader);
+            int count = writer.writeToFile(outFile, new SamAlignmentIterable(iter, chr, start, end), true);
+            iter.close();
+
+            return count;
+        } finally {
+            reader.close();
+        }
     }
 
     private static void checkExportableAlignmentFile(String typeString) {
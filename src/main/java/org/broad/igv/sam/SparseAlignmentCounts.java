@@ -113,6 +113,12 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
         return indices == null ? 0 : indices.size();
     }
 
+    @Override
+    public long getSizeInBytes() {
+        // 20 int lists,  plus a boxed map entry per position
+        return 144L * indexMap.size();
+    }
+
     public int getPosition(int idx) {
         return indices.get(idx);
     }
@@ -91,6 +91,13 @@ public class SpliceJunctionHelper {
 
     }
 
+    /**
+     * @return the number of junctions,  both strands,  before filtering
+     */
+    public int getJunctionCount() {
+        return posStartEndJunctionsMap.size() + negStartEndJunctionsMap.size();
+    }
+
     public void addAlignment(Alignment alignment) {
 
         AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
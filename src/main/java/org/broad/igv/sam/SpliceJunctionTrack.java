@@ -123,6 +123,14 @@ public class SpliceJunctionTrack extends FeatureTrack {
         // SpliceJunctionTracks are not disposed of,  merely hidden.
     }
 
+    /**
+     * Junctions are loaded from the alignment data manager,  which is shared with the alignment and coverage tracks
+     */
+    @Override
+    public boolean isRenderThreadSafe() {
+        return false;
+    }
+
     @Override
     public void setVisible(boolean visible) {
         if(visible != isVisible()) {
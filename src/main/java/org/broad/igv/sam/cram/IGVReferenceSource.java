@@ -60,9 +60,14 @@ public class IGVReferenceSource implements CRAMReferenceSource {
     static GenomeChangeListener genomeChangeListener;
 
     @Override
+    public byte[] getReferenceBases(SAMSequenceRecord record, boolean tryNameVariants) {
+        // The sequence cache is static, and shared by readers on the parallel alignment loading threads
+        synchronized (IGVReferenceSource.class) {
+            return loadReferenceBases(record);
+        }
+    }
 
-    public synchronized byte[] getReferenceBases(SAMSequenceRecord record, boolean tryNameVariants) {
-
+    private byte[] loadReferenceBases(SAMSequenceRecord record) {
 
         final String name = record.getSequenceName();
 
@@ -1,22 +1,33 @@
 package org.broad.igv.sam.lite;
 
-import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.util.StringUtil;
+import org.apache.log4j.Logger;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.*;
 import org.broad.igv.sam.ReadMate;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.ui.color.ColorUtilities;
 
+import java.awt.Color;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
+ * An alignment backed by the raw BAM record.  Fixed width fields are decoded on construction,  the read name,
+ * cigar, sequence, qualities, and tags are decoded from the shared inflated buffer only when accessed.
+ *
  * Created by jrobinso on 3/13/17.
  */
 public class BAMAlignment extends SAMAlignment {
 
+    private static Logger log = Logger.getLogger(BAMAlignment.class);
+
     static int READ_PAIRED_FLAG = 0x1;
     static int PROPER_PAIR_FLAG = 0x2;
     static int READ_UNMAPPED_FLAG = 0x4;
@@ -30,23 +41,157 @@ public class BAMAlignment extends SAMAlignment {
     static int DUPLICATE_READ_FLAG = 0x400;
     static int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
 
-    public int flags;
-    public int fragmentLength;
-    public int lengthOnRef;
-    public int start;
-    public byte[] sequence;
-    public byte[] qualities;
-    public int mq;
-    public String readName;
-    public byte[] tagBytes;
-    public byte[] cigarBytes;
-    public String chr;
-    public ReadMate mate;
+    static final char[] SEQ_DECODER = {'=', 'A', 'C', 'M', 'G', 'R', 'S', 'V', 'T', 'W', 'Y', 'H', 'K', 'D', 'B', 'N'};
+    static final char[] CIGAR_DECODER = {'M', 'I', 'D', 'N', 'S', 'H', 'P', '=', 'X', '?', '?', '?', '?', '?', '?', '?'};
+
+    // Offsets of fixed fields,  relative to the start of the record (the block_size field)
+    static final int REF_ID = 4;
+    static final int POS = 8;
+    static final int BIN_MQ_NL = 12;
+    static final int FLAG_NC = 16;
+    static final int L_SEQ = 20;
+    static final int NEXT_REF_ID = 24;
+    static final int NEXT_POS = 28;
+    static final int TLEN = 32;
+    static final int READ_NAME = 36;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The inflated data this record was decoded from.  The array is shared by all records decoded from the same
+     * chunk,  variable length fields are read from it on demand rather than copied.
+     */
+    private final byte[] buf;
+    private final int offset;
+    private final int blockEnd;
+    private final SAMFileHeader header;
+
+    private final int flags;
+    private final int mq;
+    private final int nameLength;
+    private final int nCigar;
+    private final int lSeq;
+    private final int lengthOnRef;
+
+    private boolean blocksDecoded = false;
+    private String readName;
+    private SAMReadGroupRecord readGroupRecord;
+    private boolean readGroupDecoded = false;
+    private boolean ycDecoded = false;
     private Map<String, Object> tagDictionary;
 
+    /**
+     * @param buf         inflated BAM data
+     * @param offset      offset of the record (its block_size field) in buf
+     * @param lengthOnRef number of reference bases covered,  computed by the reader for range filtering
+     * @param chr         reference sequence name
+     * @param mateChr     reference sequence name of the mate,  or null if not paired
+     * @param header      file header,  used to resolve read groups.  May be null
+     */
+    BAMAlignment(byte[] buf, int offset, int lengthOnRef, String chr, String mateChr, SAMFileHeader header) {
+
+        this.buf = buf;
+        this.offset = offset;
+        this.blockEnd = offset + 4 + BAMReader.readInt(buf, offset);
+        this.lengthOnRef = lengthOnRef;
+        this.header = header;
+
+        int bmn = BAMReader.readInt(buf, offset + BIN_MQ_NL);
+        this.mq = (bmn >> 8) & 0xff;
+        this.nameLength = bmn & 0xff;
+        int flagNc = BAMReader.readInt(buf, offset + FLAG_NC);
+        this.flags = flagNc >>> 16;
+        this.nCigar = flagNc & 0xffff;
+        this.lSeq = BAMReader.readInt(buf, offset + L_SEQ);
+
+        setChr(chr);
+        this.alignmentStart = BAMReader.readInt(buf, offset + POS);
+        this.alignmentEnd = alignmentStart + lengthOnRef;
+        this.start = alignmentStart;    // might be modified when blocks are decoded for soft clipping
+        this.end = alignmentEnd;
+
+        if (isPaired()) {
+            setMate(new ReadMate(mateChr,
+                    BAMReader.readInt(buf, offset + NEXT_POS),
+                    (flags & MATE_STRAND_FLAG) != 0,
+                    (flags & MATE_UNMAPPED_FLAG) != 0));
+        }
+
+        setPairOrientation();
+        setPairStrands();
+    }
+
+    /**
+     * Compute the number of reference bases covered by the record at offset,  without decoding the cigar
+     */
+    static int lengthOnRef(byte[] buf, int offset) {
+        int nl = BAMReader.readInt(buf, offset + BIN_MQ_NL) & 0xff;
+        int nc = BAMReader.readInt(buf, offset + FLAG_NC) & 0xffff;
+        int p = offset + READ_NAME + nl;
+        int len = 0;
+        for (int c = 0; c < nc; c++) {
+            int cigop = BAMReader.readInt(buf, p + 4 * c);
+            switch (CIGAR_DECODER[cigop & 0xf]) {
+                case 'M':
+                case 'D':
+                case 'N':
+                case '=':
+                case 'X':
+                    len += cigop >>> 4;
+            }
+        }
+        return len;
+    }
+
+    private int cigarOffset() {
+        return offset + READ_NAME + nameLength;
+    }
+
+    private int sequenceOffset() {
+        return cigarOffset() + 4 * nCigar;
+    }
+
+    private int qualityOffset() {
+        return sequenceOffset() + ((lSeq + 1) >> 1);
+    }
+
+    private int tagOffset() {
+        return qualityOffset() + lSeq;
+    }
+
+    /**
+     * Decode the alignment blocks,  gaps, and insertions.  Deferred until first access as this requires the
+     * sequence and qualities,  which are not needed for records that are filtered.
+     */
+    private void decodeBlocks() {
+        if (!blocksDecoded) {
+            blocksDecoded = true;
+            createAlignmentBlocks(getCigarString(), getReadBases(), getBaseQualities());
+        }
+    }
+
+    byte[] getReadBases() {
+        if (lSeq == 0) return EMPTY;
+        byte[] sequence = new byte[lSeq];
+        int p = sequenceOffset();
+        for (int i = 0; i < lSeq; i++) {
+            int sb = buf[p + (i >> 1)];
+            sequence[i] = (byte) SEQ_DECODER[(i & 1) == 0 ? (sb & 0xf0) >> 4 : sb & 0x0f];
+        }
+        return sequence;
+    }
+
+    byte[] getBaseQualities() {
+        int p = qualityOffset();
+        if (lSeq == 0 || buf[p] == (byte) 0xff) return EMPTY;   // Qualities not recorded
+        return Arrays.copyOfRange(buf, p, p + lSeq);
+    }
 
     @Override
     public String getReadName() {
+        if (readName == null) {
+            readName = new String(buf, offset + READ_NAME, nameLength - 1, StandardCharsets.US_ASCII);
+        }
         return readName;
     }
 
@@ -57,22 +202,95 @@ public class BAMAlignment extends SAMAlignment {
 
     @Override
     public int getInferredInsertSize() {
-        return 0;
+        return BAMReader.readInt(buf, offset + TLEN);
     }
 
     @Override
     public String getCigarString() {
-        return new String(cigarBytes);
+        if (nCigar == 0) return "*";
+        StringBuilder cigar = new StringBuilder(4 * nCigar);
+        int p = cigarOffset();
+        for (int c = 0; c < nCigar; c++) {
+            int cigop = BAMReader.readInt(buf, p + 4 * c);
+            cigar.append(cigop >>> 4).append(CIGAR_DECODER[cigop & 0xf]);
+        }
+        return cigar.toString();
     }
 
     @Override
     public int getReadLength() {
-        return sequence.length;
+        return lSeq;
     }
 
     @Override
     public String getReadSequence() {
-        return new String(sequence);
+        return lSeq == 0 ? "*" : new String(getReadBases(), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public int getStart() {
+        decodeBlocks();
+        return super.getStart();
+    }
+
+    @Override
+    public int getEnd() {
+        decodeBlocks();
+        return super.getEnd();
+    }
+
+    @Override
+    public void setStart(int start) {
+        decodeBlocks();
+        super.setStart(start);
+    }
+
+    @Override
+    public void setEnd(int end) {
+        decodeBlocks();
+        super.setEnd(end);
+    }
+
+    @Override
+    public AlignmentBlock[] getAlignmentBlocks() {
+        decodeBlocks();
+        return alignmentBlocks;
+    }
+
+    @Override
+    public AlignmentBlockImpl[] getInsertions() {
+        decodeBlocks();
+        return insertions;
+    }
+
+    @Override
+    public List<Gap> getGaps() {
+        decodeBlocks();
+        return super.getGaps();
+    }
+
+    @Override
+    public byte getBase(double position) {
+        decodeBlocks();
+        return super.getBase(position);
+    }
+
+    @Override
+    public byte getPhred(double position) {
+        decodeBlocks();
+        return super.getPhred(position);
+    }
+
+    @Override
+    public AlignmentBlock getInsertionAt(int position) {
+        decodeBlocks();
+        return super.getInsertionAt(position);
+    }
+
+    @Override
+    public String getValueString(double position, int mouseX, WindowFunction windowFunction) {
+        decodeBlocks();
+        return super.getValueString(position, mouseX, windowFunction);
     }
 
     @Override
@@ -82,12 +300,12 @@ public class BAMAlignment extends SAMAlignment {
 
     @Override
     public boolean isFirstOfPair() {
-        return (this.flags & FIRST_OF_PAIR_FLAG) != 0;
+        return isPaired() && (this.flags & FIRST_OF_PAIR_FLAG) != 0;
     }
 
     @Override
     public boolean isSecondOfPair() {
-        return (this.flags & SECOND_OF_PAIR_FLAG) != 0;
+        return isPaired() && (this.flags & SECOND_OF_PAIR_FLAG) != 0;
     }
 
     @Override
@@ -107,7 +325,7 @@ public class BAMAlignment extends SAMAlignment {
 
     @Override
     public boolean isProperPair() {
-        return (this.flags & PROPER_PAIR_FLAG) != 0;
+        return isPaired() && (this.flags & PROPER_PAIR_FLAG) != 0;
     }
 
     @Override
@@ -127,33 +345,83 @@ public class BAMAlignment extends SAMAlignment {
 
     @Override
     public int getAlignmentStart() {
-        return start;
+        return alignmentStart;
     }
 
     @Override
     public int getAlignmentEnd() {
-        return start + lengthOnRef;
+        return alignmentEnd;
     }
 
+    /**
+     * Return the value of a tag.  The tags are scanned in place,  only the requested value is decoded.
+     */
     @Override
     public Object getAttribute(String key) {
+        if (key.length() != 2) {
+            return key.equals("TEMPLATE_ORIENTATION") ? pairOrientation : null;
+        }
+        if (tagDictionary != null) {
+            return tagDictionary.get(key);
+        }
+        byte k0 = (byte) key.charAt(0);
+        byte k1 = (byte) key.charAt(1);
+        ByteBuffer byteBuffer = tagBuffer();
+        while (byteBuffer.hasRemaining()) {
+            int p = byteBuffer.position();
+            byteBuffer.position(p + 2);
+            char type = (char) byteBuffer.get();
+            if (buf[p] == k0 && buf[p + 1] == k1) {
+                return readValue(type, byteBuffer);
+            }
+            skipValue(type, byteBuffer);
+        }
         return null;
     }
 
+    @Override
+    public Color getYcColor() {
+        if (!ycDecoded) {
+            ycDecoded = true;
+            Object colorTag = getAttribute("YC");
+            if (colorTag != null) {
+                try {
+                    ycColor = ColorUtilities.stringToColor(colorTag.toString(), null);
+                } catch (Exception e) {
+                    log.error("Error interpreting color tag: " + colorTag, e);
+                }
+            }
+        }
+        return ycColor;
+    }
+
+    private SAMReadGroupRecord getReadGroupRecord() {
+        if (!readGroupDecoded) {
+            readGroupDecoded = true;
+            Object rg = header == null ? null : getAttribute("RG");
+            if (rg != null) {
+                readGroupRecord = header.getReadGroup(rg.toString());
+            }
+        }
+        return readGroupRecord;
+    }
 
     @Override
     public String getSample() {
-        return null;
+        SAMReadGroupRecord rg = getReadGroupRecord();
+        return rg == null ? null : rg.getSample();
     }
 
     @Override
     public String getReadGroup() {
-        return null;
+        SAMReadGroupRecord rg = getReadGroupRecord();
+        return rg == null ? null : rg.getId();
     }
 
     @Override
     public String getLibrary() {
-        return null;
+        SAMReadGroupRecord rg = getReadGroupRecord();
+        return rg == null ? null : rg.getLibrary();
     }
 
     @Override
@@ -239,18 +507,28 @@ public class BAMAlignment extends SAMAlignment {
         return buf.toString();
     }
 
+    /**
+     * Return a copy of the tags in BAM binary form
+     */
+    public byte[] getTagBytes() {
+        int tagOffset = tagOffset();
+        return Arrays.copyOfRange(buf, tagOffset, blockEnd);
+    }
+
     private Map<String, Object> getTagDictionary() {
         if (this.tagDictionary == null) {
-            if (this.tagBytes == null) {
-                return null;
-            } else {
-                this.tagDictionary = decodeTags(this.tagBytes);
-
-            }
+            this.tagDictionary = decodeTags();
         }
         return this.tagDictionary;
     }
 
+    private ByteBuffer tagBuffer() {
+        int tagOffset = tagOffset();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buf, tagOffset, blockEnd - tagOffset);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        return byteBuffer;
+    }
+
     /**
       A [!-~] Printable character
      i [-+]?[0-9]+ Signed integer5
@@ -260,71 +538,111 @@ public class BAMAlignment extends SAMAlignment {
      H [0-9A-F]+ Byte array in the Hex format6
      B [cCsSiIf](,[-+]?[0-9]*\.?[0-9]+([eE][-+]?[0-9]+)?)+ Integer or numeric array
      */
-    private Map<String, Object> decodeTags(byte[] ba) {
+    private Map<String, Object> decodeTags() {
 
         Map<String, Object> tags = new LinkedHashMap<>();
-        ByteBuffer byteBuffer = ByteBuffer.wrap(ba);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer byteBuffer = tagBuffer();
 
         while (byteBuffer.hasRemaining()) {
             int p = byteBuffer.position();
-            String tag = new String(ba, p, 2);
+            String tag = new String(buf, p, 2, StandardCharsets.US_ASCII);
             byteBuffer.position(p+2);
             char type = (char) byteBuffer.get();
-            Object value;
-
-            switch (type) {
-                case 'Z':
-                    value = readNullTerminatedString(byteBuffer);
-                    break;
-                case 'A':
-                    value = (char)byteBuffer.get();
-                    break;
-                case 'I':
-                    final long val = byteBuffer.getInt() & 0xffffffffL;
-                    if ( val <= Integer.MAX_VALUE ) {
-                        value = (int)val;
-                    }
-                    else {
-                        value = val;
-                    }
-                    break;
-                case 'i':
-                    value =  byteBuffer.getInt();
-                    break;
-                case 's':
-                    value =  byteBuffer.getShort();
-                    break;
-                case 'S':
-                    // Convert to unsigned short stored in an int
-                    value =  (int) byteBuffer.getShort() & 0xffff;
-                    break;
-                case 'c':
-                    value =  byteBuffer.get();
-                    break;
-                case 'C':
-                    // Convert to unsigned byte stored in an int
-                    value =  (int)byteBuffer.get() & 0xff;
-                    break;
-                case 'f':
-                    value = byteBuffer.getFloat();
-                    break;
-                case 'H':
-                    final String hexRep = readNullTerminatedString(byteBuffer);
-                    value = StringUtil.hexStringToBytes(hexRep);
-                    break;
-                case 'B':
-                    value = readArray(byteBuffer);
-                    break;
-                default:
-                    value = "Unrecognized tag type: " + type;
-            }
-
-            tags.put(tag, value);
+            tags.put(tag, readValue(type, byteBuffer));
         }
         return tags;
     }
 
+    /**
+     * Read a tag value of the given BAM type.  The buffer must be little endian.
+     */
+    public static Object readValue(char type, ByteBuffer byteBuffer) {
+
+        Object value;
+        switch (type) {
+            case 'Z':
+                value = readNullTerminatedString(byteBuffer);
+                break;
+            case 'A':
+                value = (char)byteBuffer.get();
+                break;
+            case 'I':
+                final long val = byteBuffer.getInt() & 0xffffffffL;
+                if ( val <= Integer.MAX_VALUE ) {
+                    value = (int)val;
+                }
+                else {
+                    value = val;
+                }
+                break;
+            case 'i':
+                value =  byteBuffer.getInt();
+                break;
+            case 's':
+                value =  (int) byteBuffer.getShort();
+                break;
+            case 'S':
+                // Convert to unsigned short stored in an int
+                value =  (int) byteBuffer.getShort() & 0xffff;
+                break;
+            case 'c':
+                value =  (int) byteBuffer.get();
+                break;
+            case 'C':
+                // Convert to unsigned byte stored in an int
+                value =  (int)byteBuffer.get() & 0xff;
+                break;
+            case 'f':
+                value = byteBuffer.getFloat();
+                break;
+            case 'H':
+                final String hexRep = readNullTerminatedString(byteBuffer);
+                value = StringUtil.hexStringToBytes(hexRep);
+                break;
+            case 'B':
+                value = readArray(byteBuffer);
+                break;
+            default:
+                throw new RuntimeException("Unrecognized tag type: " + type);
+        }
+        return value;
+    }
+
+    /**
+     * Advance past a tag value without decoding it
+     */
+    public static void skipValue(char type, ByteBuffer byteBuffer) {
+        switch (type) {
+            case 'A':
+            case 'c':
+            case 'C':
+                byteBuffer.position(byteBuffer.position() + 1);
+                break;
+            case 's':
+            case 'S':
+                byteBuffer.position(byteBuffer.position() + 2);
+                break;
+            case 'i':
+            case 'I':
+            case 'f':
+                byteBuffer.position(byteBuffer.position() + 4);
+                break;
+            case 'Z':
+            case 'H':
+                while (byteBuffer.get() != 0) {}
+                break;
+            case 'B':
+                final byte arrayType = byteBuffer.get();
+                final int length = byteBuffer.getInt();
+                final int size = Character.toLowerCase(arrayType) == 'c' ? 1 :
+                        (Character.toLowerCase(arrayType) == 's' ? 2 : 4);
+                byteBuffer.position(byteBuffer.position() + length * size);
+                break;
+            default:
+                throw new RuntimeException("Unrecognized tag type: " + type);
+        }
+    }
+
     private static String readNullTerminatedString(final ByteBuffer byteBuffer) {
         // Count the number of bytes in the string
         byteBuffer.mark();
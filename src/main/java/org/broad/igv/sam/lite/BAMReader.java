@@ -1,127 +1,138 @@
 package org.broad.igv.sam.lite;
 
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BufferedLineReader;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.tribble.util.LittleEndianInputStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.feature.Strand;
 import org.broad.igv.feature.genome.Genome;
-import org.broad.igv.sam.*;
-import org.broad.igv.sam.ReadMate;
+import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.prefs.IGVPreferences;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.sam.Alignment;
 import org.broad.igv.sam.reader.AlignmentReader;
-import org.broad.igv.util.ParsingUtils;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.zip.DataFormatException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.broad.igv.prefs.Constants.SAM_INFLATE_BLOCKS;
+import static org.broad.igv.prefs.Constants.SAM_INFLATE_THREADS;
 
 /**
+ * A lightweight BAM reader.  Compressed data is read in large slices and inflated directly into a single buffer per
+ * slice,  which is shared by the records decoded from it.  Records ({@link BAMAlignment}) decode only their fixed
+ * width fields eagerly,  the read name, cigar, sequence, qualities, and tags are decoded on demand.
+ * <p>
+ * Each iterator opens its own stream,  so concurrent queries are safe.
+ * <p>
+ * If SAM.INFLATE_THREADS > 1 the blocks of each slice are inflated in parallel,  and the next slice of a chunk is read
+ * and inflated in the background while the current slice is decoded.  The slice size, and so the memory in flight,
+ * is set by SAM.INFLATE_BLOCKS.
+ * <p>
  * Created by jrobinso on 3/9/17.
  */
 public class BAMReader implements AlignmentReader<Alignment> {
 
     private static Logger log = Logger.getLogger(BAMReader.class);
+
+    static final int BAM_MAGIC = 21840194;
+    static final int MAX_GZIP_BLOCK_SIZE = 65536;
+    static final int SLICE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Space reserved at the start of each inflated slice for a record carried over from the previous slice
+     */
+    static final int PREFIX_RESERVE = 65536;
+
+    private static ExecutorService readAheadExecutor;
+
+    /**
+     * Compressed read buffers,  reused across queries on the same thread
+     */
+    private static final ThreadLocal<byte[]> COMPRESSED_BUFFERS = ThreadLocal.withInitial(() -> new byte[SLICE_SIZE]);
+
     private final String path;
     private final String indexPath;
-    int BAM_MAGIC = 21840194;
-    int BAI_MAGIC = 21578050;
-    char[] SECRET_DECODER = {'=', 'A', 'C', 'x', 'G', 'x', 'x', 'x', 'T', 'x', 'x', 'x', 'x', 'x', 'x', 'N'};
-    char[] CIGAR_DECODER = {'M', 'I', 'D', 'N', 'S', 'H', 'P', '=', 'X', '?', '?', '?', '?', '?', '?', '?'};
-
-    int PAIRED_FLAG = 0x1;
-    int READ_STRAND_FLAG = 0x10;
-    int MATE_STRAND_FLAG = 0x20;
-
-    int MATE_IS_MAPPED_FLAG = 0x8;
-    int FIRST_OF_PAIR_FLAG = 0x40;
-    int SECOND_OF_PAIR_FLAG = 0x80;
-    int NOT_PRIMARY_ALIGNMENT_FLAG = 0x100;
-    int READ_FAILS_VENDOR_QUALITY_CHECK_FLAG = 0x200;
-    int DUPLICATE_READ_FLAG = 0x400;
-    int SUPPLEMENTARY_FLAG = 0x800;
-
-    int MAX_GZIP_BLOCK_SIZE = 65536;   //  APPARENTLY.  Where is this documented???
-    int DEFAULT_SAMPLING_WINDOW_SIZE = 100;
-    int DEFAULT_SAMPLING_DEPTH = 50;
-    int MAXIMUM_SAMPLING_DEPTH = 2500;
+    private final Genome genome;
 
     BAMIndex bamIndex = null;
-
-    Genome genome;
+    SAMFileHeader header;
     Map<String, Integer> chrToIndex;
     private String[] indexToChr;
+    private List<String> sequenceNames;
 
+    /**
+     * Length of the header,  in uncompressed bytes.  Alignments start at this offset.
+     */
+    private int headerLength;
 
-    public BAMReader(String path) {
+    private final Set<AlignmentIterator> openIterators = Collections.synchronizedSet(new HashSet<>());
 
-        this.path = path;
-        this.indexPath = path + ".bai";
-
-//        this.config = config;
-//
-//        this.filter = config.filter || new igv.BamFilter();
-//
-//        this.bamPath = config.url;
-//        // Todo - deal with Picard convention.  WHY DOES THERE HAVE TO BE 2?
-//        this.baiPath = config.indexURL || this.bamPath + ".bai"; // If there is an indexURL provided, use it!
-//        this.headPath = config.headURL || this.bamPath;
-//
-//
-//        this.samplingWindowSize = config.samplingWindowSize == = undefined ? DEFAULT_SAMPLING_WINDOW_SIZE : config.samplingWindowSize;
-//        this.samplingDepth = config.samplingDepth == = undefined ? DEFAULT_SAMPLING_DEPTH : config.samplingDepth;
-//        if (this.samplingDepth > MAXIMUM_SAMPLING_DEPTH) {
-//            igv.log("Warning: attempt to set sampling depth > maximum value of 2500");
-//            this.samplingDepth = MAXIMUM_SAMPLING_DEPTH;
-//        }
-//
-//        if (config.viewAsPairs) {
-//            this.pairsSupported = true;
-//        } else {
-//            this.pairsSupported = config.pairsSupported == = undefined ? true : config.pairsSupported;
-//        }
-
-
-        try {
-            bamIndex = BAMIndex.loadIndex(this.indexPath, null);
-            readHeader();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
 
+    public BAMReader(String path) throws IOException {
+        this(path, path + ".bai", GenomeManager.getInstance().getCurrentGenome());
+    }
 
+    /**
+     * @param path      path to the BAM file
+     * @param indexPath path to the index,  or null if the file is not indexed
+     * @param genome    genome used to map sequence names to canonical names,  may be null
+     */
+    public BAMReader(String path, String indexPath, Genome genome) throws IOException {
+        this.path = path;
+        this.indexPath = indexPath;
+        this.genome = genome;
+        if (indexPath != null) {
+            bamIndex = BAMIndex.loadIndex(indexPath, null);
+        }
+        readHeader();
     }
 
 
     @Override
     public void close() throws IOException {
-
+        List<AlignmentIterator> iterators;
+        synchronized (openIterators) {
+            iterators = new ArrayList<>(openIterators);
+        }
+        for (AlignmentIterator iter : iterators) {
+            iter.close();
+        }
     }
 
     @Override
     public List<String> getSequenceNames() throws IOException {
-        return Arrays.asList(indexToChr);
+        return sequenceNames;
     }
 
     @Override
     public SAMFileHeader getFileHeader() {
-        return null;
+        return header;
     }
 
     @Override
     public Set<String> getPlatforms() {
-        return null;
+        return AlignmentReaderFactory.getPlatforms(header);
     }
 
+    /**
+     * Iterate through all mapped alignments in file order.  Unmapped reads without a position, which are
+     * stored at the end of the file, are not returned.
+     */
     @Override
     public CloseableIterator<Alignment> iterator() {
-        return null;
+        List<BAMIndex.Chunk> all = Collections.singletonList(
+                new BAMIndex.Chunk(new BAMIndex.VPointer(0, 0), new BAMIndex.VPointer(Long.MAX_VALUE / 2, 0)));
+        return open(new AlignmentIterator(all, headerLength, -1, 0, Integer.MAX_VALUE, false));
     }
 
 
@@ -133,327 +144,318 @@ public class BAMReader implements AlignmentReader<Alignment> {
 
     @Override
     public CloseableIterator<Alignment> query(String chr, int start, int end, boolean contained) throws IOException {
-        return new CIterator(chr, start, end);
+        Integer chrId = chrToIndex.get(chr);
+        List<BAMIndex.Chunk> chunks = chrId == null || bamIndex == null ?
+                Collections.emptyList() :
+                bamIndex.chunksForRange(chrId, start, end);
+        return open(new AlignmentIterator(chunks, 0, chrId == null ? -1 : chrId, start, end, contained));
     }
 
+    private AlignmentIterator open(AlignmentIterator iter) {
+        openIterators.add(iter);
+        return iter;
+    }
 
-    class CIterator implements CloseableIterator<Alignment> {
-
-        String chr;
-        Integer chrId;
-        int start;
-        int end;
-        Iterator<BAMIndex.Chunk> chunks;
-        Iterator<Alignment> currentChunkAlignments;
-        Alignment nextAlignment;
-
-        public CIterator(String chr, int start, int end) {
-            this.chr = chr;
-            this.start = start;
-            this.end = end;
-            init();
-        }
-
-        private void init() {
-
-            Map<String, Integer> chrToIndex = BAMReader.this.chrToIndex;
-
-            chrId = chrToIndex.get(chr);
-
-            if (chrId == null) {
-                // TODO
-            } else {
-                chunks = bamIndex.chunksForRange(chrId, start, end).iterator();
+    /**
+     * Convenience method,  return all alignments overlapping the range
+     */
+    public List<Alignment> readAlignments(String chr, int bpStart, int bpEnd) throws IOException {
+        List<Alignment> alignmentContainer = new ArrayList<>();
+        try (CloseableIterator<Alignment> iter = query(chr, bpStart, bpEnd, false)) {
+            while (iter.hasNext()) {
+                alignmentContainer.add(iter.next());
             }
+        }
+        return alignmentContainer;
+    }
 
-            advance();
 
+    class AlignmentIterator implements CloseableIterator<Alignment> {
+
+        final Iterator<BAMIndex.Chunk> chunks;
+        final int chrId;
+        final int min;
+        final int max;
+        final boolean contained;
+        final int nThreads;
+        final int sliceSize;
+
+        SeekableStream ss;
+
+        // Current chunk
+        long filePos;
+        long endBlock;
+        int skip;
+        byte[] leftover;
+        boolean chunkDone = true;
+
+        /**
+         * The next slice of the current chunk,  read and inflated while the current slice is decoded
+         */
+        Future<BGUnzip.Inflated> readAhead;
+
+        List<Alignment> pending = new ArrayList<>();
+        int pendingIdx = 0;
+
+        /**
+         * @param chunks file ranges to read
+         * @param skip   number of uncompressed bytes to skip at the start of the first chunk
+         * @param chrId  sequence index to return,  or -1 for all sequences
+         */
+        AlignmentIterator(List<BAMIndex.Chunk> chunks, int skip, int chrId, int min, int max, boolean contained) {
+            this.chunks = chunks.iterator();
+            this.skip = skip;
+            this.chrId = chrId;
+            this.min = min;
+            this.max = max;
+            this.contained = contained;
+            IGVPreferences prefs = PreferencesManager.getPreferences();
+            this.nThreads = Math.max(1, prefs.getAsInt(SAM_INFLATE_THREADS));
+            this.sliceSize = Math.max(1, prefs.getAsInt(SAM_INFLATE_BLOCKS)) * MAX_GZIP_BLOCK_SIZE;
         }
 
         @Override
         public void close() {
-
+            openIterators.remove(this);
+            cancelReadAhead();
+            if (ss != null) {
+                try {
+                    ss.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + path, e);
+                }
+                ss = null;
+            }
         }
 
         @Override
         public boolean hasNext() {
-            return nextAlignment != null;
-        }
-
-        @Override
-        public Alignment next() {
-            Alignment tmp = nextAlignment;
-            advance();
-            return tmp;
-        }
-
-        void advance() {
-            nextAlignment = null;
             try {
-                while (nextAlignment == null) {
-                    if (currentChunkAlignments != null && currentChunkAlignments.hasNext()) {
-                        nextAlignment = currentChunkAlignments.next();
-                    } else {
-                        if (chunks.hasNext()) {
-                            BAMIndex.Chunk c = chunks.next();
-                            currentChunkAlignments = readAlignments(c, chrId, start, end).iterator();
-                        }
-                        else {
-                            break;
-                        }
+                while (pendingIdx >= pending.size()) {
+                    pending.clear();
+                    pendingIdx = 0;
+                    if (chunkDone && !nextChunk()) {
+                        close();
+                        return false;
                     }
+                    readSlice();
                 }
+                return true;
             } catch (IOException e) {
-                e.printStackTrace();
-                nextAlignment = null;
+                close();
+                throw new RuntimeException("Error reading " + path, e);
             }
         }
-    }
-
-    public List<Alignment> readAlignments(BAMIndex.Chunk c, int chrId, int start, int end) throws IOException {
-
-        List<Alignment> alignmentContainer = new ArrayList<>(10000);
-
-        long fetchMin = c.start.block;
-        long fetchMax = c.end.block + 65000; // Make sure we get the whole block.
-
-        SeekableStream ss = IGVSeekableStreamFactory.getInstance().getStreamFor(this.path);
-
-        ss.seek(fetchMin);
-
-        byte[] buffer = new byte[(int) (fetchMax - fetchMin + 1)];
-
-        try {
-            ss.readFully(buffer);
-        } catch (EOFException e) {
-            // Can happen with small files
-        }
 
-        byte[] unc = BGUnzip.blockUnzip(buffer);
-
-        decodeBamRecords(unc, c.start.offset, alignmentContainer, start, end, chrId); //, self.filter);
-
-
-        return alignmentContainer;
-    }
-
-
-    public List<Alignment> readAlignments(String chr, int bpStart, int bpEnd) throws IOException {
-
-        List<Alignment> alignmentContainer = new ArrayList<>(10000);
-
-        if (chrToIndex == null) {
-            readHeader();
+        @Override
+        public Alignment next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.get(pendingIdx++);
         }
 
-        Map<String, Integer> chrToIndex = this.chrToIndex;
-
-        Integer chrId = chrToIndex.get(chr);
-
-        if (chrId == null) {
-            return alignmentContainer;
-        } else {
-
-            List<BAMIndex.Chunk> chunks = bamIndex.chunksForRange(chrId, bpStart, bpEnd);
-
-            if (chunks == null || chunks.isEmpty()) {
-                return alignmentContainer;
+        private boolean nextChunk() throws IOException {
+            if (!chunks.hasNext()) {
+                return false;
             }
-
-            for (BAMIndex.Chunk c : chunks) {
-
-                long fetchMin = c.start.block;
-                long fetchMax = c.end.block + 65000; // Make sure we get the whole block.
-
-                SeekableStream ss = IGVSeekableStreamFactory.getInstance().getStreamFor(this.path);
-
-                ss.seek(fetchMin);
-
-                byte[] buffer = new byte[(int) (fetchMax - fetchMin + 1)];
-
-                try {
-                    ss.readFully(buffer);
-                } catch (EOFException e) {
-                    // Can happen with small files
-                }
-
-                byte[] unc = BGUnzip.blockUnzip(buffer);
-
-                decodeBamRecords(unc, c.start.offset, alignmentContainer, bpStart, bpEnd, chrId); //, self.filter);
-
-
+            BAMIndex.Chunk c = chunks.next();
+            filePos = c.start.block;
+            endBlock = c.end.block;
+            if (c.start.offset > 0) {
+                skip = c.start.offset;
             }
-            return alignmentContainer;
+            leftover = null;
+            chunkDone = false;
+            if (ss == null) {
+                ss = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+            }
+            return true;
         }
-    }
-
-    void decodeBamRecords(byte[] ba, int offset, List<Alignment> alignmentContainer, int min, int max, int chrId) {  //, filter){
 
+        /**
+         * Read and inflate the slice of the current chunk starting at pos.  The output reserves PREFIX_RESERVE
+         * bytes for a record carried over from the previous slice.
+         */
+        private BGUnzip.Inflated loadSlice(long pos) throws IOException {
+            int n = (int) Math.min(sliceSize, endBlock - pos + MAX_GZIP_BLOCK_SIZE);
+            byte[] compressed = compressedBuffer(n);
+            int nRead = readFully(ss, pos, compressed, n);
+            return BGUnzip.inflate(compressed, nRead, PREFIX_RESERVE, nThreads);
+        }
 
-        while (true) {
+        /**
+         * Decode the complete records of the next slice of the current chunk.  A record split across slices is
+         * carried over to the next.  If inflation is multi-threaded the following slice is loaded in the background,
+         * so at most two slices are in flight.
+         */
+        private void readSlice() throws IOException {
 
-            if (offset >= ba.length) {
-                return;
+            BGUnzip.Inflated inflated;
+            if (readAhead != null) {
+                try {
+                    inflated = readAhead.get();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted reading " + path, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } finally {
+                    readAhead = null;
+                }
+            } else {
+                inflated = loadSlice(filePos);
             }
 
-            int blockSize = readInt(ba, offset);
-            int blockEnd = offset + blockSize + 4;
-
-            if (blockEnd > ba.length) {
+            if (inflated.compressedLength == 0) {
+                chunkDone = true;   // End of file
                 return;
             }
+            filePos += inflated.compressedLength;
 
-            int refID = readInt(ba, offset + 4);
-            int pos = readInt(ba, offset + 8);
-
-            if (refID < 0) {
-                return;   // unmapped reads
-            } else if (refID > chrId || pos > max) {
-                return;    // off right edge, we're done
-            } else if (refID < chrId) {
-                continue;   // to left of start, not sure this is possible
-            }
-
-            int bmn = readInt(ba, offset + 12);
-            int bin = (bmn & 0xffff0000) >> 16;
-            int mq = (bmn & 0xff00) >> 8;
-            int nl = bmn & 0xff;
-
-            int flag_nc = readInt(ba, offset + 16);
-            int flag = (flag_nc & 0xffff0000) >> 16;
-            int nc = flag_nc & 0xffff;
-
-
-            int lseq = readInt(ba, offset + 20);
-
-            int mateRefID = readInt(ba, offset + 24);
-            int matePos = readInt(ba, offset + 28);
-
-
-            byte[] readNameBytes = Arrays.copyOfRange(ba, offset + 36, offset + 36 + nl);
-            String readName = new String(readNameBytes);
-
-            int p = offset + 36 + nl;
-            byte[] cigarBytes = Arrays.copyOfRange(ba, p, p + 4 * nc);
-            p += 4 * nc;
-
-            CigarOperator[] cigarArray = new CigarOperator[nc];
-            int lengthOnRef = 0;
-            for (int c = 0; c < nc; ++c) {
-                int cigop = readInt(cigarBytes, c);
-                int opLen = (cigop >> 4);
-                char opLtr = CIGAR_DECODER[cigop & 0xf];
-                if (opLtr == 'M' || opLtr == 'X' || opLtr == 'D' || opLtr == 'N' || opLtr == '=')
-                    lengthOnRef += opLen;
-                cigarArray[c] = new CigarOperator(opLen, opLtr);
-            }
-
-
-            if (pos + lengthOnRef < min) {
-                offset = blockEnd;
-                continue;  // Record out-of-range "to the left", skip to next one
+            if (nThreads > 1 && filePos <= endBlock) {
+                final long nextPos = filePos;
+                readAhead = getReadAheadExecutor().submit(() -> loadSlice(nextPos));
             }
 
-            int seqSize = (lseq + 1) >> 1;
-            byte[] seqBytes = Arrays.copyOfRange(ba, p, p + seqSize);
-            byte[] sequence = new byte[lseq];
-
-            for (int j = 0; j < seqSize; ++j) {
-                byte sb = seqBytes[j];
-                sequence[2 * j] = (byte) (SECRET_DECODER[(sb & 0xf0) >> 4]);
-                if ((2 * j + 1) < lseq) sequence[2 * j + 1] += SECRET_DECODER[(sb & 0x0f)];
+            byte[] ba = inflated.bytes;
+            int ptr = PREFIX_RESERVE;
+            if (leftover != null) {
+                if (leftover.length <= PREFIX_RESERVE) {
+                    ptr = PREFIX_RESERVE - leftover.length;
+                    System.arraycopy(leftover, 0, ba, ptr, leftover.length);
+                } else {
+                    // Rare,  a record longer than the reserve
+                    byte[] tmp = new byte[leftover.length + ba.length - PREFIX_RESERVE];
+                    System.arraycopy(leftover, 0, tmp, 0, leftover.length);
+                    System.arraycopy(ba, PREFIX_RESERVE, tmp, leftover.length, ba.length - PREFIX_RESERVE);
+                    ba = tmp;
+                    ptr = 0;
+                }
             }
 
+            int n = Math.min(skip, ba.length - ptr);
+            ptr += n;
+            skip -= n;
 
-            p += seqSize;
-
-
-            byte[] qualities;
-            if (lseq == 1 && sequence[0] == '*') {
-                qualities = new byte[]{Byte.MAX_VALUE}; // TODO == how to represent this?
+            ptr = decodeRecords(ba, ptr, pending);
+            if (ptr < 0 || filePos > endBlock) {
+                chunkDone = true;
+                leftover = null;
+                cancelReadAhead();
             } else {
-                qualities = Arrays.copyOfRange(ba, p, p + lseq);
+                leftover = ptr < ba.length ? Arrays.copyOfRange(ba, ptr, ba.length) : null;
             }
-            p += lseq;
-
+        }
 
-            ReadMate mate = null;
-            boolean isPaired = (flag & PAIRED_FLAG) != 0;
-            if (isPaired) {
-                boolean mateIsMapped = (flag & MATE_IS_MAPPED_FLAG) != 0;
-                String mateChr = mateRefID > 0 ? this.indexToChr[mateRefID] : "";
-                boolean mateIsNegativeStrand = ((flag & MATE_STRAND_FLAG) != 0);
-                mate = new ReadMate(mateChr, matePos, mateIsNegativeStrand, mateIsMapped);
+        /**
+         * Discard the read-ahead slice.  The task must complete before the stream is used again.
+         */
+        private void cancelReadAhead() {
+            if (readAhead != null) {
+                try {
+                    readAhead.get();
+                } catch (Exception e) {
+                    // Ignore,  the slice is not needed
+                }
+                readAhead = null;
             }
+        }
 
+        /**
+         * Decode the complete records in ba starting at ptr.
+         *
+         * @return offset of the first incomplete record,  or -1 if the end of the requested range was reached
+         */
+        private int decodeRecords(byte[] ba, int ptr, List<Alignment> alignmentContainer) {
 
-            byte[] tagBytes = Arrays.copyOfRange(ba, p, blockEnd);
+            while (ptr + 4 <= ba.length) {
 
+                int blockEnd = ptr + 4 + readInt(ba, ptr);
+                if (blockEnd > ba.length) {
+                    break;
+                }
 
-            if (pos + lengthOnRef >= min && pos <= max) {   // && pass filter
+                int refID = readInt(ba, ptr + BAMAlignment.REF_ID);
+                int pos = readInt(ba, ptr + BAMAlignment.POS);
 
-                BAMAlignment alignment = new BAMAlignment();
-                alignment.start = pos;
-                alignment.flags = flag;
-                alignment.fragmentLength = readInt(ba, offset + 32);
-                alignment.cigarBytes = cigarBytes;
-                alignment.lengthOnRef = lengthOnRef;
-                alignment.sequence = sequence;
-                alignment.mq = mq;
-                alignment.readName = readName;
-                alignment.chr = this.indexToChr[refID];
-                alignment.qualities = qualities;
-                alignment.mate = mate;
-                alignment.tagBytes = tagBytes;   // Decode these on demand
+                if (refID < 0) {
+                    return -1;   // unmapped reads, always at the end of the file
+                }
+                if (chrId >= 0) {
+                    if (refID > chrId || (refID == chrId && pos >= max)) {
+                        return -1;    // off right edge, we're done
+                    } else if (refID < chrId) {
+                        ptr = blockEnd;
+                        continue;
+                    }
+                }
 
-                makeBlocks(cigarArray, alignment);
+                int lengthOnRef = BAMAlignment.lengthOnRef(ba, ptr);
+                boolean inRange = chrId < 0 ||
+                        (contained ? pos >= min && pos + lengthOnRef <= max : pos + Math.max(1, lengthOnRef) > min);
 
-                alignmentContainer.add(alignment);
+                if (inRange) {
+                    int mateRefID = readInt(ba, ptr + BAMAlignment.NEXT_REF_ID);
+                    String mateChr = mateRefID >= 0 ? indexToChr[mateRefID] : "*";
+                    alignmentContainer.add(new BAMAlignment(ba, ptr, lengthOnRef, indexToChr[refID], mateChr, header));
+                }
+                ptr = blockEnd;
             }
-
-            offset = blockEnd;
+            return ptr;
         }
     }
 
 
     void readHeader() throws IOException {
 
-
-        int len = (int) bamIndex.firstAlignmentBlock + MAX_GZIP_BLOCK_SIZE;   // Insure we get the complete compressed block containing the header
-
-        //LittleEndianInputStream parser = new LittleEndianInputStream(new BufferedInputStream(ParsingUtils.openInputStream(indexURL)));
-        SeekableStream ss = IGVSeekableStreamFactory.getInstance().getStreamFor(this.path);
-
-        byte[] buffer = new byte[len];
-        try {
-            ss.readFully(buffer);
-        } catch (EOFException e) {
-            // This can happen with small files
+        // Inflate until the complete header, including the reference dictionary, is available
+        byte[] uncba = new byte[0];
+        long filePos = 0;
+        int needed = 12;
+        try (SeekableStream ss = IGVSeekableStreamFactory.getInstance().getStreamFor(this.path)) {
+            while (uncba.length < needed) {
+                byte[] compressed = compressedBuffer(SLICE_SIZE);
+                int nRead = readFully(ss, filePos, compressed, SLICE_SIZE);
+                BGUnzip.Inflated inflated = BGUnzip.inflate(compressed, nRead, uncba.length);
+                if (inflated.compressedLength == 0) {
+                    throw new IOException("Unexpected end of file reading header: " + path);
+                }
+                System.arraycopy(uncba, 0, inflated.bytes, 0, uncba.length);
+                uncba = inflated.bytes;
+                filePos += inflated.compressedLength;
+                needed = headerLength(uncba);
+            }
         }
 
-        byte[] uncba = BGUnzip.blockUnzip(buffer);
-
         int magic = readInt(uncba, 0);
+        if (magic != BAM_MAGIC) {
+            throw new IOException(path + " is not a BAM file");
+        }
         int samHeaderLen = readInt(uncba, 4);
 
-        String samHeader = new String(uncba, 8, samHeaderLen);
+        String samHeader = new String(uncba, 8, samHeaderLen, StandardCharsets.US_ASCII);
+        SAMTextHeaderCodec codec = new SAMTextHeaderCodec();
+        codec.setValidationStringency(ValidationStringency.SILENT);
+        this.header = codec.decode(BufferedLineReader.fromString(samHeader), path);
 
         int nRef = readInt(uncba, samHeaderLen + 8);
         int p = samHeaderLen + 12;
 
         Map<String, Integer> chrToIndex = new HashMap<>();
         String[] indexToChr = new String[nRef];
+        List<String> sequenceNames = new ArrayList<>(nRef);
 
         for (int i = 0; i < nRef; ++i) {
             int lName = readInt(uncba, p);
-            String name = new String(uncba, p + 4, lName - 1);
-            int lRef = readInt(uncba, p + lName + 4);
+            String name = new String(uncba, p + 4, lName - 1, StandardCharsets.US_ASCII);
+            sequenceNames.add(name);
+            chrToIndex.put(name, i);
 
             if (genome != null) {
                 name = genome.getCanonicalChrName(name);
+                chrToIndex.put(name, i);
             }
-
-            chrToIndex.put(name, i);
             indexToChr[i] = name;
 
             p = p + 8 + lName;
@@ -461,100 +463,59 @@ public class BAMReader implements AlignmentReader<Alignment> {
 
         this.chrToIndex = chrToIndex;
         this.indexToChr = indexToChr;
-
-
+        this.sequenceNames = sequenceNames;
+        this.headerLength = p;
     }
 
     /**
-     * Split the alignment record into blocks as specified in the cigarArray.  Each aligned block contains
-     * its portion of the read sequence and base quality strings.  A read sequence or base quality string
-     * of "*" indicates the value is not recorded.  In all other cases the length of the block sequence (block.seq)
-     * and quality string (block.qual) must == the block length.
-     * <p>
-     * NOTE: Insertions are not yet treated // TODO
-     *
-     * @returns array of blocks
+     * Return the number of bytes required to hold the header,  as far as can be determined from the bytes available
      */
-    void makeBlocks(CigarOperator[] cigarArray, BAMAlignment alignment) {
-
-        List<AlignmentBlock> blocks = new ArrayList<>();
-        List<AlignmentBlock> insertions = null;
-        int seqOffset = 0;
-        int pos = alignment.start;
-        int len = cigarArray.length;
-        byte[] blockSeq;
-        char gapType;
-        byte[] blockQuals;
-//                    gapType,
-//                    minQ = 5,  //prefs.getAsInt(PreferenceManager.SAM_BASE_QUALITY_MIN)
-//                    maxQ = 20; //prefs.getAsInt(PreferenceManager.SAM_BASE_QUALITY_MAX)
-
-        for (int i = 0; i < len; i++) {
-
-            CigarOperator c = cigarArray[i];
-
-            switch (c.letter) {
-                case 'H':
-                    break; // ignore hard clips
-                case 'P':
-                    break; // ignore pads
-                case 'S':
-                    seqOffset += c.length;
-                    gapType = 'S';
-                    break; // soft clip read bases
-                case 'N':
-                    pos += c.length;
-                    gapType = 'N';
-                    break;  // reference skip
-                case 'D':
-                    pos += c.length;
-                    gapType = 'D';
-                    break;
-                case 'I':
-                    blockSeq = alignment.sequence.length == 1 ? alignment.sequence : Arrays.copyOfRange(alignment.sequence, seqOffset, seqOffset + c.length);
-                    blockQuals = alignment.qualities == null ? null : Arrays.copyOfRange(alignment.qualities, seqOffset, seqOffset + c.length);
-                    if (insertions == null) {
-                        insertions = new ArrayList<>();
-                    }
-                    insertions.add(new AlignmentBlockImpl(pos, blockSeq, blockQuals));
-                    seqOffset += c.length;
-                    break;
-                case 'M':
-                case '=':
-                case 'X':
-                    blockSeq = alignment.sequence.length == 1 ? alignment.sequence : Arrays.copyOfRange(alignment.sequence, seqOffset, seqOffset + c.length);
-                    blockQuals = alignment.qualities == null ? null : Arrays.copyOfRange(alignment.qualities, seqOffset, seqOffset + c.length);
-                    blocks.add(new AlignmentBlockImpl(pos, blockSeq, blockQuals));
-                    seqOffset += c.length;
-                    pos += c.length;
-                    break;
-
-                default:
-                    log.error("Error processing cigar element: " + c.length + c.letter);
-            }
+    private static int headerLength(byte[] ba) {
+        if (ba.length < 12) return 12;
+        int samHeaderLen = readInt(ba, 4);
+        int p = samHeaderLen + 12;
+        if (ba.length < p) return p;
+        int nRef = readInt(ba, samHeaderLen + 8);
+        for (int i = 0; i < nRef; i++) {
+            if (ba.length < p + 4) return p + 4;
+            p += 8 + readInt(ba, p);
         }
+        return p;
+    }
 
-        alignment.alignmentBlocks = blocks.toArray(new AlignmentBlockImpl[]{});
-        if (insertions != null) {
-            alignment.insertions = insertions.toArray(new AlignmentBlockImpl[]{});
+    private static synchronized ExecutorService getReadAheadExecutor() {
+        if (readAheadExecutor == null) {
+            readAheadExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "BAM read-ahead");
+                t.setDaemon(true);
+                return t;
+            });
         }
-
+        return readAheadExecutor;
     }
 
-
-    public String readString(ByteBuffer ba) throws IOException {
-        ByteArrayOutputStream bis = new ByteArrayOutputStream(100);
-
-        byte b;
-        while ((b = ba.get()) != 0) {
-            if (b < 0) {
-                throw new EOFException();
-            }
-
-            bis.write(b);
+    private static byte[] compressedBuffer(int size) {
+        byte[] buffer = COMPRESSED_BUFFERS.get();
+        if (buffer.length < size) {
+            buffer = new byte[size];
+            COMPRESSED_BUFFERS.set(buffer);
         }
+        return buffer;
+    }
 
-        return new String(bis.toByteArray());
+    /**
+     * Read up to n bytes starting at filePos.  Returns the number of bytes read,  which is less than n only at
+     * the end of the file.
+     */
+    private static int readFully(SeekableStream ss, long filePos, byte[] buffer, int n) throws IOException {
+        ss.seek(filePos);
+        int total = 0;
+        while (total < n) {
+            int nRead = ss.read(buffer, total, n - total);
+            if (nRead < 0) break;
+            total += nRead;
+        }
+        return total;
     }
 
 
@@ -563,5 +524,3 @@ public class BAMReader implements AlignmentReader<Alignment> {
     }
 
 }
-
-
@@ -1,7 +1,15 @@
 package org.broad.igv.sam.lite;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -10,51 +18,181 @@ import java.util.zip.Inflater;
  */
 public class BGUnzip {
     public static final int BGZIP_HEADER_LENGTH = 18;
+    public static final int BGZIP_FOOTER_LENGTH = 8;
+
+    /**
+     * Inflaters are expensive to create (native zlib state),  so one is kept per thread
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private static ExecutorService inflateExecutor;
+    private static int inflateExecutorThreads;
+
+    /**
+     * Result of inflating a run of bgzip blocks
+     */
+    public static class Inflated {
+
+        /**
+         * Inflated bytes,  preceded by {@code prefix} unused bytes reserved by the caller
+         */
+        public final byte[] bytes;
+
+        /**
+         * Number of compressed bytes consumed,  i.e. the total size of the complete blocks inflated
+         */
+        public final int compressedLength;
+
+        Inflated(byte[] bytes, int compressedLength) {
+            this.bytes = bytes;
+            this.compressedLength = compressedLength;
+        }
+    }
 
     // Uncompress data,  assumed to be series of bgzipped blocks
 
     public static byte[] blockUnzip(byte[] data) throws IOException {
+        return inflate(data, data.length, 0).bytes;
+    }
+
+    /**
+     * Inflate the complete bgzip blocks in data[0, length) directly into a single array of exactly the inflated size.
+     * The inflated size is computed first from the ISIZE footer of each block,  so no intermediate buffers are
+     * allocated.  A trailing partial block is ignored,  and the number of compressed bytes consumed is returned so
+     * the caller can resume from the partial block.
+     *
+     * @param prefix number of bytes to reserve at the start of the output array for the caller's use
+     */
+    public static Inflated inflate(byte[] data, int length, int prefix) throws IOException {
+        return inflate(data, length, prefix, 1);
+    }
 
-        Inflater inflater = new Inflater(true);
+    /**
+     * Inflate as above,  using up to nThreads threads.  Blocks are divided into contiguous runs which are inflated
+     * concurrently,  each directly into its final position in the output,  so the result is identical to serial
+     * inflation.
+     */
+    public static Inflated inflate(byte[] data, int length, int prefix, int nThreads) throws IOException {
 
+        // First pass -- size the output from the block footers
         int ptr = 0;
+        int uncLength = 0;
+        int nBlocks = 0;
+        while (ptr + BGZIP_HEADER_LENGTH <= length) {
+            int bsize = unpackInt16(data, ptr + 16) + 1;
+            if (ptr + bsize > length) break;
+            uncLength += unpackInt32(data, ptr + bsize - 4);
+            ptr += bsize;
+            nBlocks++;
+        }
+        int lim = ptr;
+
+        byte[] output = new byte[prefix + uncLength];
+
+        int nRuns = Math.min(nThreads, nBlocks / 2);
+        if (nRuns < 2) {
+            inflateBlocks(data, 0, lim, output, prefix);
+        } else {
+
+            // Split into runs of approximately equal compressed size,  ending on block boundaries
+            List<Future<?>> futures = new ArrayList<>(nRuns);
+            ExecutorService executor = getInflateExecutor(nThreads);
+            int runSize = lim / nRuns;
+            int runStart = 0;
+            int outStart = prefix;
+            ptr = 0;
+            int outPtr = prefix;
+            while (ptr < lim) {
+                int bsize = unpackInt16(data, ptr + 16) + 1;
+                ptr += bsize;
+                outPtr += unpackInt32(data, ptr - 4);
+                if (ptr - runStart >= runSize || ptr == lim) {
+                    final int s = runStart, e = ptr, o = outStart;
+                    futures.add(submit(executor, () -> {
+                        inflateBlocks(data, s, e, output, o);
+                        return null;
+                    }));
+                    runStart = ptr;
+                    outStart = outPtr;
+                }
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted inflating data", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
 
-        int lim = data.length - BGZIP_HEADER_LENGTH;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
+        return new Inflated(output, lim);
+    }
 
-        while (ptr < lim) {
+    /**
+     * Inflate the complete blocks in data[start, end) into output beginning at outPtr
+     */
+    private static void inflateBlocks(byte[] data, int start, int end, byte[] output, int outPtr) throws IOException {
 
-            int xlen =  unpackInt16(data, ptr + 10);
-            int si1 = data[ptr + 12];
-            int si2 = data[ptr + 13];
-            int slen =  unpackInt16(data, 14);
-            int bsize = unpackInt16(data, ptr + 16) + 1;
+        Inflater inflater = INFLATERS.get();
 
-            int start = BGZIP_HEADER_LENGTH + ptr;    // Start of CDATA
-            int remainder = data.length - start;
-            if (remainder < (bsize + 8)) break;
+        int ptr = start;
+        while (ptr < end) {
 
-            int uncLength = unpackInt32(data, ptr + bsize - 4);
+            int bsize = unpackInt16(data, ptr + 16) + 1;
+            int cdataStart = BGZIP_HEADER_LENGTH + ptr;    // Start of CDATA
+            int cdataLength = bsize - BGZIP_HEADER_LENGTH - BGZIP_FOOTER_LENGTH;
+            int blockUncLength = unpackInt32(data, ptr + bsize - 4);
 
             inflater.reset();
-            inflater.setInput(data, start, remainder);
-
-            byte [] output = new byte[uncLength];
-            final int inflatedBytes;
+            inflater.setInput(data, cdataStart, cdataLength);
             try {
-                inflatedBytes = inflater.inflate(output, 0, uncLength);
+                int inflatedBytes = inflater.inflate(output, outPtr, blockUncLength);
+                if (inflatedBytes != blockUncLength) {
+                    throw new IOException("Corrupt bgzip block at offset " + ptr);
+                }
             } catch (DataFormatException e) {
-                // Can happen near end of file;
-                break;
+                throw new IOException("Error inflating bgzip block at offset " + ptr, e);
             }
 
-            outputStream.write(output, 0, inflatedBytes);
-
+            outPtr += blockUncLength;
             ptr += bsize;    // Advance to next block
+        }
+    }
 
+    /**
+     * Submit a run to the executor,  or inflate it on this thread if the executor has been shut down because the
+     * thread count changed.
+     */
+    private static Future<Void> submit(ExecutorService executor, Callable<Void> run) {
+        try {
+            return executor.submit(run);
+        } catch (RejectedExecutionException e) {
+            FutureTask<Void> task = new FutureTask<>(run);
+            task.run();
+            return task;
         }
+    }
 
-        return outputStream.toByteArray();
+    /**
+     * Return the shared inflater pool,  replacing it if the thread count has changed.  The replaced pool is shut
+     * down,  which lets its queued runs finish.
+     */
+    private static synchronized ExecutorService getInflateExecutor(int nThreads) {
+        if (inflateExecutor == null || inflateExecutorThreads != nThreads) {
+            if (inflateExecutor != null) {
+                inflateExecutor.shutdown();
+            }
+            inflateExecutor = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r, "BGZF inflater");
+                t.setDaemon(true);
+                return t;
+            });
+            inflateExecutorThreads = nThreads;
+        }
+        return inflateExecutor;
     }
 
     private static int unpackInt16(final byte[] buffer, final int offset) {
@@ -31,14 +31,18 @@ import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import org.apache.log4j.Logger;
 import org.broad.igv.exceptions.DataLoadException;
+import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.google.Ga4ghAlignmentReader;
 import org.broad.igv.google.Ga4ghProvider;
 import org.broad.igv.goby.GobyAlignmentQueryReader;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
@@ -83,6 +87,14 @@ public class AlignmentReaderFactory {
                 || typeString.endsWith("psl")
                 || typeString.endsWith("pslx")) {
             reader = new GeraldReader(samFile, requireIndex);
+        } else if (typeString.endsWith(".bam") && useLiteReader(locator, requireIndex)) {
+            try {
+                reader = new org.broad.igv.sam.lite.BAMReader(samFile, getLiteIndexPath(locator),
+                        GenomeManager.getInstance().getCurrentGenome());
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                throw new DataLoadException("Error loading BAM file: " + e.toString(), locator.getPath());
+            }
         } else if (typeString.endsWith(".bam") || (typeString.endsWith(".cram"))) {
             try {
                 reader = new BAMReader(locator, requireIndex); //, requireIndex);
@@ -109,6 +121,29 @@ public class AlignmentReaderFactory {
         return reader;
     }
 
+    /**
+     * The lightweight BAM reader is used,  if selected,  for indexed local files.
+     */
+    private static boolean useLiteReader(ResourceLocator locator, boolean requireIndex) {
+        return requireIndex &&
+                locator.isLocal() &&
+                PreferencesManager.getPreferences().getAsBoolean(Constants.SAM_LITE_BAM_READER) &&
+                getLiteIndexPath(locator) != null;
+    }
+
+    private static String getLiteIndexPath(ResourceLocator locator) {
+        if (locator.getIndexPath() != null) {
+            return locator.getIndexPath();
+        }
+        String path = locator.getPath();
+        for (String indexPath : new String[]{path + ".bai", path.substring(0, path.length() - 4) + ".bai"}) {
+            if (new File(indexPath).exists()) {
+                return indexPath;
+            }
+        }
+        return null;
+    }
+
     static AlignmentReader getBamListReader(String listFile, boolean requireIndex) {
 
         List<AlignmentReader> readers = new ArrayList();
@@ -30,6 +30,8 @@ import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.igv.exceptions.DataLoadException;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.EmptyAlignmentIterator;
 import org.broad.igv.sam.PicardAlignment;
 import org.broad.igv.sam.cram.IGVReferenceSource;
@@ -76,7 +78,8 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
         boolean isLocal = locator.isLocal();
         final SamReaderFactory factory = SamReaderFactory.makeDefault().
                 referenceSource(new IGVReferenceSource()).
-                validationStringency(ValidationStringency.SILENT);
+                validationStringency(ValidationStringency.SILENT).
+                setUseAsyncIo(PreferencesManager.getPreferences().getAsInt(Constants.SAM_INFLATE_THREADS) > 1);
         SamInputResource resource;
 
         if (isLocal) {
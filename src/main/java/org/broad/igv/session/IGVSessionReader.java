@@ -26,7 +26,6 @@
 package org.broad.igv.session;
 
 import org.apache.log4j.Logger;
-import org.broad.igv.Globals;
 import org.broad.igv.data.CombinedDataSource;
 import org.broad.igv.feature.Locus;
 import org.broad.igv.feature.RegionOfInterest;
@@ -62,6 +61,8 @@ import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Class to parse an IGV session file
@@ -81,6 +82,8 @@ public class IGVSessionReader implements SessionReader {
 
     private IGV igv;
 
+    private final SessionLoadScheduler loadScheduler = new SessionLoadScheduler();
+
     private static WeakReference<IGVSessionReader> currentReader;
 
 
@@ -121,7 +124,6 @@ public class IGVSessionReader implements SessionReader {
 
     private Track geneTrack = null;
     private Track seqTrack = null;
-    private boolean hasTrackElments;
 
     //Temporary holder for generating tracks
     protected static AbstractTrack nextTrack;
@@ -159,9 +161,6 @@ public class IGVSessionReader implements SessionReader {
             throw new RuntimeException(e);
         }
 
-        NodeList tracks = document.getElementsByTagName("Track");
-        hasTrackElments = tracks.getLength() > 0;
-
         HashMap additionalInformation = new HashMap();
         additionalInformation.put(INPUT_FILE_KEY, sessionPath);
 
@@ -190,8 +189,25 @@ public class IGVSessionReader implements SessionReader {
             }
 
             igv.resetOverlayTracks();
+
+            loadViewData();
         }
 
+        loadScheduler.logSummary();
+    }
+
+    /**
+     * Load data for the session locus concurrently, now that tracks are placed and configured, rather than
+     * serially from the data panels.
+     */
+    private void loadViewData() {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (Track track : igv.getAllTracks()) {
+            if (track.isVisible()) {
+                futures.add(loadScheduler.loadView(track.getResourceLocator(), Collections.singletonList(track)));
+            }
+        }
+        SessionLoadScheduler.awaitAll(futures);
     }
 
 
@@ -453,78 +469,53 @@ public class IGVSessionReader implements SessionReader {
         if (dataFiles.size() > 0) {
 
             final List<String> errors = new ArrayList<String>();
-
-            // Load files concurrently -- TODO, put a limit on # of threads?
-            List<Thread> threads = new ArrayList(dataFiles.size());
             long t0 = System.currentTimeMillis();
 
-            List<Runnable> synchronousLoads = new ArrayList<Runnable>();
-
+            // Open resources concurrently, then collect tracks in resource order.  Google resources are opened
+            // in turn on this thread as they might prompt for authorization.
+            List<Pair<ResourceLocator, CompletableFuture<List<Track>>>> loads = new ArrayList<>(dataFiles.size());
             for (final ResourceLocator locator : dataFiles) {
+                CompletableFuture<List<Track>> future = GoogleUtils.isGoogleURL(locator.getPath()) ?
+                        null :
+                        loadScheduler.submit(locator, SessionLoadScheduler.OPEN, () -> igv.load(locator));
+                loads.add(new Pair<>(locator, future));
+            }
 
-                Runnable runnable = () -> {
-
-                    List<Track> tracks = null;
-
-                    try {
+            for (Pair<ResourceLocator, CompletableFuture<List<Track>>> load : loads) {
 
-                        tracks = igv.load(locator);
+                ResourceLocator locator = load.getFirst();
+                try {
+                    List<Track> tracks = load.getSecond() == null ? igv.load(locator) : load.getSecond().join();
 
-                        for (Track track : tracks) {
+                    for (Track track : tracks) {
 
-                            if (track == null) {
-                                log.info("Null track for resource " + locator.getPath());
-                                continue;
-                            }
+                        if (track == null) {
+                            log.info("Null track for resource " + locator.getPath());
+                            continue;
+                        }
 
-                            String id = track.getId();
-                            if (id == null) {
-                                log.info("Null track id for resource " + locator.getPath());
-                                continue;
-                            }
+                        String id = track.getId();
+                        if (id == null) {
+                            log.info("Null track id for resource " + locator.getPath());
+                            continue;
+                        }
 
-                            List<Track> trackList = leftoverTrackDictionary.get(id);
-                            if (trackList == null) {
-                                trackList = new ArrayList();
-                                leftoverTrackDictionary.put(id, trackList);
-                                allTracks.put(id, trackList);
-                            }
-                            trackList.add(track);
+                        List<Track> trackList = leftoverTrackDictionary.get(id);
+                        if (trackList == null) {
+                            trackList = new ArrayList();
+                            leftoverTrackDictionary.put(id, trackList);
+                            allTracks.put(id, trackList);
                         }
-                    } catch (Exception e) {
-                        log.error("Error loading resource " + locator.getPath(), e);
-                        String ms = "<b>" + locator.getPath() + "</b><br>&nbsp;&nbsp;" + e.toString() + "<br>";
-                        errors.add(ms);
+                        trackList.add(track);
                     }
-                };
-
-                String path = locator.getPath();
-                boolean isAlignment = path != null && (path.endsWith(".bam") || path.endsWith(".entries") || path.endsWith(".sam"));
-                boolean isGoogle = GoogleUtils.isGoogleURL(path);
-
-                // Run synchronously if in batch mode or if there are no "track" elments, or if this is an alignment file
-                if (isAlignment || isGoogle || Globals.isBatch() || !hasTrackElments) {
-                    synchronousLoads.add(runnable);
-                } else {
-                    Thread t = new Thread(runnable);
-                    threads.add(t);
-                    t.start();
-                }
-            }
-            // Wait for all threads to complete
-            for (Thread t : threads) {
-                try {
-                    t.join();
-                } catch (InterruptedException ignore) {
+                } catch (Exception e) {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.error("Error loading resource " + locator.getPath(), cause);
+                    String ms = "<b>" + locator.getPath() + "</b><br>&nbsp;&nbsp;" + cause.toString() + "<br>";
+                    errors.add(ms);
                 }
             }
 
-
-            // Now load data that must be loaded synchronously
-            for (Runnable runnable : synchronousLoads) {
-                runnable.run();
-            }
-
             long dt = System.currentTimeMillis() - t0;
             log.debug("Total load time = " + dt);
 
@@ -33,6 +33,7 @@ import org.broad.igv.track.TrackProperties;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.panel.TrackPanel;
 import org.broad.igv.ui.util.MessageUtils;
+import org.broad.igv.util.Pair;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
 
@@ -41,9 +42,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Class to parse an index aware session file
@@ -77,8 +78,8 @@ public class IndexAwareSessionReader implements SessionReader {
         String nextLine;
 
         final List<String> errors = new ArrayList<String>();
-        final HashMap<String, List<Track>> loadedTracks = new HashMap();
-        List<ResourceLocator> aSync = new ArrayList();
+        final List<Pair<ResourceLocator, CompletableFuture<List<Track>>>> loads = new ArrayList<>();
+        final SessionLoadScheduler loadScheduler = new SessionLoadScheduler();
 
         // Index aware sessions do not have means to set genome, or if they do we don't use it
         Genome genome = GenomeManager.getInstance().getCurrentGenome();
@@ -109,7 +110,6 @@ public class IndexAwareSessionReader implements SessionReader {
                             locator.setCoverage(coverageURL);
                         }
 
-                        loadedTracks.put(dataURL, igv.load(locator));
                     }
                 } else {
                     locator = parseResourceLine(nextLine);
@@ -117,13 +117,7 @@ public class IndexAwareSessionReader implements SessionReader {
 
                 if (locator != null) {
                     locator.setTrackLine(trackLine);
-                    // Alignment tracks must be loaded synchronously
-                    if (isAlignmentFile(locator.getPath())) {
-                        TrackPanel panel = igv.getPanelFor(locator);
-                        panel.addTracks(igv.load(locator));
-                    } else {
-                        aSync.add(locator);
-                    }
+                    loads.add(new Pair<>(locator, load(loadScheduler, locator)));
                     trackLine = null; // Reset for next time
                     locator = null;
                 }
@@ -134,7 +128,8 @@ public class IndexAwareSessionReader implements SessionReader {
             }
         }
 
-        loadAsynchronous(aSync, loadedTracks, errors);
+        placeTracksInPanels(loads, errors);
+        loadScheduler.logSummary();
 
         if (errors.size() > 0) {
             displayErrors(errors);
@@ -142,35 +137,12 @@ public class IndexAwareSessionReader implements SessionReader {
 
     }
 
-    private void loadAsynchronous(List<ResourceLocator> aSync, final HashMap<String, List<Track>> loadedTracks,
-                                  final List<String> errors) {
-        List<Thread> threads = new ArrayList(aSync.size());
-        for (final ResourceLocator locator : aSync) {
-            Runnable runnable = new Runnable() {
-                public void run() {
-                    // TODO handle errors
-                    try {
-                        loadedTracks.put(locator.getPath(), igv.load(locator));
-                    } catch (Exception e) {
-                        log.error("Error loading resource " + locator.getPath(), e);
-                        String ms = "<b>" + locator.getPath() + "</b><br>&nbs;p&nbsp;" + e.toString() + "<br>";
-                        errors.add(ms);
-                    }
-                }
-            };
-            Thread t = new Thread(runnable);
-            threads.add(t);
-            t.start();
-        }
-        // Wait for all threads to complete
-        for (Thread t : threads) {
-            try {
-                t.join();
-            } catch (InterruptedException ignore) {
-            }
-        }
-        placeTracksInPanels(aSync, loadedTracks);
-
+    /**
+     * Open the resource and load data for the current view, pipelined with other resources of the session.
+     */
+    private CompletableFuture<List<Track>> load(SessionLoadScheduler loadScheduler, final ResourceLocator locator) {
+        return loadScheduler.submit(locator, SessionLoadScheduler.OPEN, () -> igv.load(locator))
+                .thenCompose(tracks -> loadScheduler.loadView(locator, tracks));
     }
 
     private String getDataURL(String nextLine) {
@@ -191,14 +163,22 @@ public class IndexAwareSessionReader implements SessionReader {
         return props.getCoverageURL();
     }
 
-    private void placeTracksInPanels(List<ResourceLocator> locatorPaths, Map<String, List<Track>> loadedTracks) {
-        for (ResourceLocator loc : locatorPaths) {
-            //TrackPanel panel = IGV.getInstance().getPanelFor(new ResourceLocator(path));
-            // If loading from an index aware session use a single panel
-            TrackPanel panel = igv.getTrackPanel(IGV.DATA_PANEL_NAME);
-            String path = loc.getPath();
-            if (loadedTracks.containsKey(path)) {
-                panel.addTracks(loadedTracks.get(path));
+    private void placeTracksInPanels(List<Pair<ResourceLocator, CompletableFuture<List<Track>>>> loads,
+                                     List<String> errors) {
+        for (Pair<ResourceLocator, CompletableFuture<List<Track>>> load : loads) {
+            ResourceLocator locator = load.getFirst();
+            try {
+                List<Track> tracks = load.getSecond().join();
+                // If loading from an index aware session use a single panel, except for alignments
+                TrackPanel panel = isAlignmentFile(locator.getPath()) ?
+                        igv.getPanelFor(locator) :
+                        igv.getTrackPanel(IGV.DATA_PANEL_NAME);
+                panel.addTracks(tracks);
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                log.error("Error loading resource " + locator.getPath(), cause);
+                String ms = "<b>" + locator.getPath() + "</b><br>&nbsp;&nbsp;" + cause.toString() + "<br>";
+                errors.add(ms);
             }
         }
     }
@@ -0,0 +1,298 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.session;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.track.Track;
+import org.broad.igv.ui.panel.FrameManager;
+import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.util.FileUtils;
+import org.broad.igv.util.ResourceLocator;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.broad.igv.prefs.Constants.SESSION_HOST_CONNECTIONS;
+import static org.broad.igv.prefs.Constants.SESSION_LOAD_THREADS;
+
+/**
+ * Schedules the loading of session resources.  Work is submitted in stages -- "open" (index fetch, header read
+ * and track creation) and "view" (data for the current view) -- which are pipelined, so the view data of one
+ * resource loads while others are still opening.  Parallelism is bounded by a thread pool shared by all session
+ * loads, and by a limit on the number of tasks running against any one remote host.  Queue and run times of every
+ * task are recorded, see {@link #getTimings()}.
+ */
+public class SessionLoadScheduler {
+
+    private static Logger log = Logger.getLogger(SessionLoadScheduler.class);
+
+    public static final String OPEN = "open";
+    public static final String VIEW = "view";
+
+    static final String LOCAL_HOST = "";
+
+    private static ExecutorService sharedExecutor;
+
+    private final Executor executor;
+    private final int hostConnections;
+    private final Map<String, HostQueue> hostQueues = new HashMap<>();
+    private final List<LoadTiming> timings = Collections.synchronizedList(new ArrayList<>());
+    private final long startTime = System.currentTimeMillis();
+
+    public SessionLoadScheduler() {
+        this(getSharedExecutor(), PreferencesManager.getPreferences().getAsInt(SESSION_HOST_CONNECTIONS));
+    }
+
+    SessionLoadScheduler(Executor executor, int hostConnections) {
+        this.executor = executor;
+        this.hostConnections = Math.max(1, hostConnections);
+    }
+
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            int nThreads = Math.max(1, PreferencesManager.getPreferences().getAsInt(SESSION_LOAD_THREADS));
+            sharedExecutor = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r, "Session loader");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Submit a task for one stage of loading a resource.  The task runs when a thread, and a connection to the
+     * resource's host, are available.
+     *
+     * @param locator the resource, used to identify the host and to label timings
+     * @param stage   stage name, e.g. {@link #OPEN}
+     * @param task
+     * @return a future completed with the task result or exception
+     */
+    public <T> CompletableFuture<T> submit(ResourceLocator locator, String stage, Callable<T> task) {
+
+        final String path = locator == null ? null : locator.getPath();
+        final String host = getHostKey(path);
+        final LoadTiming timing = new LoadTiming(path, host, stage);
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        enqueue(host, () -> {
+            timing.start = System.currentTimeMillis();
+            T result = null;
+            Throwable error = null;
+            try {
+                result = task.call();
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                timing.end = System.currentTimeMillis();
+                timings.add(timing);
+                release(host);
+            }
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Submit the "view" stage for the tracks of a resource:  load data for each current reference frame the
+     * tracks are not ready to paint.  Failures are logged and otherwise ignored, the data panels retry on paint.
+     *
+     * @return a future completed with {@code tracks}
+     */
+    public CompletableFuture<List<Track>> loadView(ResourceLocator locator, List<Track> tracks) {
+        return submit(locator, VIEW, () -> {
+            if (tracks != null) {
+                for (Track track : tracks) {
+                    if (track == null || !track.isVisible()) continue;
+                    for (ReferenceFrame frame : FrameManager.getFrames()) {
+                        try {
+                            if (!track.isReadyToPaint(frame)) {
+                                track.load(frame);
+                            }
+                        } catch (Exception e) {
+                            log.error("Error loading data for track " + track.getName(), e);
+                        }
+                    }
+                }
+            }
+            return tracks;
+        });
+    }
+
+    /**
+     * Wait for completion of all futures.  Exceptions are left to the callers of {@code join()}.
+     */
+    public static void awaitAll(Collection<? extends CompletableFuture<?>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+        } catch (CompletionException | CancellationException ignore) {
+        }
+    }
+
+    private void enqueue(String host, Runnable runnable) {
+        boolean dispatch;
+        synchronized (hostQueues) {
+            HostQueue queue = hostQueues.computeIfAbsent(host, k -> new HostQueue());
+            dispatch = queue.active < getLimit(host);
+            if (dispatch) {
+                queue.active++;
+            } else {
+                queue.pending.add(runnable);
+            }
+        }
+        if (dispatch) {
+            executor.execute(runnable);
+        }
+    }
+
+    private void release(String host) {
+        Runnable next;
+        synchronized (hostQueues) {
+            HostQueue queue = hostQueues.get(host);
+            next = queue.pending.poll();
+            if (next == null) {
+                queue.active--;
+            }
+        }
+        if (next != null) {
+            executor.execute(next);
+        }
+    }
+
+    private int getLimit(String host) {
+        // Local files are bounded by the thread pool only
+        return LOCAL_HOST.equals(host) ? Integer.MAX_VALUE : hostConnections;
+    }
+
+    /**
+     * Return the key used to limit connections for the path:  the host of remote URLs, or {@link #LOCAL_HOST}.
+     */
+    static String getHostKey(String path) {
+        if (FileUtils.isRemote(path)) {
+            try {
+                String host = new URI(path).getHost();
+                if (host != null) {
+                    return host.toLowerCase();
+                }
+            } catch (Exception e) {
+                // Not a valid URI, e.g. unescaped characters in a query string.  Fall back to the scheme + authority
+            }
+            int idx = path.indexOf('/', path.indexOf("//") + 2);
+            return idx < 0 ? path : path.substring(0, idx);
+        }
+        return LOCAL_HOST;
+    }
+
+    /**
+     * @return timings of completed tasks, in order of completion
+     */
+    public List<LoadTiming> getTimings() {
+        synchronized (timings) {
+            return new ArrayList<>(timings);
+        }
+    }
+
+    /**
+     * @return total elapsed time followed by the timings of each task, slowest first
+     */
+    public String getSummary() {
+        List<LoadTiming> sorted = getTimings();
+        sorted.sort((t1, t2) -> Long.compare(t2.getRunTime(), t1.getRunTime()));
+        StringBuilder buf = new StringBuilder();
+        buf.append("Loaded ").append(sorted.size()).append(" session tasks in ")
+                .append(System.currentTimeMillis() - startTime).append(" ms");
+        for (LoadTiming t : sorted) {
+            buf.append("\n  ").append(t);
+        }
+        return buf.toString();
+    }
+
+    public void logSummary() {
+        if (log.isDebugEnabled()) {
+            log.debug(getSummary());
+        } else {
+            log.info("Loaded " + timings.size() + " session tasks in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+    }
+
+    private static class HostQueue {
+        int active;
+        final Deque<Runnable> pending = new ArrayDeque<>();
+    }
+
+    public static class LoadTiming {
+
+        private final String path;
+        private final String host;
+        private final String stage;
+        private final long submitted = System.currentTimeMillis();
+        private volatile long start;
+        private volatile long end;
+
+        LoadTiming(String path, String host, String stage) {
+            this.path = path;
+            this.host = host;
+            this.stage = stage;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * @return time spent waiting for a thread or host connection (ms)
+         */
+        public long getQueueTime() {
+            return start - submitted;
+        }
+
+        /**
+         * @return time spent running (ms)
+         */
+        public long getRunTime() {
+            return end - start;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s [%s] queued %d ms, ran %d ms", path, stage, getQueueTime(), getRunTime());
+        }
+    }
+}
@@ -29,8 +29,8 @@
  */
 package org.broad.igv.tdf;
 
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.util.StringUtils;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -38,6 +38,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.broad.igv.prefs.Constants.TDF_PREFETCH_TILES;
+
 /**
  * Represents the data for a particular chromosome and zoom level
  *
@@ -55,7 +57,6 @@ public class TDFDataset extends TDFEntity {
     long[] tilePositions;  // File position in TDF file
     int[] tileSizes;       // Tile size in bytes
     int nTiles;
-    LRUCache<String, TDFTile> cache = new LRUCache(20);
     // TODO -- refactor this dependency out
     TDFReader reader;
 
@@ -78,6 +79,14 @@ public class TDFDataset extends TDFEntity {
         fill(byteBuffer);
     }
 
+    /**
+     * Estimate the heap size of the dataset,  including its tile index
+     */
+    @Override
+    long estimateSize() {
+        return super.estimateSize() + 12L * nTiles;
+    }
+
     public void write(BufferedByteWriter dos) throws IOException {
 
         writeAttributes(dos);
@@ -131,6 +140,12 @@ public class TDFDataset extends TDFEntity {
                 tiles.add(tile);
             }
         }
+
+        // Read the neighboring tiles in the background in anticipation of a pan
+        if (PreferencesManager.getPreferences().getAsBoolean(TDF_PREFETCH_TILES)) {
+            TDFTileCache.getInstance().prefetch(this, startTile - 1);
+            TDFTileCache.getInstance().prefetch(this, endTile + 1);
+        }
         return tiles;
 
     }
@@ -147,21 +162,15 @@ public class TDFDataset extends TDFEntity {
     }
 
     // TDFTile computeTile(TDFDataset ds, int t, List<LocusScore> scores, String chr)
-    synchronized TDFTile getTile(int t) {
-        String key = getName() + "_" + t;
-
-        TDFTile tile = null;
-        if (!cache.containsKey(key)) {
-            tile = reader.readTile(this, t);
-            cache.put(key, tile);
-        } else {
-            tile = cache.get(key);
-        }
-        return tile;
+    TDFTile getTile(int t) {
+        return TDFTileCache.getInstance().getTile(this, t);
     }
 
+    /**
+     * Remove this dataset's tiles from the shared tile cache
+     */
     public void clearCache() {
-        cache.clear();
+        TDFTileCache.getInstance().remove(reader.getPath(), getName());
     }
 
 
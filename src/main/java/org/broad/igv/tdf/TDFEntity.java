@@ -68,6 +68,17 @@ public class TDFEntity {
         attributes.put(name, value);
     }
 
+    /**
+     * Estimate the heap size of the entity:  its name and attributes
+     */
+    long estimateSize() {
+        long size = 64 + 2L * name.length();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            size += 96 + 2L * (entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length()));
+        }
+        return size;
+    }
+
     void writeAttributes(BufferedByteWriter dos) throws IOException {
         dos.putInt(attributes.size());
         for (Map.Entry<String, String> entry : attributes.entrySet()) {
@@ -39,8 +39,9 @@ import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
-import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.collections.ManagedLRUCache;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.MappedSeekableStream;
 
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
@@ -56,7 +57,32 @@ public class TDFReader {
     static final Logger log = Logger.getLogger(TDFReader.class);
     public static final int GZIP_FLAG = 0x1;
 
-    private SeekableStream seekableStream = null;
+    /**
+     * Maximum number of streams open on the file.  Reads are concurrent up to this limit.
+     */
+    static final int MAX_STREAMS = 4;
+
+    /**
+     * Maximum estimated size in bytes of each of the group and dataset caches
+     */
+    static final long METADATA_CACHE_BYTES = 2000000;
+
+    /**
+     * Inflaters are synchronized,  so one is kept per thread to allow concurrent tile decompression
+     */
+    private static final ThreadLocal<CompressionUtils> compressionUtils = ThreadLocal.withInitial(CompressionUtils::new);
+
+    /**
+     * Local files are memory mapped,  and read by all threads through this stream
+     */
+    private MappedSeekableStream mappedStream;
+
+    /**
+     * Idle streams,  and the total number of streams open.  Used if the file is not memory mapped.
+     */
+    private final Deque<SeekableStream> streams = new ArrayDeque<>();
+    private int openStreams = 0;
+    private boolean closed = false;
     private int version;
     private Map<String, IndexEntry> datasetIndex;
     private Map<String, IndexEntry> groupIndex;
@@ -64,18 +90,20 @@ public class TDFReader {
     private String trackLine;
     private String[] trackNames;
     private String genomeId;
-    LRUCache<String, TDFGroup> groupCache = new LRUCache(20);
-    LRUCache<String, TDFDataset> datasetCache = new LRUCache(20);
+    ManagedLRUCache<String, TDFGroup> groupCache =
+            new ManagedLRUCache<>("TDF groups", METADATA_CACHE_BYTES, (name, group) -> group.estimateSize(), 0.1);
+    // Missing datasets are cached as null
+    ManagedLRUCache<String, TDFDataset> datasetCache =
+            new ManagedLRUCache<>("TDF datasets", METADATA_CACHE_BYTES, (name, ds) -> ds == null ? 64 : ds.estimateSize(), 0.1);
     TDFTile wgTile;
 
-    Map<WindowFunction, Double> valueCache = new HashMap();
+    Map<WindowFunction, Double> valueCache = Collections.synchronizedMap(new HashMap());
     private List<WindowFunction> windowFunctions;
     ResourceLocator locator;
 
     boolean compressed = false;
 
     Set<String> chrNames;
-    private final CompressionUtils compressionUtils;
 
     //private String path;
 
@@ -90,9 +118,19 @@ public class TDFReader {
     public TDFReader(ResourceLocator locator) {
         //this.path = path;
         this.locator = locator;
+
+        // The file might have been rewritten since tiles were cached
+        TDFTileCache.getInstance().remove(locator.getPath());
+
         try {
             log.debug("Getting stream");
-            seekableStream = IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+            SeekableStream stream = openStream();
+            if (stream instanceof MappedSeekableStream) {
+                mappedStream = (MappedSeekableStream) stream;
+            } else {
+                streams.push(stream);
+                openStreams = 1;
+            }
             log.debug("Reading header");
             readHeader();
             log.debug("Done reading header");
@@ -101,12 +139,30 @@ public class TDFReader {
             log.error("Error loading file: " + locator.getPath(), ex);
             throw new DataLoadException("Error loading file: " + ex.toString(), locator.getPath());
         }
-        compressionUtils = new CompressionUtils();
     }
 
-    public void close() {
+    private SeekableStream openStream() throws IOException {
+        return IGVSeekableStreamFactory.getInstance().getMappedStreamFor(locator.getPath());
+    }
+
+    /**
+     * Close idle streams.  Streams in use are closed when released.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (mappedStream != null) {
+            closeStream(mappedStream);
+        }
+        for (SeekableStream stream : streams) {
+            closeStream(stream);
+        }
+        openStreams -= streams.size();
+        streams.clear();
+    }
+
+    private void closeStream(SeekableStream stream) {
         try {
-            seekableStream.close();
+            stream.close();
         } catch (IOException e) {
             log.error("Error closing reader for: " + getPath(), e);
         }
@@ -142,9 +198,7 @@ public class TDFReader {
         int idxByteCount = byteBuffer.getInt();
         int nHeaderBytes = byteBuffer.getInt();
 
-        byte[] bytes = readBytes(24, nHeaderBytes);
-        byteBuffer = ByteBuffer.wrap(bytes);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer = readByteBuffer(24, nHeaderBytes);
 
         if (version >= 2) {
             int nWFs = byteBuffer.getInt();
@@ -201,9 +255,7 @@ public class TDFReader {
 //fis.seek(idxPosition);
             //byte[] bytes = new byte[nBytes];
             //readFully(bytes);
-            byte[] bytes = readBytes(idxPosition, nBytes);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer byteBuffer = readByteBuffer(idxPosition, nBytes);
 
             int nDatasets = byteBuffer.getInt();
 
@@ -243,8 +295,9 @@ public class TDFReader {
         return ds;
     }
 
-    public synchronized TDFDataset getDataset(String name) {
+    public TDFDataset getDataset(String name) {
 
+        // The cache is synchronized.  Two threads might both read a missing dataset,  which is harmless.
         if (datasetCache.containsKey(name)) {
             return datasetCache.get(name);
         }
@@ -258,9 +311,7 @@ public class TDFReader {
                 //fis.seek(position);
                 //byte[] buffer = new byte[nBytes];
                 //readFully(buffer);
-                byte[] buffer = readBytes(position, nBytes);
-                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-                byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                ByteBuffer byteBuffer = readByteBuffer(position, nBytes);
 
                 TDFDataset ds = new TDFDataset(name, byteBuffer, this);
                 datasetCache.put(name, ds);
@@ -284,7 +335,7 @@ public class TDFReader {
         return groupIndex.keySet();
     }
 
-    public synchronized TDFGroup getGroup(String name) {
+    public TDFGroup getGroup(String name) {
         if (groupCache.containsKey(name)) {
             return groupCache.get(name);
         }
@@ -297,9 +348,7 @@ public class TDFReader {
             //fis.seek(position);
             //byte[] buffer = new byte[nBytes];
             //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer byteBuffer = readByteBuffer(position, nBytes);
 
             TDFGroup group = new TDFGroup(name, byteBuffer);
 
@@ -332,13 +381,9 @@ public class TDFReader {
             }
 
             int nBytes = ds.tileSizes[tileNumber];
-            //fis.seek(position);
-            //byte[] buffer = new byte[nBytes];
-            //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
+            ByteBuffer buffer = readByteBuffer(position, nBytes);
             if (compressed) {
-                buffer = compressionUtils.decompress(buffer);
-
+                buffer = ByteBuffer.wrap(compressionUtils.get().decompress(buffer, nBytes * 4));
             }
 
             return TileFactory.createTile(buffer, trackNames.length);
@@ -432,13 +477,82 @@ public class TDFReader {
     }
 
 
-    public synchronized byte[] readBytes(long position, int nBytes) throws IOException {
-        seekableStream.seek(position);
-        byte[] buffer = new byte[nBytes];
-        int read = seekableStream.read(buffer, 0, nBytes);
+    /**
+     * Read bytes from the file.  This method is thread safe,  each concurrent read uses its own stream.
+     */
+    public byte[] readBytes(long position, int nBytes) throws IOException {
+        if (mappedStream != null) {
+            byte[] buffer = new byte[nBytes];
+            mappedStream.read(position, buffer, 0, nBytes);
+            return buffer;
+        }
+        SeekableStream stream = acquireStream();
+        try {
+            stream.seek(position);
+            byte[] buffer = new byte[nBytes];
+            int n = 0;
+            while (n < nBytes) {
+                int count = stream.read(buffer, n, nBytes - n);
+                if (count < 0) break;
+                n += count;
+            }
+            return buffer;
+        } finally {
+            releaseStream(stream);
+        }
+    }
+
+    /**
+     * Return a little-endian buffer over the bytes.  For memory mapped files this is a view of the mapping,  no
+     * bytes are copied.
+     */
+    ByteBuffer readByteBuffer(long position, int nBytes) throws IOException {
+        ByteBuffer buffer = mappedStream != null ?
+                mappedStream.getByteBuffer(position, nBytes) :
+                ByteBuffer.wrap(readBytes(position, nBytes));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
         return buffer;
     }
 
+    /**
+     * Take an idle stream,  opening a new one if all are in use and the limit has not been reached,  otherwise wait
+     * for one to be released.
+     */
+    private SeekableStream acquireStream() throws IOException {
+        synchronized (this) {
+            while (streams.isEmpty() && openStreams >= MAX_STREAMS) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted waiting for stream: " + getPath(), e);
+                }
+            }
+            if (!streams.isEmpty()) {
+                return streams.pop();
+            }
+            openStreams++;
+        }
+        try {
+            return openStream();
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                openStreams--;
+                notify();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void releaseStream(SeekableStream stream) {
+        if (closed) {
+            closeStream(stream);
+            openStreams--;
+        } else {
+            streams.push(stream);
+        }
+        notify();
+    }
+
     /**
      * @return the windowFunctions
      */
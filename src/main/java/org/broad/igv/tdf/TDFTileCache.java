@@ -0,0 +1,305 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tdf;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.CacheManager;
+import org.broad.igv.util.ManagedCache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.broad.igv.prefs.Constants.TDF_CACHE_SIZE;
+
+/**
+ * Process-wide cache of decoded TDF tiles,  shared by all readers and bounded by the estimated heap size of the
+ * tiles.  Tiles are keyed by file path, dataset name, and tile number,  and evicted in least-recently-used order.
+ * Concurrent requests for a tile that is being read wait for the single read in progress.  Tiles with no data are
+ * cached as null,  so they are not read or prefetched again.
+ */
+public class TDFTileCache implements ManagedCache {
+
+    private static Logger log = Logger.getLogger(TDFTileCache.class);
+
+    private static final TDFTileCache instance = new TDFTileCache();
+
+    /**
+     * Estimated size of the cache entry for a tile with no data
+     */
+    private static final long EMPTY_TILE_SIZE = 64;
+
+    private static ExecutorService prefetchExecutor;
+
+    private final LinkedHashMap<Key, Entry> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<TDFTile>> pending = new LinkedHashMap<>();
+    private long sizeInBytes = 0;
+    private int hitCount = 0;
+    private int missCount = 0;
+    private long lastAccessTime = 0;
+
+    public static TDFTileCache getInstance() {
+        return instance;
+    }
+
+    private TDFTileCache() {
+        CacheManager.getInstance().register(this, 1);
+    }
+
+    /**
+     * Return the tile,  reading it with the dataset's reader if it is not cached.
+     */
+    public TDFTile getTile(TDFDataset ds, int tileNumber) {
+
+        Key key = new Key(ds.reader.getPath(), ds.getName(), tileNumber);
+        CompletableFuture<TDFTile> future;
+        boolean owner = false;
+        synchronized (this) {
+            Entry entry = tiles.get(key);
+            if (entry != null) {
+                hitCount++;
+                lastAccessTime = System.currentTimeMillis();
+                return entry.tile;
+            }
+            missCount++;
+            future = pending.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(key, future);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            TDFTile tile = null;
+            boolean read = false;
+            try {
+                tile = ds.reader.readTile(ds, tileNumber);
+                read = true;
+                future.complete(tile);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    pending.remove(key);
+                    if (read) {
+                        long size = tile == null ? EMPTY_TILE_SIZE :
+                                estimateSize(tile, ds.reader.getTrackNames().length);
+                        put(key, tile, size);
+                    }
+                }
+            }
+            return tile;
+        } else {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted reading tile: " + ds.getName() + "[" + tileNumber + "]", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Read the tile on a background thread if it is not cached or being read.
+     */
+    public void prefetch(TDFDataset ds, int tileNumber) {
+        if (tileNumber < 0 || tileNumber >= ds.nTiles || ds.tilePositions[tileNumber] < 0) {
+            return;
+        }
+        Key key = new Key(ds.reader.getPath(), ds.getName(), tileNumber);
+        synchronized (this) {
+            if (tiles.containsKey(key) || pending.containsKey(key)) {
+                return;
+            }
+        }
+        getPrefetchExecutor().submit(() -> {
+            try {
+                getTile(ds, tileNumber);
+            } catch (Exception e) {
+                log.debug("Error prefetching tile " + ds.getName() + "[" + tileNumber + "]", e);
+            }
+        });
+    }
+
+    private void put(Key key, TDFTile tile, long size) {
+        lastAccessTime = System.currentTimeMillis();
+        Entry previous = tiles.put(key, new Entry(tile, size));
+        if (previous != null) {
+            sizeInBytes -= previous.size;
+        }
+        sizeInBytes += size;
+        evict(getMaxBytes());
+    }
+
+    private void evict(long maxBytes) {
+        Iterator<Entry> iter = tiles.values().iterator();
+        while (sizeInBytes > maxBytes && iter.hasNext()) {
+            sizeInBytes -= iter.next().size;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Remove all tiles for the dataset
+     */
+    public synchronized void remove(String path, String datasetName) {
+        Iterator<Map.Entry<Key, Entry>> iter = tiles.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().path.equals(path) && e.getKey().dataset.equals(datasetName)) {
+                sizeInBytes -= e.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all tiles for the file
+     */
+    public synchronized void remove(String path) {
+        Iterator<Map.Entry<Key, Entry>> iter = tiles.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().path.equals(path)) {
+                sizeInBytes -= e.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    public synchronized boolean contains(String path, String datasetName, int tileNumber) {
+        return tiles.containsKey(new Key(path, datasetName, tileNumber));
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        sizeInBytes = 0;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public String getCacheName() {
+        return "TDF tiles";
+    }
+
+    public synchronized long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Evict least recently used tiles to free at least the given number of bytes.  Called by the {@link CacheManager}.
+     */
+    public synchronized long trim(long bytes) {
+        long before = sizeInBytes;
+        evict(Math.max(0, sizeInBytes - bytes));
+        return before - sizeInBytes;
+    }
+
+    /**
+     * The cache budget in bytes,  from the TDF cache size preference (MB)
+     */
+    private static long getMaxBytes() {
+        return PreferencesManager.getPreferences().getAsInt(TDF_CACHE_SIZE) * 1000000L;
+    }
+
+    /**
+     * Estimate the heap size of a tile:  start and end positions,  and a value per track,  for each bin
+     */
+    static long estimateSize(TDFTile tile, int nTracks) {
+        return 64 + (long) tile.getSize() * (8 + 4 * nTracks);
+    }
+
+    private static synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newFixedThreadPool(2, r -> {
+                Thread t = new Thread(r, "TDF prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    private static class Entry {
+        // Null if the tile has no data
+        final TDFTile tile;
+        final long size;
+
+        Entry(TDFTile tile, long size) {
+            this.tile = tile;
+            this.size = size;
+        }
+    }
+
+    private static class Key {
+        final String path;
+        final String dataset;
+        final int tileNumber;
+
+        Key(String path, String dataset, int tileNumber) {
+            this.path = path;
+            this.dataset = dataset;
+            this.tileNumber = tileNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return tileNumber == key.tileNumber && path.equals(key.path) && dataset.equals(key.dataset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, dataset, tileNumber);
+        }
+    }
+}
@@ -46,6 +46,13 @@ public class TileFactory {
 
         ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        return createTile(byteBuffer, nSamples);
+    }
+
+    /**
+     * Create a tile from the little-endian buffer,  which might be a view of a memory mapped file
+     */
+    public static TDFTile createTile(ByteBuffer byteBuffer, int nSamples) throws IOException {
 
         String typeString = StringUtils.readString(byteBuffer);
         TDFTile.Type type = TDFTile.Type.valueOf(typeString);
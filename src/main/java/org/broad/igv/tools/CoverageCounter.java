@@ -25,6 +25,8 @@
 
 package org.broad.igv.tools;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.Chromosome;
@@ -38,6 +40,9 @@ import org.broad.igv.tools.parsers.DataConsumer;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class to compute coverage on an alignment or feature file.  This class is designed to be instantiated and executed
@@ -152,6 +157,21 @@ public class CoverageCounter {
      */
     private float[] buffer;
 
+    /**
+     * Number of threads used to count.  Values > 1 count genomic shards concurrently if the file is indexed.
+     */
+    private int threads = 1;
+
+    /**
+     * Approximate width in bp of the genomic shards counted concurrently
+     */
+    static final int SHARD_WIDTH = 10000000;
+
+    private int shardWidth = SHARD_WIDTH;
+
+    private static ExecutorService countExecutor;
+    private static int countExecutorThreads;
+
     private final static Set<Byte> nucleotidesKeep = new HashSet<Byte>();
     public static final byte DEL = 126;
     public static final byte INS = 127;
@@ -213,6 +233,29 @@ public class CoverageCounter {
         this.postExtFactor = postExtFactor;
     }
 
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    void setShardWidth(int shardWidth) {
+        this.shardWidth = shardWidth;
+    }
+
+    private static synchronized ExecutorService getCountExecutor(int nThreads) {
+        if (countExecutor == null || countExecutorThreads != nThreads) {
+            if (countExecutor != null) {
+                countExecutor.shutdown();
+            }
+            countExecutor = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r, "Coverage counter");
+                t.setDaemon(true);
+                return t;
+            });
+            countExecutorThreads = nThreads;
+        }
+        return countExecutor;
+    }
+
     /**
      * Take additional optional command line arguments and parse them
      *
@@ -272,7 +315,8 @@ public class CoverageCounter {
     /**
      * Parse and "count" the alignment file.  The main method.
      * <p/>
-     * This method is not thread safe due to the use of the member variable "buffer".
+     * If more than one thread is requested and the file is indexed genomic shards are counted concurrently,  see
+     * {@link #parseSharded}.  Output is identical to the serial case.
      *
      * @throws IOException
      */
@@ -286,25 +330,217 @@ public class CoverageCounter {
         AlignmentReader reader = null;
         CloseableIterator<Alignment> iter = null;
 
-        String lastChr = "";
-        ReadCounter counter = null;
-
         WigWriter wigWriter = null;
         if (wigFile != null || writeStdOut) {
             wigWriter = new WigWriter(wigFile, windowSize);
         }
+        final WigWriter ww = wigWriter;
+        BucketSink sink = (chr, start, end, data) -> {
+            consumer.addData(chr, start, end, data, null);
+            if (ww != null) {
+                ww.addData(chr, start, end, data);
+            }
+        };
 
         try {
 
             if (queryInterval == null) {
-                reader = AlignmentReaderFactory.getReader(alignmentFile, false);
-                iter = reader.iterator();
+                if (threads > 1) {
+                    reader = getIndexedReader();
+                }
+                if (reader != null) {
+                    totalCount = parseSharded(getShards(reader), maxExtFactor + 1, tolerance, sink);
+                } else {
+                    reader = AlignmentReaderFactory.getReader(alignmentFile, false);
+                    iter = reader.iterator();
+                }
             } else {
                 reader = AlignmentReaderFactory.getReader(alignmentFile, true);
                 iter = reader.query(queryInterval.getChr(), queryInterval.getStart() - 1, queryInterval.getEnd(), false);
             }
 
-            while (iter != null && iter.hasNext()) {
+            if (iter != null) {
+                totalCount = count(iter, tolerance, null, sink);
+            }
+            consumer.setAttribute("totalCount", String.valueOf(totalCount));
+            consumer.parsingComplete();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+
+            if (iter != null) {
+                iter.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
+
+        }
+    }
+
+    /**
+     * Return an indexed reader for the alignment file,  or null if the file is not indexed.
+     */
+    private AlignmentReader getIndexedReader() {
+        try {
+            AlignmentReader reader = AlignmentReaderFactory.getReader(alignmentFile, true);
+            if (reader.hasIndex()) {
+                return reader;
+            }
+            reader.close();
+        } catch (Exception e) {
+            log.info("Alignment file is not indexed,  counting with a single thread");
+        }
+        return null;
+    }
+
+    /**
+     * Split each chromosome into shards of about {@link #SHARD_WIDTH} bp,  aligned to the window size.  The last shard
+     * of a chromosome is open ended.  Chromosomes are not split if their length is unknown,  or for paired coverage
+     * which extends alignments by the insert size,  without bound.
+     */
+    private List<Shard> getShards(AlignmentReader reader) throws IOException {
+
+        Map<String, Integer> lengths = new HashMap<>();
+        SAMFileHeader header = reader.getFileHeader();
+        if (header != null) {
+            for (SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+                lengths.put(sequence.getSequenceName(), sequence.getSequenceLength());
+            }
+        }
+
+        long width = pairedCoverage ? Integer.MAX_VALUE : Math.max(1, shardWidth / windowSize) * (long) windowSize;
+        List<String> sequenceNames = reader.getSequenceNames();
+        List<Shard> shards = new ArrayList<>();
+        for (String chr : sequenceNames) {
+            int length = lengths.getOrDefault(chr, 0);
+            long start = 0;
+            while (length > 0 && start + width < length) {
+                shards.add(new Shard(chr, (int) start, (int) (start + width)));
+                start += width;
+            }
+            shards.add(new Shard(chr, (int) start, Integer.MAX_VALUE));
+        }
+        return shards;
+    }
+
+    /**
+     * Count each shard independently on the count executor,  each with its own window counters,  and a reader per
+     * thread.  Closed windows are buffered per shard and replayed to the sink in order,  which is the order of a
+     * coordinate sorted file,  so the output is identical to a serial pass.  At most 2 * threads shards are in
+     * flight or awaiting replay to bound memory use.
+     *
+     * @param margin distance beyond a shard to query for alignments that extend into it
+     * @return the number of alignments counted
+     */
+    private int parseSharded(List<Shard> shardList, int margin, int tolerance, BucketSink sink) throws IOException {
+
+        final int nShards = shardList.size();
+        final List<CompletableFuture<ShardResult>> results = new ArrayList<>(nShards);
+        for (int i = 0; i < nShards; i++) {
+            results.add(new CompletableFuture<>());
+        }
+        final AtomicInteger nextShard = new AtomicInteger();
+        final Semaphore permits = new Semaphore(2 * threads);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        ExecutorService executor = getCountExecutor(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                AlignmentReader reader = null;
+                try {
+                    while (!cancelled.get()) {
+                        permits.acquire();
+                        if (cancelled.get()) {
+                            break;
+                        }
+                        int idx = nextShard.getAndIncrement();
+                        if (idx >= nShards) {
+                            permits.release();
+                            break;
+                        }
+                        CompletableFuture<ShardResult> result = results.get(idx);
+                        try {
+                            if (reader == null) {
+                                reader = AlignmentReaderFactory.getReader(alignmentFile, true);
+                            }
+                            Shard shard = shardList.get(idx);
+                            ShardResult shardResult = new ShardResult();
+                            int queryStart = Math.max(0, shard.start - margin);
+                            int queryEnd = (int) Math.min(Integer.MAX_VALUE, (long) shard.end + margin);
+                            try (CloseableIterator<Alignment> iter =
+                                         reader.query(shard.chr, queryStart, queryEnd, false)) {
+                                shardResult.totalCount = count(iter, tolerance, shard, shardResult);
+                            }
+                            result.complete(shardResult);
+                        } catch (Throwable e) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Cancelled
+                } finally {
+                    if (reader != null) {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            log.error("Error closing reader", e);
+                        }
+                    }
+                }
+            });
+        }
+
+        int total = 0;
+        try {
+            for (int i = 0; i < nShards; i++) {
+                ShardResult shard = results.get(i).get();
+                results.set(i, null);
+                shard.replay(sink);
+                total += shard.totalCount;
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted counting " + alignmentFile, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            cancelled.set(true);
+            permits.release(nShards);
+        }
+        return total;
+    }
+
+    /**
+     * Count the alignments from the iterator,  passing windows to the sink as they are closed.
+     *
+     * @param shard the shard being counted,  or null to count all alignments
+     * @return the number of alignments counted
+     */
+    private int count(Iterator<Alignment> iter, int tolerance, Shard shard, BucketSink sink) {
+
+        // Coverage is clipped to the shard,  or to the query interval
+        int clipStart = Integer.MIN_VALUE;
+        int clipEnd = Integer.MAX_VALUE;
+        if (shard != null) {
+            clipStart = shard.start == 0 ? Integer.MIN_VALUE : shard.start;
+            clipEnd = shard.end;
+        } else if (queryInterval != null) {
+            clipStart = queryInterval.getStart() - 1;
+            clipEnd = queryInterval.getEnd();
+        }
+
+        String lastChr = "";
+        ReadCounter counter = null;
+        int count = 0;
+
+        try {
+            while (iter.hasNext()) {
                 Alignment alignment = iter.next();
                 if (passFilter(alignment)) {
                     //Sort into the read strand or first-in-pair strand,
@@ -322,160 +558,148 @@ public class CoverageCounter {
                         //TODO move this into passFilter, or move passFilter here
                         continue;
                     }
-                    boolean readNegStrand = alignment.isNegativeStrand();
 
-                    totalCount++;
+                    // Alignments overlapping several shards are counted by the shard containing their start
+                    if (shard == null || shard.contains(alignment.getStart())) {
+                        count++;
+                    }
 
                     String alignmentChr = alignment.getChr();
 
                     // Close all counters with position < alignment.getStart()
                     if (alignmentChr.equals(lastChr)) {
                         if (counter != null) {
-                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance, wigWriter);
+                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance, sink);
                         }
                     } else {  // New chromosome
                         if (counter != null) {
-                            counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
+                            counter.closeBucketsBefore(Integer.MAX_VALUE, sink);
                         }
                         counter = new ReadCounter(alignmentChr);
                         lastChr = alignmentChr;
                     }
 
-                    AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
-
-                    if (blocks != null && !pairedCoverage) {
-                        for (AlignmentBlock block : blocks) {
-
-                            if (!block.isSoftClipped()) {
-
-                                int blockStart = block.getStart();
-                                int blockEnd = block.getEnd();
+                    countAlignment(alignment, strand, counter, clipStart, clipEnd);
+                }
+            }
+        } finally {
+            if (counter != null) {
+                counter.closeBucketsBefore(Integer.MAX_VALUE, sink);
+            }
+        }
+        return count;
+    }
 
+    /**
+     * Count the alignment's coverage at positions in [clipStart, clipEnd)
+     */
+    private void countAlignment(Alignment alignment, Strand strand, ReadCounter counter, int clipStart, int clipEnd) {
+        boolean readNegStrand = alignment.isNegativeStrand();
 
-                                int adjustedStart = block.getStart();
-                                int adjustedEnd = block.getEnd();
+        AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
 
+        if (blocks != null && !pairedCoverage) {
+            for (AlignmentBlock block : blocks) {
 
-                                if (preExtFactor > 0) {
-                                    if (readNegStrand) {
-                                        adjustedEnd = blockEnd + preExtFactor;
-                                    } else {
-                                        adjustedStart = Math.max(0, blockStart - preExtFactor);
-                                    }
-                                }
+                if (!block.isSoftClipped()) {
 
-                                // If both postExtFactor and extFactor are specified, postExtFactor takes precedence
-                                if (postExtFactor > 0) {
-                                    if (readNegStrand) {
-                                        adjustedStart = Math.max(0, blockEnd - postExtFactor);
-                                    } else {
-                                        adjustedEnd = blockStart + postExtFactor;
-                                    }
-
-                                } else if (extFactor > 0) {
-                                    // Standard extension option -- extend read on 3' end
-                                    if (readNegStrand) {
-                                        adjustedStart = Math.max(0, adjustedStart - extFactor);
-                                    } else {
-                                        adjustedEnd += extFactor;
-                                    }
-                                }
+                    int blockStart = block.getStart();
+                    int blockEnd = block.getEnd();
 
 
-                                if (queryInterval != null) {
-                                    adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
-                                    adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
-                                }
+                    int adjustedStart = block.getStart();
+                    int adjustedEnd = block.getEnd();
 
-                                byte[] bases = block.getBases();
-                                for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                                    byte base = 0;
-                                    int baseIdx = pos - blockStart;
-                                    if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
-                                        base = bases[baseIdx];
-                                    }
-                                    //int idx = pos - blockStart;
-                                    //byte quality = (idx >= 0 && idx < block.qualities.length) ?
-                                    //block.qualities[pos - blockStart] : (byte) 0;
-                                    counter.incrementCount(pos, base, strand);
-                                }
-                            }
-                        }
 
-                        final AlignmentBlock[] insertions = alignment.getInsertions();
-                        if (insertions != null) {
-                            for (AlignmentBlock insBlock : insertions) {
-                                int pos = insBlock.getStart();
-                                if (queryInterval == null || (pos >= queryInterval.getStart() && pos <= queryInterval.getEnd()))
-                                    counter.incrementInsertion(pos, strand);
-                            }
+                    if (preExtFactor > 0) {
+                        if (readNegStrand) {
+                            adjustedEnd = blockEnd + preExtFactor;
+                        } else {
+                            adjustedStart = Math.max(0, blockStart - preExtFactor);
                         }
+                    }
 
-                        // Count deletions
-                        List<Gap> gaps = alignment.getGaps();
-                        if (gaps != null) {
-                            for (Gap gap : gaps) {
-                                if (gap.getType() == SAMAlignment.DELETION) {
-                                    int adjustedStart = gap.getStart();
-                                    int adjustedEnd = gap.getStart() + gap.getnBases();
-                                    if (queryInterval != null) {
-                                        adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
-                                        adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
-                                    }
-                                    for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                                        counter.incrementDeletion(pos, strand);
-                                    }
-                                }
-                            }
+                    // If both postExtFactor and extFactor are specified, postExtFactor takes precedence
+                    if (postExtFactor > 0) {
+                        if (readNegStrand) {
+                            adjustedStart = Math.max(0, blockEnd - postExtFactor);
+                        } else {
+                            adjustedEnd = blockStart + postExtFactor;
                         }
 
-
-                    } else {
-                        int adjustedStart = alignment.getAlignmentStart();
-                        int adjustedEnd = pairedCoverage ?
-                                adjustedStart + Math.abs(alignment.getInferredInsertSize()) :
-                                alignment.getAlignmentEnd();
-
+                    } else if (extFactor > 0) {
+                        // Standard extension option -- extend read on 3' end
                         if (readNegStrand) {
                             adjustedStart = Math.max(0, adjustedStart - extFactor);
                         } else {
                             adjustedEnd += extFactor;
                         }
+                    }
 
-                        if (queryInterval != null) {
-                            adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
-                            adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
-                        }
 
+                    adjustedStart = Math.max(clipStart, adjustedStart);
+                    adjustedEnd = Math.min(clipEnd, adjustedEnd);
 
-                        for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                            counter.incrementCount(pos, (byte) 'N', strand);
+                    byte[] bases = block.getBases();
+                    for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                        byte base = 0;
+                        int baseIdx = pos - blockStart;
+                        if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
+                            base = bases[baseIdx];
                         }
+                        //int idx = pos - blockStart;
+                        //byte quality = (idx >= 0 && idx < block.qualities.length) ?
+                        //block.qualities[pos - blockStart] : (byte) 0;
+                        counter.incrementCount(pos, base, strand);
                     }
+                }
+            }
 
+            final AlignmentBlock[] insertions = alignment.getInsertions();
+            if (insertions != null) {
+                for (AlignmentBlock insBlock : insertions) {
+                    int pos = insBlock.getStart();
+                    // The insertion is counted at the preceding position
+                    if (pos - 1 >= clipStart && pos - 1 < clipEnd)
+                        counter.incrementInsertion(pos, strand);
                 }
+            }
 
+            // Count deletions
+            List<Gap> gaps = alignment.getGaps();
+            if (gaps != null) {
+                for (Gap gap : gaps) {
+                    if (gap.getType() == SAMAlignment.DELETION) {
+                        int adjustedStart = gap.getStart();
+                        int adjustedEnd = gap.getStart() + gap.getnBases();
+                        adjustedStart = Math.max(clipStart, adjustedStart);
+                        adjustedEnd = Math.min(clipEnd, adjustedEnd);
+                        for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                            counter.incrementDeletion(pos, strand);
+                        }
+                    }
+                }
             }
-            consumer.setAttribute("totalCount", String.valueOf(totalCount));
-            consumer.parsingComplete();
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
 
-            if (counter != null) {
-                counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
-            }
-            if (iter != null) {
-                iter.close();
-            }
-            if (reader != null) {
-                reader.close();
-            }
-            if (wigWriter != null) {
-                wigWriter.close();
+        } else {
+            int adjustedStart = alignment.getAlignmentStart();
+            int adjustedEnd = pairedCoverage ?
+                    adjustedStart + Math.abs(alignment.getInferredInsertSize()) :
+                    alignment.getAlignmentEnd();
+
+            if (readNegStrand) {
+                adjustedStart = Math.max(0, adjustedStart - extFactor);
+            } else {
+                adjustedEnd += extFactor;
             }
 
+            adjustedStart = Math.max(clipStart, adjustedStart);
+            adjustedEnd = Math.min(clipEnd, adjustedEnd);
+
+            for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                counter.incrementCount(pos, (byte) 'N', strand);
+            }
         }
     }
 
@@ -520,9 +744,76 @@ public class CoverageCounter {
         this.writeStdOut = writeStdOut;
     }
 
+    /**
+     * Receiver of closed windows.  The data array is reused by the caller and must be copied if retained.
+     */
+    interface BucketSink {
+        void addData(String chr, int start, int end, float[] data);
+    }
+
+    /**
+     * A genomic window [start, end) of a chromosome,  counted independently of other shards
+     */
+    static class Shard {
+        final String chr;
+        final int start;
+        final int end;
+
+        Shard(String chr, int start, int end) {
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean contains(int position) {
+            return position >= start && position < end;
+        }
+    }
+
+    /**
+     * Closed windows of a single shard,  buffered until the preceding shards have been output.
+     */
+    class ShardResult implements BucketSink {
+
+        int size = 0;
+        String[] chrs = new String[1024];
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        float[] values = new float[1024 * buffer.length];
+        int totalCount;
+
+        public void addData(String chr, int start, int end, float[] data) {
+            if (size == starts.length) {
+                int capacity = 2 * size;
+                chrs = Arrays.copyOf(chrs, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                values = Arrays.copyOf(values, capacity * data.length);
+            }
+            chrs[size] = chr;
+            starts[size] = start;
+            ends[size] = end;
+            System.arraycopy(data, 0, values, size * data.length, data.length);
+            size++;
+        }
+
+        void replay(BucketSink sink) {
+            float[] data = new float[buffer.length];
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(values, i * data.length, data, 0, data.length);
+                sink.addData(chrs[i], starts[i], ends[i], data);
+            }
+        }
+    }
+
     class ReadCounter {
 
         String chr;
+
+        /**
+         * Data buffer for closed windows,  one per counter so chromosomes can be counted concurrently
+         */
+        float[] buffer = new float[CoverageCounter.this.buffer.length];
         /**
          * Map of window index -> counter
          */
@@ -580,8 +871,9 @@ public class CoverageCounter {
          * visited again.
          *
          * @param position - genomic position
+         * @param sink     - receiver of the closed windows
          */
-        void closeBucketsBefore(int position, WigWriter wigWriter) {
+        void closeBucketsBefore(int position, BucketSink sink) {
             List<Integer> bucketsToClose = new ArrayList<Integer>();
 
             int bucket = position / windowSize;
@@ -637,11 +929,7 @@ public class CoverageCounter {
                     }
 
 
-                    consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
-
-                    if (wigWriter != null) {
-                        wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
-                    }
+                    sink.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
 
 
                     bucketsToClose.add(entry.getKey());
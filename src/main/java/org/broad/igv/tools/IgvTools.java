@@ -177,6 +177,7 @@ public class IgvTools {
     private static CmdLineParser.Option minMapQualityOpt = null;
     private static CmdLineParser.Option includeDupsOpt = null;
     private static CmdLineParser.Option pairedCoverageOpt = null;
+    private static CmdLineParser.Option threadsOption = null;
 
     // options for index
     private static CmdLineParser.Option indexTypeOption = null;
@@ -369,9 +370,10 @@ public class IgvTools {
                     int minMapQuality = (Integer) parser.getOptionValue(minMapQualityOpt, 0);
 
                     int windowSizeValue = (Integer) parser.getOptionValue(windowSizeOption, WINDOW_SIZE);
+                    int threads = (Integer) parser.getOptionValue(threadsOption, 1);
                     doCount(ifile, ofile, genomeId, maxZoomValue, wfList, windowSizeValue, extFactorValue,
                             preFactorValue, posFactorValue,
-                            trackLine, queryString, minMapQuality, countFlags);
+                            trackLine, queryString, minMapQuality, countFlags, threads);
                 } else {
                     String probeFile = (String) parser.getOptionValue(probeFileOption, PROBE_FILE);
                     toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, wfList, tmpDirName, maxRecords);
@@ -591,6 +593,7 @@ public class IgvTools {
                 minMapQualityOpt = parser.addIntegerOption("minMapQuality");
                 includeDupsOpt = parser.addBooleanOption("includeDuplicates");
                 pairedCoverageOpt = parser.addBooleanOption("pairs");
+                threadsOption = parser.addIntegerOption("threads");
 
                 // Trackline
                 colorOption = parser.addStringOption("color");
@@ -833,6 +836,20 @@ public class IgvTools {
                         Collection<WindowFunction> windowFunctions, int windowSizeValue,
                         int extFactorValue, int preExtFactorValue, int postExtFactorValue,
                         String trackLine, String queryString, int minMapQuality, int countFlags) throws IOException {
+        doCount(ifile, ofile, genomeId, maxZoomValue, windowFunctions, windowSizeValue, extFactorValue,
+                preExtFactorValue, postExtFactorValue, trackLine, queryString, minMapQuality, countFlags, 1);
+    }
+
+    /**
+     * Compute coverage as above,  with {@code threads} threads.  If the input is indexed each chromosome is split
+     * into genomic shards of about {@link CoverageCounter#SHARD_WIDTH} bp,  aligned to the window size,  which are
+     * counted concurrently.  Output is identical to the single threaded count.
+     */
+    public void doCount(String ifile, String ofile, String genomeId, int maxZoomValue,
+                        Collection<WindowFunction> windowFunctions, int windowSizeValue,
+                        int extFactorValue, int preExtFactorValue, int postExtFactorValue,
+                        String trackLine, String queryString, int minMapQuality, int countFlags,
+                        int threads) throws IOException {
 
 
         log.info("Computing coverage.  File = " + ifile);
@@ -844,6 +861,7 @@ public class IgvTools {
         }
         log.info(wfString);
         log.info("Ext factor = " + extFactorValue);
+        log.info("Threads = " + threads);
 
 
         Genome genome = loadGenome(genomeId);
@@ -882,6 +900,7 @@ public class IgvTools {
             counter.setWriteStdOut(wigStdOut);
             counter.setPreExtFactor(preExtFactorValue);
             counter.setPosExtFactor(postExtFactorValue);
+            counter.setThreads(threads);
 
             String prefix = FilenameUtils.getName(ifile);
             String[] tracknames = counter.getTrackNames(prefix + " ");
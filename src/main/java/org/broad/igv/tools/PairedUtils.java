@@ -34,7 +34,6 @@ import org.broad.igv.sam.PicardAlignment;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.sam.reader.SAMReader;
-import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
 import java.io.*;
@@ -162,7 +161,8 @@ public class PairedUtils {
             ReferenceSource rs = new ReferenceSource(f);
             factory.referenceSource(rs);
 
-            SeekableStream ss = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(alignmentFile), 128000);
+            IGVSeekableStreamFactory streamFactory = IGVSeekableStreamFactory.getInstance();
+            SeekableStream ss = streamFactory.getBufferedStream(streamFactory.getStreamFor(alignmentFile), 128000);
             SamInputResource resource = SamInputResource.of(ss);
             reader = factory.open(resource);
 
@@ -53,6 +53,7 @@ public abstract class AsciiSorter implements Sorter {
     private File outputFile;
     private boolean writeStdOut = false;
     private int maxRecords = MAX_RECORDS_IN_RAM;
+    private int threads = Runtime.getRuntime().availableProcessors();
 
     /**
      * Directory used for storing temporary data files
@@ -62,6 +63,11 @@ public abstract class AsciiSorter implements Sorter {
 
     protected Comparator<SortableRecord> comparator = getDefaultComparator();
 
+    /**
+     * True if records are sorted by the default comparator,  in which case the parallel sorter can be used
+     */
+    private boolean defaultOrder = true;
+
     /**
      * @param inputFile
      * @param outputFile If null, we write to stdout
@@ -79,6 +85,46 @@ public abstract class AsciiSorter implements Sorter {
     }
 
     public void run() throws IOException {
+        if (defaultOrder && threads > 1) {
+            runParallel();
+        } else {
+            runSerial();
+        }
+    }
+
+    /**
+     * Sort with the {@link ParallelSorter}.  Output is identical to {@link #runSerial()}.
+     */
+    private void runParallel() throws IOException {
+
+        FileInputStream fis = null;
+        PrintWriter writer = null;
+
+        try {
+            fis = new FileInputStream(inputFile);
+            OutputStream os = writeStdOut ? System.out : new FileOutputStream(this.outputFile);
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(os)));
+
+            Parser parser = getParser();
+            AsciiLineReader reader = new AsciiLineReader(fis);
+
+            String firstDataRow = writeHeader(reader, writer);
+            writer.flush();
+
+            // The line reader buffers ahead,  the sorter reads the records as bytes from the end of the first data row
+            fis.getChannel().position(reader.getPosition());
+
+            OutputStream out = new BufferedOutputStream(os, 65536);
+            ParallelSorter sorter = new ParallelSorter(parser, maxRecords, tmpDir, threads);
+            sorter.sort(fis, firstDataRow, out);
+            out.flush();
+        } finally {
+            if (fis != null) fis.close();
+            if (writer != null) writer.close();
+        }
+    }
+
+    private void runSerial() throws IOException {
 
         FileInputStream fis = null;
         PrintWriter writer = null;
@@ -126,6 +172,7 @@ public abstract class AsciiSorter implements Sorter {
 
     public void setComparator(Comparator<SortableRecord> comparator) {
         this.comparator = comparator;
+        this.defaultOrder = false;
     }
 
     public static Comparator<SortableRecord> getDefaultComparator() {
@@ -166,6 +213,13 @@ public abstract class AsciiSorter implements Sorter {
         this.maxRecords = maxRecords;
     }
 
+    /**
+     * Set the number of threads sorting runs.  1 uses the single threaded sort.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     public void setWriteStdOut(boolean writeStdOut) {
         this.writeStdOut = writeStdOut;
     }
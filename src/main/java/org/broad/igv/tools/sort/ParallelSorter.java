@@ -0,0 +1,696 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.tools.sort;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.genome.ChromosomeNameComparator;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * External merge sort of text records by chromosome and start position,  with runs parsed and sorted
+ * concurrently.  Records are ordered as by {@link AsciiSorter#getDefaultComparator()},  records with equal keys
+ * keep their input order,  so the output is identical to the single threaded sort.
+ * <p>
+ * Input is read as bytes into chunks,  one per run,  and each line is kept as offsets into its chunk.  The chromosome
+ * and start are parsed from the bytes,  so no string is created per line.  Each record is keyed by a long packing the
+ * rank of its chromosome name and its start position.  Runs which do not fit in memory are written to compressed
+ * temporary files and merged,  in several levels if there are many.
+ */
+public class ParallelSorter {
+
+    private static Logger log = Logger.getLogger(ParallelSorter.class);
+
+    /**
+     * Maximum number of runs merged at once
+     */
+    static int MERGE_FACTOR = 64;
+
+    private final Parser parser;
+    private final int runSize;
+    private final File tmpDir;
+    private final int nThreads;
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+
+    private final List<File> tmpFiles = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param parser     parser for the chromosome and start of each line
+     * @param maxRecords maximum number of records held in memory,  shared by the runs being sorted concurrently
+     * @param tmpDir     directory for temporary run files
+     * @param nThreads   number of threads sorting runs
+     */
+    public ParallelSorter(Parser parser, int maxRecords, File tmpDir, int nThreads) {
+        this.parser = parser;
+        this.nThreads = Math.max(1, nThreads);
+        this.runSize = Math.max(1, maxRecords / this.nThreads);
+        this.tmpDir = tmpDir;
+    }
+
+    /**
+     * Sort the records read from the input stream and write their lines to the output stream.
+     *
+     * @param in            input positioned after the header and the first data row
+     * @param firstDataRow  first record line,  read with the header,  or null
+     * @param out           output stream
+     */
+    public void sort(InputStream in, String firstDataRow, OutputStream out) throws IOException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "Sort worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            ChunkReader reader = new ChunkReader(in);
+            Chunk chunk = new Chunk(runSize);
+            if (firstDataRow != null) {
+                // The header reader decodes one char per byte
+                byte[] bytes = firstDataRow.getBytes(StandardCharsets.ISO_8859_1);
+                chunk.add(bytes, 0, bytes.length);
+            }
+            boolean more = reader.fill(chunk);
+
+            if (!more) {
+                // Everything fits in one run,  no temporary files needed
+                Run run = new Run(chunk);
+                run.sort();
+                run.write(out);
+                out.flush();
+                return;
+            }
+
+            // Sort runs concurrently.  The number of runs in memory is bounded by the semaphore.
+            Semaphore permits = new Semaphore(nThreads);
+            List<Future<File>> futures = new ArrayList<>();
+            while (chunk.size > 0) {
+                permits.acquireUninterruptibly();
+                final Chunk lines = chunk;
+                futures.add(executor.submit(() -> {
+                    try {
+                        Run run = new Run(lines);
+                        run.sort();
+                        return run.spill();
+                    } finally {
+                        permits.release();
+                    }
+                }));
+
+                chunk = new Chunk(runSize);
+                if (more) {
+                    more = reader.fill(chunk);
+                }
+            }
+
+            List<File> runs = new ArrayList<>();
+            for (Future<File> f : futures) {
+                runs.add(get(f));
+            }
+            log.debug("Sorted " + runs.size() + " runs");
+
+            // Merge consecutive groups of runs until few enough remain to merge into the output.  Ties are broken by
+            // run order,  so merging consecutive runs preserves input order.
+            while (runs.size() > MERGE_FACTOR) {
+                List<Future<File>> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MERGE_FACTOR) {
+                    final List<File> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FACTOR));
+                    merged.add(executor.submit(() -> {
+                        File file = newTmpFile();
+                        try (DataOutputStream dos = openRunOutput(file)) {
+                            merge(group, dos, true);
+                        }
+                        for (File f : group) delete(f);
+                        return file;
+                    }));
+                }
+                List<File> next = new ArrayList<>();
+                for (Future<File> f : merged) {
+                    next.add(get(f));
+                }
+                runs = next;
+            }
+
+            merge(runs, out, false);
+            out.flush();
+
+        } finally {
+            executor.shutdownNow();
+            synchronized (tmpFiles) {
+                for (File f : tmpFiles) f.delete();
+                tmpFiles.clear();
+            }
+        }
+    }
+
+    /**
+     * Lines of a run,  as offsets into a byte buffer
+     */
+    private static class Chunk {
+
+        byte[] data = new byte[65536];
+        int end;
+        int[] offsets;
+        int[] lengths;
+        int size;
+
+        Chunk(int capacity) {
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+        }
+
+        boolean isFull() {
+            return size >= offsets.length;
+        }
+
+        void add(byte[] bytes, int offset, int length) {
+            ensureCapacity(end + length);
+            System.arraycopy(bytes, offset, data, end, length);
+            offsets[size] = end;
+            lengths[size] = length;
+            size++;
+            end += length;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > data.length) {
+                data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+            }
+        }
+    }
+
+    /**
+     * Reads lines into chunks,  skipping blank and comment lines.  Lines end with \n,  \r or \r\n,  as for
+     * AsciiLineReader.
+     */
+    private class ChunkReader {
+
+        final InputStream in;
+        final byte[] buffer = new byte[65536];
+        int position;
+        int limit;
+        boolean skipLF;
+        boolean eof;
+
+        ChunkReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Add lines to the chunk until it holds a run.
+         *
+         * @return false at the end of the input
+         */
+        boolean fill(Chunk chunk) throws IOException {
+            while (!chunk.isFull()) {
+                int start = chunk.end;
+                if (!readLine(chunk)) {
+                    return false;
+                }
+                if (parser.isSkipped(chunk.data, start, chunk.end)) {
+                    chunk.end = start;
+                } else {
+                    chunk.offsets[chunk.size] = start;
+                    chunk.lengths[chunk.size] = chunk.end - start;
+                    chunk.size++;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Append the bytes of the next line,  without its terminator,  to the chunk data.
+         *
+         * @return false at the end of the input
+         */
+        private boolean readLine(Chunk chunk) throws IOException {
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    if (eof || (limit = in.read(buffer)) < 0) {
+                        eof = true;
+                        limit = position = 0;
+                        return read;
+                    }
+                    position = 0;
+                }
+                if (skipLF) {
+                    skipLF = false;
+                    if (buffer[position] == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+                read = true;
+                int i = position;
+                while (i < limit && buffer[i] != '\n' && buffer[i] != '\r') i++;
+                int length = i - position;
+                chunk.ensureCapacity(chunk.end + length);
+                System.arraycopy(buffer, position, chunk.data, chunk.end, length);
+                chunk.end += length;
+                if (i < limit) {
+                    skipLF = buffer[i] == '\r';
+                    position = i + 1;
+                    return true;
+                }
+                position = limit;
+            }
+        }
+    }
+
+    /**
+     * Merge sorted run files.  Records are written either as lines,  or in run format for a further merge.
+     */
+    private void merge(List<File> files, OutputStream out, boolean runFormat) throws IOException {
+
+        List<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            Set<String> names = new HashSet<>();
+            for (File f : files) {
+                RunReader r = new RunReader(f, readers.size());
+                readers.add(r);
+                names.addAll(Arrays.asList(r.chrNames));
+            }
+
+            String[] allNames = names.toArray(new String[0]);
+            int[] ranks = rank(allNames);
+            Map<String, Integer> globalRanks = new HashMap<>();
+            for (int i = 0; i < allNames.length; i++) {
+                globalRanks.put(allNames[i], ranks[i]);
+            }
+            for (RunReader r : readers) {
+                r.globalRanks = new int[r.chrNames.length];
+                for (int i = 0; i < r.chrNames.length; i++) {
+                    r.globalRanks[i] = globalRanks.get(r.chrNames[i]);
+                }
+            }
+
+            DataOutputStream dos = null;
+            if (runFormat) {
+                dos = (DataOutputStream) out;
+                writeChrNames(dos, allNames, ranks);
+            }
+
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, readers.size()), (r1, r2) -> {
+                int c = Long.compare(r1.key, r2.key);
+                return c != 0 ? c : Integer.compare(r1.index, r2.index);
+            });
+            for (RunReader r : readers) {
+                if (r.next()) queue.add(r);
+            }
+
+            RunReader r;
+            while ((r = queue.poll()) != null) {
+                if (runFormat) {
+                    writeRecord(dos, r.key, r.buffer, 0, r.length);
+                } else {
+                    out.write(r.buffer, 0, r.length);
+                    out.write(lineSeparator);
+                }
+                if (r.next()) queue.add(r);
+            }
+        } finally {
+            for (RunReader r : readers) r.close();
+        }
+    }
+
+    /**
+     * Rank chromosome names in {@link ChromosomeNameComparator} order.  Names the comparator considers equal share a
+     * rank.
+     *
+     * @return the rank of each name
+     */
+    static int[] rank(String[] names) {
+        Comparator<String> comparator = ChromosomeNameComparator.get();
+        Integer[] order = new Integer[names.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+
+        int[] ranks = new int[names.length];
+        // The comparator caches comparisons and is not thread safe
+        synchronized (comparator) {
+            Arrays.sort(order, (i1, i2) -> comparator.compare(names[i1], names[i2]));
+            int rank = 0;
+            for (int i = 0; i < order.length; i++) {
+                if (i > 0 && comparator.compare(names[order[i - 1]], names[order[i]]) != 0) {
+                    rank++;
+                }
+                ranks[order[i]] = rank;
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * Pack a chromosome rank and start position into a key ordered as (rank, start)
+     */
+    static long key(int rank, int start) {
+        return ((long) rank << 32) | ((start ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    private static int rankOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private File newTmpFile() throws IOException {
+        File file = File.createTempFile("igvtools.sort.", ".tmp", tmpDir);
+        file.deleteOnExit();
+        tmpFiles.add(file);
+        return file;
+    }
+
+    private void delete(File file) {
+        tmpFiles.remove(file);
+        file.delete();
+    }
+
+    private static DataOutputStream openRunOutput(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(new FileOutputStream(file), new Deflater(Deflater.BEST_SPEED), 65536), 65536));
+    }
+
+    /**
+     * Run file header:  the chromosome names,  with their rank.
+     */
+    private static void writeChrNames(DataOutputStream dos, String[] names, int[] ranks) throws IOException {
+        int nRanks = 0;
+        for (int r : ranks) nRanks = Math.max(nRanks, r + 1);
+        // Names by rank,  names of equal rank are interchangeable
+        String[] byRank = new String[nRanks];
+        for (int i = 0; i < names.length; i++) {
+            byRank[ranks[i]] = names[i];
+        }
+        dos.writeInt(nRanks);
+        for (String name : byRank) {
+            dos.writeUTF(name);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream dos, long key, byte[] bytes, int offset, int length) throws IOException {
+        dos.writeLong(key);
+        dos.writeInt(length);
+        dos.write(bytes, offset, length);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted sorting");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * A run of records held in memory.  Lines are kept as offsets into the chunk they were read into.
+     */
+    private class Run {
+
+        String[] chrNames;
+        byte[] data;
+        int[] offsets;
+        int[] lengths;
+        long[] keys;
+        int[] order;
+
+        // Open addressing table of chromosome ids + 1,  hashed on the name bytes
+        private int[] table = new int[64];
+        private int[] nameOffsets = new int[16];
+        private int[] nameLengths = new int[16];
+        private int nNames;
+
+        Run(Chunk chunk) {
+
+            int n = chunk.size;
+            data = chunk.data;
+            offsets = chunk.offsets;
+            lengths = chunk.lengths;
+            int[] chrIds = new int[n];
+            int[] starts = new int[n];
+            int[] bounds = new int[2];
+            boolean nonAscii = false;
+
+            for (int i = 0; i < n; i++) {
+                int from = offsets[i];
+                int to = from + lengths[i];
+                try {
+                    parser.findChr(data, from, to, bounds);
+                    chrIds[i] = chrId(bounds[0], bounds[1] - bounds[0]);
+                    starts[i] = parser.parseStart(data, from, to, bounds);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    log.error("Error parsing line: " + new String(data, from, lengths[i], StandardCharsets.ISO_8859_1));
+                    throw e;
+                }
+                if (!nonAscii) {
+                    for (int j = from; j < to; j++) {
+                        if (data[j] < 0) {
+                            nonAscii = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            chrNames = new String[nNames];
+            for (int i = 0; i < nNames; i++) {
+                chrNames[i] = new String(data, nameOffsets[i], nameLengths[i], StandardCharsets.ISO_8859_1);
+            }
+            table = nameOffsets = nameLengths = null;
+
+            if (nonAscii && !charset.equals(StandardCharsets.ISO_8859_1)) {
+                encode(n);
+            }
+
+            int[] ranks = rank(chrNames);
+            keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = key(ranks[chrIds[i]], starts[i]);
+            }
+
+            // Names by rank,  for the run file header
+            String[] names = chrNames;
+            chrNames = new String[names.length];
+            int nRanks = 0;
+            for (int i = 0; i < names.length; i++) {
+                chrNames[ranks[i]] = names[i];
+                nRanks = Math.max(nRanks, ranks[i] + 1);
+            }
+            chrNames = Arrays.copyOf(chrNames, nRanks);
+        }
+
+        /**
+         * Id of the chromosome name at the given offset into the data,  assigned in order of first occurrence
+         */
+        private int chrId(int offset, int length) {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + data[i];
+            }
+            int mask = table.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (id < 0) {
+                    break;
+                }
+                if (nameLengths[id] == length && equals(nameOffsets[id], offset, length)) {
+                    return id;
+                }
+            }
+
+            int id = nNames++;
+            if (id == nameOffsets.length) {
+                nameOffsets = Arrays.copyOf(nameOffsets, 2 * id);
+                nameLengths = Arrays.copyOf(nameLengths, 2 * id);
+            }
+            nameOffsets[id] = offset;
+            nameLengths[id] = length;
+            if (2 * nNames > table.length) {
+                table = new int[2 * table.length];
+                for (int i = 0; i < nNames; i++) insert(i);
+            } else {
+                insert(id);
+            }
+            return id;
+        }
+
+        private void insert(int id) {
+            int hash = 1;
+            for (int i = nameOffsets[id]; i < nameOffsets[id] + nameLengths[id]; i++) {
+                hash = 31 * hash + data[i];
+            }
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+
+        private boolean equals(int offset1, int offset2, int length) {
+            for (int i = 0; i < length; i++) {
+                if (data[offset1 + i] != data[offset2 + i]) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Re-encode the lines in the output charset.  Lines are decoded one char per byte,  as by the single threaded
+         * sort,  so only lines with non ASCII bytes change.
+         */
+        private void encode(int n) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length);
+            for (int i = 0; i < n; i++) {
+                byte[] bytes = new String(data, offsets[i], lengths[i], StandardCharsets.ISO_8859_1).getBytes(charset);
+                offsets[i] = buffer.size();
+                lengths[i] = bytes.length;
+                buffer.write(bytes, 0, bytes.length);
+            }
+            data = buffer.toByteArray();
+        }
+
+        /**
+         * Stable sort of the record order by key
+         */
+        void sort() {
+            int n = keys.length;
+            order = new int[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            mergeSort(order, new int[n], 0, n, keys);
+        }
+
+        void write(OutputStream out) throws IOException {
+            for (int i : order) {
+                out.write(data, offsets[i], lengths[i]);
+                out.write(lineSeparator);
+            }
+        }
+
+        File spill() throws IOException {
+            File file = newTmpFile();
+            try (DataOutputStream dos = openRunOutput(file)) {
+                dos.writeInt(chrNames.length);
+                for (String name : chrNames) {
+                    dos.writeUTF(name);
+                }
+                for (int i : order) {
+                    writeRecord(dos, keys[i], data, offsets[i], lengths[i]);
+                }
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Stable merge sort of indices by key
+     */
+    static void mergeSort(int[] a, int[] tmp, int from, int to, long[] keys) {
+        if (to - from < 16) {
+            // Insertion sort
+            for (int i = from + 1; i < to; i++) {
+                int v = a[i];
+                long k = keys[v];
+                int j = i - 1;
+                while (j >= from && keys[a[j]] > k) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid, keys);
+        mergeSort(a, tmp, mid, to, keys);
+        if (keys[a[mid - 1]] <= keys[a[mid]]) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            a[k++] = keys[tmp[j]] < keys[tmp[i]] ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) a[k++] = tmp[i++];
+        while (j < to) a[k++] = tmp[j++];
+    }
+
+    /**
+     * Reads records back from a run file
+     */
+    private static class RunReader implements Closeable {
+
+        final int index;
+        final DataInputStream dis;
+        final String[] chrNames;
+        int[] globalRanks;
+
+        long key;
+        byte[] buffer = new byte[1024];
+        int length;
+
+        RunReader(File file, int index) throws IOException {
+            this.index = index;
+            this.dis = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file), new Inflater(), 65536), 65536));
+            int n = dis.readInt();
+            chrNames = new String[n];
+            for (int i = 0; i < n; i++) {
+                chrNames[i] = dis.readUTF();
+            }
+        }
+
+        /**
+         * Read the next record,  mapping its key to the merged chromosome ranks.
+         *
+         * @return false at the end of the run
+         */
+        boolean next() throws IOException {
+            long k;
+            try {
+                k = dis.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            key = ((long) globalRanks[rankOf(k)] << 32) | (k & 0xFFFFFFFFL);
+            length = dis.readInt();
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, 2 * buffer.length)];
+            }
+            dis.readFully(buffer, 0, length);
+            return true;
+        }
+
+        public void close() throws IOException {
+            dis.close();
+        }
+    }
+}
@@ -57,17 +57,9 @@ public class Parser {
 
 
     public SortableRecord readNextRecord(AsciiLineReader reader) {
-        String nextLine = null;
-        try {
-            nextLine = reader.readLine();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
+        String nextLine = readNextLine(reader);
         if (nextLine == null) {
             return null;
-        } else if (nextLine.trim().length() == 0 || nextLine.startsWith(commentPrefix)) {
-            return readNextRecord(reader);
         }
 
         try {
@@ -79,6 +71,22 @@ public class Parser {
         }
     }
 
+    /**
+     * Return the next line which is neither blank nor a comment,  or null at the end of the input.
+     */
+    public String readNextLine(AsciiLineReader reader) {
+        String nextLine;
+        try {
+            do {
+                nextLine = reader.readLine();
+            } while (nextLine != null && (nextLine.trim().length() == 0 || nextLine.startsWith(commentPrefix)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return nextLine;
+    }
+
     public SortableRecord createRecord(String nextLine) {
         String[] fields = splitOnWhiteSpace ?
                 Globals.singleTabMultiSpacePattern.split(nextLine) :
@@ -96,4 +104,133 @@ public class Parser {
 
         return new SortableRecord(chr, start, text);
     }
+
+    /**
+     * Byte level equivalent of the filter in {@link #readNextLine(AsciiLineReader)},  for a line decoded one char per
+     * byte.
+     *
+     * @return true if the line is blank or a comment
+     */
+    public boolean isSkipped(byte[] bytes, int from, int to) {
+        boolean blank = true;
+        for (int i = from; i < to; i++) {
+            if ((bytes[i] & 0xFF) > ' ') {
+                blank = false;
+                break;
+            }
+        }
+        if (blank) {
+            return true;
+        }
+        int n = commentPrefix.length();
+        if (to - from < n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if ((char) (bytes[from + i] & 0xFF) != commentPrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the chromosome field of a line,  split as by {@link #createRecord(String)}.
+     *
+     * @param bounds receives the offsets of the first byte and the end of the field
+     * @throws ArrayIndexOutOfBoundsException if the line has too few fields
+     */
+    public void findChr(byte[] bytes, int from, int to, int[] bounds) {
+        findField(bytes, from, to, chrCol, bounds);
+    }
+
+    /**
+     * Parse the start position of a line as {@link #createRecord(String)} does,  without creating strings.
+     *
+     * @param bounds scratch array of length 2
+     * @return the start,  or Integer.MAX_VALUE if it is not a number
+     * @throws ArrayIndexOutOfBoundsException if the line has too few fields
+     */
+    public int parseStart(byte[] bytes, int from, int to, int[] bounds) {
+        findField(bytes, from, to, startCol, bounds);
+        return parseInt(bytes, bounds[0], bounds[1]);
+    }
+
+    /**
+     * Split on single tabs,  or on single tabs and runs of spaces,  with the same fields as the patterns used by
+     * {@link #createRecord(String)}.  Whitespace splitting drops trailing empty fields,  as String.split does.
+     */
+    private void findField(byte[] bytes, int from, int to, int col, int[] bounds) {
+        int field = 0;
+        int fieldStart = from;
+        int i = from;
+        while (i < to && field < col) {
+            byte b = bytes[i];
+            if (b == '\t') {
+                field++;
+                fieldStart = ++i;
+            } else if (b == ' ' && splitOnWhiteSpace) {
+                while (i < to && bytes[i] == ' ') i++;
+                field++;
+                fieldStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (field < col) {
+            throw new ArrayIndexOutOfBoundsException(col);
+        }
+        int fieldEnd = fieldStart;
+        while (fieldEnd < to && bytes[fieldEnd] != '\t' && !(bytes[fieldEnd] == ' ' && splitOnWhiteSpace)) {
+            fieldEnd++;
+        }
+        if (splitOnWhiteSpace && fieldEnd == fieldStart && !(col == 0 && from == to)) {
+            // An empty field exists only if a later field is not empty
+            boolean trailing = true;
+            for (int j = fieldEnd; j < to; j++) {
+                if (bytes[j] != '\t' && bytes[j] != ' ') {
+                    trailing = false;
+                    break;
+                }
+            }
+            if (trailing) {
+                throw new ArrayIndexOutOfBoundsException(col);
+            }
+        }
+        bounds[0] = fieldStart;
+        bounds[1] = fieldEnd;
+    }
+
+    /**
+     * Equivalent of Integer.parseInt(field.trim()),  returning Integer.MAX_VALUE where that throws a
+     * NumberFormatException.
+     */
+    static int parseInt(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] & 0xFF) <= ' ') from++;
+        while (to > from && (bytes[to - 1] & 0xFF) <= ' ') to--;
+        if (from == to) {
+            return Integer.MAX_VALUE;
+        }
+        boolean negative = false;
+        if (bytes[from] == '-' || bytes[from] == '+') {
+            negative = bytes[from] == '-';
+            from++;
+            if (from == to) {
+                return Integer.MAX_VALUE;
+            }
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.MAX_VALUE;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return Integer.MAX_VALUE;
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
 }
@@ -29,11 +29,13 @@ package org.broad.igv.track;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.bigwig.BigWigDataSource;
 import org.broad.igv.data.CombinedDataSource;
 import org.broad.igv.data.CoverageDataSource;
 import org.broad.igv.data.DataSource;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.renderer.DataRange;
+import org.broad.igv.tdf.TDFDataSource;
 import org.broad.igv.util.ResourceLocator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -116,6 +118,15 @@ public class DataSourceTrack extends DataTrack {
     }
 
 
+    /**
+     * TDF tiles and bigWig blocks are cached by file,  see {@link org.broad.igv.tdf.TDFTileCache} and
+     * {@link org.broad.igv.bbfile.BBBlockCache}
+     */
+    @Override
+    public boolean isLoadCachedAcrossFrames() {
+        return dataSource instanceof TDFDataSource || dataSource instanceof BigWigDataSource;
+    }
+
     @Override
     public void setWindowFunction(WindowFunction statType) {
         clearCaches();
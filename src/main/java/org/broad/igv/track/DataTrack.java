@@ -52,6 +52,7 @@ import org.broad.igv.session.RendererFactory;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.ui.panel.TrackTileCache;
 import org.broad.igv.util.ResourceLocator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -161,6 +162,33 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack,
     }
 
 
+    @Override
+    public boolean isTileable() {
+        return true;
+    }
+
+    @Override
+    public boolean isRenderThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public void renderTile(RenderContext context, Rectangle rect) {
+        List<LocusScore> inViewScores = getInViewScores(context.getReferenceFrame());
+        synchronized (inViewScores) {
+            getRenderer().renderScores(this, inViewScores, context, rect);
+        }
+    }
+
+    @Override
+    public void renderDecorations(RenderContext context, Rectangle rect) {
+        if (context.isMerged() == false) {
+            getRenderer().renderAxis(this, context, rect);
+        }
+        getRenderer().renderBorder(this, context, rect);
+    }
+
+
     public void overlay(RenderContext context, Rectangle rect) {
 
         List<LocusScore> inViewScores = getInViewScores(context.getReferenceFrame());
@@ -236,6 +264,13 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack,
 
     public void clearCaches() {
         loadedIntervalCache.clear();
+        TrackTileCache.getInstance().remove(this);
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        TrackTileCache.getInstance().remove(this);
     }
 
     public void setRendererClass(Class rc) {
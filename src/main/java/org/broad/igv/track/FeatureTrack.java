@@ -744,6 +744,11 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
 
     }
 
+    @Override
+    public boolean isRenderThreadSafe() {
+        return true;
+    }
+
     @Override
     public void render(RenderContext context, Rectangle rect) {
         Rectangle renderRect = new Rectangle(rect);
@@ -148,12 +148,22 @@ public class MergedTracks extends DataTrack implements ScalableTrack {
     }
 
 
+    @Override
+    public boolean isTileable() {
+        return false;
+    }
+
     @Override
     public void render(RenderContext context, Rectangle rect) {
 
+        boolean merged = context.isMerged();
         context.setMerged(true);
-        for (Track track : memberTracks) {
-            track.render(context, rect);
+        try {
+            for (Track track : memberTracks) {
+                track.render(context, rect);
+            }
+        } finally {
+            context.setMerged(merged);
         }
     }
 
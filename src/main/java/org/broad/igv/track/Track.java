@@ -103,6 +103,54 @@ public interface Track extends Persistable{
      */
     void overlay(RenderContext context, Rectangle rect);
 
+    /**
+     * Return true if the track can be painted as independent, horizontally adjacent tiles, that is if the part
+     * of the track drawn by {@link #renderTile(RenderContext, Rectangle)} depends only on genomic position.  Tiles
+     * are cached by {@link org.broad.igv.ui.panel.TrackTileCache} and reused while panning.
+     */
+    default boolean isTileable() {
+        return false;
+    }
+
+    /**
+     * Return true if the track can be rendered on a background thread concurrently with other thread safe tracks,
+     * that is if rendering shares no unsynchronized mutable state with other tracks.  Other tracks are rendered
+     * serially on the painting thread.
+     */
+    default boolean isRenderThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Return true if data loaded for one reference frame is cached independently of the frame,  so that loading the
+     * same region for another frame is cheap.  Only such tracks are worth loading ahead of time,  for example by
+     * {@link org.broad.igv.batch.SnapshotFarm}.
+     */
+    default boolean isLoadCachedAcrossFrames() {
+        return false;
+    }
+
+    /**
+     * Render the genomic position dependent part of the track for one tile.  The context reference frame
+     * spans the tile.
+     *
+     * @param context the render context
+     * @param rect    the tile bounds
+     */
+    default void renderTile(RenderContext context, Rectangle rect) {
+        render(context, rect);
+    }
+
+    /**
+     * Render decorations anchored to the track bounds rather than to the genome, such as axes and data range
+     * labels,  over the tiles of a tiled track.
+     *
+     * @param context the render context
+     * @param rect    the track bounds, relative to the enclosing DataPanel bounds.
+     */
+    default void renderDecorations(RenderContext context, Rectangle rect) {
+    }
+
     /**
      * Render the name of the track. Both the track and visible rectangles are supplied so the implementor
      * can adjust the placing of the name based on the current viewport.  This is used to center track names
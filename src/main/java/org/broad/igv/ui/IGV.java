@@ -2334,6 +2334,7 @@ public class IGV implements IGVEventObserver {
     }
 
     final public void doRefresh() {
+        TrackTileCache.getInstance().clear();
         contentPane.getMainPanel().revalidate();
         mainFrame.repaint();
         getContentPane().repaint();
@@ -54,11 +54,11 @@ public class PaletteColorTable implements ColorTable {
         colorMap = new LinkedHashMap();
     }
 
-    public void put(String key, Color c) {
+    public synchronized void put(String key, Color c) {
         colorMap.put(key.toLowerCase(), c);
     }
 
-    public Color get(String key) {
+    public synchronized Color get(String key) {
         key =key.toLowerCase();
         Color c = colorMap.get(key);
         if (c == null) {
@@ -34,6 +34,8 @@ package org.broad.igv.ui.panel;
 //~--- non-JDK imports --------------------------------------------------------
 
 import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.AlignmentTrack;
 import org.broad.igv.sam.InsertionManager;
 import org.broad.igv.sam.InsertionMarker;
@@ -41,15 +43,30 @@ import org.broad.igv.track.*;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.UIConstants;
 
+import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.broad.igv.prefs.Constants.RENDER_THREADS;
 
 
 public class DataPanelPainter {
 
     private static Logger log = Logger.getLogger(DataPanelPainter.class);
 
+    private static ExecutorService renderExecutor;
+    private static int renderExecutorThreads;
+
     public synchronized void paint(Collection<TrackGroup> groups,
                                    RenderContext context,
                                    int width,
@@ -99,7 +116,11 @@ public class DataPanelPainter {
                 referenceFrame.origin = start;
             }
         } else {
-            paintFrame(groups, context, width, visibleRect);
+            // Tiles are raster images,  use them only for interactive painting and not for (possibly vector) snapshots
+            boolean useTiles = context.getPanel() != null &&
+                    !Globals.CHR_ALL.equals(referenceFrame.getChrName()) &&
+                    TrackTileCache.isEnabled();
+            paintFrame(groups, context, width, visibleRect, useTiles, getRenderExecutor(context), background);
         }
 
     }
@@ -114,14 +135,25 @@ public class DataPanelPainter {
         dG.setClip(dRect);
         context.translateX = px;
 
-        paintFrame(groups, context, w, dRect);
+        paintFrame(groups, context, w, dRect, false, null, null);
 
     }
 
 
-    private void paintFrame(Collection<TrackGroup> groups, RenderContext dContext, int width, Rectangle dRect) {
+    /**
+     * Paint the tracks of all groups.  If an executor is supplied each thread safe track is rendered on the executor
+     * into its own image,  pre-filled with the background color,  and the images are composited in track order once
+     * all are rendered.  The remaining tracks are then drawn serially.
+     *
+     * @see Track#isRenderThreadSafe()
+     */
+    private void paintFrame(Collection<TrackGroup> groups, RenderContext dContext, int width, Rectangle dRect,
+                            boolean useTiles, ExecutorService executor, Color background) {
         int trackX = 0;
         int trackY = 0;
+        List<TrackImage> trackImages = new ArrayList<>();
+        List<Track> serialTracks = new ArrayList<>();
+        List<Rectangle> serialRects = new ArrayList<>();
 
         for (Iterator<TrackGroup> groupIter = groups.iterator(); groupIter.hasNext(); ) {
             TrackGroup group = groupIter.next();
@@ -162,7 +194,19 @@ public class DataPanelPainter {
 
                         if (track.isVisible()) {
                             Rectangle rect = new Rectangle(trackX, trackY, width, trackHeight);
-                            draw(track, rect, dContext);
+                            if (executor == null) {
+                                draw(track, rect, dContext, useTiles);
+                                // Release the track's graphics,  so state it leaves them in does not leak to the next track
+                                dContext.dispose();
+                            } else if (!track.isRenderThreadSafe()) {
+                                serialTracks.add(track);
+                                serialRects.add(rect);
+                            } else {
+                                Rectangle region = dRect == null ? rect : rect.intersection(dRect);
+                                if (!region.isEmpty()) {
+                                    trackImages.add(renderTrackImage(executor, track, rect, region, dContext, useTiles, background));
+                                }
+                            }
                             trackY += trackHeight;
                         }
                     }
@@ -175,6 +219,132 @@ public class DataPanelPainter {
                 }
             }
         }
+
+        // Track images do not overlap each other or the group gaps and borders,  so they can be composited last
+        Graphics2D graphics = dContext.getGraphics();
+        for (TrackImage trackImage : trackImages) {
+            try {
+                BufferedImage image = trackImage.image.get();
+                graphics.drawImage(image, trackImage.region.x, trackImage.region.y, null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("Error rendering track " + trackImage.track.getName(), e.getCause());
+            }
+        }
+
+        // Tracks that are not thread safe are drawn after the parallel renders complete,  so they never run concurrently
+        for (int i = 0; i < serialTracks.size(); i++) {
+            draw(serialTracks.get(i), serialRects.get(i), dContext, useTiles);
+            dContext.dispose();
+        }
+    }
+
+
+    /**
+     * Submit rendering of the track region into an image,  with the graphics state of the context graphics.
+     */
+    private TrackImage renderTrackImage(ExecutorService executor, Track track, Rectangle rect, Rectangle region,
+                                        RenderContext context, boolean useTiles, Color background) {
+
+        // Graphics objects are not thread safe,  read the state here
+        Graphics2D graphics = context.getGraphics();
+        RenderingHints hints = (RenderingHints) graphics.getRenderingHints().clone();
+        Font font = graphics.getFont();
+        Paint paint = graphics.getPaint();
+        Stroke stroke = graphics.getStroke();
+        Composite composite = graphics.getComposite();
+        JComponent panel = context.getPanel();
+        ReferenceFrame frame = context.getReferenceFrame();
+        Rectangle visibleRect = context.getVisibleRect();
+        List<InsertionMarker> insertionMarkers = context.getInsertionMarkers();
+        boolean merged = context.isMerged();
+
+        Callable<BufferedImage> render = () -> {
+            BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            RenderContext trackContext = null;
+            try {
+                g.setBackground(background);
+                g.clearRect(0, 0, region.width, region.height);
+                g.setRenderingHints(hints);
+                g.setFont(font);
+                g.setPaint(paint);
+                g.setStroke(stroke);
+                g.setComposite(composite);
+                g.translate(-region.x, -region.y);
+                g.setClip(region);
+
+                trackContext = new RenderContext(panel, g, frame, visibleRect);
+                trackContext.setInsertionMarkers(insertionMarkers);
+                trackContext.setMerged(merged);
+                draw(track, rect, trackContext, useTiles);
+            } finally {
+                if (trackContext != null) {
+                    trackContext.dispose();
+                }
+                g.dispose();
+            }
+            return image;
+        };
+
+        // If the executor was shut down,  because the render thread count changed,  render on this thread
+        Future<BufferedImage> future;
+        try {
+            future = executor.submit(render);
+        } catch (RejectedExecutionException e) {
+            FutureTask<BufferedImage> task = new FutureTask<>(render);
+            task.run();
+            future = task;
+        }
+        return new TrackImage(track, region, future);
+    }
+
+
+    /**
+     * Return the executor for parallel track rendering,  or null to render serially.  Tracks are rendered in
+     * parallel only if the render threads preference is > 1,  and only onto raster graphics without scaling,  so
+     * the composited images match serial rendering exactly.
+     */
+    private static ExecutorService getRenderExecutor(RenderContext context) {
+        int nThreads = PreferencesManager.getPreferences().getAsInt(RENDER_THREADS);
+        if (nThreads <= 1 || !isUnscaledRaster(context.getGraphics())) {
+            return null;
+        }
+        return getRenderExecutor(nThreads);
+    }
+
+    /**
+     * Return the shared render pool,  replacing it if the thread count has changed.  The replaced pool is shut down,
+     * which lets its queued renders finish.
+     */
+    private static synchronized ExecutorService getRenderExecutor(int nThreads) {
+        if (renderExecutor == null || renderExecutorThreads != nThreads) {
+            if (renderExecutor != null) {
+                renderExecutor.shutdown();
+            }
+            renderExecutor = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r, "Track renderer");
+                t.setDaemon(true);
+                return t;
+            });
+            renderExecutorThreads = nThreads;
+        }
+        return renderExecutor;
+    }
+
+    static boolean isUnscaledRaster(Graphics2D graphics) {
+        GraphicsConfiguration gc = graphics.getDeviceConfiguration();
+        if (gc == null) {
+            return false;  // e.g. SVG
+        }
+        int type = gc.getDevice().getType();
+        AffineTransform transform = graphics.getTransform();
+        return (type == GraphicsDevice.TYPE_IMAGE_BUFFER || type == GraphicsDevice.TYPE_RASTER_SCREEN) &&
+                (transform.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0 &&
+                transform.getTranslateX() == Math.rint(transform.getTranslateX()) &&
+                transform.getTranslateY() == Math.rint(transform.getTranslateY());
     }
 
 
@@ -224,13 +394,17 @@ public class DataPanelPainter {
     }
 
 
-    final private void draw(Track track, Rectangle rect, RenderContext context) {
+    final private void draw(Track track, Rectangle rect, RenderContext context, boolean useTiles) {
 
-        track.render(context, rect);
+        if (useTiles && track.isTileable()) {
+            TrackTileCache.getInstance().paint(track, context, rect);
+        } else {
+            track.render(context, rect);
+        }
 
         // Get overlays
 
-        List<Track> overlayTracks = IGV.getInstance().getOverlayTracks(track);
+        List<Track> overlayTracks = IGV.hasInstance() ? IGV.getInstance().getOverlayTracks(track) : null;
         if (overlayTracks != null) {
             for (Track overlayTrack : overlayTracks) {
 
@@ -244,6 +418,15 @@ public class DataPanelPainter {
     }
 
 
-}
-
+    private static class TrackImage {
+        final Track track;
+        final Rectangle region;
+        final Future<BufferedImage> image;
 
+        TrackImage(Track track, Rectangle region, Future<BufferedImage> image) {
+            this.track = track;
+            this.region = region;
+            this.image = image;
+        }
+    }
+}
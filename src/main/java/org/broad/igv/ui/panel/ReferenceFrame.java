@@ -153,6 +153,19 @@ public class ReferenceFrame {
         this.eventBus = eventBus;
     }
 
+    /**
+     * Copy constructor with name and event bus override -- used to load data for loci ahead of the view, without
+     * replacing data loaded for the original frame
+     *
+     * @param otherFrame
+     * @param name
+     * @param eventBus
+     */
+    public ReferenceFrame(ReferenceFrame otherFrame, String name, IGVEventBus eventBus) {
+        this(otherFrame, eventBus);
+        this.name = name;
+    }
+
     public boolean isVisible() {
         return visible;
     }
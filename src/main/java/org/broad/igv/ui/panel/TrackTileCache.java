@@ -0,0 +1,430 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.event.GenomeChangeEvent;
+import org.broad.igv.event.IGVEventBus;
+import org.broad.igv.event.IGVEventObserver;
+import org.broad.igv.event.RefreshEvent;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.renderer.BarChartRenderer;
+import org.broad.igv.renderer.DataRange;
+import org.broad.igv.renderer.Renderer;
+import org.broad.igv.track.RenderContext;
+import org.broad.igv.track.Track;
+import org.broad.igv.util.CacheManager;
+import org.broad.igv.util.ManagedCache;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.broad.igv.prefs.Constants.RENDER_TILE_CACHE_SIZE;
+
+/**
+ * Process-wide cache of rendered track tiles,  bounded by the size of the tile images.  The data panel of a
+ * reference frame is divided into columns {@link #TILE_WIDTH} pixels wide,  aligned to the genome at the current
+ * scale,  and the position dependent part of a tileable track (see {@link Track#isTileable()}) is rendered once
+ * per column.  Tiles are keyed by track, frame, scale, tile index, height, and a hash of the track state that
+ * affects rendering,  and evicted in least-recently-used order.  Panning renders only the newly exposed tiles.
+ * <p>
+ * The data range of linear bar charts is not part of the key,  as it changes on nearly every pan of an autoscaled
+ * track.  Instead a tile records the range it was rendered with,  and is scaled vertically to the current range
+ * when drawn,  provided its range contains the current range,  so no values it clipped come into view,  and the
+ * stretch is at most {@link #MAX_STRETCH}.  Otherwise the tile is rendered again.  Only bars survive a vertical
+ * stretch unchanged,  the lines and point glyphs of other xy plots would be thickened,  so for those the range is
+ * part of the key and tiles are rendered again when it changes.
+ * <p>
+ * Tiles are cached only if the track has all the data for the tile loaded.  Tiles for a track are removed when
+ * its caches are cleared or the track is disposed,  and all tiles are removed on genome change or refresh.
+ */
+public class TrackTileCache implements IGVEventObserver, ManagedCache {
+
+    private static Logger log = Logger.getLogger(TrackTileCache.class);
+
+    public static final int TILE_WIDTH = 256;
+
+    /**
+     * Maximum vertical stretch of a tile drawn at a narrower data range than it was rendered with
+     */
+    static final double MAX_STRETCH = 2;
+
+    private static final TrackTileCache instance = new TrackTileCache();
+
+    private final LinkedHashMap<Key, Entry> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeInBytes = 0;
+    private int hitCount = 0;
+    private int missCount = 0;
+    private long lastAccessTime = 0;
+
+    public static TrackTileCache getInstance() {
+        return instance;
+    }
+
+    private TrackTileCache() {
+        IGVEventBus.getInstance().subscribe(GenomeChangeEvent.class, this);
+        IGVEventBus.getInstance().subscribe(RefreshEvent.class, this);
+        CacheManager.getInstance().register(this, 0.5);
+    }
+
+    public void receiveEvent(Object event) {
+        if (event instanceof GenomeChangeEvent || event instanceof RefreshEvent) {
+            clear();
+        } else {
+            log.info("Unknown event type: " + event.getClass());
+        }
+    }
+
+    /**
+     * Return true if tile caching is enabled,  i.e. the tile cache size preference is > 0
+     */
+    public static boolean isEnabled() {
+        return getMaxBytes() > 0;
+    }
+
+    /**
+     * Paint the track in the supplied rectangle from cached tiles,  rendering the tiles that are not cached,  then
+     * render the track decorations over the tiles.  Only tiles intersecting the clip of the context graphics are
+     * painted.
+     *
+     * @param track   a tileable track
+     * @param context the render context
+     * @param rect    the track bounds, relative to the enclosing DataPanel bounds.
+     */
+    public void paint(Track track, RenderContext context, Rectangle rect) {
+
+        ReferenceFrame frame = context.getReferenceFrame();
+        Graphics2D graphics = context.getGraphics();
+        double scale = frame.getScale();
+        long originX = (long) Math.floor(frame.getOrigin() / scale);
+
+        int x0 = rect.x;
+        int x1 = rect.x + rect.width;
+        Rectangle clip = graphics.getClipBounds();
+        if (clip != null) {
+            x0 = Math.max(x0, clip.x);
+            x1 = Math.min(x1, clip.x + clip.width);
+        }
+
+        if (x1 > x0 && rect.height > 0) {
+
+            // Render at device resolution on scaled (e.g. high dpi) displays
+            AffineTransform transform = graphics.getTransform();
+            double deviceScale = Math.max(1, transform.getScaleX());
+
+            int stateHash = getRenderStateHash(track);
+            DataRange range = isScalable(track) ? track.getDataRange() : null;
+            long firstTile = Math.floorDiv(originX + x0, TILE_WIDTH);
+            long lastTile = Math.floorDiv(originX + x1 - 1, TILE_WIDTH);
+
+            for (long t = firstTile; t <= lastTile; t++) {
+                Key key = new Key(track, frame.getName(), frame.getChrName(), scale, frame.getZoom(), t,
+                        rect.height, deviceScale, stateHash);
+                int px = (int) (t * TILE_WIDTH - originX);
+                Entry entry = get(key, range);
+                if (entry == null) {
+                    ReferenceFrame tileFrame = getTileFrame(frame, t);
+                    entry = new Entry(renderTile(track, context, tileFrame, rect.height, deviceScale), range);
+                    if (track.isReadyToPaint(tileFrame)) {
+                        put(key, entry);
+                    }
+                }
+                if (range == null || (entry.minimum == range.getMinimum() && entry.maximum == range.getMaximum())) {
+                    graphics.drawImage(entry.image, px, rect.y, TILE_WIDTH, rect.height, null);
+                } else {
+                    drawScaled(entry, range, (BarChartRenderer) track.getRenderer(), graphics, px, rect);
+                }
+            }
+        }
+
+        track.renderDecorations(context, rect);
+    }
+
+    /**
+     * Return a copy of the frame spanning tile t
+     */
+    static ReferenceFrame getTileFrame(ReferenceFrame frame, long t) {
+        ReferenceFrame tileFrame = new ReferenceFrame(frame);
+        tileFrame.origin = t * TILE_WIDTH * frame.getScale();
+        tileFrame.widthInPixels = TILE_WIDTH;
+        return tileFrame;
+    }
+
+    private static BufferedImage renderTile(Track track, RenderContext context, ReferenceFrame tileFrame,
+                                            int height, double deviceScale) {
+
+        BufferedImage image = new BufferedImage((int) Math.ceil(TILE_WIDTH * deviceScale),
+                (int) Math.ceil(height * deviceScale), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.scale(deviceScale, deviceScale);
+        Rectangle tileRect = new Rectangle(0, 0, TILE_WIDTH, height);
+        RenderContext tileContext = new RenderContext(context.getPanel(), g, tileFrame, tileRect);
+        try {
+            track.renderTile(tileContext, tileRect);
+        } finally {
+            tileContext.dispose();
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw a tile of a linear bar chart,  rendered with the entry's data range,  scaled vertically to the current range.
+     * The renderer maps values linearly onto its drawing rectangle,  so the scaling is an affine transform of y.
+     */
+    private static void drawScaled(Entry entry, DataRange range, BarChartRenderer renderer, Graphics2D graphics, int px,
+                                   Rectangle rect) {
+        Rectangle drawingRect = renderer.calculateDrawingRect(new Rectangle(0, 0, TILE_WIDTH, rect.height));
+        double span = range.getMaximum() - range.getMinimum();
+        double stretch = (entry.maximum - entry.minimum) / span;
+        double y0 = drawingRect.y * (1 - stretch) + (range.getMaximum() - entry.maximum) * drawingRect.height / span;
+
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.clipRect(px, rect.y + drawingRect.y, TILE_WIDTH, drawingRect.height);
+            g.translate(px, rect.y + y0);
+            g.scale(1, stretch);
+            g.drawImage(entry.image, 0, 0, TILE_WIDTH, rect.height, null);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Return the cached tile for the key,  or null if there is none,  or if it cannot be scaled to the data range
+     */
+    private synchronized Entry get(Key key, DataRange range) {
+        Entry entry = tiles.get(key);
+        if (entry != null && (range == null || entry.canScaleTo(range))) {
+            hitCount++;
+            lastAccessTime = System.currentTimeMillis();
+            return entry;
+        } else {
+            missCount++;
+            return null;
+        }
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        lastAccessTime = System.currentTimeMillis();
+        long size = entry.size;
+        Entry previous = tiles.put(key, entry);
+        if (previous != null) {
+            sizeInBytes -= previous.size;
+        }
+        sizeInBytes += size;
+        evict(getMaxBytes());
+    }
+
+    private void evict(long maxBytes) {
+        Iterator<Entry> iter = tiles.values().iterator();
+        while (sizeInBytes > maxBytes && iter.hasNext()) {
+            sizeInBytes -= iter.next().size;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Remove all tiles for the track
+     */
+    public synchronized void remove(Track track) {
+        Iterator<Map.Entry<Key, Entry>> iter = tiles.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().track == track) {
+                sizeInBytes -= e.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        sizeInBytes = 0;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public String getCacheName() {
+        return "Rendered tiles";
+    }
+
+    public synchronized long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Evict least recently used tiles to free at least the given number of bytes.  Called by the {@link CacheManager}.
+     */
+    public synchronized long trim(long bytes) {
+        long before = sizeInBytes;
+        evict(Math.max(0, sizeInBytes - bytes));
+        return before - sizeInBytes;
+    }
+
+    /**
+     * Return the fraction of tile requests served from the cache,  or 0 if there have been none
+     */
+    public synchronized double getHitRate() {
+        int total = hitCount + missCount;
+        return total == 0 ? 0 : ((double) hitCount) / total;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * Return true if the track's tiles can be scaled to a new data range when drawn,  that is if it is a linear
+     * bar chart.  Line and points plots are not scalable,  stretching would distort their stroke widths and glyphs.
+     */
+    static boolean isScalable(Track track) {
+        DataRange range = track.getDataRange();
+        return track.getRenderer() instanceof BarChartRenderer && range != null && !range.isLog() &&
+                range.getMaximum() > range.getMinimum();
+    }
+
+    /**
+     * Hash of the track state that affects how tiles are rendered.  State changes that are not captured here must
+     * be accompanied by {@link #remove(Track)}.  The minimum and maximum of the data range are omitted for tracks
+     * with scalable tiles,  see {@link #isScalable(Track)}.
+     */
+    static int getRenderStateHash(Track track) {
+        Renderer renderer = track.getRenderer();
+        int result = Objects.hash(track.getColor(), track.getAltColor(),
+                renderer == null ? null : renderer.getClass(),
+                track.getWindowFunction(), track.getDisplayMode(), track.getColorScale(),
+                track.isDrawYLine(), track.getYLine(),
+                PreferencesManager.getPreferences().getAntiAliasing());
+        DataRange range = track.getDataRange();
+        if (range != null) {
+            result = 31 * result + Objects.hash(range.getBaseline(), range.isLog(), range.isFlipAxis(),
+                    range.isDrawBaseline(), range.getType());
+            if (!isScalable(track)) {
+                result = 31 * result + Objects.hash(range.getMinimum(), range.getMaximum());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The cache budget in bytes,  from the tile cache size preference (MB)
+     */
+    private static long getMaxBytes() {
+        return PreferencesManager.getPreferences().getAsInt(RENDER_TILE_CACHE_SIZE) * 1000000L;
+    }
+
+    private static long estimateSize(BufferedImage image) {
+        return 64 + 4L * image.getWidth() * image.getHeight();
+    }
+
+    private static class Entry {
+        final BufferedImage image;
+        final long size;
+        // Data range the tile was rendered with,  if scalable
+        final float minimum;
+        final float maximum;
+
+        Entry(BufferedImage image, DataRange range) {
+            this.image = image;
+            this.size = estimateSize(image);
+            this.minimum = range == null ? Float.NaN : range.getMinimum();
+            this.maximum = range == null ? Float.NaN : range.getMaximum();
+        }
+
+        boolean canScaleTo(DataRange range) {
+            return minimum <= range.getMinimum() && maximum >= range.getMaximum() &&
+                    maximum - minimum <= MAX_STRETCH * (range.getMaximum() - range.getMinimum());
+        }
+    }
+
+    private static class Key {
+        final Track track;
+        final String frameName;
+        final String chr;
+        final double scale;
+        final int zoom;
+        final long tile;
+        final int height;
+        final double deviceScale;
+        final int stateHash;
+
+        Key(Track track, String frameName, String chr, double scale, int zoom, long tile, int height,
+            double deviceScale, int stateHash) {
+            this.track = track;
+            this.frameName = frameName;
+            this.chr = chr;
+            this.scale = scale;
+            this.zoom = zoom;
+            this.tile = tile;
+            this.height = height;
+            this.deviceScale = deviceScale;
+            this.stateHash = stateHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return track == key.track &&
+                    Double.compare(key.scale, scale) == 0 &&
+                    zoom == key.zoom &&
+                    tile == key.tile &&
+                    height == key.height &&
+                    Double.compare(key.deviceScale, deviceScale) == 0 &&
+                    stateHash == key.stateHash &&
+                    Objects.equals(frameName, key.frameName) &&
+                    Objects.equals(chr, key.chr);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(track), frameName, chr, scale, zoom, tile, height,
+                    deviceScale, stateHash);
+        }
+    }
+}
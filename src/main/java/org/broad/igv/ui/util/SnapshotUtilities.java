@@ -95,24 +95,7 @@ public class SnapshotUtilities {
         }
 
         if (paintOffscreen) {
-
-            Rectangle rect = component.getBounds();
-
-            if (component instanceof MainPanel) {
-                rect.height = ((MainPanel) component).getOffscreenImageHeight();
-            } else {
-                rect.height = Math.min(component.getHeight(), getMaxPanelHeight());
-            }
-
-            // translate to (0, 0) if necessary
-            int dx = rect.x;
-            int dy = rect.y;
-            rect.x = 0;
-            rect.y = 0;
-            rect.width -= dx;
-            rect.height -= dy;
-
-            component.setBounds(rect);
+            setOffscreenBounds(component);
         }
 
         int width = component.getWidth();
@@ -278,6 +261,52 @@ public class SnapshotUtilities {
         }
     }
 
+    /**
+     * Size the component to the full height of its contents, up to the maximum panel height,  for offscreen painting
+     */
+    private static void setOffscreenBounds(Component component) {
+
+        Rectangle rect = component.getBounds();
+
+        if (component instanceof MainPanel) {
+            rect.height = ((MainPanel) component).getOffscreenImageHeight();
+        } else {
+            rect.height = Math.min(component.getHeight(), getMaxPanelHeight());
+        }
+
+        // translate to (0, 0) if necessary
+        int dx = rect.x;
+        int dy = rect.y;
+        rect.x = 0;
+        rect.y = 0;
+        rect.width -= dx;
+        rect.height -= dy;
+
+        component.setBounds(rect);
+    }
+
+    /**
+     * Paint the component offscreen into an image,  as {@link #doComponentSnapshot} does for raster formats,  but
+     * without writing it.  Used to encode and write images off the painting thread.
+     *
+     * @param component a {@link Paintable} component
+     */
+    public static BufferedImage createOffscreenImage(Component component) {
+
+        setOffscreenBounds(component);
+        int width = component.getWidth();
+        int height = component.getHeight();
+
+        BufferedImage image = getDeviceCompatibleImage(width, height);
+        Graphics2D g = image.createGraphics();
+        try {
+            paintImage(component, g, width, height, true);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
     /**
      * Export the specified {@code target} component as a {@code BufferedImage} to the given file.
      *
@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.util;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.prefs.PreferencesManager;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.broad.igv.prefs.Constants.CACHE_HEAP_BUDGET;
+
+/**
+ * Registry of the memory-bounded caches,  which enforces a global heap budget across them.  Each cache keeps its
+ * own size limit,  and is also given a share of the global budget in proportion to the weight it registered with.
+ * <p>
+ * When the caches together exceed the budget,  or heap memory is low,  memory is reclaimed first from caches over
+ * their share,  then from the least valuable caches,  those with the lowest hit rate and least recent access.
+ * The budget is checked periodically on a background thread,  so caches do not call back into the manager while
+ * holding their own locks.
+ * <p>
+ * Caches are held by weak references,  per-file caches need not unregister.
+ */
+public class CacheManager {
+
+    private static Logger log = Logger.getLogger(CacheManager.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 2000;
+
+    private static final CacheManager instance = new CacheManager();
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService checkExecutor;
+    private long reclaimedBytes = 0;
+
+    public static CacheManager getInstance() {
+        return instance;
+    }
+
+    CacheManager() {
+    }
+
+    /**
+     * Register a cache.
+     *
+     * @param cache  the cache
+     * @param weight relative share of the global budget
+     */
+    public void register(ManagedCache cache, double weight) {
+        registrations.add(new Registration(cache, weight));
+        startChecking();
+    }
+
+    public void unregister(ManagedCache cache) {
+        registrations.removeIf(r -> {
+            ManagedCache c = r.get();
+            return c == null || c == cache;
+        });
+    }
+
+    /**
+     * The global cache budget in bytes,  from the cache budget preference (percent of the maximum heap size)
+     */
+    public long getBudget() {
+        return (long) (Runtime.getRuntime().maxMemory() * (PreferencesManager.getPreferences().getAsInt(CACHE_HEAP_BUDGET) / 100.0));
+    }
+
+    public long getTotalSizeInBytes() {
+        long total = 0;
+        for (Registration r : getRegistrations()) {
+            ManagedCache cache = r.get();
+            if (cache != null) total += cache.getSizeInBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Reclaim memory if the caches together exceed the global budget.
+     *
+     * @return the number of bytes freed
+     */
+    public long enforceBudget() {
+        long excess = getTotalSizeInBytes() - getBudget();
+        return excess > 0 ? reclaim(excess) : 0;
+    }
+
+    /**
+     * Reclaim cache memory if less than the given fraction of the maximum heap is available.
+     *
+     * @param minAvailableFraction the fraction of the maximum heap that should be available
+     * @return the number of bytes freed
+     */
+    public long reclaimForLowMemory(double minAvailableFraction) {
+        long needed = (long) (Runtime.getRuntime().maxMemory() * minAvailableFraction) - RuntimeUtils.getAvailableMemory();
+        return needed > 0 ? reclaim(needed) : 0;
+    }
+
+    /**
+     * Evict entries from the registered caches to free memory.  Caches over their share of the budget are trimmed
+     * to their share first,  largest overage first.  The remainder is taken from the least valuable caches first.
+     *
+     * @param bytes the number of bytes to free
+     * @return the number of bytes freed
+     */
+    public synchronized long reclaim(long bytes) {
+
+        // Hold the caches strongly while reclaiming
+        Map<ManagedCache, Double> weights = new IdentityHashMap<>();
+        for (Registration r : getRegistrations()) {
+            ManagedCache cache = r.get();
+            if (cache != null) weights.put(cache, r.weight);
+        }
+        if (weights.isEmpty() || bytes <= 0) return 0;
+
+        double totalWeight = 0;
+        for (double w : weights.values()) totalWeight += w;
+        long budget = getBudget();
+
+        List<ManagedCache> caches = new ArrayList<>(weights.keySet());
+        Map<ManagedCache, Long> overage = new IdentityHashMap<>();
+        for (ManagedCache cache : caches) {
+            long share = (long) (budget * weights.get(cache) / totalWeight);
+            overage.put(cache, cache.getSizeInBytes() - share);
+        }
+        caches.sort((c1, c2) -> Long.compare(overage.get(c2), overage.get(c1)));
+
+        long freed = 0;
+        for (ManagedCache cache : caches) {
+            long over = overage.get(cache);
+            if (over <= 0 || freed >= bytes) break;
+            freed += cache.trim(Math.min(over, bytes - freed));
+        }
+
+        if (freed < bytes) {
+            long now = System.currentTimeMillis();
+            Map<ManagedCache, Double> value = new IdentityHashMap<>();
+            for (ManagedCache cache : caches) value.put(cache, getValue(cache, now));
+            caches.sort(Comparator.comparingDouble(value::get));
+            for (ManagedCache cache : caches) {
+                if (freed >= bytes) break;
+                freed += cache.trim(bytes - freed);
+            }
+        }
+
+        reclaimedBytes += freed;
+        if (freed > 0) {
+            log.debug("Reclaimed " + (freed / 1000) + " kb of cache memory");
+        }
+        return freed;
+    }
+
+    /**
+     * The value of keeping a cache's entries:  its hit rate,  discounted by the time since it was last used.
+     */
+    static double getValue(ManagedCache cache, long now) {
+        int hits = cache.getHitCount();
+        int total = hits + cache.getMissCount();
+        double hitRate = total == 0 ? 0 : ((double) hits) / total;
+        double ageSeconds = Math.max(0, now - cache.getLastAccessTime()) / 1000.0;
+        return hitRate / (1 + ageSeconds);
+    }
+
+    public synchronized long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    /**
+     * @return size and hit rate of each registered cache
+     */
+    public List<CacheStatistics> getStatistics() {
+        List<CacheStatistics> statistics = new ArrayList<>();
+        for (Registration r : getRegistrations()) {
+            ManagedCache cache = r.get();
+            if (cache != null) {
+                statistics.add(new CacheStatistics(cache.getCacheName(), cache.getSizeInBytes(),
+                        cache.getHitCount(), cache.getMissCount()));
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @return a one line summary of the cache statistics
+     */
+    public String getSummary() {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(String.format("Caches %.1f MB of %.1f MB budget",
+                getTotalSizeInBytes() / 1.0e6, getBudget() / 1.0e6));
+        for (CacheStatistics s : getStatistics()) {
+            buffer.append("; ").append(s);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * @return the live registrations,  removing those whose cache has been garbage collected
+     */
+    private List<Registration> getRegistrations() {
+        List<Registration> live = new ArrayList<>(registrations.size());
+        for (Registration r : registrations) {
+            if (r.get() == null) {
+                registrations.remove(r);
+            } else {
+                live.add(r);
+            }
+        }
+        return live;
+    }
+
+    private synchronized void startChecking() {
+        if (checkExecutor == null) {
+            checkExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Cache manager");
+                t.setDaemon(true);
+                return t;
+            });
+            checkExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    enforceBudget();
+                } catch (Exception e) {
+                    log.error("Error enforcing cache budget", e);
+                }
+            }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static class CacheStatistics {
+
+        public final String name;
+        public final long sizeInBytes;
+        public final int hitCount;
+        public final int missCount;
+
+        CacheStatistics(String name, long sizeInBytes, int hitCount, int missCount) {
+            this.name = name;
+            this.sizeInBytes = sizeInBytes;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+        }
+
+        public double getHitRate() {
+            int total = hitCount + missCount;
+            return total == 0 ? 0 : ((double) hitCount) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.1f MB, hit rate %.2f", name, sizeInBytes / 1.0e6, getHitRate());
+        }
+    }
+
+    private static class Registration extends WeakReference<ManagedCache> {
+        final double weight;
+
+        Registration(ManagedCache cache, double weight) {
+            super(cache);
+            this.weight = weight;
+        }
+    }
+}
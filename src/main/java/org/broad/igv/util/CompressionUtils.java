@@ -29,6 +29,7 @@ import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
@@ -62,9 +63,17 @@ public class CompressionUtils {
      * @return
      */
     public synchronized byte[] decompress(byte[] data, int uncompressedChunkSize) {
+        return decompress(ByteBuffer.wrap(data), uncompressedChunkSize);
+    }
+
+    /**
+     * Decompress the remaining bytes of the buffer,  which might be a view of a memory mapped file.  The buffer's
+     * position is advanced past the compressed data.
+     */
+    public synchronized byte[] decompress(ByteBuffer data, int uncompressedChunkSize) {
 
         // mpd: new code
-        int rem = data.length;
+        int rem = data.remaining();
 
         // Create an expandable byte array to hold the decompressed data
         ByteArrayOutputStream bos = new ByteArrayOutputStream(uncompressedChunkSize);
@@ -79,8 +88,7 @@ public class CompressionUtils {
             // If we are finished with the current chunk start a new one
             if (decompressor.finished()) {
                 decompressor = new Inflater();
-                int offset = data.length - rem;
-                decompressor.setInput(data, offset, rem);
+                decompressor.setInput(data);
             }
 
             try {
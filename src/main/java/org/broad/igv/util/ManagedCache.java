@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.util;
+
+/**
+ * A memory-bounded cache registered with the {@link CacheManager},  which can ask it to release memory when the
+ * caches together exceed their global budget.
+ */
+public interface ManagedCache {
+
+    /**
+     * @return a name for the cache,  used in statistics
+     */
+    String getCacheName();
+
+    /**
+     * @return the estimated heap size of the cached entries
+     */
+    long getSizeInBytes();
+
+    int getHitCount();
+
+    int getMissCount();
+
+    /**
+     * @return the time of the last cache hit or insertion,  in milliseconds
+     */
+    long getLastAccessTime();
+
+    /**
+     * Evict entries,  least recently used first,  until at least the given number of bytes is freed or nothing
+     * evictable remains.
+     *
+     * @param bytes the number of bytes to free
+     * @return the number of bytes freed
+     */
+    long trim(long bytes);
+}
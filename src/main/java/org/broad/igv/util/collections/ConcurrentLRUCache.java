@@ -0,0 +1,373 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.util.collections;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent cache with an approximate least-recently-used (CLOCK) eviction policy.  A drop in replacement for
+ * {@link LRUCache} for caches read from many threads.
+ * <p>
+ * Lookups do not lock, they only set a reference bit on the entry.  Entries are hashed to segments, each with its
+ * own lock and clock queue,  which are used on insertion and eviction.  On eviction a segment queue is swept from
+ * its oldest entry,  entries referenced since the last sweep get a second chance.  Segments are swept in rotation.
+ * <p>
+ * Capacity is a maximum total weight, by default the number of entries.  An optional {@link Weigher}, for example
+ * the size of the value in bytes, can be supplied instead.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+    /**
+     * Computes the weight of a cache entry.
+     */
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    // Minimum capacity of a segment, small caches use fewer segments
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final Weigher<K, V> weigher;
+    private volatile long maxWeight;
+
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicInteger evictionSegment = new AtomicInteger();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public ConcurrentLRUCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxWeight maximum total weight of the cache entries
+     * @param weigher   entry weigher,  if null each entry has weight 1
+     */
+    public ConcurrentLRUCache(long maxWeight, Weigher<K, V> weigher) {
+        this(maxWeight, weigher, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public ConcurrentLRUCache(long maxWeight, Weigher<K, V> weigher, int concurrencyLevel) {
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+
+        // Unweighted caches with few entries use fewer segments,  for a better approximation of LRU order
+        int nSegments = 1;
+        while (nSegments < concurrencyLevel && (weigher != null || (nSegments * 2L) * MIN_SEGMENT_CAPACITY <= maxWeight)) {
+            nSegments *= 2;
+        }
+        segments = new Segment[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            segments[i] = new Segment<>();
+        }
+        segmentMask = nSegments - 1;
+    }
+
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public void setMaxEntries(int max) {
+        setMaxWeight(max);
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public V get(Object key) {
+        Node<K, V> node = segmentFor(key).map.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        // Read before writing to avoid invalidating the cache line shared by other readers
+        if (!node.referenced) node.referenced = true;
+        hitCount.increment();
+        return node.value;
+    }
+
+    public boolean containsKey(Object key) {
+        return segmentFor(key).map.containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        Segment<K, V> s = segmentFor(key);
+        long w = weigher == null ? 1 : weigher.weigh(key, value);
+        V old = null;
+        s.lock.lock();
+        try {
+            Node<K, V> node = s.map.get(key);
+            if (node != null) {
+                old = node.value;
+                s.weight += w - node.weight;
+                weight.addAndGet(w - node.weight);
+                node.value = value;
+                node.weight = w;
+                node.referenced = true;
+            } else {
+                node = new Node<>(key, value, w);
+                s.map.put(key, node);
+                s.queue.addLast(node);
+                s.weight += w;
+                weight.addAndGet(w);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        evict();
+        return old;
+    }
+
+    /**
+     * Evict entries,  least recently used first,  until at least the given weight is freed or the cache is empty.
+     *
+     * @return the weight freed
+     */
+    public long trim(long weight) {
+        return evict(Math.max(0, this.weight.get() - weight));
+    }
+
+    private void evict() {
+        evict(maxWeight);
+    }
+
+    /**
+     * Evict entries until the total weight is at most the target,  sweeping segments in rotation.  At most one
+     * segment lock is held at a time.
+     *
+     * @return the weight freed
+     */
+    private long evict(long target) {
+        long freed = 0;
+        int idle = 0;
+        while (weight.get() > target && idle < segments.length) {
+            Segment<K, V> s = segments[evictionSegment.getAndIncrement() & segmentMask];
+            s.lock.lock();
+            try {
+                long evicted = s.evictOne();
+                if (evicted < 0) {
+                    idle++;
+                } else {
+                    idle = 0;
+                    weight.addAndGet(-evicted);
+                    freed += evicted;
+                    evictionCount.increment();
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return freed;
+    }
+
+    public void putAll(Map<K, V> map) {
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public V remove(Object key) {
+        Segment<K, V> s = segmentFor(key);
+        s.lock.lock();
+        try {
+            Node<K, V> node = s.map.remove(key);
+            if (node == null) {
+                return null;
+            }
+            s.unlink(node);
+            weight.addAndGet(-node.weight);
+            return node.value;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> s : segments) {
+            s.lock.lock();
+            try {
+                s.map.clear();
+                s.queue.clear();
+                weight.addAndGet(-s.weight);
+                s.weight = 0;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        for (Segment<K, V> s : segments) {
+            if (!s.map.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> s : segments) {
+            size += s.map.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the total weight of the cache entries
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * @return a snapshot of the cache keys
+     */
+    public Set<K> keySet() {
+        Set<K> keys = new HashSet<>();
+        for (Segment<K, V> s : segments) {
+            keys.addAll(s.map.keySet());
+        }
+        return keys;
+    }
+
+    /**
+     * @return a snapshot of the cache values
+     */
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>();
+        for (Segment<K, V> s : segments) {
+            for (Node<K, V> node : s.map.values()) {
+                values.add(node.value);
+            }
+        }
+        return values;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0 : ((double) hits) / total;
+    }
+
+    public void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        volatile V value;
+        long weight;
+        volatile boolean referenced;
+        boolean removed;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class Segment<K, V> {
+
+        final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+        final ArrayDeque<Node<K, V>> queue = new ArrayDeque<>();
+        final ReentrantLock lock = new ReentrantLock();
+        long weight;
+
+        /**
+         * Sweep the clock queue from the oldest entry and evict the first entry not referenced since the last sweep.
+         * Must be called with the lock held.
+         *
+         * @return the weight of the evicted entry,  or -1 if the segment is empty
+         */
+        long evictOne() {
+            int chances = queue.size();
+            Node<K, V> node;
+            while ((node = queue.pollFirst()) != null) {
+                if (node.removed) {
+                    continue;
+                }
+                if (node.referenced && chances-- > 0) {
+                    node.referenced = false;
+                    queue.addLast(node);
+                } else {
+                    map.remove(node.key);
+                    node.removed = true;
+                    weight -= node.weight;
+                    return node.weight;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Account for a node removed from the map.  Its queue slot is reclaimed lazily,  or by compacting the queue
+         * once removed nodes dominate.  Must be called with the lock held.
+         */
+        void unlink(Node<K, V> node) {
+            node.removed = true;
+            weight -= node.weight;
+            if (queue.size() > 2 * map.size() + MIN_SEGMENT_CAPACITY) {
+                queue.removeIf(n -> n.removed);
+            }
+        }
+    }
+}
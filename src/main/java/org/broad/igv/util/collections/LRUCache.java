@@ -29,7 +29,8 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A least-recently-used cache with a maximum size that can be altered.
+ * A least-recently-used cache with a maximum size that can be altered.   All access, including get(), is
+ * serialized,  for caches read from many threads see {@link ConcurrentLRUCache}.
  *
  * @author jrobinso
  */
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.util.collections;
+
+import org.broad.igv.util.CacheManager;
+import org.broad.igv.util.ManagedCache;
+
+/**
+ * A {@link ConcurrentLRUCache} bounded by the estimated heap size of its entries,  and registered with the
+ * {@link CacheManager} so it is trimmed with the other caches when the global budget is exceeded.
+ */
+public class ManagedLRUCache<K, V> implements ManagedCache {
+
+    private final String name;
+    private final ConcurrentLRUCache<K, V> cache;
+    private volatile long lastAccessTime = 0;
+
+    /**
+     * @param name     name of the cache,  used in statistics
+     * @param maxBytes maximum estimated size of the entries
+     * @param sizer    estimates the heap size in bytes of an entry
+     * @param weight   relative share of the global budget
+     */
+    public ManagedLRUCache(String name, long maxBytes, ConcurrentLRUCache.Weigher<K, V> sizer, double weight) {
+        this.name = name;
+        this.cache = new ConcurrentLRUCache<>(maxBytes, sizer);
+        CacheManager.getInstance().register(this, weight);
+    }
+
+    public V get(K key) {
+        V value = cache.get(key);
+        if (value != null) {
+            lastAccessTime = System.currentTimeMillis();
+        }
+        return value;
+    }
+
+    public boolean containsKey(K key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * Add or replace an entry.  Replacing an entry updates its size,  for entries which grow after they are cached.
+     */
+    public V put(K key, V value) {
+        lastAccessTime = System.currentTimeMillis();
+        return cache.put(key, value);
+    }
+
+    public V remove(K key) {
+        return cache.remove(key);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        cache.setMaxWeight(maxBytes);
+    }
+
+    public String getCacheName() {
+        return name;
+    }
+
+    public long getSizeInBytes() {
+        return cache.getWeight();
+    }
+
+    public int getHitCount() {
+        return (int) Math.min(Integer.MAX_VALUE, cache.getHitCount());
+    }
+
+    public int getMissCount() {
+        return (int) Math.min(Integer.MAX_VALUE, cache.getMissCount());
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    public long trim(long bytes) {
+        return cache.trim(bytes);
+    }
+}
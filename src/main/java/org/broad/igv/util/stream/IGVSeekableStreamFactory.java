@@ -28,17 +28,24 @@ package org.broad.igv.util.stream;
 import htsjdk.samtools.seekablestream.ISeekableStreamFactory;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.HttpUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
+import static org.broad.igv.prefs.Constants.MEMORY_MAP_LOCAL_FILES;
+
 /**
  * @author Jim Robinson
  */
 public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
 
+    private static Logger log = Logger.getLogger(IGVSeekableStreamFactory.class);
+
     private static IGVSeekableStreamFactory instance;
     static{
         instance = new IGVSeekableStreamFactory();
@@ -86,11 +93,40 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
         }
     }
 
+    /**
+     * Return a memory mapped stream for a local file,  unless disabled by preference,  or else the stream from
+     * {@link #getStreamFor(String)}.  Mapped files cannot be unmapped until garbage collected,  so this is only for
+     * readers that keep one stream open for the life of the file,  such as the TDF,  bigWig/bigBed and indexed
+     * sequence readers.  Falls back to a file stream if the file cannot be mapped,  for example if it is not a
+     * regular file.
+     */
+    public SeekableStream getMappedStreamFor(String path) throws IOException {
+        if (!FileUtils.isRemote(path) && !path.endsWith(".list") &&
+                PreferencesManager.getPreferences().getAsBoolean(MEMORY_MAP_LOCAL_FILES)) {
+            File file = new File(path);
+            if (file.isFile() && file.length() > 0) {
+                try {
+                    return new MappedSeekableStream(file);
+                } catch (IOException e) {
+                    log.info("Could not memory map " + file.getAbsolutePath() + ": " + e.getMessage());
+                }
+            }
+        }
+        return getStreamFor(path);
+    }
+
     public SeekableStream getBufferedStream(SeekableStream stream){
         return getBufferedStream(stream, IGVSeekableBufferedStream.DEFAULT_BUFFER_SIZE);
     }
 
+    /**
+     * Wrap the stream in a buffered stream.  Memory mapped streams are returned as is,  buffering them would
+     * only add a copy.
+     */
     public SeekableStream getBufferedStream(SeekableStream stream, int bufferSize){
+        if (stream instanceof MappedSeekableStream) {
+            return stream;
+        }
         return new IGVSeekableBufferedStream(stream, bufferSize);
     }
 
@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A SeekableStream for local files backed by memory mapped buffers.  Reads copy directly from the page cache,  with
+ * no intermediate buffers or system calls,  so there is no need to wrap this stream in a buffered stream.
+ * <p>
+ * A single mapping is limited to 2 GB,  so the file is mapped in chunks of {@link #CHUNK_SIZE} bytes.  All chunks are
+ * mapped when the stream is opened,  so reads take no locks.  Mappings can only be released by the garbage collector
+ * after the stream is closed,  until then the file stays locked on Windows,  and truncating it crashes the JVM.  Use
+ * this stream only for files held open by long lived readers,  see {@link IGVSeekableStreamFactory#getMappedStreamFor}.
+ * <p>
+ * The stream methods (seek, read) are not thread safe,  but the positional methods {@link #read(long, byte[], int, int)}
+ * and {@link #getByteBuffer(long, int)} are,  and can be used to share one stream between threads.
+ */
+public class MappedSeekableStream extends SeekableStream {
+
+    static final int CHUNK_SIZE = 1 << 30;
+
+    private final File file;
+    private final long length;
+    private final int chunkSize;
+    private final MappedByteBuffer[] chunks;
+    private volatile boolean closed = false;
+    private long position = 0;
+
+    public MappedSeekableStream(File file) throws IOException {
+        this(file, CHUNK_SIZE);
+    }
+
+    MappedSeekableStream(File file, int chunkSize) throws IOException {
+        this.file = file;
+        this.chunkSize = chunkSize;
+        // Mappings remain valid after the channel is closed
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            this.length = channel.size();
+            this.chunks = new MappedByteBuffer[(int) ((length + chunkSize - 1) / chunkSize)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * chunkSize;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+            }
+        }
+    }
+
+    private ByteBuffer getChunk(int idx) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed: " + file.getAbsolutePath());
+        }
+        return chunks[idx];
+    }
+
+    /**
+     * Return a read-only buffer over the bytes [position, position + nBytes).  If the range lies within one chunk,
+     * which is the case for all but a tiny fraction of ranges,  the buffer is a view of the mapping and no bytes are
+     * copied.  Otherwise the bytes are copied to a heap buffer.  The byte order of the returned buffer is big-endian.
+     */
+    public ByteBuffer getByteBuffer(long position, int nBytes) throws IOException {
+        if (position < 0 || position + nBytes > length) {
+            throw new EOFException("Range " + position + "-" + (position + nBytes) + " is outside file " +
+                    file.getAbsolutePath() + " of length " + length);
+        }
+        if (nBytes == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        int idx = (int) (position / chunkSize);
+        int offset = (int) (position - (long) idx * chunkSize);
+        ByteBuffer chunk = getChunk(idx);
+        if (offset + nBytes <= chunk.capacity()) {
+            ByteBuffer view = chunk.duplicate();
+            view.position(offset);
+            view.limit(offset + nBytes);
+            return view.slice().asReadOnlyBuffer();
+        } else {
+            byte[] bytes = new byte[nBytes];
+            read(position, bytes, 0, nBytes);
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Read up to len bytes starting at file position pos,  without changing the stream position.
+     *
+     * @return the number of bytes read,  or -1 if pos is at or past the end of the file
+     */
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        if (pos >= length) {
+            return -1;
+        }
+        len = (int) Math.min(len, length - pos);
+        int n = 0;
+        while (n < len) {
+            int idx = (int) (pos / chunkSize);
+            int offset = (int) (pos - (long) idx * chunkSize);
+            ByteBuffer chunk = getChunk(idx).duplicate();
+            int count = Math.min(len - n, chunk.capacity() - offset);
+            chunk.position(offset);
+            chunk.get(b, off + n, count);
+            n += count;
+            pos += count;
+        }
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = read(position, b, off, len);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        int idx = (int) (position / chunkSize);
+        int offset = (int) (position - (long) idx * chunkSize);
+        position++;
+        return getChunk(idx).get(offset) & 0xFF;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public boolean eof() {
+        return position >= length;
+    }
+
+    @Override
+    public String getSource() {
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -26,6 +26,7 @@
 package org.broad.igv.variant;
 
 import htsjdk.tribble.Feature;
+import htsjdk.variant.variantcontext.GenotypeType;
 
 import java.util.Collection;
 import java.util.List;
@@ -119,6 +120,20 @@ public interface Variant extends Feature {
      */
     Genotype getGenotype(String sample);
 
+    /**
+     * Return the call type of the genotype for the given sample, or null if the sample has no genotype.  Unlike
+     * {@link #getGenotype(String)} implementations need not materialize a genotype object.
+     *
+     * @param sample
+     * @param sampleIndex the position of the sample in the file (header order),  or -1 if unknown.  Implementations
+     *                    storing calls by position may use it to avoid a lookup by name.
+     * @return
+     */
+    default GenotypeType getGenotypeType(String sample, int sampleIndex) {
+        Genotype genotype = getGenotype(sample);
+        return genotype == null ? null : genotype.getType();
+    }
+
     /**
      * @return the list of filters applied to this variant.  Should not return null, return an empty collection if no filters.
      */
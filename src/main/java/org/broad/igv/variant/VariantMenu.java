@@ -25,6 +25,7 @@
 
 package org.broad.igv.variant;
 
+import htsjdk.variant.variantcontext.GenotypeType;
 import org.apache.log4j.Logger;
 import org.broad.igv.track.AttributeManager;
 import org.broad.igv.track.Track;
@@ -39,6 +40,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.*;
 import java.util.List;
+import java.util.function.ToDoubleFunction;
 
 /**
  * User: Jesse Whitworth
@@ -358,8 +360,8 @@ public class VariantMenu extends IGVPopupMenu {
 
         public int compare(String e1, String e2) {
 
-            int genotype1 = classifyGenotype(variant.getGenotype(e1));
-            int genotype2 = classifyGenotype(variant.getGenotype(e2));
+            int genotype1 = classifyGenotype(variant.getGenotypeType(e1, -1));
+            int genotype2 = classifyGenotype(variant.getGenotypeType(e2, -1));
 
             if (genotype2 == genotype1) {
                 return 0;
@@ -371,15 +373,15 @@ public class VariantMenu extends IGVPopupMenu {
         }
 
 
-        private int classifyGenotype(Genotype genotype) {
+        private int classifyGenotype(GenotypeType type) {
 
-            if (genotype.isNoCall()) {
+            if (type == GenotypeType.NO_CALL) {
                 return genotypeSortingDirection ? 1 : 10;
-            } else if (genotype.isHomVar()) {
+            } else if (type == GenotypeType.HOM_VAR) {
                 return 4;
-            } else if (genotype.isHet()) {
+            } else if (type == GenotypeType.HET) {
                 return 3;
-            } else if (genotype.isHomRef()) {
+            } else if (type == GenotypeType.HOM_REF) {
                 return genotypeSortingDirection ? 2 : 9;
             }
             return -1; //Unknown
@@ -387,19 +389,32 @@ public class VariantMenu extends IGVPopupMenu {
     }
 
 
+    /**
+     * Genotype values of each sample of a variant,  read once rather than on every comparison,  as genotypes are
+     * decoded on each request.
+     */
+    static Map<String, Double> getGenotypeValues(Variant variant, ToDoubleFunction<Genotype> function) {
+        Map<String, Double> values = new HashMap<>();
+        for (String sample : variant.getSampleNames()) {
+            Genotype genotype = variant.getGenotype(sample);
+            values.put(sample, genotype == null ? Double.NaN : function.applyAsDouble(genotype));
+        }
+        return values;
+    }
+
     static class DepthComparator implements Comparator<String> {
 
-        Variant variant;
+        Map<String, Double> readDepths;
 
         DepthComparator(Variant variant) {
-            this.variant = variant;
+            this.readDepths = getGenotypeValues(variant, genotype -> genotype.getAttributeAsDouble("DP"));
         }
 
         public int compare(String s1, String s2) {
 
 
-            double readDepth1 = variant.getGenotype(s1).getAttributeAsDouble("DP");
-            double readDepth2 = variant.getGenotype(s2).getAttributeAsDouble("DP");
+            double readDepth1 = readDepths.getOrDefault(s1, Double.NaN);
+            double readDepth2 = readDepths.getOrDefault(s2, Double.NaN);
 
             int sign = depthSortingDirection ? -1 : 1;
             return sign * Double.compare(readDepth1, readDepth2);
@@ -409,16 +424,16 @@ public class VariantMenu extends IGVPopupMenu {
 
     static class QualityComparator implements Comparator<String> {
 
-        Variant variant;
+        Map<String, Double> qualities;
 
         QualityComparator(Variant variant) {
-            this.variant = variant;
+            this.qualities = getGenotypeValues(variant, Genotype::getPhredScaledQual);
         }
 
         public int compare(String s1, String s2) {
 
-            double qual1 = variant.getGenotype(s1).getPhredScaledQual();
-            double qual2 = variant.getGenotype(s2).getPhredScaledQual();
+            double qual1 = qualities.getOrDefault(s1, Double.NaN);
+            double qual2 = qualities.getOrDefault(s2, Double.NaN);
 
             int sign = qualitySortingDirection ? -1 : 1;
             return sign * Double.compare(qual1, qual2);
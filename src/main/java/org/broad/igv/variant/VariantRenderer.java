@@ -25,6 +25,7 @@
 
 package org.broad.igv.variant;
 
+import htsjdk.variant.variantcontext.GenotypeType;
 import org.apache.log4j.Logger;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
@@ -198,6 +199,18 @@ public class VariantRenderer { //extends FeatureRenderer {
 
     public void renderGenotypeBandSNP(Variant variant, RenderContext context, Rectangle bandRectangle, int pX0, int dX,
                                       String sampleName, VariantTrack.ColorMode coloring, boolean hideFiltered) {
+        renderGenotypeBandSNP(variant, context, bandRectangle, pX0, dX, sampleName, -1, coloring, hideFiltered);
+    }
+
+    /**
+     * Render the genotype of a single sample.
+     *
+     * @param sampleIndex position of the sample in the file (header order), or -1 if unknown.  In genotype color
+     *                    mode only the call type is read,  see {@link Variant#getGenotypeType(String, int)}.
+     */
+    public void renderGenotypeBandSNP(Variant variant, RenderContext context, Rectangle bandRectangle, int pX0, int dX,
+                                      String sampleName, int sampleIndex, VariantTrack.ColorMode coloring,
+                                      boolean hideFiltered) {
 
         updateColors();
 
@@ -222,9 +235,9 @@ public class VariantRenderer { //extends FeatureRenderer {
 
         boolean isFiltered = variant.isFiltered() && hideFiltered;
 
-        Genotype genotype = variant.getGenotype(sampleName);
+        GenotypeType genotypeType = variant.getGenotypeType(sampleName, sampleIndex);
 
-        if (genotype == null) {
+        if (genotypeType == null) {
             log.error("Genotype not found for sample " + sampleName);
         } else {
             Color b1Color = Color.gray;
@@ -235,16 +248,17 @@ public class VariantRenderer { //extends FeatureRenderer {
             switch (coloring) {
                 case GENOTYPE:
 
-                    b1Color = getGenotypeColor(genotype, isFiltered);
+                    b1Color = getGenotypeColor(genotypeType, isFiltered);
                     b2Color = b1Color;
                     break;
 
                 case METHYLATION_RATE:
 
-                    final double goodBaseCount = genotype.getAttributeAsDouble("GB");
+                    Genotype genotype = variant.getGenotype(sampleName);
+                    final double goodBaseCount = genotype == null ? Double.NaN : genotype.getAttributeAsDouble("GB");
                     b1Color = colorNoCall;
                     b2Color = b1Color;
-                    final double value = genotype.getAttributeAsDouble("MR");
+                    final double value = genotype == null ? Double.NaN : genotype.getAttributeAsDouble("MR");
                     if (!Double.isNaN(goodBaseCount) && !Double.isNaN(value)) {
                         if (goodBaseCount < VariantTrack.METHYLATION_MIN_BASE_COUNT || Double.isNaN(value)) {
                             b1Color = colorNoCall;
@@ -331,6 +345,21 @@ public class VariantRenderer { //extends FeatureRenderer {
         return Color.white;
     }
 
+    public Color getGenotypeColor(GenotypeType type, boolean isFiltered) {
+        switch (type) {
+            case NO_CALL:
+                return isFiltered ? colorNoCallAlpha : colorNoCall;
+            case HOM_REF:
+                return isFiltered ? colorHomRefAlpha : colorHomRef;
+            case HOM_VAR:
+                return isFiltered ? colorHomVarAlpha : colorHomVar;
+            case HET:
+                return isFiltered ? colorHetAlpha : colorHet;
+            default:
+                return Color.white;
+        }
+    }
+
     private void drawCenteredText(Graphics2D g, char[] chars, int x, int y,
                                   int w, int h) {
 
@@ -46,6 +46,7 @@ import org.broad.igv.event.TrackGroupEvent;
 import org.broad.igv.ui.panel.*;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.util.*;
+import org.broad.igv.util.collections.IntArrayList;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -123,6 +124,12 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
      */
     List<String> allSamples;
 
+    /**
+     * Map of sample -> position of the sample in the file (header order).  Unlike allSamples this is not changed
+     * by sorting,  it lets the renderer read genotype calls stored by position.
+     */
+    private Map<String, Integer> sampleColumns = Collections.emptyMap();
+
     /**
      * Boolean indicating if samples are grouped.
      */
@@ -216,6 +223,10 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
                 ColorMode.ALLELE_FRACTION;
 
         this.allSamples = samples;
+        this.sampleColumns = new HashMap<String, Integer>(samples.size() * 2);
+        for (int i = 0; i < samples.size(); i++) {
+            sampleColumns.put(samples.get(i), i);
+        }
 
         // this handles the new attribute grouping mechanism:
         setupGroupsFromAttributes();
@@ -480,6 +491,7 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
         int curRowTop = top;
 
         if (rows.size() > 0) {
+            final VisibleSampleRows sampleRows = getVisibleSampleRows(overallSampleRect.y, visibleRectangle);
             final double locScale = context.getScale();
             final double origin = context.getOrigin();
 
@@ -531,7 +543,7 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
                         lastEndX = x + w - 1;
                     }
 
-                    renderSamples(g2D, visibleRectangle, variant, context, overallSampleRect, x, w);
+                    renderSamples(variant, context, overallSampleRect, x, w, sampleRows);
                     boolean isSelected = selectedVariant != null && selectedVariant == variant;
                     if (isSelected) {
                         Graphics2D selectionGraphics = context.getGraphic2DForColor(Color.black);
@@ -568,30 +580,90 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
         }
     }
 
-    private void renderSamples(Graphics2D g2D, Rectangle visibleRectangle, Variant variant, RenderContext context, Rectangle overallSampleRect, int x, int w) {
-
-        Rectangle tmpRect = new Rectangle(overallSampleRect);
-        tmpRect.height = getGenotypeBandHeight();
+    /**
+     * Return the genotype rows intersecting the visible rectangle.  Computed once per paint from the group
+     * layout, so the cost of rendering a variant depends on the number of visible rows, not on the number
+     * of samples.
+     *
+     * @param samplesTop top of the first sample row
+     * @param visibleRectangle
+     */
+    private VisibleSampleRows getVisibleSampleRows(int samplesTop, Rectangle visibleRectangle) {
+        final int rowHeight = getGenotypeBandHeight();
+        VisibleSampleRows rows = new VisibleSampleRows(rowHeight);
         if (grouped) {
-            for (Map.Entry<String, List<String>> entry : samplesByGroups.entrySet()) {
-                for (String sample : entry.getValue()) {
-                    if (overallSampleRect.intersects(visibleRectangle)) {
-                        renderer.renderGenotypeBandSNP(variant, context, tmpRect, x, w, sample, coloring, hideFiltered);
-                    }
-                    tmpRect.y += tmpRect.height;
-                }
-                tmpRect.y += GROUP_BORDER_WIDTH;
+            int y = samplesTop;
+            for (List<String> samples : samplesByGroups.values()) {
+                rows.addVisible(samples, y, visibleRectangle);
+                y += samples.size() * rowHeight + GROUP_BORDER_WIDTH;
             }
         } else {
+            rows.addVisible(allSamples, samplesTop, visibleRectangle);
+        }
+        return rows;
+    }
 
-            for (String sample : allSamples) {
+    /**
+     * Return the range [start, end) of the rows intersecting the visible rectangle.
+     *
+     * @param y0        top of the first row
+     * @param rowHeight
+     * @param rowCount
+     * @param visibleRectangle
+     */
+    static int[] getVisibleRows(int y0, int rowHeight, int rowCount, Rectangle visibleRectangle) {
+        if (rowHeight <= 0 || rowCount == 0 || visibleRectangle.height <= 0) {
+            return new int[]{0, 0};
+        }
+        int start = Math.max(0, Math.floorDiv(visibleRectangle.y - y0, rowHeight));
+        int end = Math.min(rowCount, -Math.floorDiv(y0 - visibleRectangle.y - visibleRectangle.height, rowHeight));
+        return new int[]{Math.min(start, Math.max(end, 0)), Math.max(end, 0)};
+    }
 
-                if (tmpRect.intersects(visibleRectangle)) {
-                    renderer.renderGenotypeBandSNP(variant, context, tmpRect, x, w, sample, coloring, hideFiltered);
-                }
-                tmpRect.y += tmpRect.height;
+    private int getSampleColumn(String sample) {
+        Integer column = sampleColumns.get(sample);
+        return column == null ? -1 : column;
+    }
+
+    private void renderSamples(Variant variant, RenderContext context, Rectangle overallSampleRect, int x, int w,
+                               VisibleSampleRows sampleRows) {
+
+        Rectangle tmpRect = new Rectangle(overallSampleRect);
+        tmpRect.height = sampleRows.rowHeight;
+        for (int i = 0; i < sampleRows.size(); i++) {
+            tmpRect.y = sampleRows.tops.get(i);
+            renderer.renderGenotypeBandSNP(variant, context, tmpRect, x, w, sampleRows.samples.get(i),
+                    sampleRows.columns.get(i), coloring, hideFiltered);
+        }
+    }
+
+    /**
+     * The sample rows to render for a paint:  sample names, their positions in the file, and row tops.
+     */
+    private class VisibleSampleRows {
+
+        final int rowHeight;
+        final List<String> samples = new ArrayList<String>();
+        final IntArrayList columns = new IntArrayList();
+        final IntArrayList tops = new IntArrayList();
+
+        VisibleSampleRows(int rowHeight) {
+            this.rowHeight = rowHeight;
+        }
+
+        void addVisible(List<String> sampleList, int y0, Rectangle visibleRectangle) {
+            int[] range = getVisibleRows(y0, rowHeight, sampleList.size(), visibleRectangle);
+            for (int i = range[0]; i < range[1]; i++) {
+                String sample = sampleList.get(i);
+                samples.add(sample);
+                columns.add(getSampleColumn(sample));
+                tops.add(y0 + i * rowHeight);
             }
         }
+
+        int size() {
+            return samples.size();
+        }
     }
 
     /**
@@ -727,8 +799,12 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
                                      List<String> attributeNames, List<String> sampleList, List<MouseableRegion> mouseRegions) {
 
 
-        for (String sample : sampleList) {
+        final int y0 = bandRectangle.y;
+        final int[] range = getVisibleRows(y0, bandRectangle.height, sampleList.size(), visibleRectangle);
+        for (int i = range[0]; i < range[1]; i++) {
 
+            String sample = sampleList.get(i);
+            bandRectangle.y = y0 + i * bandRectangle.height;
             if (bandRectangle.intersects(visibleRectangle)) {
 
                 int x = bandRectangle.x;
@@ -748,9 +824,9 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
                 }
 
             }
-            bandRectangle.y += bandRectangle.height;
 
         }
+        bandRectangle.y = y0 + sampleList.size() * bandRectangle.height;
     }
 
     /**
@@ -812,8 +888,17 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
 
         boolean supressFill = (getDisplayMode() == DisplayMode.SQUISHED && squishedHeight < 4);
 
-        for (String sample : sampleList) {
+        // Bands alternate colors, account for those above and below the visible range
+        final int y0 = bandRectangle.y;
+        final int[] range = getVisibleRows(y0, bandRectangle.height, sampleList.size(), visibleRectangle);
+        if (range[0] % 2 == 1) {
+            coloredLast = !coloredLast;
+        }
 
+        for (int i = range[0]; i < range[1]; i++) {
+
+            String sample = sampleList.get(i);
+            bandRectangle.y = y0 + i * bandRectangle.height;
             if (coloredLast) {
                 g2D.setColor(BAND1_COLOR);
                 coloredLast = false;
@@ -844,9 +929,12 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
 
                 }
             }
-            bandRectangle.y += bandRectangle.height;
 
         }
+        if ((sampleList.size() - range[1]) % 2 == 1) {
+            coloredLast = !coloredLast;
+        }
+        bandRectangle.y = y0 + sampleList.size() * bandRectangle.height;
         return coloredLast;
     }
 
@@ -1344,14 +1432,13 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
                 String selectedSample = getSampleAtPosition(te.getMouseEvent().getY());
                 if (selectedSample != null) {
                     // Select clicked sample and all other adjacent with the same genotype
-                    Genotype genotype = f.getGenotype(selectedSample);
-                    GenotypeType type = genotype.getType();
+                    GenotypeType type = f.getGenotypeType(selectedSample, getSampleColumn(selectedSample));
 
                     int idx = getSampleIndex(selectedSample);
                     for (int i = idx; i < sampleBounds.size(); i++) {
                         String s = sampleBounds.get(i).sample;
-                        Genotype gt = f.getGenotype(s);
-                        if (gt != null && type == gt.getType()) {
+                        GenotypeType gt = f.getGenotypeType(s, getSampleColumn(s));
+                        if (gt != null && type == gt) {
                             selectedSamples.add(s);
                         } else {
                             break;
@@ -1359,8 +1446,8 @@ public class VariantTrack extends FeatureTrack implements IGVEventObserver {
                     }
                     for (int i = idx - 1; i >= 0; i--) {
                         String s = sampleBounds.get(i).sample;
-                        Genotype gt = f.getGenotype(s);
-                        if (gt != null && type == gt.getType()) {
+                        GenotypeType gt = f.getGenotypeType(s, getSampleColumn(s));
+                        if (gt != null && type == gt) {
                             selectedSamples.add(s);
                         } else {
                             break;
@@ -0,0 +1,307 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.variant.vcf;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.GenotypeType;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compact genotype calls for the samples of a VCF file.  The call type of each sample is stored as one byte
+ * (a {@link GenotypeType} ordinal) in header sample order, so the variants of a loaded window together form a
+ * variant x sample byte matrix.  For text VCFs the GT field is decoded straight from the record line, leaving
+ * htsjdk's genotypes (and all other FORMAT fields) unparsed until a genotype is actually requested, e.g. for a
+ * popup.  Variants keep only the genotype columns of their line,  from which requested genotypes are decoded
+ * each time,  one sample at a time where possible.
+ * <p/>
+ * One instance is shared by all variants from a file,  it holds the sample names and offsets from the header.
+ */
+public class GenotypeCalls {
+
+    private static final GenotypeType[] TYPES = GenotypeType.values();
+
+    private static final byte NO_CALL = (byte) GenotypeType.NO_CALL.ordinal();
+    private static final byte HOM_REF = (byte) GenotypeType.HOM_REF.ordinal();
+    private static final byte HET = (byte) GenotypeType.HET.ordinal();
+    private static final byte HOM_VAR = (byte) GenotypeType.HOM_VAR.ordinal();
+    private static final byte UNAVAILABLE = (byte) GenotypeType.UNAVAILABLE.ordinal();
+    private static final byte MIXED = (byte) GenotypeType.MIXED.ordinal();
+
+    /**
+     * Number of fixed VCF columns preceding FORMAT
+     */
+    private static final int FORMAT_COLUMN = 8;
+
+    private final List<String> sampleNames;
+    private final Map<String, Integer> sampleOffsets;
+
+    /**
+     * Decodes a complete record line, including genotypes.  Null if the variants are not decoded from text.
+     */
+    private final Function<String, VariantContext> lineDecoder;
+
+    /**
+     * Decodes a record line with a single sample column.  Null if the variants are not decoded from text.
+     */
+    private final Function<String, VariantContext> sampleDecoder;
+
+    public GenotypeCalls(VCFHeader header) {
+        this(header, null, null);
+    }
+
+    public GenotypeCalls(VCFHeader header, Function<String, VariantContext> lineDecoder,
+                         Function<String, VariantContext> sampleDecoder) {
+        this.sampleNames = header.getGenotypeSamples();
+        this.sampleOffsets = header.getSampleNameToOffset();
+        this.lineDecoder = lineDecoder;
+        this.sampleDecoder = sampleDecoder;
+    }
+
+    /**
+     * @return the sample names in header order
+     */
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    public int getSampleCount() {
+        return sampleNames.size();
+    }
+
+    /**
+     * Return the header offset of a sample, or -1 if the sample is not in this file.
+     *
+     * @param sample
+     * @param hint   the expected offset, checked before falling back to a map lookup.  Can be -1.
+     */
+    public int getSampleIndex(String sample, int hint) {
+        if (hint >= 0 && hint < sampleNames.size() && sample.equals(sampleNames.get(hint))) {
+            return hint;
+        }
+        Integer offset = sampleOffsets.get(sample);
+        return offset == null ? -1 : offset;
+    }
+
+    public static GenotypeType getType(byte code) {
+        return TYPES[code];
+    }
+
+    /**
+     * Return the index of the tab ending the site columns (the 8 columns preceding FORMAT), or -1 if the line
+     * has no genotype columns.
+     */
+    public static int getSitesEnd(String line) {
+        int pos = -1;
+        for (int column = 0; column < FORMAT_COLUMN; column++) {
+            pos = line.indexOf('\t', pos + 1);
+            if (pos < 0) break;
+        }
+        return pos;
+    }
+
+    /**
+     * Return the genotype columns of a record line,  FORMAT followed by the sample columns,  or null if the line
+     * has none.
+     */
+    public static String getGenotypeColumns(String line) {
+        int sitesEnd = getSitesEnd(line);
+        return sitesEnd < 0 ? null : line.substring(sitesEnd + 1);
+    }
+
+    /**
+     * Decode all genotype fields of a record.
+     *
+     * @param sites           the record,  decoded without genotypes
+     * @param genotypeColumns the genotype columns of the record line,  see {@link #getGenotypeColumns(String)}
+     * @return the variant context including genotypes, or null if this file's variants are not decoded from text lines
+     */
+    public VariantContext decodeGenotypes(VariantContext sites, String genotypeColumns) {
+        if (lineDecoder == null) {
+            return null;
+        }
+        VariantContext decoded = lineDecoder.apply(getSitesLine(sites) + genotypeColumns);
+        return decoded == null ? null : new VariantContextBuilder(sites).genotypes(decoded.getGenotypes()).make();
+    }
+
+    /**
+     * Decode the genotype fields of one sample of a record.  Only the FORMAT column and the sample's own column
+     * are parsed.
+     *
+     * @param sites           the record,  decoded without genotypes
+     * @param genotypeColumns the genotype columns of the record line,  see {@link #getGenotypeColumns(String)}
+     * @param sampleIndex     header offset of the sample
+     * @return the genotype,  or null if the record has no column for the sample or this file's variants are not
+     * decoded from text lines
+     */
+    public Genotype decodeGenotype(VariantContext sites, String genotypeColumns, int sampleIndex) {
+        if (sampleDecoder == null || sampleIndex < 0 || sampleIndex >= sampleNames.size()) {
+            return null;
+        }
+        final int formatEnd = genotypeColumns.indexOf('\t');
+        int columnStart = formatEnd;
+        for (int i = 0; i < sampleIndex && columnStart >= 0; i++) {
+            columnStart = genotypeColumns.indexOf('\t', columnStart + 1);
+        }
+        if (columnStart < 0) {
+            return null;
+        }
+        int columnEnd = genotypeColumns.indexOf('\t', columnStart + 1);
+        if (columnEnd < 0) columnEnd = genotypeColumns.length();
+
+        String line = getSitesLine(sites) + genotypeColumns.substring(0, formatEnd) +
+                genotypeColumns.substring(columnStart, columnEnd);
+        VariantContext decoded = sampleDecoder.apply(line);
+        if (decoded == null || decoded.getNSamples() == 0) {
+            return null;
+        }
+        return new GenotypeBuilder(decoded.getGenotype(0)).name(sampleNames.get(sampleIndex)).make();
+    }
+
+    /**
+     * Site columns for decoding genotypes,  the position and alleles of a record with its other fields missing.
+     */
+    private static String getSitesLine(VariantContext sites) {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(sites.getContig()).append('\t').append(sites.getStart()).append("\t.\t")
+                .append(sites.getReference().getDisplayString()).append('\t');
+        List<Allele> alternates = sites.getAlternateAlleles();
+        if (alternates.isEmpty()) {
+            buffer.append('.');
+        }
+        for (int i = 0; i < alternates.size(); i++) {
+            if (i > 0) buffer.append(',');
+            buffer.append(alternates.get(i).getDisplayString());
+        }
+        return buffer.append("\t.\t.\t.\t").toString();
+    }
+
+    /**
+     * Decode the GT field of every sample from a VCF record line.  Samples missing from the line, or all samples
+     * if the record has no GT field, are UNAVAILABLE.
+     *
+     * @param line a tab-delimited VCF data line
+     * @return the call type of each sample, in header order
+     */
+    public byte[] decode(String line) {
+
+        final int nSamples = sampleNames.size();
+        final byte[] calls = new byte[nSamples];
+        if (nSamples == 0) {
+            return calls;
+        }
+
+        final int length = line.length();
+        int pos = getSitesEnd(line);
+        if (pos >= 0) pos++;
+
+        // GT, if present, must be the first FORMAT key
+        if (pos < 0 || !line.startsWith("GT", pos) || (pos + 2 < length && line.charAt(pos + 2) != ':' && line.charAt(pos + 2) != '\t')) {
+            Arrays.fill(calls, UNAVAILABLE);
+            return calls;
+        }
+        pos = line.indexOf('\t', pos);
+
+        int sample = 0;
+        while (pos >= 0 && sample < nSamples) {
+            pos++;
+
+            int nAlleles = 0;
+            int firstCall = -1;
+            boolean noCall = false;
+            boolean multiple = false;
+            int allele = -1;         // Allele index being parsed,  -1 for none
+            while (true) {
+                final char c = pos < length ? line.charAt(pos) : '\t';
+                if (c >= '0' && c <= '9') {
+                    allele = (allele < 0 ? 0 : allele * 10) + (c - '0');
+                    pos++;
+                    continue;
+                }
+                if (allele >= 0) {
+                    nAlleles++;
+                    if (firstCall < 0) {
+                        firstCall = allele;
+                    } else if (allele != firstCall) {
+                        multiple = true;
+                    }
+                    allele = -1;
+                }
+                if (c == '.') {
+                    noCall = true;
+                    nAlleles++;
+                } else if (c != '/' && c != '|') {
+                    break;
+                }
+                pos++;
+            }
+
+            final byte type;
+            if (nAlleles == 0) {
+                type = UNAVAILABLE;
+            } else if (noCall) {
+                type = firstCall < 0 ? NO_CALL : MIXED;
+            } else if (multiple) {
+                type = HET;
+            } else {
+                type = firstCall == 0 ? HOM_REF : HOM_VAR;
+            }
+            calls[sample++] = type;
+
+            pos = pos < length && line.charAt(pos) == '\t' ? pos : line.indexOf('\t', pos);
+        }
+        if (sample < nSamples) {
+            Arrays.fill(calls, sample, nSamples, UNAVAILABLE);
+        }
+        return calls;
+    }
+
+    /**
+     * Collect the call types of a decoded variant context.  Used for records that are not read from text lines,
+     * such as BCF.
+     *
+     * @param variantContext
+     * @return the call type of each sample, in header order
+     */
+    public byte[] decode(VariantContext variantContext) {
+        final byte[] calls = new byte[sampleNames.size()];
+        Arrays.fill(calls, UNAVAILABLE);
+        for (Genotype genotype : variantContext.getGenotypes()) {
+            Integer offset = sampleOffsets.get(genotype.getSampleName());
+            if (offset != null) {
+                calls[offset] = (byte) genotype.getType().ordinal();
+            }
+        }
+        return calls;
+    }
+}
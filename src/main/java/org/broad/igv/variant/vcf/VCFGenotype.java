@@ -47,8 +47,18 @@ public class VCFGenotype implements org.broad.igv.variant.Genotype {
 
     public VCFGenotype(Genotype wrappedGenotype) {
         vcfGenotype = wrappedGenotype;
-        attributes = new HashMap<String, Object>();
+    }
+
+    public Map<String, Object> getAttributes() {
+        if (attributes == null) {
+            attributes = createAttributes();
+        }
+        return attributes;
+    }
+
+    private Map<String, Object> createAttributes() {
 
+        Map<String, Object> attributes = new HashMap<String, Object>();
 
         if (vcfGenotype.hasDP()) {
             attributes.put("DP", vcfGenotype.getDP());
@@ -81,9 +91,6 @@ public class VCFGenotype implements org.broad.igv.variant.Genotype {
 
 
         attributes.putAll(vcfGenotype.getExtendedAttributes());
-    }
-
-    public Map<String, Object> getAttributes() {
         return attributes;
     }
 
@@ -30,6 +30,7 @@ import org.broad.igv.variant.Allele;
 import org.broad.igv.variant.Genotype;
 import org.broad.igv.variant.Variant;
 import org.broad.igv.variant.VariantTrack;
+import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 
@@ -53,27 +54,51 @@ public class VCFVariant implements Variant {
     private double methylationRate = Double.NaN;  // <= signals unknown / not applicable
     private double coveredSampleFraction = Double.NaN;
 
-    Map<String, VCFGenotype> genotypeMap;
+    /**
+     * Sample layout of the file, shared by all its variants.  Null if the header was not available.
+     */
+    private GenotypeCalls genotypeCalls;
+
+    /**
+     * Call type of each sample in header order,  see {@link GenotypeCalls}.  Null if genotypeCalls is null.
+     */
+    private byte[] genotypeTypes;
+
+    /**
+     * The genotype columns of the record line (FORMAT and samples),  kept when variantContext holds only the site
+     * columns.  Genotypes are decoded from them on each request,  the result is not retained.
+     */
+    private String genotypeColumns;
 
     private int start = -1;
     private int totalAlleleCount = 0;
 
     public VCFVariant(VariantContext variantContext, String chr) {
+        this(variantContext, chr, null, null, null);
+    }
+
+    public VCFVariant(VariantContext variantContext, String chr, GenotypeCalls genotypeCalls, byte[] genotypeTypes) {
+        this(variantContext, chr, genotypeCalls, genotypeTypes, null);
+    }
+
+    /**
+     * @param variantContext  the decoded record,  possibly without genotypes if genotypeColumns is not null
+     * @param genotypeCalls   sample layout of the file
+     * @param genotypeTypes   call type of each sample, in header order
+     * @param genotypeColumns the genotype columns of the record line to decode genotypes from on request, or null
+     */
+    public VCFVariant(VariantContext variantContext, String chr, GenotypeCalls genotypeCalls, byte[] genotypeTypes,
+                      String genotypeColumns) {
         this.variantContext = variantContext;
         this.chr = chr;
+        this.genotypeCalls = genotypeCalls;
+        this.genotypeTypes = genotypeTypes;
+        this.genotypeColumns = genotypeColumns;
         init();
     }
 
     private void init() {
 
-        // Copy the genotype map.  Calls to variantContext.getGenotype() are expensive
-        genotypeMap = new HashMap<String, VCFGenotype>();
-        for (String sample : getSampleNames()) {
-            htsjdk.variant.variantcontext.Genotype genotype = variantContext.getGenotype(sample);
-            VCFGenotype vcfGenotype = genotype == null ? null : new VCFGenotype(genotype);
-            genotypeMap.put(sample, vcfGenotype);
-        }
-
 //        zygosityCount = new ZygosityCount();
 //        for (String sample : getSampleNames()) {
 //            Genotype genotype = getGenotype(sample);
@@ -152,8 +177,12 @@ public class VCFVariant implements Variant {
         int samplesWithData = 0;
         final int size = getSampleNames().size();
         if (size > 0) {
+            // Decode all genotypes at once,  rather than sample by sample
+            final VariantContext vc = getVariantContext();
             for (String sample : getSampleNames()) {
-                Genotype genotype = getGenotype(sample);
+                htsjdk.variant.variantcontext.Genotype vcGenotype = vc.getGenotype(sample);
+                if (vcGenotype == null) continue;
+                Genotype genotype = new VCFGenotype(vcGenotype);
                 double mr = genotype.getAttributeAsDouble("MR");
                 double goodBaseCount = genotype.getAttributeAsDouble("MR");
                 if (!Double.isNaN(mr) && !Double.isNaN(goodBaseCount) && goodBaseCount > VariantTrack.METHYLATION_MIN_BASE_COUNT) {
@@ -267,16 +296,44 @@ public class VCFVariant implements Variant {
     }
 
     public Collection<String> getSampleNames() {
-        return variantContext.getSampleNames();
+        return genotypeCalls == null ? variantContext.getSampleNames() : genotypeCalls.getSampleNames();
     }
 
     public Map<String, Object> getAttributes() {
         return variantContext.getAttributes();
     }
 
+    /**
+     * Return the genotype for the given sample.  Genotypes are materialized on each request, parsing the FORMAT
+     * fields of the sample only.
+     *
+     * @param sample
+     * @return
+     */
     @Override
     public Genotype getGenotype(String sample) {
-        return genotypeMap.get(sample);
+        htsjdk.variant.variantcontext.Genotype genotype;
+        try {
+            if (genotypeColumns != null) {
+                int idx = genotypeCalls.getSampleIndex(sample, -1);
+                genotype = idx < 0 ? null : genotypeCalls.decodeGenotype(variantContext, genotypeColumns, idx);
+            } else {
+                genotype = variantContext.getGenotype(sample);
+            }
+        } catch (NumberFormatException e) {
+            log.error("Error parsing genotypes at " + getChr() + ":" + getPositionString() + " " + e.getMessage());
+            return null;
+        }
+        return genotype == null ? null : new VCFGenotype(genotype);
+    }
+
+    @Override
+    public GenotypeType getGenotypeType(String sample, int sampleIndex) {
+        if (genotypeTypes == null) {
+            return Variant.super.getGenotypeType(sample, sampleIndex);
+        }
+        int idx = genotypeCalls.getSampleIndex(sample, sampleIndex);
+        return idx < 0 ? null : GenotypeCalls.getType(genotypeTypes[idx]);
     }
 
     public Collection<String> getFilters() {
@@ -326,7 +383,17 @@ public class VCFVariant implements Variant {
         return variantContext.getSource();
     }
 
+    /**
+     * @return the variant context, including genotypes.  If genotypes are decoded lazily this is a new context
+     * on each call,  callers needing several genotypes should hold on to it rather than the variant doing so.
+     */
     public VariantContext getVariantContext() {
+        if (genotypeColumns != null) {
+            VariantContext decoded = genotypeCalls.decodeGenotypes(variantContext, genotypeColumns);
+            if (decoded != null) {
+                return decoded;
+            }
+        }
         return variantContext;
     }
 
@@ -299,6 +299,35 @@ public class CommandExecutorTest extends AbstractHeadedTest {
     }
 
 
+    @Test
+    public void testSnapshotRegions() throws Exception {
+
+        String filePath = TestUtils.DATA_DIR + "bam/NA12878.SLX.sample.bam";
+        IGV.getInstance().loadResources(Arrays.asList(new ResourceLocator(filePath)));
+
+        File regionFile = new File(snapshotDir, "snapshotRegions.bed");
+        try (java.io.PrintWriter pw = new java.io.PrintWriter(regionFile)) {
+            pw.println("chr1\t9713385\t9713865\tfirst");
+            pw.println("chr1\t9718385\t9718865");
+            pw.println("chr1:9,723,386-9,723,865");
+        }
+        File outputDir = new File(snapshotDir, "snapshotRegions");
+        String[] expectedNames = {"first_chr1_9713385_9713865.png", "chr1_9718385_9718865.png", "chr1_9_723_386-9_723_865.png"};
+        for (String name : expectedNames) {
+            new File(outputDir, name).delete();
+        }
+
+        String result = exec.execute("snapshotregions " + regionFile.getAbsolutePath() + " " + outputDir.getAbsolutePath());
+        assertTrue(result, result.startsWith("OK"));
+        assertTrue(result, result.contains("snapshots per minute"));
+        for (String name : expectedNames) {
+            File out = new File(outputDir, name);
+            assertTrue(out.getName(), out.exists());
+            BufferedImage image = ImageIO.read(out);
+            assertTrue(image.getWidth() > 0);
+        }
+    }
+
     public File tstSnapshot(String outFileName) throws Exception {
         return tstSnapshot(outFileName, true, null);
     }
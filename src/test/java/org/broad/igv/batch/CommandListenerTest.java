@@ -37,6 +37,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -45,8 +47,15 @@ import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author jacob
@@ -207,6 +216,86 @@ public class CommandListenerTest extends AbstractHeadedTest {
 
     }
 
+    @Test
+    public void testSessionOrder() throws Exception {
+
+        try (Socket socket = new Socket("localhost", port)) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            out.println("setSleepInterval 0");
+            out.println("echo");
+            out.println("goto chr1:1-100");
+            out.println("echo");
+
+            assertEquals("OK", in.readLine());
+            assertEquals("echo", in.readLine());
+            assertEquals("OK", in.readLine());
+            assertEquals("echo", in.readLine());
+        }
+    }
 
+    /**
+     * Load test: measure the latency of read-only commands from N concurrent clients while another client
+     * runs a slow command.  Read-only commands should not wait behind it.
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void testConcurrentClientLatency() throws Exception {
+
+        final int nClients = 16;
+        final int nCommands = 50;
+        final long slowCommandMillis = 2000;
+
+        ExecutorService clients = Executors.newFixedThreadPool(nClients + 1);
+        try {
+            Future<String> slow = clients.submit(() -> {
+                try (Socket socket = new Socket("localhost", port)) {
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    out.println("setSleepInterval " + slowCommandMillis);
+                    in.readLine();
+                    out.println("goto chr1:1-1000");
+                    return in.readLine();
+                }
+            });
+            Thread.sleep(200);
+
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < nClients; i++) {
+                futures.add(clients.submit(() -> {
+                    long[] latencies = new long[nCommands];
+                    try (Socket socket = new Socket("localhost", port)) {
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        for (int j = 0; j < nCommands; j++) {
+                            long t0 = System.nanoTime();
+                            out.println("echo");
+                            assertEquals("echo", in.readLine());
+                            latencies[j] = System.nanoTime() - t0;
+                        }
+                    }
+                    return latencies;
+                }));
+            }
+
+            long[] all = new long[nClients * nCommands];
+            int idx = 0;
+            for (Future<long[]> f : futures) {
+                for (long l : f.get()) all[idx++] = l;
+            }
+            Arrays.sort(all);
+            double p50 = all[all.length / 2] / 1.0e6;
+            double p99 = all[(int) (all.length * 0.99)] / 1.0e6;
+            double max = all[all.length - 1] / 1.0e6;
+            System.out.printf("%d clients x %d commands: p50 %.2f ms  p99 %.2f ms  max %.2f ms%n",
+                    nClients, nCommands, p50, p99, max);
+
+            assertEquals("OK", slow.get());
+            assertTrue("Read-only commands waited behind a slow command", p99 < slowCommandMillis);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
 
 }
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.batch;
+
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SnapshotFarmTest {
+
+    @Test
+    public void testParseRegions() throws Exception {
+
+        File regionFile = new File(TestUtils.TMP_OUTPUT_DIR, "snapshotFarmRegions.bed");
+        regionFile.getParentFile().mkdirs();
+        try (PrintWriter pw = new PrintWriter(regionFile)) {
+            pw.println("track name=regions");
+            pw.println("# comment");
+            pw.println("chr1\t99\t200\tgene/1");
+            pw.println("chr2 1,000 2,000");
+            pw.println("");
+            pw.println("chr3:5-10");
+            pw.println("EGFR");
+        }
+
+        List<SnapshotFarm.Region> regions = SnapshotFarm.parseRegions(regionFile.getAbsolutePath());
+        assertEquals(4, regions.size());
+
+        assertEquals("chr1:100-200", regions.get(0).locus);
+        assertEquals("gene_1_chr1_99_200.png", regions.get(0).fileName);
+        assertEquals("chr2:1001-2000", regions.get(1).locus);
+        assertEquals("chr2_1000_2000.png", regions.get(1).fileName);
+        assertEquals("chr3:5-10", regions.get(2).locus);
+        assertEquals("chr3_5-10.png", regions.get(2).fileName);
+        assertEquals("EGFR", regions.get(3).locus);
+        assertEquals("EGFR.png", regions.get(3).fileName);
+    }
+}
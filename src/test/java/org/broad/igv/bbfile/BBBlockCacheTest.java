@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BBBlockCacheTest extends AbstractHeadlessTest {
+
+    private static final String BB_FILE = TestUtils.DATA_DIR + "bb/chr21.refseq.bb";
+    private static final String BW_FILE = TestUtils.DATA_DIR + "wig/dummy_var_sample.bigwig";
+
+    /**
+     * Queries on one reader from many threads must match the same queries run serially on a fresh cache
+     */
+    @Test
+    public void testConcurrentQueries() throws Exception {
+
+        BBFileReader reader = new BBFileReader(BB_FILE);
+        String chr = "chr21";
+        int chrStart = 9000000;
+        int step = 2000000;
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(queryFeatures(reader, chr, chrStart + i * step, chrStart + (i + 1) * step));
+        }
+        List<String> expectedZoom = new ArrayList<>();
+        for (int level = 1; level <= reader.getZoomLevels().getZoomHeaderCount(); level++) {
+            expectedZoom.add(queryZoom(reader, level, chr, chrStart, chrStart + 20 * step));
+        }
+
+        BBBlockCache.getInstance().clear();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            List<Future<String>> zoomFutures = new ArrayList<>();
+            for (int rep = 0; rep < 4; rep++) {
+                for (int i = 0; i < 20; i++) {
+                    int start = chrStart + i * step;
+                    futures.add(executor.submit(() -> queryFeatures(reader, chr, start, start + step)));
+                }
+                for (int level = 1; level <= reader.getZoomLevels().getZoomHeaderCount(); level++) {
+                    int l = level;
+                    zoomFutures.add(executor.submit(() -> queryZoom(reader, l, chr, chrStart, chrStart + 20 * step)));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(expected.get(i % expected.size()), futures.get(i).get());
+            }
+            for (int i = 0; i < zoomFutures.size(); i++) {
+                assertEquals(expectedZoom.get(i % expectedZoom.size()), zoomFutures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(BBBlockCache.getInstance().getHitCount() > 0);
+        reader.close();
+    }
+
+    /**
+     * A query for an adjacent window reuses the index nodes and data blocks of the first query
+     */
+    @Test
+    public void testAdjacentQueriesReuseBlocks() throws Exception {
+
+        BBBlockCache cache = BBBlockCache.getInstance();
+        BBFileReader reader = new BBFileReader(BW_FILE);
+        String chr = reader.getChromosomeNames().get(0);
+        int start = reader.getBigWigIterator(chr, 0, chr, Integer.MAX_VALUE, false).next().getStartBase();
+        int width = 50000;
+
+        cache.clear();
+        int hits = cache.getHitCount();
+        assertTrue(countWigItems(reader, chr, start, start + width) > 0);
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.getSizeInBytes() > 0);
+
+        int size = cache.size();
+        assertTrue(countWigItems(reader, chr, start + width, start + 2 * width) > 0);
+        assertTrue(cache.getHitCount() > hits);
+        assertTrue(cache.size() >= size);
+
+        // Opening the file again invalidates its blocks,  in case it has been rewritten
+        new BBFileReader(BW_FILE).close();
+        assertEquals(0, cache.size());
+        reader.close();
+    }
+
+    private static String queryFeatures(BBFileReader reader, String chr, int start, int end) {
+        StringBuilder buffer = new StringBuilder();
+        BigBedIterator iter = reader.getBigBedIterator(chr, start, chr, end, false);
+        while (iter.hasNext()) {
+            BedFeature f = iter.next();
+            buffer.append(f.getStartBase()).append('-').append(f.getEndBase())
+                    .append(Arrays.toString(f.getRestOfFields())).append('\n');
+        }
+        return buffer.toString();
+    }
+
+    private static String queryZoom(BBFileReader reader, int level, String chr, int start, int end) {
+        StringBuilder buffer = new StringBuilder();
+        ZoomLevelIterator iter = reader.getZoomLevelIterator(level, chr, start, chr, end, false);
+        while (iter.hasNext()) {
+            ZoomDataRecord rec = iter.next();
+            buffer.append(rec.getChromStart()).append('-').append(rec.getChromEnd())
+                    .append(' ').append(rec.getMeanVal()).append('\n');
+        }
+        return buffer.toString();
+    }
+
+    private static int countWigItems(BBFileReader reader, String chr, int start, int end) {
+        int count = 0;
+        BigWigIterator iter = reader.getBigWigIterator(chr, start, chr, end, false);
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        return count;
+    }
+}
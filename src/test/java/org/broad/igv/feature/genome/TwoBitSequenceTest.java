@@ -0,0 +1,284 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.feature.genome;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.genome.fasta.FastaIndexedSequence;
+import org.broad.igv.feature.genome.fasta.FastaUtils;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TwoBitSequenceTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testMatchesFasta() throws Exception {
+
+        Map<String, String> sequences = randomSequences(new Random(1), 5, 10000);
+        FastaIndexedSequence fasta = new FastaIndexedSequence(writeFasta(sequences, "twobit_test.fa"));
+
+        for (ByteOrder order : Arrays.asList(ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN)) {
+            for (int version : new int[]{0, 1}) {
+
+                String path = TestUtils.TMP_OUTPUT_DIR + "twobit_test_" + order + "_" + version + ".2bit";
+                writeTwoBit(sequences, path, order, version);
+                TwoBitSequence twoBit = new TwoBitSequence(path);
+
+                assertEquals(new ArrayList<>(sequences.keySet()), twoBit.getChromosomeNames());
+
+                Random random = new Random(2);
+                for (String chr : sequences.keySet()) {
+                    String expected = sequences.get(chr);
+                    assertEquals(expected.length(), twoBit.getChromosomeLength(chr));
+                    assertEquals(expected, new String(twoBit.getSequence(chr, 0, expected.length(), false)));
+
+                    for (int i = 0; i < 200; i++) {
+                        int start = random.nextInt(expected.length());
+                        int end = Math.min(expected.length(), start + 1 + random.nextInt(500));
+                        String twoBitSeq = new String(twoBit.getSequence(chr, start, end, false));
+                        assertEquals(expected.substring(start, end), twoBitSeq);
+                        assertEquals(new String(fasta.getSequence(chr, start, end, false)), twoBitSeq);
+
+                        byte[] dest = new byte[end - start + 10];
+                        assertEquals(end - start, twoBit.getSequence(chr, start, end, dest, 5));
+                        assertEquals(twoBitSeq, new String(dest, 5, end - start));
+                        assertEquals(end - start, fasta.getSequence(chr, start, end, dest, 3));
+                        assertEquals(twoBitSeq, new String(dest, 3, end - start));
+                    }
+                    assertEquals(expected.charAt(17), (char) twoBit.getBase(chr, 17));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+
+        Map<String, String> sequences = new LinkedHashMap<>();
+        sequences.put("chr1", "ACGTNNNNacgtnnACG");
+        String path = TestUtils.TMP_OUTPUT_DIR + "twobit_bounds.2bit";
+        writeTwoBit(sequences, path, ByteOrder.LITTLE_ENDIAN, 0);
+        TwoBitSequence twoBit = new TwoBitSequence(path);
+
+        assertEquals("ACGTNNNNacgtnnACG", new String(twoBit.getSequence("chr1", -10, 100, false)));
+        assertEquals("Nacg", new String(twoBit.getSequence("chr1", 7, 11, false)));
+        assertNull(twoBit.getSequence("chr1", 17, 20, false));
+        assertNull(twoBit.getSequence("chrX", 0, 10, false));
+        assertEquals(0, twoBit.getChromosomeLength("chrX"));
+    }
+
+    /**
+     * Compare random access throughput with an indexed fasta of the same sequences,  returning new arrays and
+     * copying into a reused array.
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkRandomAccess() throws Exception {
+
+        Map<String, String> sequences = randomSequences(new Random(3), 4, 10000000);
+        String fastaPath = writeFasta(sequences, "twobit_benchmark.fa");
+        String twoBitPath = TestUtils.TMP_OUTPUT_DIR + "twobit_benchmark.2bit";
+        writeTwoBit(sequences, twoBitPath, ByteOrder.LITTLE_ENDIAN, 0);
+
+        System.out.println("File size: fasta " + new File(fastaPath).length() + " bytes, 2bit " +
+                new File(twoBitPath).length() + " bytes");
+
+        Sequence fasta = new FastaIndexedSequence(fastaPath);
+        Sequence twoBit = new TwoBitSequence(twoBitPath);
+        List<String> chrs = new ArrayList<>(sequences.keySet());
+
+        for (int queryLength : new int[]{100, 10000, 1000000}) {
+            int nQueries = 100000000 / queryLength / 10;
+            for (int pass = 0; pass < 2; pass++) {   // First pass warms up
+                long[] times = {
+                        time(fasta, chrs, queryLength, nQueries, false),
+                        time(fasta, chrs, queryLength, nQueries, true),
+                        time(twoBit, chrs, queryLength, nQueries, false),
+                        time(twoBit, chrs, queryLength, nQueries, true)};
+                if (pass == 1) {
+                    double mb = (double) nQueries * queryLength / 1000;
+                    System.out.println(String.format("%d queries of %d bp: fasta %d ms (%.1f Mb/s), into array %d ms " +
+                                    "(%.1f Mb/s); 2bit %d ms (%.1f Mb/s), into array %d ms (%.1f Mb/s)",
+                            nQueries, queryLength,
+                            times[0], mb / Math.max(1, times[0]), times[1], mb / Math.max(1, times[1]),
+                            times[2], mb / Math.max(1, times[2]), times[3], mb / Math.max(1, times[3])));
+                }
+            }
+        }
+    }
+
+    private static long time(Sequence sequence, List<String> chrs, int queryLength, int nQueries, boolean intoArray) {
+        Random random = new Random(4);
+        byte[] dest = new byte[queryLength];
+        long t0 = System.currentTimeMillis();
+        long total = 0;
+        for (int i = 0; i < nQueries; i++) {
+            String chr = chrs.get(random.nextInt(chrs.size()));
+            int start = random.nextInt(sequence.getChromosomeLength(chr) - queryLength);
+            total += intoArray ?
+                    sequence.getSequence(chr, start, start + queryLength, dest, 0) :
+                    sequence.getSequence(chr, start, start + queryLength, false).length;
+        }
+        assertEquals((long) nQueries * queryLength, total);
+        return System.currentTimeMillis() - t0;
+    }
+
+    /**
+     * Random sequences with runs of N and of soft-masked bases
+     */
+    private static Map<String, String> randomSequences(Random random, int count, int maxLength) {
+        Map<String, String> sequences = new LinkedHashMap<>();
+        char[] bases = {'A', 'C', 'G', 'T'};
+        for (int c = 0; c < count; c++) {
+            int length = maxLength / 2 + random.nextInt(maxLength / 2);
+            char[] seq = new char[length];
+            for (int i = 0; i < length; i++) {
+                seq[i] = bases[random.nextInt(4)];
+            }
+            for (int r = 0; r < length / 500; r++) {
+                int s = random.nextInt(length);
+                int e = Math.min(length, s + 1 + random.nextInt(100));
+                boolean n = random.nextBoolean();
+                for (int i = s; i < e; i++) {
+                    seq[i] = n ? 'N' : Character.toLowerCase(seq[i]);
+                }
+            }
+            sequences.put("chr" + (c + 1), new String(seq));
+        }
+        return sequences;
+    }
+
+    private static String writeFasta(Map<String, String> sequences, String name) throws IOException {
+        String path = TestUtils.TMP_OUTPUT_DIR + name;
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(path)))) {
+            for (Map.Entry<String, String> entry : sequences.entrySet()) {
+                pw.println(">" + entry.getKey());
+                String seq = entry.getValue();
+                for (int i = 0; i < seq.length(); i += 60) {
+                    pw.println(seq.substring(i, Math.min(seq.length(), i + 60)));
+                }
+            }
+        }
+        FastaUtils.createIndexFile(path, path + ".fai");
+        return path;
+    }
+
+    /**
+     * Write a .2bit file.  Version 1 files have 64-bit sequence offsets.
+     */
+    private static void writeTwoBit(Map<String, String> sequences, String path, ByteOrder order, int version) throws IOException {
+
+        int headerSize = 16;
+        for (String name : sequences.keySet()) {
+            headerSize += 1 + name.length() + (version == 1 ? 8 : 4);
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        for (String seq : sequences.values()) {
+            records.add(record(seq, order));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(order);
+        header.putInt(TwoBitSequence.SIGNATURE_LE);
+        header.putInt(version);
+        header.putInt(sequences.size());
+        header.putInt(0);
+        long offset = headerSize;
+        int i = 0;
+        for (String name : sequences.keySet()) {
+            header.put((byte) name.length());
+            header.put(name.getBytes());
+            if (version == 1) {
+                header.putLong(offset);
+            } else {
+                header.putInt((int) offset);
+            }
+            offset += records.get(i++).length;
+        }
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(path))) {
+            os.write(header.array());
+            for (byte[] record : records) {
+                os.write(record);
+            }
+        }
+    }
+
+    private static byte[] record(String seq, ByteOrder order) {
+
+        List<int[]> nBlocks = blocks(seq, true);
+        List<int[]> maskBlocks = blocks(seq, false);
+        int packedSize = (seq.length() + 3) / 4;
+
+        ByteBuffer bb = ByteBuffer.allocate(16 + 8 * (nBlocks.size() + maskBlocks.size()) + packedSize).order(order);
+        bb.putInt(seq.length());
+        bb.putInt(nBlocks.size());
+        for (int[] b : nBlocks) bb.putInt(b[0]);
+        for (int[] b : nBlocks) bb.putInt(b[1]);
+        bb.putInt(maskBlocks.size());
+        for (int[] b : maskBlocks) bb.putInt(b[0]);
+        for (int[] b : maskBlocks) bb.putInt(b[1]);
+        bb.putInt(0);
+
+        String upper = seq.toUpperCase();
+        for (int i = 0; i < packedSize; i++) {
+            int packed = 0;
+            for (int k = 0; k < 4; k++) {
+                int idx = 4 * i + k;
+                int code = idx < upper.length() ? Math.max(0, "TCAG".indexOf(upper.charAt(idx))) : 0;
+                packed = (packed << 2) | code;
+            }
+            bb.put((byte) packed);
+        }
+        return bb.array();
+    }
+
+    /**
+     * Runs of N (nBlocks == true) or of lower case bases,  as (start, size) pairs
+     */
+    private static List<int[]> blocks(String seq, boolean nBlocks) {
+        List<int[]> blocks = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= seq.length(); i++) {
+            boolean in = i < seq.length() &&
+                    (nBlocks ? Character.toUpperCase(seq.charAt(i)) == 'N' : Character.isLowerCase(seq.charAt(i)));
+            if (in && start < 0) {
+                start = i;
+            } else if (!in && start >= 0) {
+                blocks.add(new int[]{start, i - start});
+                start = -1;
+            }
+        }
+        return blocks;
+    }
+}
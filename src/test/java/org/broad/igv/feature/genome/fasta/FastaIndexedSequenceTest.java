@@ -118,6 +118,28 @@ public class FastaIndexedSequenceTest {
     }
 
 
+    @Test
+    public void testSequenceIntoArray() throws Exception {
+
+        String fasta = TestUtils.DATA_DIR + "fasta/ecoli_out.padded.fasta";
+        String chr = "NC_000913_bb";
+        FastaIndexedSequence sequence = new FastaIndexedSequence(fasta);
+        int length = sequence.getChromosomeLength(chr);
+        String all = new String(sequence.getSequence(chr, 0, length, false));
+        assertEquals(length, all.length());
+
+        byte[] dest = new byte[300];
+        for (int start = 0; start < length; start += 37) {
+            for (int len = 1; len < 200; len += 13) {
+                int end = Math.min(length, start + len);
+                int n = sequence.getSequence(chr, start, end, dest, 50);
+                assertEquals(end - start, n);
+                assertEquals(all.substring(start, end), new String(dest, 50, n));
+                assertEquals(all.substring(start, end), new String(sequence.getSequence(chr, start, end, false)));
+            }
+        }
+    }
+
     // TODO -- add some assertions, what are we testing?
     @Test
     public void testPaddedReference2() throws Exception {
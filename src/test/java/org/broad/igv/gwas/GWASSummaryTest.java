@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.gwas;
+
+import org.broad.igv.util.collections.DoubleArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GWASSummaryTest {
+
+    @Test
+    public void testLevels() throws Exception {
+
+        GWASData data = createData(new Random(5), new String[]{"chr1", "chr2"}, 20000, 50000000);
+        GWASSummary summary = data.getSummary();
+
+        for (String chr : data.getLocations().keySet()) {
+            IntArrayList locations = data.getLocations().get(chr);
+            DoubleArrayList values = data.getValues().get(chr);
+
+            List<GWASSummary.Level> levels = summary.getLevels(chr);
+            assertEquals(GWASSummary.MIN_BIN_SIZE, levels.get(0).getBinSize());
+            assertEquals(1, levels.get(levels.size() - 1).getBinCount());
+
+            for (GWASSummary.Level level : levels) {
+
+                // Brute force the point indexes of each bin
+                TreeMap<Long, List<Integer>> bins = new TreeMap<>();
+                for (int i = 0; i < locations.size(); i++) {
+                    long bin = locations.get(i) / level.getBinSize();
+                    bins.computeIfAbsent(bin, k -> new ArrayList<>()).add(i);
+                }
+
+                assertEquals(bins.size(), level.getBinCount());
+                int b = 0;
+                for (Map.Entry<Long, List<Integer>> entry : bins.entrySet()) {
+                    List<Integer> indexes = entry.getValue();
+                    assertEquals(entry.getKey() * level.getBinSize(), level.getBinStart(b));
+                    assertEquals(indexes.size(), level.getCount(b));
+
+                    List<Double> expectedValues = new ArrayList<>();
+                    for (int i : indexes) expectedValues.add(values.get(i));
+                    expectedValues.sort(Collections.reverseOrder());
+                    assertEquals(expectedValues.get(expectedValues.size() - 1), level.getMinValue(b), 0);
+
+                    int nTop = Math.min(GWASSummary.TOP_K, indexes.size());
+                    List<Double> topValues = new ArrayList<>();
+                    int lastIndex = -1;
+                    for (int t = 0; t < GWASSummary.TOP_K; t++) {
+                        int index = level.getPoint(b, t);
+                        if (t >= nTop) {
+                            assertEquals(-1, index);
+                            continue;
+                        }
+                        assertTrue(indexes.contains(index));
+                        assertTrue("Top points should be ordered by location", index > lastIndex);
+                        lastIndex = index;
+                        topValues.add(values.get(index));
+                    }
+                    topValues.sort(Collections.reverseOrder());
+                    assertEquals(expectedValues.subList(0, nTop), topValues);
+                    b++;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetLevel() throws Exception {
+
+        GWASData data = createData(new Random(7), new String[]{"chr1"}, 1000, 10000000);
+        GWASSummary summary = data.getSummary();
+
+        assertNull(summary.getLevel("chr1", GWASSummary.MIN_BIN_SIZE - 1));
+        assertNull(summary.getLevel("chrX", 1000000));
+        assertEquals(GWASSummary.MIN_BIN_SIZE, summary.getLevel("chr1", GWASSummary.MIN_BIN_SIZE).getBinSize());
+        assertEquals(GWASSummary.MIN_BIN_SIZE, summary.getLevel("chr1", GWASSummary.MIN_BIN_SIZE * 3).getBinSize());
+        assertEquals(GWASSummary.MIN_BIN_SIZE * 4, summary.getLevel("chr1", GWASSummary.MIN_BIN_SIZE * 4).getBinSize());
+
+        // Coarser than the coarsest level
+        List<GWASSummary.Level> levels = summary.getLevels("chr1");
+        assertSame(levels.get(levels.size() - 1), summary.getLevel("chr1", 1e12));
+
+        GWASSummary.Level level = summary.getLevel("chr1", 100000);
+        for (long position : new long[]{-5, 0, 1234567, 5000000, 9999999, 20000000}) {
+            int b = level.findBin(position);
+            if (b < level.getBinCount()) {
+                assertTrue(level.getBinStart(b) + level.getBinSize() > position);
+            }
+            if (b > 0) {
+                assertTrue(level.getBinStart(b - 1) + level.getBinSize() <= position);
+            }
+        }
+    }
+
+    @Test
+    public void testFindFirstIndex() throws Exception {
+        IntArrayList locations = new IntArrayList(new int[]{10, 20, 20, 30});
+        assertEquals(0, GWASTrack.findFirstIndex(locations, -100));
+        assertEquals(0, GWASTrack.findFirstIndex(locations, 10));
+        assertEquals(1, GWASTrack.findFirstIndex(locations, 10.5));
+        assertEquals(1, GWASTrack.findFirstIndex(locations, 20));
+        assertEquals(3, GWASTrack.findFirstIndex(locations, 21));
+        assertEquals(4, GWASTrack.findFirstIndex(locations, 31));
+    }
+
+    /**
+     * Compare the number of points drawn for a whole genome view of a genome wide study.
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkSummary() throws Exception {
+
+        String[] chrs = new String[22];
+        for (int i = 0; i < chrs.length; i++) chrs[i] = "chr" + (i + 1);
+        int pointsPerChr = 500000;
+        GWASData data = createData(new Random(11), chrs, pointsPerChr, 150000000);
+
+        long t0 = System.currentTimeMillis();
+        GWASSummary summary = new GWASSummary(data);
+        long dt = System.currentTimeMillis() - t0;
+
+        // ~3 Gb over 1000 pixels
+        double bpPerPixel = 3000000;
+        int drawn = 0;
+        for (String chr : chrs) {
+            GWASSummary.Level level = summary.getLevel(chr, bpPerPixel);
+            for (int b = 0; b < level.getBinCount(); b++) {
+                drawn += Math.min(GWASSummary.TOP_K, level.getCount(b));
+            }
+        }
+        System.out.println("Summary of " + (chrs.length * pointsPerChr) + " points built in " + dt + " ms, " +
+                drawn + " points drawn in whole genome view");
+    }
+
+    private static GWASData createData(Random random, String[] chrs, int pointsPerChr, int chrLength) {
+        GWASData data = new GWASData();
+        for (String chr : chrs) {
+            int[] locations = new int[pointsPerChr];
+            for (int i = 0; i < pointsPerChr; i++) {
+                locations[i] = random.nextInt(chrLength);
+            }
+            Arrays.sort(locations);
+            IntArrayList locationList = new IntArrayList(pointsPerChr);
+            DoubleArrayList valueList = new DoubleArrayList(pointsPerChr);
+            for (int location : locations) {
+                locationList.add(location);
+                // Mostly insignificant p values, -log10 rounded to produce ties
+                valueList.add(Math.round(-Math.log10(random.nextDouble()) * 10) / 10.0);
+            }
+            data.addLocations(chr, locationList);
+            data.addValues(chr, valueList);
+        }
+        return data;
+    }
+}
@@ -27,6 +27,7 @@ package org.broad.igv.sam;
 
 import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.Range;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.reader.AlignmentReader;
@@ -96,6 +97,74 @@ public class AlignmentDataManagerTest extends AbstractHeadlessTest {
 //
 //    }
 
+    @Test
+    public void testIntervalCacheEvictsLeastRecentlyUsed() throws Exception {
+
+        AlignmentInterval a = createEmptyInterval("chr1", 0, 1000);
+        AlignmentInterval b = createEmptyInterval("chr1", 5000, 6000);
+        AlignmentInterval c = createEmptyInterval("chr1", 10000, 11000);
+
+        // Budget for 2 of the 3 intervals
+        AlignmentDataManager.IntervalCache cache = new AlignmentDataManager.IntervalCache(2 * a.getSizeInBytes() + 1);
+        cache.add(a);
+        cache.add(b);
+        Assert.assertSame(a, cache.fetch(new Range("chr1", 100, 200)));
+        cache.add(c);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertNull(cache.fetch(new Range("chr1", 5100, 5200)));
+        Assert.assertSame(a, cache.getIntervalForRange(new Range("chr1", 100, 200)));
+        Assert.assertSame(c, cache.getIntervalForRange(new Range("chr1", 10100, 10200)));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(a.getSizeInBytes() + c.getSizeInBytes(), cache.getSizeInBytes());
+    }
+
+    @Test
+    public void testIntervalCacheKeepsIntervalsInView() throws Exception {
+
+        AlignmentInterval a = createEmptyInterval("chr1", 0, 1000);
+        AlignmentInterval b = createEmptyInterval("chr1", 5000, 6000);
+        AlignmentInterval c = createEmptyInterval("chr1", 10000, 11000);
+
+        // Budget for 1 interval,  but a is in view
+        AlignmentDataManager.IntervalCache cache =
+                new AlignmentDataManager.IntervalCache(a.getSizeInBytes() + 1, "Alignments", interval -> interval == a);
+        cache.add(a);
+        cache.add(b);
+        cache.add(c);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(a, cache.getIntervalForRange(new Range("chr1", 100, 200)));
+        Assert.assertSame(c, cache.getIntervalForRange(new Range("chr1", 10100, 10200)));
+        Assert.assertEquals(a.getSizeInBytes() + c.getSizeInBytes(), cache.getSizeInBytes());
+    }
+
+    @Test
+    public void testIntervalCacheTrimKeepsIntervalsInView() throws Exception {
+
+        AlignmentInterval a = createEmptyInterval("chr1", 0, 1000);
+        AlignmentInterval b = createEmptyInterval("chr1", 5000, 6000);
+        AlignmentInterval c = createEmptyInterval("chr1", 10000, 11000);
+
+        AlignmentDataManager.IntervalCache cache =
+                new AlignmentDataManager.IntervalCache(Long.MAX_VALUE, "Alignments", interval -> interval == a);
+        cache.add(a);
+        cache.add(b);
+        cache.add(c);
+
+        // Only b can be freed
+        Assert.assertEquals(b.getSizeInBytes(), cache.trim(Long.MAX_VALUE));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(a.getSizeInBytes() + c.getSizeInBytes(), cache.getSizeInBytes());
+    }
+
+    private static AlignmentInterval createEmptyInterval(String chr, int start, int end) {
+        return new AlignmentInterval(chr, start, end, new ArrayList<>(), new DenseAlignmentCounts(start, end, null),
+                null, new ArrayList<>());
+    }
+
     private static void assertManagerHasInterval(AlignmentDataManager manager, ReferenceFrame frame, String chr, int start, int end) {
 
         AlignmentInterval interval = manager.getLoadedInterval(frame);
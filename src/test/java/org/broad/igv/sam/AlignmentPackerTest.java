@@ -30,14 +30,23 @@
 
 package org.broad.igv.sam;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.Range;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
 
 import java.util.*;
 
@@ -119,4 +128,324 @@ public class AlignmentPackerTest extends AbstractHeadlessTest {
     }
 
 
+    /**
+     * Rows must match the reference layout:  each row filled from left to right with the first alignment,  in order of
+     * start,  that fits.
+     */
+    @Test
+    public void testPackMatchesGreedyRows() throws Exception {
+
+        List<Alignment> alignments = createAlignments(5000, 4, 3);
+        AlignmentInterval interval = createInterval(alignments);
+
+        Map<String, List<Row>> result = (new AlignmentPacker()).packAlignments(interval, new AlignmentTrack.RenderOptions());
+        assertEquals(1, result.size());
+        assertRowsEqual(greedyRows(alignments), result.get(""));
+    }
+
+    /**
+     * Repacking one interval with a sequence of options must give the same rows as packing with a fresh packer
+     */
+    @Test
+    public void testRepackWithCachedKeys() throws Exception {
+
+        List<Alignment> alignments = createAlignments(5000, 6, 5);
+        AlignmentInterval interval = createInterval(alignments);
+        AlignmentPacker packer = new AlignmentPacker();
+
+        AlignmentTrack.GroupOption[] options = {AlignmentTrack.GroupOption.SAMPLE, AlignmentTrack.GroupOption.STRAND,
+                AlignmentTrack.GroupOption.NONE, AlignmentTrack.GroupOption.SAMPLE, AlignmentTrack.GroupOption.LIBRARY};
+
+        for (boolean viewPairs : new boolean[]{false, true}) {
+            for (AlignmentTrack.GroupOption option : options) {
+                AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+                renderOptions.setGroupByOption(option);
+                renderOptions.setViewPairs(viewPairs);
+
+                Map<String, List<Row>> expected = (new AlignmentPacker()).packAlignments(interval, renderOptions);
+                Map<String, List<Row>> result = packer.packAlignments(interval, renderOptions);
+
+                assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(result.keySet()));
+                int count = 0;
+                for (String key : expected.keySet()) {
+                    assertSameLayout(expected.get(key), result.get(key));
+                    for (Row row : result.get(key)) {
+                        count += row.alignments.size();
+                    }
+                }
+                if (viewPairs) {
+                    assertTrue(count < alignments.size());
+                } else {
+                    assertEquals(alignments.size(), count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Alignments loaded again when the view is extended must keep their rows from the overlapping interval.  Rows
+     * left empty are removed,  so rows must keep their order rather than their index.
+     */
+    @Test
+    public void testExtendedIntervalKeepsRows() throws Exception {
+
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        renderOptions.setViewPairs(false);
+
+        AlignmentInterval interval = createInterval(createAlignments(6000, 1, 7).subList(0, 4000));
+        interval.packAlignments(renderOptions);
+        List<Row> rows = interval.getPackedAlignments().get("");
+        Map<String, Integer> rowIndex = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            for (Alignment a : rows.get(i).alignments) {
+                rowIndex.put(a.getReadName() + a.isFirstOfPair(), i);
+            }
+        }
+
+        // A load creates new alignment objects for the same records
+        List<Alignment> reloaded = createAlignments(6000, 1, 7).subList(2000, 6000);
+        AlignmentInterval extended = createInterval(reloaded);
+        extended.setPreviousPacking(interval);
+        extended.packAlignments(renderOptions);
+        List<Row> extendedRows = extended.getPackedAlignments().get("");
+
+        Set<Alignment> carried = Collections.newSetFromMap(new IdentityHashMap<>());
+        carried.addAll(reloaded.subList(0, 2000));
+        TreeMap<Integer, Integer> rowMap = new TreeMap<>();
+        int count = 0;
+        for (int i = 0; i < extendedRows.size(); i++) {
+            List<Alignment> row = extendedRows.get(i).alignments;
+            assertTrue(row.size() > 0);
+            for (int j = 0; j < row.size(); j++) {
+                Alignment a = row.get(j);
+                if (j > 0) {
+                    assertTrue(a.getStart() >= row.get(j - 1).getEnd() + AlignmentPacker.MIN_ALIGNMENT_SPACING);
+                }
+                if (carried.contains(a)) {
+                    Integer previousRow = rowIndex.get(a.getReadName() + a.isFirstOfPair());
+                    Integer mappedRow = rowMap.put(previousRow, i);
+                    assertTrue(mappedRow == null || mappedRow == i);
+                }
+                count++;
+            }
+        }
+        assertEquals(reloaded.size(), count);
+
+        int lastRow = -1;
+        for (int row : rowMap.values()) {
+            assertTrue(row > lastRow);
+            lastRow = row;
+        }
+        assertTrue(rowMap.size() > 1);
+    }
+
+    /**
+     * Haplotype names are reassigned by clustering,  so repacking by haplotype must not reuse cached keys
+     */
+    @Test
+    public void testRepackByHaplotype() throws Exception {
+
+        List<Alignment> alignments = createAlignments(2000, 2, 3);
+        AlignmentInterval interval = createInterval(alignments);
+        AlignmentPacker packer = new AlignmentPacker();
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        renderOptions.setGroupByOption(AlignmentTrack.GroupOption.HAPLOTYPE);
+        renderOptions.setViewPairs(false);
+
+        for (Alignment alignment : alignments) {
+            alignment.setHaplotypeName("H1");
+        }
+        assertEquals(Arrays.asList("H1"), new ArrayList<>(packer.packAlignments(interval, renderOptions).keySet()));
+
+        for (Alignment alignment : alignments) {
+            alignment.setHaplotypeName("H2");
+        }
+        assertEquals(Arrays.asList("H2"), new ArrayList<>(packer.packAlignments(interval, renderOptions).keySet()));
+    }
+
+    /**
+     * Grouped packing on several threads must give the same groups,  in the same order,  as packing on one thread
+     */
+    @Test
+    public void testParallelGroupedPackMatchesSerial() throws Exception {
+
+        List<Alignment> alignments = createAlignments(60000, 12, 11);
+        AlignmentInterval interval = createInterval(alignments);
+
+        String oldThreads = PreferencesManager.getPreferences().get(Constants.SAM_PACK_THREADS);
+        try {
+            for (AlignmentTrack.GroupOption option : new AlignmentTrack.GroupOption[]{AlignmentTrack.GroupOption.SAMPLE,
+                    AlignmentTrack.GroupOption.TAG, AlignmentTrack.GroupOption.STRAND}) {
+                AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+                renderOptions.setGroupByOption(option);
+                renderOptions.setGroupByTag("HP");
+                renderOptions.setViewPairs(option == AlignmentTrack.GroupOption.SAMPLE);
+
+                PreferencesManager.getPreferences().put(Constants.SAM_PACK_THREADS, "1");
+                Map<String, List<Row>> expected = (new AlignmentPacker()).packAlignments(interval, renderOptions);
+
+                PreferencesManager.getPreferences().put(Constants.SAM_PACK_THREADS, "4");
+                Map<String, List<Row>> result = (new AlignmentPacker()).packAlignments(interval, renderOptions);
+
+                assertTrue(expected.size() > 1);
+                assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(result.keySet()));
+                for (String key : expected.keySet()) {
+                    assertSameLayout(expected.get(key), result.get(key));
+                }
+            }
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.SAM_PACK_THREADS, oldThreads);
+        }
+    }
+
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkPackAlignments() throws Exception {
+
+        List<Alignment> alignments = createAlignments(1000000, 24, 7);
+        AlignmentInterval interval = createInterval(alignments);
+        System.out.println("Pack threads = " + PreferencesManager.getPreferences().getAsInt(Constants.SAM_PACK_THREADS));
+
+        for (AlignmentTrack.GroupOption option : AlignmentTrack.GroupOption.values()) {
+            AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+            renderOptions.setGroupByOption(option);
+            renderOptions.setGroupByTag("HP");
+            renderOptions.setGroupByPos(new Range("chr1", 100000, 100001));
+
+            AlignmentPacker packer = new AlignmentPacker();
+            long t0 = System.nanoTime();
+            PackedAlignments packed = packer.packAlignments(interval, renderOptions);
+            long first = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            packer.packAlignments(interval, renderOptions);
+            long repack = System.nanoTime() - t0;
+
+            System.out.println(option + "\tgroups = " + packed.size() + "\trows = " + packed.getNLevels() +
+                    "\tpack = " + (first / 1000000) + " ms\trepack = " + (repack / 1000000) + " ms");
+        }
+    }
+
+    /**
+     * Create paired alignments,  sorted by start,  over nSamples read groups
+     */
+    static List<Alignment> createAlignments(int nAlignments, int nSamples, long seed) {
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 250000000));
+        for (int i = 0; i < nSamples; i++) {
+            SAMReadGroupRecord rg = new SAMReadGroupRecord("rg" + i);
+            rg.setSample("sample" + i);
+            rg.setLibrary("library" + (i % 3));
+            header.addReadGroup(rg);
+        }
+
+        int readLength = 100;
+        byte[] bases = new byte[readLength];
+        byte[] quals = new byte[readLength];
+        Arrays.fill(bases, (byte) 'A');
+        Arrays.fill(quals, (byte) 30);
+
+        Random random = new Random(seed);
+        List<SAMRecord> records = new ArrayList<>(nAlignments);
+        int pos = 1000;
+        for (int i = 0; i < nAlignments / 2; i++) {
+            pos += random.nextInt(3);
+            int mateStart = pos + random.nextInt(400);
+            String rg = "rg" + random.nextInt(nSamples);
+            int hp = random.nextInt(3);
+            boolean negative = random.nextBoolean();
+            records.add(createRecord(header, "read" + i, rg, hp, pos, mateStart, true, negative, bases, quals));
+            records.add(createRecord(header, "read" + i, rg, hp, mateStart, pos, false, !negative, bases, quals));
+        }
+        records.sort(Comparator.comparingInt(SAMRecord::getAlignmentStart));
+
+        List<Alignment> alignments = new ArrayList<>(records.size());
+        for (SAMRecord record : records) {
+            alignments.add(new PicardAlignment(record));
+        }
+        return alignments;
+    }
+
+    private static SAMRecord createRecord(SAMFileHeader header, String name, String rg, int hp, int start, int mateStart,
+                                          boolean first, boolean negative, byte[] bases, byte[] quals) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(name);
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(start);
+        record.setCigarString(bases.length + "M");
+        record.setReadBases(bases);
+        record.setBaseQualities(quals);
+        record.setMappingQuality(60);
+        record.setReadPairedFlag(true);
+        record.setFirstOfPairFlag(first);
+        record.setSecondOfPairFlag(!first);
+        record.setReadNegativeStrandFlag(negative);
+        record.setMateReferenceName("chr1");
+        record.setMateAlignmentStart(mateStart);
+        record.setMateNegativeStrandFlag(!negative);
+        record.setInferredInsertSize(first ? mateStart + bases.length - start : start - mateStart - bases.length);
+        record.setAttribute("RG", rg);
+        record.setAttribute("HP", hp);
+        return record;
+    }
+
+    private static AlignmentInterval createInterval(List<Alignment> alignments) {
+        int end = 0;
+        for (Alignment a : alignments) {
+            end = Math.max(end, a.getEnd());
+        }
+        return new AlignmentInterval("chr1", alignments.get(0).getStart(), end, alignments, null, null, null);
+    }
+
+    /**
+     * Reference packing:  fill one row at a time,  scanning the alignments in order of start (longest first for equal
+     * starts) for the next that fits.
+     */
+    private static List<List<Alignment>> greedyRows(List<Alignment> alignments) {
+        List<Alignment> remaining = new ArrayList<>(alignments);
+        remaining.sort((a1, a2) -> a1.getStart() != a2.getStart() ?
+                Integer.compare(a1.getStart(), a2.getStart()) : Integer.compare(a2.getEnd(), a1.getEnd()));
+
+        List<List<Alignment>> rows = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            List<Alignment> row = new ArrayList<>();
+            List<Alignment> next = new ArrayList<>();
+            int nextStart = Integer.MIN_VALUE;
+            for (Alignment a : remaining) {
+                if (a.getStart() >= nextStart) {
+                    row.add(a);
+                    nextStart = a.getEnd() + AlignmentPacker.MIN_ALIGNMENT_SPACING;
+                } else {
+                    next.add(a);
+                }
+            }
+            rows.add(row);
+            remaining = next;
+        }
+        return rows;
+    }
+
+    private static void assertRowsEqual(List<List<Alignment>> expected, List<Row> rows) {
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(expected.get(i), rows.get(i).alignments);
+        }
+    }
+
+    /**
+     * Compare row layouts by alignment position,  paired alignments are new objects on each pack
+     */
+    private static void assertSameLayout(List<Row> expected, List<Row> rows) {
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            List<Alignment> e = expected.get(i).alignments;
+            List<Alignment> r = rows.get(i).alignments;
+            assertEquals(e.size(), r.size());
+            for (int j = 0; j < e.size(); j++) {
+                assertEquals(e.get(j).getStart(), r.get(j).getStart());
+                assertEquals(e.get(j).getEnd(), r.get(j).getEnd());
+            }
+        }
+    }
+
 }
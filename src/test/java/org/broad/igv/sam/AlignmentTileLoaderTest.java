@@ -90,6 +90,53 @@ public class AlignmentTileLoaderTest extends AbstractHeadlessTest {
 
     }
 
+    /**
+     * Test that parallel (sharded) loading produces the same alignments, in the same order, as serial loading.
+     * The range is chosen so a shard boundary falls within the reads of the test file.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testParallelLoadMatchesSerial() throws Exception {
+        final String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String sequence = "chr22";
+        int start = 24296300;
+        int end = 24456300;
+
+        String oldThreads = PreferencesManager.getPreferences().get(Constants.SAM_LOADER_THREADS);
+        try {
+            AlignmentDataManager.DownsampleOptions downsampleOptions = new AlignmentDataManager.DownsampleOptions(false, 50, 100);
+            final ResourceLocator loc = new ResourceLocator(path);
+
+            PreferencesManager.getPreferences().put(Constants.SAM_LOADER_THREADS, "1");
+            AlignmentTileLoader serialLoader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(loc));
+            AlignmentTileLoader.AlignmentTile serialTile = serialLoader.loadTile(sequence, start, end, null, downsampleOptions, null, null, null);
+
+            PreferencesManager.getPreferences().put(Constants.SAM_LOADER_THREADS, "4");
+            AlignmentTileLoader parallelLoader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(loc),
+                    () -> AlignmentReaderFactory.getReader(loc));
+            AlignmentTileLoader.AlignmentTile parallelTile = parallelLoader.loadTile(sequence, start, end, null, downsampleOptions, null, null, null);
+
+            List<Alignment> expected = serialTile.getAlignments();
+            List<Alignment> actual = parallelTile.getAlignments();
+            assertTrue(expected.size() > 0);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getReadName(), actual.get(i).getReadName());
+                assertEquals(expected.get(i).getAlignmentStart(), actual.get(i).getAlignmentStart());
+            }
+
+            for (int pos = start; pos < end; pos++) {
+                assertEquals(serialTile.getCounts().getTotalCount(pos), parallelTile.getCounts().getTotalCount(pos));
+            }
+
+            serialLoader.close();
+            parallelLoader.close();
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.SAM_LOADER_THREADS, oldThreads);
+        }
+    }
+
     private AlignmentTileLoader.AlignmentTile tstKeepPairsDownsample(String path, String sequence, int start, int end, int maxDepth) throws Exception{
 
 
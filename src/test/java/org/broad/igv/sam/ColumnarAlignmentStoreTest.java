@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ColumnarAlignmentStoreTest extends AbstractHeadlessTest {
+
+    /**
+     * Packed alignments must report the same values as the alignments they were built from
+     */
+    @Test
+    public void testPackedAlignmentsMatchSource() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+
+        List<Alignment> alignments = new ArrayList<>();
+        AlignmentReader reader = AlignmentReaderFactory.getReader(path, true);
+        CloseableIterator<Alignment> iter = reader.query(chr, 24296300, 24456300, false);
+        while (iter.hasNext()) {
+            Alignment a = iter.next();
+            if (a.isMapped()) alignments.add(a);
+        }
+        iter.close();
+        reader.close();
+        assertTrue(alignments.size() > 0);
+
+        List<Alignment> packed = ColumnarAlignmentStore.pack(chr, alignments);
+        assertEquals(alignments.size(), packed.size());
+
+        for (int i = 0; i < alignments.size(); i++) {
+            Alignment a = alignments.get(i);
+            Alignment p = packed.get(i);
+            assertEquals(a.getReadName(), p.getReadName());
+            assertEquals(a.getStart(), p.getStart());
+            assertEquals(a.getEnd(), p.getEnd());
+            assertEquals(a.getAlignmentStart(), p.getAlignmentStart());
+            assertEquals(a.getCigarString(), p.getCigarString());
+            assertEquals(a.getReadSequence(), p.getReadSequence());
+            assertEquals(a.getMappingQuality(), p.getMappingQuality());
+            assertEquals(a.isNegativeStrand(), p.isNegativeStrand());
+            assertEquals(a.isPaired(), p.isPaired());
+            assertEquals(a.isDuplicate(), p.isDuplicate());
+            assertEquals(a.getReadGroup(), p.getReadGroup());
+            assertEquals(a.getPairOrientation(), p.getPairOrientation());
+            assertEquals(a.getAttribute("NM"), p.getAttribute("NM"));
+
+            AlignmentBlock[] ab = a.getAlignmentBlocks();
+            AlignmentBlock[] pb = p.getAlignmentBlocks();
+            assertEquals(ab.length, pb.length);
+            for (int j = 0; j < ab.length; j++) {
+                assertEquals(ab[j].getStart(), pb[j].getStart());
+                assertEquals(ab[j].getLength(), pb[j].getLength());
+                assertArrayEquals(ab[j].getBases(), pb[j].getBases());
+                assertArrayEquals(ab[j].getQualities(), pb[j].getQualities());
+            }
+
+            // Block views are decoded on each request,  not retained by the alignment
+            AlignmentBlock[] pb2 = p.getAlignmentBlocks();
+            assertNotSame(pb, pb2);
+            assertEquals(pb[0], pb2[0]);
+            if (pb[0].hasBases()) assertNotSame(pb[0].getBases(), pb2[0].getBases());
+
+            AlignmentBlock[] ai = a.getInsertions();
+            if (ai != null) {
+                for (AlignmentBlock insertion : ai) {
+                    AlignmentBlock pi = p.getInsertionAt(insertion.getStart());
+                    assertNotNull(pi);
+                    assertArrayEquals(insertion.getBases(), pi.getBases());
+                }
+            }
+
+            int mid = (a.getAlignmentStart() + a.getAlignmentEnd()) / 2;
+            assertEquals(a.getBase(mid), p.getBase(mid));
+            assertEquals(a.getPhred(mid), p.getPhred(mid));
+            assertEquals(a.getValueString(mid, -1, null), p.getValueString(mid, -1, null));
+            assertEquals(a.getClipboardString(mid, -1), p.getClipboardString(mid, -1));
+        }
+
+        // Haplotype labels are set after packing
+        Alignment p = packed.get(0);
+        assertNull(p.getHaplotypeName());
+        p.setHaplotypeName("1");
+        p.setHapDistance(3);
+        assertEquals("1", p.getHaplotypeName());
+        assertEquals(3, p.getHapDistance());
+        assertNull(packed.get(1).getHaplotypeName());
+    }
+
+    /**
+     * Tag values must keep their types
+     */
+    @Test
+    public void testTagTypes() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(path, true);
+        CloseableIterator<Alignment> iter = reader.query(chr, 24296300, 24456300, false);
+        PicardAlignment a = (PicardAlignment) iter.next();
+        iter.close();
+        reader.close();
+
+        SAMRecord record = a.getRecord();
+        record.setAttribute("XF", 1.5f);
+        record.setAttribute("XA", 'c');
+        record.setAttribute("XZ", "text");
+        record.setAttribute("XI", new int[]{1, -2, 3});
+        record.setAttribute("XS", new short[]{4, 5});
+        record.setAttribute("XR", new float[]{0.5f, 2});
+        record.setUnsignedArrayAttribute("XB", new byte[]{1, (byte) 200});
+
+        List<Alignment> alignments = new ArrayList<>();
+        alignments.add(a);
+        Alignment p = ColumnarAlignmentStore.pack(chr, alignments).get(0);
+
+        for (SAMRecord.SAMTagAndValue tv : record.getAttributes()) {
+            Object expected = tv.value;
+            Object value = p.getAttribute(tv.tag);
+            assertNotNull(tv.tag, value);
+            assertEquals(tv.tag, expected.getClass(), value.getClass());
+            if (expected instanceof int[]) {
+                assertArrayEquals((int[]) expected, (int[]) value);
+            } else if (expected instanceof short[]) {
+                assertArrayEquals((short[]) expected, (short[]) value);
+            } else if (expected instanceof byte[]) {
+                assertArrayEquals((byte[]) expected, (byte[]) value);
+            } else if (expected instanceof float[]) {
+                assertArrayEquals((float[]) expected, (float[]) value, 0);
+            } else {
+                assertEquals(tv.tag, expected, value);
+            }
+        }
+        assertNull(p.getAttribute("ZZ"));
+
+        int mid = (a.getAlignmentStart() + a.getAlignmentEnd()) / 2;
+        assertEquals(a.getValueString(mid, -1, null), p.getValueString(mid, -1, null));
+    }
+}
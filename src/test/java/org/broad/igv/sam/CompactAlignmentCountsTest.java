@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactAlignmentCountsTest extends AbstractHeadlessTest {
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T', 'N', 'a', 'c', 'g', 't', 'n', 'R'};
+
+    /**
+     * Random counts,  including depths that overflow the 16-bit counters,  must match DenseAlignmentCounts
+     */
+    @Test
+    public void testMatchesDenseCounts() throws Exception {
+
+        int start = 1000;
+        int end = 1500;
+        DenseAlignmentCounts dense = new DenseAlignmentCounts(start, end, null);
+        CompactAlignmentCounts compact = new CompactAlignmentCounts(start, end, null);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            // Concentrate counts on a few positions to force overflow of the quality sums
+            int pos = i % 3 == 0 ? start + 10 : start - 5 + random.nextInt(end - start + 10);
+            byte b = BASES[random.nextInt(BASES.length)];
+            byte q = (byte) random.nextInt(60);
+            boolean neg = random.nextBoolean();
+            dense.incPositionCount(pos, b, q, neg);
+            compact.incPositionCount(pos, b, q, neg);
+            if (i % 10 == 0) {
+                dense.incrementDeletion(pos, neg);
+                compact.incrementDeletion(pos, neg);
+                AlignmentBlock ins = new AlignmentBlockImpl(pos, new byte[]{'A'}, new byte[]{30});
+                dense.incrementInsertion(ins);
+                compact.incrementInsertion(ins);
+            }
+        }
+
+        assertTrue(compact.getOverflowCount() > 0);
+
+        for (int pos = start - 1; pos <= end; pos++) {
+            assertEquals(dense.getTotalCount(pos), compact.getTotalCount(pos));
+            assertEquals(dense.getTotalQuality(pos), compact.getTotalQuality(pos));
+            assertEquals(dense.getDelCount(pos), compact.getDelCount(pos));
+            assertEquals(dense.getInsCount(pos), compact.getInsCount(pos));
+            for (char c : BaseAlignmentCounts.nucleotides) {
+                byte b = (byte) c;
+                assertEquals(dense.getCount(pos, b), compact.getCount(pos, b));
+                assertEquals(dense.getPosCount(pos, b), compact.getPosCount(pos, b));
+                assertEquals(dense.getNegCount(pos, b), compact.getNegCount(pos, b));
+                if (pos >= start && pos < end) {
+                    assertEquals(dense.getQuality(pos, b), compact.getQuality(pos, b));
+                }
+            }
+        }
+        for (int s = start; s < end; s += 37) {
+            assertEquals(dense.getMaxCount(s, s + 150), compact.getMaxCount(s, s + 150));
+        }
+    }
+
+    @Test
+    public void testFootprint() throws Exception {
+        DenseAlignmentCounts dense = new DenseAlignmentCounts(0, 100000, null);
+        CompactAlignmentCounts compact = new CompactAlignmentCounts(0, 100000, null);
+        assertTrue(compact.getSizeInBytes() * 2 <= dense.getSizeInBytes() + 1000);
+    }
+
+    /**
+     * Compare block counting throughput and footprint of the dense and compact implementations
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkIncCounts() throws Exception {
+
+        int start = 0;
+        int end = 1000000;
+        int readLength = 150;
+        int nReads = 200000;
+
+        Random random = new Random(13);
+        AlignmentBlock[] blocks = new AlignmentBlock[nReads];
+        for (int i = 0; i < nReads; i++) {
+            byte[] bases = new byte[readLength];
+            byte[] quals = new byte[readLength];
+            for (int j = 0; j < readLength; j++) {
+                bases[j] = BASES[random.nextInt(4)];
+                quals[j] = (byte) (20 + random.nextInt(20));
+            }
+            blocks[i] = new AlignmentBlockImpl(random.nextInt(end - readLength), bases, quals);
+        }
+
+        for (int rep = 0; rep < 3; rep++) {
+            DenseAlignmentCounts dense = new DenseAlignmentCounts(start, end, null);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < nReads; i++) {
+                dense.incBlockCounts(blocks[i], (i & 1) == 0);
+            }
+            long denseTime = System.nanoTime() - t0;
+
+            CompactAlignmentCounts compact = new CompactAlignmentCounts(start, end, null);
+            t0 = System.nanoTime();
+            for (int i = 0; i < nReads; i++) {
+                compact.incBlockCounts(blocks[i], (i & 1) == 0);
+            }
+            long compactTime = System.nanoTime() - t0;
+
+            System.out.println("Dense:   " + (denseTime / 1000000) + " ms,  " + dense.getSizeInBytes() / 1000000 + " MB");
+            System.out.println("Compact: " + (compactTime / 1000000) + " ms,  " + compact.getSizeInBytes() / 1000000 + " MB");
+        }
+    }
+}
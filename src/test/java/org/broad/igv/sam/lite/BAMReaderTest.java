@@ -2,9 +2,16 @@ package org.broad.igv.sam.lite;
 
 import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.sam.Alignment;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
 import java.util.*;
 
 import static junit.framework.Assert.assertEquals;
@@ -69,4 +76,137 @@ public class BAMReaderTest {
 
 
     }
+
+    /**
+     * Alignments from the lite reader must match those from the htsjdk backed reader
+     */
+    @Test
+    public void testMatchesHtsjdkReader() throws Exception {
+
+        String bamPath = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+        int beg = 24375199;
+        int end = 24378544;
+
+        BAMReader liteReader = new BAMReader(bamPath, bamPath + ".bai", null);
+        org.broad.igv.sam.reader.BAMReader htsjdkReader =
+                new org.broad.igv.sam.reader.BAMReader(new ResourceLocator(bamPath), true);
+
+        List<Alignment> expected = readAll(htsjdkReader.query(chr, beg, end, false));
+        List<Alignment> actual = readAll(liteReader.query(chr, beg, end, false));
+
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Alignment e = expected.get(i);
+            Alignment a = actual.get(i);
+            assertEquals(e.getReadName(), a.getReadName());
+            assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+            assertEquals(e.getAlignmentEnd(), a.getAlignmentEnd());
+            assertEquals(e.getStart(), a.getStart());
+            assertEquals(e.getEnd(), a.getEnd());
+            assertEquals(e.getCigarString(), a.getCigarString());
+            assertEquals(e.getReadSequence(), a.getReadSequence());
+            assertEquals(e.getMappingQuality(), a.getMappingQuality());
+            assertEquals(e.isNegativeStrand(), a.isNegativeStrand());
+            assertEquals(e.getInferredInsertSize(), a.getInferredInsertSize());
+            assertEquals(e.getPairOrientation(), a.getPairOrientation());
+            assertEquals(e.getReadGroup(), a.getReadGroup());
+            assertEquals(e.getAttribute("NM"), a.getAttribute("NM"));
+            assertEquals(e.getAlignmentBlocks().length, a.getAlignmentBlocks().length);
+        }
+
+        assertEquals(htsjdkReader.getSequenceNames(), liteReader.getSequenceNames());
+        assertEquals(htsjdkReader.getFileHeader().getReadGroups().size(), liteReader.getFileHeader().getReadGroups().size());
+
+        liteReader.close();
+        htsjdkReader.close();
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+
+        String bamPath = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+
+        BAMReader liteReader = new BAMReader(bamPath, bamPath + ".bai", null);
+        org.broad.igv.sam.reader.BAMReader htsjdkReader =
+                new org.broad.igv.sam.reader.BAMReader(new ResourceLocator(bamPath), true);
+
+        int expectedCount = 0;
+        CloseableIterator<? extends Alignment> iter = htsjdkReader.iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isMapped()) expectedCount++;
+        }
+        iter.close();
+
+        int actualCount = 0;
+        for (Alignment a : readAll(liteReader.iterator())) {
+            if (a.isMapped()) actualCount++;
+        }
+        assertEquals(expectedCount, actualCount);
+
+        liteReader.close();
+        htsjdkReader.close();
+    }
+
+    /**
+     * Compare query throughput and allocation of the lite and htsjdk readers
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkQuery() throws Exception {
+
+        String bamPath = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+        int beg = 24296300;
+        int end = 24456300;
+
+        BAMReader liteReader = new BAMReader(bamPath, bamPath + ".bai", null);
+        org.broad.igv.sam.reader.BAMReader htsjdkReader =
+                new org.broad.igv.sam.reader.BAMReader(new ResourceLocator(bamPath), true);
+
+        for (int rep = 0; rep < 5; rep++) {
+            for (AlignmentReader reader : new AlignmentReader[]{htsjdkReader, liteReader}) {
+                long bytes0 = allocatedBytes();
+                long t0 = System.nanoTime();
+                int count = 0;
+                for (int i = 0; i < 20; i++) {
+                    for (Object a : readAll(reader.query(chr, beg, end, false))) {
+                        // Touch the blocks, as the alignment track does when computing coverage
+                        count += ((Alignment) a).getAlignmentBlocks().length;
+                    }
+                }
+                long dt = System.nanoTime() - t0;
+                long allocated = allocatedBytes() - bytes0;
+                System.out.println(reader.getClass().getName() + ": " + (dt / 1000000) + " ms,  " +
+                        (allocated / 1000000) + " MB allocated  (" + count + ")");
+            }
+        }
+
+        liteReader.close();
+        htsjdkReader.close();
+    }
+
+    private static List<Alignment> readAll(CloseableIterator<? extends Alignment> iter) {
+        List<Alignment> alignments = new ArrayList<>();
+        while (iter.hasNext()) {
+            alignments.add(iter.next());
+        }
+        iter.close();
+        return alignments;
+    }
+
+    /**
+     * Bytes allocated by the current thread,  if supported by the JVM, otherwise -1
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method m = bean.getClass().getMethod("getThreadAllocatedBytes", long.class);
+            m.setAccessible(true);
+            return (Long) m.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
 }
@@ -1,9 +1,15 @@
 package org.broad.igv.sam.lite;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 /**
@@ -28,4 +34,37 @@ public class BGUnzipTest {
     }
 
 
+
+    /**
+     * Parallel inflation must produce the same bytes as serial inflation,  and ignore a trailing partial block
+     */
+    @Test
+    public void parallelInflate() throws Exception {
+
+        byte[] data = new byte[2000000];
+        Random random = new Random(5);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('A' + random.nextInt(4));
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BlockCompressedOutputStream bgzOut = new BlockCompressedOutputStream(bos, (File) null);
+        bgzOut.write(data);
+        bgzOut.close();
+        byte[] compressed = bos.toByteArray();
+
+        BGUnzip.Inflated serial = BGUnzip.inflate(compressed, compressed.length, 10, 1);
+        BGUnzip.Inflated parallel = BGUnzip.inflate(compressed, compressed.length, 10, 4);
+        assertEquals(compressed.length, serial.compressedLength);
+        assertEquals(compressed.length, parallel.compressedLength);
+        assertArrayEquals(data, Arrays.copyOfRange(serial.bytes, 10, serial.bytes.length));
+        assertArrayEquals(serial.bytes, parallel.bytes);
+
+        // Truncate in the middle of the last data block
+        int truncated = compressed.length - 28 - 100;
+        BGUnzip.Inflated partial = BGUnzip.inflate(compressed, truncated, 0, 4);
+        assertTrue(partial.compressedLength < truncated);
+        assertArrayEquals(Arrays.copyOf(data, partial.bytes.length), partial.bytes);
+    }
+
 }
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.session;
+
+import org.broad.igv.util.ResourceLocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SessionLoadSchedulerTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testHostKey() {
+        assertEquals("data.example.org", SessionLoadScheduler.getHostKey("https://Data.Example.org/x/file.bam"));
+        assertEquals("data.example.org", SessionLoadScheduler.getHostKey("http://data.example.org:8080/file.bw?a=b"));
+        assertEquals("bucket", SessionLoadScheduler.getHostKey("gs://bucket/file.bam"));
+        assertEquals(SessionLoadScheduler.LOCAL_HOST, SessionLoadScheduler.getHostKey("/data/file.bam"));
+        assertEquals(SessionLoadScheduler.LOCAL_HOST, SessionLoadScheduler.getHostKey(null));
+    }
+
+    @Test
+    public void testHostConnectionLimit() throws Exception {
+
+        SessionLoadScheduler scheduler = new SessionLoadScheduler(executor, 2);
+        AtomicInteger remoteActive = new AtomicInteger();
+        AtomicInteger remoteMax = new AtomicInteger();
+        AtomicInteger localActive = new AtomicInteger();
+        AtomicInteger localMax = new AtomicInteger();
+
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ResourceLocator remote = new ResourceLocator("https://data.example.org/file" + i + ".bw");
+            futures.add(scheduler.submit(remote, SessionLoadScheduler.OPEN, () -> run(remoteActive, remoteMax)));
+            ResourceLocator local = new ResourceLocator("/data/file" + i + ".bw");
+            futures.add(scheduler.submit(local, SessionLoadScheduler.OPEN, () -> run(localActive, localMax)));
+        }
+        SessionLoadScheduler.awaitAll(futures);
+
+        assertEquals(2, remoteMax.get());
+        assertTrue(localMax.get() > 2);
+        assertEquals(12, scheduler.getTimings().size());
+
+        // Queued remote tasks wait for a connection
+        long maxQueueTime = scheduler.getTimings().stream()
+                .filter(t -> !t.getHost().equals(SessionLoadScheduler.LOCAL_HOST))
+                .mapToLong(SessionLoadScheduler.LoadTiming::getQueueTime)
+                .max().getAsLong();
+        assertTrue(maxQueueTime >= 100);
+    }
+
+    @Test
+    public void testPipelinedStages() throws Exception {
+
+        SessionLoadScheduler scheduler = new SessionLoadScheduler(executor, 1);
+        ResourceLocator locator = new ResourceLocator("https://data.example.org/file.bw");
+
+        List<String> result = scheduler.submit(locator, SessionLoadScheduler.OPEN, () -> "header")
+                .thenCompose(header -> scheduler.submit(locator, SessionLoadScheduler.VIEW, () -> header + ",data"))
+                .thenApply(s -> Arrays.asList(s.split(",")))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("header", "data"), result);
+
+        List<SessionLoadScheduler.LoadTiming> timings = scheduler.getTimings();
+        assertEquals(2, timings.size());
+        assertEquals(SessionLoadScheduler.OPEN, timings.get(0).getStage());
+        assertEquals(SessionLoadScheduler.VIEW, timings.get(1).getStage());
+        assertTrue(scheduler.getSummary().contains("file.bw [view]"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+
+        SessionLoadScheduler scheduler = new SessionLoadScheduler(executor, 1);
+        ResourceLocator locator = new ResourceLocator("https://data.example.org/missing.bw");
+
+        CompletableFuture<Object> failed = scheduler.submit(locator, SessionLoadScheduler.OPEN, () -> {
+            throw new FileNotFoundException("missing.bw");
+        });
+        CompletableFuture<String> next = scheduler.submit(locator, SessionLoadScheduler.OPEN, () -> "ok");
+
+        try {
+            failed.join();
+            fail("Expected exception");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+        // The connection is released after a failure
+        assertEquals("ok", next.get(10, TimeUnit.SECONDS));
+    }
+
+    private static Object run(AtomicInteger active, AtomicInteger max) throws InterruptedException {
+        int n = active.incrementAndGet();
+        max.accumulateAndGet(n, Math::max);
+        Thread.sleep(100);
+        active.decrementAndGet();
+        return null;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tdf;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TDFTileCacheTest extends AbstractHeadlessTest {
+
+    private static final String TDF_FILE = TestUtils.DATA_DIR + "tdf/hg18_var_sample.wig.v2.2.1.tdf";
+
+    /**
+     * Tiles read concurrently through the shared cache must match tiles read directly
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+
+        TDFTileCache.getInstance().clear();
+        TDFReader reader = TDFReader.getReader(TDF_FILE);
+
+        List<TDFDataset> datasets = new ArrayList<>();
+        for (String name : reader.getDatasetNames()) {
+            datasets.add(reader.getDataset(name));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<TDFTile>>> futures = new ArrayList<>();
+            for (int rep = 0; rep < 4; rep++) {
+                for (TDFDataset ds : datasets) {
+                    futures.add(executor.submit(() -> ds.getTiles()));
+                }
+            }
+
+            int idx = 0;
+            for (int rep = 0; rep < 4; rep++) {
+                for (TDFDataset ds : datasets) {
+                    List<TDFTile> tiles = futures.get(idx++).get();
+                    List<TDFTile> expected = new ArrayList<>();
+                    for (int t = 0; t < ds.nTiles; t++) {
+                        TDFTile tile = reader.readTile(ds, t);
+                        if (tile != null) expected.add(tile);
+                    }
+                    assertEquals(expected.size(), tiles.size());
+                    for (int i = 0; i < tiles.size(); i++) {
+                        TDFTile e = expected.get(i);
+                        TDFTile t = tiles.get(i);
+                        assertEquals(e.getSize(), t.getSize());
+                        assertTrue(Arrays.equals(e.getStart(), t.getStart()));
+                        assertTrue(Arrays.equals(e.getData(0), t.getData(0)));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(TDFTileCache.getInstance().getHitCount() > 0);
+        reader.close();
+    }
+
+    @Test
+    public void testCacheKeys() throws Exception {
+
+        TDFTileCache cache = TDFTileCache.getInstance();
+        cache.clear();
+
+        TDFReader reader = TDFReader.getReader(TDF_FILE);
+        TDFDataset ds = reader.getDataset("/chr6/z0/mean");
+        TDFTile tile = ds.getTile(0);
+        assertTrue(tile != null);
+        assertTrue(cache.getSizeInBytes() > 0);
+        assertTrue(cache.contains(reader.getPath(), ds.getName(), 0));
+        assertSame(tile, ds.getTile(0));
+
+        // Tiles with no data are cached too
+        int emptyTile = ds.tilePositions.length;
+        assertNull(ds.getTile(emptyTile));
+        assertTrue(cache.contains(reader.getPath(), ds.getName(), emptyTile));
+        int hits = cache.getHitCount();
+        assertNull(ds.getTile(emptyTile));
+        assertEquals(hits + 1, cache.getHitCount());
+
+        ds.clearCache();
+        assertEquals(0, cache.size());
+
+        // Opening the file again invalidates its tiles,  in case it has been rewritten
+        ds.getTile(0);
+        assertEquals(1, cache.size());
+        TDFReader.getReader(TDF_FILE).close();
+        assertEquals(0, cache.size());
+        reader.close();
+    }
+}
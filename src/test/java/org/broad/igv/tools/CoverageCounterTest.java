@@ -35,14 +35,19 @@ import org.broad.igv.util.TestUtils;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 
 public class CoverageCounterTest extends AbstractHeadlessTest {
@@ -249,6 +254,68 @@ public class CoverageCounterTest extends AbstractHeadlessTest {
 
     }
 
+    /**
+     * Counting shards in parallel must produce output identical to a serial count
+     */
+    @Test
+    public void testThreadedCountMatchesSerial() throws Exception {
+        for (int shardWidth : new int[]{CoverageCounter.SHARD_WIDTH, 1000, 333}) {
+            testThreadedCountMatchesSerial(shardWidth);
+        }
+    }
+
+    private void testThreadedCountMatchesSerial(int shardWidth) throws Exception {
+        String bamFile = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        int windowSize = 10;
+        int extFactor = 50;
+
+        File serialWig = new File(TestUtils.TMP_OUTPUT_DIR + "testCountSerial.wig");
+        TestDataConsumer serial = new TestDataConsumer();
+        CoverageCounter cc = new CoverageCounter(bamFile, serial, windowSize, extFactor, serialWig, genome, null, 0,
+                CoverageCounter.BASES | CoverageCounter.STRANDS_BY_READ);
+        cc.parse();
+
+        File threadedWig = new File(TestUtils.TMP_OUTPUT_DIR + "testCountThreaded.wig");
+        TestDataConsumer threaded = new TestDataConsumer();
+        cc = new CoverageCounter(bamFile, threaded, windowSize, extFactor, threadedWig, genome, null, 0,
+                CoverageCounter.BASES | CoverageCounter.STRANDS_BY_READ);
+        cc.setThreads(4);
+        cc.setShardWidth(shardWidth);
+        cc.parse();
+
+        assertTrue(serial.testDatas.size() > 0);
+        assertEquals(serial.attributes.get("totalCount"), threaded.attributes.get("totalCount"));
+        assertEquals(serial.testDatas.size(), threaded.testDatas.size());
+        for (int i = 0; i < serial.testDatas.size(); i++) {
+            TestData s = serial.testDatas.get(i);
+            TestData t = threaded.testDatas.get(i);
+            assertEquals(s.chr, t.chr);
+            assertEquals(s.start, t.start);
+            assertEquals(s.end, t.end);
+            assertTrue(Arrays.equals(s.data, t.data));
+        }
+        assertTrue(Arrays.equals(Files.readAllBytes(serialWig.toPath()), Files.readAllBytes(threadedWig.toPath())));
+    }
+
+    /**
+     * Report counting throughput,  in reads per second,  as the number of threads increases
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkThreadedCount() throws Exception {
+        String bamFile = TestUtils.LARGE_DATA_DIR + "HG00171.hg18.bam";
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            TestDataConsumer dc = new TestDataConsumer();
+            CoverageCounter cc = new CoverageCounter(bamFile, dc, 25, 0, null, genome, null, 0, 0);
+            cc.setThreads(threads);
+            long t0 = System.nanoTime();
+            cc.parse();
+            double seconds = (System.nanoTime() - t0) / 1.0e9;
+            int totalCount = Integer.parseInt(dc.attributes.get("totalCount"));
+            System.out.println("Threads: " + threads + "  " + (int) (totalCount / seconds) + " reads / second");
+        }
+    }
+
 
     static class TestDataConsumer implements DataConsumer {
 
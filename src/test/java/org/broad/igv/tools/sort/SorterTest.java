@@ -36,6 +36,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
@@ -88,6 +90,71 @@ public class SorterTest extends AbstractHeadlessTest {
         testSort(path, 0, 1, 10, 100, 1);
     }
 
+    @Test
+    public void testParallelSortMatchesSerial() throws Exception {
+        String[] files = {TestUtils.DATA_DIR + "bed/Unigene.unsorted.bed", TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed",
+                TestUtils.DATA_DIR + "vcf/SRP32_v4.0.vcf", TestUtils.DATA_DIR + "gwas/random.gwas"};
+        int mergeFactor = ParallelSorter.MERGE_FACTOR;
+        try {
+            // A small merge factor forces multi-level merges
+            ParallelSorter.MERGE_FACTOR = 4;
+            for (String infile : files) {
+                byte[] expected = sort(infile, 1, 10);
+                for (int threads : new int[]{2, 4}) {
+                    for (int maxRecords : new int[]{10, 1000, 100000}) {
+                        assertArrayEquals(infile + " threads=" + threads + " maxRecords=" + maxRecords,
+                                expected, sort(infile, threads, maxRecords));
+                    }
+                }
+            }
+        } finally {
+            ParallelSorter.MERGE_FACTOR = mergeFactor;
+        }
+    }
+
+    @Test
+    public void testParseBytesMatchesCreateRecord() throws Exception {
+        String[] lines = {"chr1\t100\tx", "chr2\t 42 \t", "\tchr3\t7", "chr4\t+5", "chr5\t-12", "chr6\tabc",
+                "chr7\t", "chr8\t2147483648", "chr9\t-2147483648", "chr10  \t300", "chr11   400  ", "chr12"};
+        for (boolean whitespace : new boolean[]{false, true}) {
+            Parser parser = new Parser(0, 1, whitespace);
+            for (String line : lines) {
+                byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+                int[] bounds = new int[2];
+                SortableRecord record;
+                try {
+                    record = parser.createRecord(line);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    try {
+                        parser.findChr(bytes, 0, bytes.length, bounds);
+                        parser.parseStart(bytes, 0, bytes.length, bounds);
+                        fail("Expected an exception parsing " + line);
+                    } catch (ArrayIndexOutOfBoundsException expected) {
+                    }
+                    continue;
+                }
+                parser.findChr(bytes, 0, bytes.length, bounds);
+                assertEquals(line, record.getChromosome(), new String(bytes, bounds[0], bounds[1] - bounds[0], StandardCharsets.ISO_8859_1));
+                assertEquals(line, record.getStart(), parser.parseStart(bytes, 0, bytes.length, bounds));
+            }
+        }
+        assertTrue(new Parser(0, 1).isSkipped("  \t".getBytes(), 0, 3));
+        assertTrue(new Parser(0, 1).isSkipped("#chr1\t1".getBytes(), 0, 7));
+        assertFalse(new Parser(0, 1).isSkipped("chr1\t1".getBytes(), 0, 6));
+    }
+
+    private byte[] sort(String infile, int threads, int maxRecords) throws IOException {
+        File ifile = new File(infile);
+        File ofile = new File(TestUtils.TMP_OUTPUT_DIR, ifile.getName() + ".sorted");
+        ofile.deleteOnExit();
+
+        AsciiSorter sorter = (AsciiSorter) SorterFactory.getSorter(ifile, ofile);
+        sorter.setThreads(threads);
+        sorter.setMaxRecords(maxRecords);
+        sorter.run();
+        return Files.readAllBytes(ofile.toPath());
+    }
+
     public void testSort(String infile, int chrCol, int startCol) throws IOException {
         testSort(infile, chrCol, startCol, 10, null, 0);
     }
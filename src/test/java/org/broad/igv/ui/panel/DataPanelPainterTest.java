@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.track.RenderContext;
+import org.broad.igv.track.TrackGroup;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DataPanelPainterTest extends AbstractHeadlessTest {
+
+    static final int WIDTH = 1000;
+
+    @Test
+    public void testParallelRenderingMatchesSerial() throws Exception {
+
+        List<TextTrack> tracks = new ArrayList<>();
+        List<TrackGroup> groups = new ArrayList<>();
+        Color[] colors = {Color.blue, Color.red, new Color(0, 150, 0, 120), Color.orange, new Color(100, 0, 100, 60)};
+        for (int g = 0; g < 2; g++) {
+            TrackGroup group = new TrackGroup("Group " + g);
+            for (int i = 0; i < colors.length; i++) {
+                TextTrack track = new TextTrack();
+                track.setColor(colors[i]);
+                track.setHeight(20 + 10 * i);
+                track.threadSafe = i % 3 != 1;
+                group.add(track);
+                tracks.add(track);
+            }
+            groups.add(group);
+        }
+
+        ReferenceFrame frame = new ReferenceFrame("DataPanelPainterTest");
+        frame.chrName = "chr1";
+        frame.widthInPixels = WIDTH;
+        frame.scale = 7.5;
+        frame.origin = 1234;
+
+        // Clip to part of the second group
+        Rectangle visibleRect = new Rectangle(0, 0, WIDTH, 300);
+
+        String threads = PreferencesManager.getPreferences().get(Constants.RENDER_THREADS);
+        try {
+            BufferedImage serial = paint(groups, frame, visibleRect);
+            for (TextTrack track : tracks) {
+                assertFalse("Track renderer".equals(track.renderThread));
+            }
+
+            PreferencesManager.getPreferences().put(Constants.RENDER_THREADS, "4");
+            BufferedImage parallel = paint(groups, frame, visibleRect);
+            boolean renderedInParallel = tracks.stream().anyMatch(t -> "Track renderer".equals(t.renderThread));
+            assertTrue(renderedInParallel);
+            for (TextTrack track : tracks) {
+                if (!track.threadSafe) {
+                    assertFalse("Track renderer".equals(track.renderThread));
+                }
+            }
+
+            for (int x = 0; x < serial.getWidth(); x++) {
+                for (int y = 0; y < serial.getHeight(); y++) {
+                    assertEquals("Pixel " + x + "," + y, serial.getRGB(x, y), parallel.getRGB(x, y));
+                }
+            }
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.RENDER_THREADS, threads);
+        }
+    }
+
+    @Test
+    public void testVectorGraphicsRenderSerially() throws Exception {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        assertTrue(DataPanelPainter.isUnscaledRaster(g));
+        g.scale(2, 2);
+        assertFalse(DataPanelPainter.isUnscaledRaster(g));
+        g.dispose();
+    }
+
+    private static BufferedImage paint(List<TrackGroup> groups, ReferenceFrame frame, Rectangle visibleRect) {
+        BufferedImage image = new BufferedImage(WIDTH, 400, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        RenderContext context = new RenderContext(null, g, frame, visibleRect);
+        try {
+            new DataPanelPainter().paint(groups, context, WIDTH, new Color(250, 250, 250), visibleRect);
+        } finally {
+            context.dispose();
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Test track that also draws translucent, anti-aliased text,  and records the thread it was rendered on
+     */
+    static class TextTrack extends TrackTileCacheTest.TestTrack {
+
+        volatile String renderThread;
+
+        boolean threadSafe = true;
+
+        @Override
+        public boolean isRenderThreadSafe() {
+            return threadSafe;
+        }
+
+        @Override
+        public void render(RenderContext context, Rectangle rect) {
+            renderThread = Thread.currentThread().getName();
+            super.render(context, rect);
+            Graphics2D g = context.getGraphic2DForColor(new Color(0, 0, 200, 170));
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.drawString("Track " + getColor(), rect.x + 20, rect.y + 15);
+        }
+    }
+}
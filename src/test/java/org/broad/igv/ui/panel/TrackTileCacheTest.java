@@ -0,0 +1,316 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.data.BasicScore;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.renderer.BarChartRenderer;
+import org.broad.igv.renderer.DataRange;
+import org.broad.igv.renderer.LineplotRenderer;
+import org.broad.igv.renderer.Renderer;
+import org.broad.igv.renderer.XYPlotRenderer;
+import org.broad.igv.track.AbstractTrack;
+import org.broad.igv.track.RenderContext;
+import org.junit.Test;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackTileCacheTest extends AbstractHeadlessTest {
+
+    static final int WIDTH = 1000;
+    static final int HEIGHT = 40;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        TrackTileCache.getInstance().clear();
+        TrackTileCache.getInstance().resetStatistics();
+    }
+
+    @Test
+    public void testTilesMatchDirectRendering() throws Exception {
+
+        TestTrack track = new TestTrack();
+        ReferenceFrame frame = createFrame(5000);
+        JPanel panel = new JPanel();
+
+        BufferedImage expected = paint(panel, frame, track, false);
+        BufferedImage tiled = paint(panel, frame, track, true);
+        assertSameImage(expected, tiled);
+
+        // Repaint from cached tiles
+        int misses = TrackTileCache.getInstance().getMissCount();
+        tiled = paint(panel, frame, track, true);
+        assertSameImage(expected, tiled);
+        assertEquals(misses, TrackTileCache.getInstance().getMissCount());
+        assertTrue(TrackTileCache.getInstance().getHitCount() > 0);
+    }
+
+    @Test
+    public void testPanRendersExposedTiles() throws Exception {
+
+        TestTrack track = new TestTrack();
+        ReferenceFrame frame = createFrame(0);
+        JPanel panel = new JPanel();
+
+        paint(panel, frame, track, true);
+        int nTiles = (WIDTH + TrackTileCache.TILE_WIDTH - 1) / TrackTileCache.TILE_WIDTH;
+        assertEquals(nTiles, track.tileCount);
+        assertEquals(nTiles, TrackTileCache.getInstance().size());
+
+        // Pan right by one tile,  only the exposed tile is rendered
+        track.tileCount = 0;
+        frame.origin = TrackTileCache.TILE_WIDTH * frame.getScale();
+        BufferedImage tiled = paint(panel, frame, track, true);
+        assertEquals(1, track.tileCount);
+        assertSameImage(paint(panel, frame, track, false), tiled);
+
+        // Pan left by less than a tile,  all tiles are cached
+        track.tileCount = 0;
+        frame.origin = 100 * frame.getScale();
+        tiled = paint(panel, frame, track, true);
+        assertEquals(0, track.tileCount);
+        assertSameImage(paint(panel, frame, track, false), tiled);
+    }
+
+    @Test
+    public void testStateChangeInvalidatesTiles() throws Exception {
+
+        TestTrack track = new TestTrack();
+        ReferenceFrame frame = createFrame(0);
+        JPanel panel = new JPanel();
+
+        paint(panel, frame, track, true);
+        track.tileCount = 0;
+        track.setColor(Color.red);
+        BufferedImage tiled = paint(panel, frame, track, true);
+        assertTrue(track.tileCount > 0);
+        assertSameImage(paint(panel, frame, track, false), tiled);
+
+        TrackTileCache.getInstance().remove(track);
+        assertEquals(0, TrackTileCache.getInstance().size());
+        assertEquals(0, TrackTileCache.getInstance().getSizeInBytes());
+    }
+
+    @Test
+    public void testTilesScaleToDataRange() throws Exception {
+
+        BarTrack track = new BarTrack();
+        ReferenceFrame frame = createFrame(0);
+        JPanel panel = new JPanel();
+
+        track.setDataRange(new DataRange(0, 0, 100));
+        paint(panel, frame, track, true);
+
+        // A narrower range,  as after an autoscaling pan,  reuses the tiles
+        track.tileCount = 0;
+        track.setDataRange(new DataRange(0, 0, 70));
+        BufferedImage tiled = paint(panel, frame, track, true);
+        assertEquals(0, track.tileCount);
+        assertSimilarImage(paint(panel, frame, track, false), tiled);
+
+        // A wider range would expose clipped values,  the tiles are rendered again
+        track.setDataRange(new DataRange(0, 0, 150));
+        tiled = paint(panel, frame, track, true);
+        assertTrue(track.tileCount > 0);
+        assertSameImage(paint(panel, frame, track, false), tiled);
+    }
+
+    @Test
+    public void testLinePlotTilesRenderAtDataRange() throws Exception {
+
+        BarTrack track = new BarTrack(new LineplotRenderer());
+        ReferenceFrame frame = createFrame(0);
+        JPanel panel = new JPanel();
+
+        track.setDataRange(new DataRange(0, 0, 100));
+        paint(panel, frame, track, true);
+        assertFalse(TrackTileCache.isScalable(track));
+
+        // Stretching would thicken the lines,  a narrower range renders the tiles again
+        track.tileCount = 0;
+        track.setDataRange(new DataRange(0, 0, 70));
+        BufferedImage tiled = paint(panel, frame, track, true);
+        assertTrue(track.tileCount > 0);
+        assertSameImage(paint(panel, frame, track, false), tiled);
+
+        // The tiles for the current range are reused
+        track.tileCount = 0;
+        tiled = paint(panel, frame, track, true);
+        assertEquals(0, track.tileCount);
+        assertSameImage(paint(panel, frame, track, false), tiled);
+    }
+
+    private ReferenceFrame createFrame(double origin) {
+        ReferenceFrame frame = new ReferenceFrame("TrackTileCacheTest");
+        frame.chrName = "chr1";
+        frame.widthInPixels = WIDTH;
+        frame.scale = 10;
+        frame.origin = origin;
+        return frame;
+    }
+
+    private static BufferedImage paint(JPanel panel, ReferenceFrame frame, TestTrack track, boolean useTiles) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        Rectangle rect = new Rectangle(0, 0, WIDTH, HEIGHT);
+        RenderContext context = new RenderContext(panel, g, frame, rect);
+        try {
+            if (useTiles) {
+                TrackTileCache.getInstance().paint(track, context, rect);
+            } else {
+                track.render(context, rect);
+            }
+        } finally {
+            context.dispose();
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        for (int x = 0; x < expected.getWidth(); x++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                assertEquals("Pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Bar heights may differ by a pixel,  from rounding
+     */
+    private static void assertSimilarImage(BufferedImage expected, BufferedImage actual) {
+        for (int x = 0; x < expected.getWidth(); x++) {
+            int expectedCount = 0;
+            int actualCount = 0;
+            for (int y = 0; y < expected.getHeight(); y++) {
+                expectedCount += expected.getRGB(x, y) != 0 ? 1 : 0;
+                actualCount += actual.getRGB(x, y) != 0 ? 1 : 0;
+            }
+            assertEquals("Column " + x, expectedCount, actualCount, 1);
+        }
+    }
+
+    /**
+     * Xy plot,  a bar chart by default,  of scores from 0 to 120,  one every 100 bp
+     */
+    static class BarTrack extends TestTrack {
+
+        final XYPlotRenderer renderer;
+        final List<LocusScore> scores = new ArrayList<>();
+
+        BarTrack() {
+            this(new BarChartRenderer());
+        }
+
+        BarTrack(XYPlotRenderer renderer) {
+            this.renderer = renderer;
+            for (int i = 0; i < 1000; i++) {
+                scores.add(new BasicScore(i * 100, i * 100 + 80, (i * 7) % 121));
+            }
+        }
+
+        @Override
+        public Renderer getRenderer() {
+            return renderer;
+        }
+
+        @Override
+        public void render(RenderContext context, Rectangle rect) {
+            renderer.renderScores(this, scores, context, rect);
+            renderDecorations(context, rect);
+        }
+
+        @Override
+        public void renderTile(RenderContext context, Rectangle rect) {
+            tileCount++;
+            renderer.renderScores(this, scores, context, rect);
+        }
+    }
+
+    /**
+     * Draws a 300 bp block every 1000 bp,  and a border line anchored to the track rectangle as decoration
+     */
+    static class TestTrack extends AbstractTrack {
+
+        int tileCount = 0;
+
+        TestTrack() {
+            super("TrackTileCacheTest");
+            setColor(Color.blue);
+        }
+
+        @Override
+        public boolean isReadyToPaint(ReferenceFrame frame) {
+            return true;
+        }
+
+        @Override
+        public void load(ReferenceFrame frame) {
+        }
+
+        @Override
+        public boolean isTileable() {
+            return true;
+        }
+
+        @Override
+        public void render(RenderContext context, Rectangle rect) {
+            renderBlocks(context, rect);
+            renderDecorations(context, rect);
+        }
+
+        @Override
+        public void renderTile(RenderContext context, Rectangle rect) {
+            tileCount++;
+            renderBlocks(context, rect);
+        }
+
+        @Override
+        public void renderDecorations(RenderContext context, Rectangle rect) {
+            context.getGraphic2DForColor(Color.black).drawLine(rect.x, rect.y, rect.x + 10, rect.y);
+        }
+
+        private void renderBlocks(RenderContext context, Rectangle rect) {
+            Graphics2D g = context.getGraphic2DForColor(getColor());
+            double origin = context.getOrigin();
+            double scale = context.getScale();
+            long first = (long) Math.floor(origin / 1000) * 1000;
+            for (long start = first; start < context.getEndLocation(); start += 1000) {
+                int px = (int) Math.floor((start - origin) / scale);
+                int w = (int) (300 / scale);
+                g.fillRect(px, rect.y + 5, w, rect.height - 10);
+            }
+        }
+    }
+}
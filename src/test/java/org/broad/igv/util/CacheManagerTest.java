@@ -0,0 +1,151 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.util;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CacheManagerTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testReclaimLeastValuableFirst() {
+
+        CacheManager manager = new CacheManager();
+        long now = System.currentTimeMillis();
+        TestCache hot = new TestCache("hot", 1000, 90, 10, now);
+        TestCache cold = new TestCache("cold", 1000, 10, 90, now - 60000);
+        manager.register(hot, 1);
+        manager.register(cold, 1);
+
+        assertEquals(2000, manager.getTotalSizeInBytes());
+        assertEquals(600, manager.reclaim(600));
+        assertEquals(1000, hot.size);
+        assertEquals(400, cold.size);
+
+        // The cold cache is exhausted before the hot one is touched
+        assertEquals(1000, manager.reclaim(1000));
+        assertEquals(0, cold.size);
+        assertEquals(400, hot.size);
+    }
+
+    @Test
+    public void testReclaimOverShareFirst() {
+
+        String budget = PreferencesManager.getPreferences().get(Constants.CACHE_HEAP_BUDGET);
+        try {
+            PreferencesManager.getPreferences().put(Constants.CACHE_HEAP_BUDGET, "10");
+            CacheManager manager = new CacheManager();
+            long share = manager.getBudget() / 2;
+
+            long now = System.currentTimeMillis();
+            // The cold cache is within its share,  the hot cache is over it
+            TestCache hot = new TestCache("hot", share + 1000, 90, 10, now);
+            TestCache cold = new TestCache("cold", share / 2, 10, 90, now - 60000);
+            manager.register(hot, 1);
+            manager.register(cold, 1);
+
+            assertEquals(500, manager.reclaim(500));
+            assertEquals(share + 500, hot.size);
+            assertEquals(share / 2, cold.size);
+
+            // Over budget:  the excess is taken from the cache over its share
+            assertTrue(manager.getTotalSizeInBytes() < manager.getBudget());
+            hot.size = share + share;
+            long excess = manager.getTotalSizeInBytes() - manager.getBudget();
+            assertEquals(excess, manager.enforceBudget());
+            assertEquals(share + share - excess, hot.size);
+            assertEquals(share / 2, cold.size);
+            assertTrue(manager.getTotalSizeInBytes() <= manager.getBudget());
+        } finally {
+            PreferencesManager.getPreferences().put(Constants.CACHE_HEAP_BUDGET, budget);
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        CacheManager manager = new CacheManager();
+        TestCache cache = new TestCache("test", 2000000, 3, 1, System.currentTimeMillis());
+        manager.register(cache, 1);
+
+        List<CacheManager.CacheStatistics> statistics = manager.getStatistics();
+        assertEquals(1, statistics.size());
+        assertEquals("test", statistics.get(0).name);
+        assertEquals(2000000, statistics.get(0).sizeInBytes);
+        assertEquals(0.75, statistics.get(0).getHitRate(), 1.0e-6);
+        assertTrue(manager.getSummary().contains("test 2.0 MB, hit rate 0.75"));
+
+        manager.unregister(cache);
+        assertTrue(manager.getStatistics().isEmpty());
+    }
+
+    static class TestCache implements ManagedCache {
+
+        final String name;
+        long size;
+        final int hits;
+        final int misses;
+        final long lastAccessTime;
+
+        TestCache(String name, long size, int hits, int misses, long lastAccessTime) {
+            this.name = name;
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.lastAccessTime = lastAccessTime;
+        }
+
+        public String getCacheName() {
+            return name;
+        }
+
+        public synchronized long getSizeInBytes() {
+            return size;
+        }
+
+        public int getHitCount() {
+            return hits;
+        }
+
+        public int getMissCount() {
+            return misses;
+        }
+
+        public long getLastAccessTime() {
+            return lastAccessTime;
+        }
+
+        public synchronized long trim(long bytes) {
+            long freed = Math.min(bytes, size);
+            size -= freed;
+            return freed;
+        }
+    }
+}
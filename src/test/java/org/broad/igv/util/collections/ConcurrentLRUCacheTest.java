@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.util.collections;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLRUCacheTest {
+
+    @Test
+    public void testPutGet() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(10);
+        assertTrue(cache.isEmpty());
+        assertNull(cache.put("a", 1));
+        assertEquals(1, (int) cache.put("a", 2));
+        cache.put("b", null);
+
+        assertEquals(2, (int) cache.get("a"));
+        assertTrue(cache.containsKey("b"));
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertEquals(2, cache.size());
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertEquals(2, (int) cache.remove("a"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(1, cache.getWeight());
+
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testEviction() {
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(10);
+        assertEquals(1, cache.getSegmentCount());
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        // Reference the first entry,  it should survive the next insertions
+        cache.get(0);
+        for (int i = 10; i < 15; i++) {
+            cache.put(i, i);
+        }
+
+        assertEquals(10, cache.size());
+        assertEquals(5, cache.getEvictionCount());
+        assertTrue(cache.containsKey(0));
+        assertFalse(cache.containsKey(1));
+        assertTrue(cache.containsKey(14));
+
+        cache.setMaxEntries(5);
+        assertEquals(5, cache.size());
+        assertTrue(cache.containsKey(14));
+    }
+
+    @Test
+    public void testWeigher() {
+        ConcurrentLRUCache<String, byte[]> cache = new ConcurrentLRUCache<>(1000, (k, v) -> v.length);
+        cache.put("a", new byte[400]);
+        cache.put("b", new byte[400]);
+        assertEquals(800, cache.getWeight());
+
+        cache.put("c", new byte[400]);
+        assertEquals(2, cache.size());
+        assertFalse(cache.containsKey("a"));
+        assertTrue(cache.getWeight() <= 1000);
+
+        cache.put("b", new byte[100]);
+        assertEquals(500, cache.getWeight());
+    }
+
+    @Test
+    public void testTrim() {
+        ConcurrentLRUCache<String, byte[]> cache = new ConcurrentLRUCache<>(1000, (k, v) -> v.length, 1);
+        cache.put("a", new byte[300]);
+        cache.put("b", new byte[300]);
+        cache.put("c", new byte[300]);
+
+        // The oldest entry is evicted first
+        assertEquals(300, cache.trim(100));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(600, cache.getWeight());
+
+        assertEquals(600, cache.trim(10000));
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.trim(100));
+    }
+
+    @Test
+    public void testSegments() {
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(10000);
+        assertEquals(16, cache.getSegmentCount());
+
+        for (int i = 0; i < 100000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 10000);
+        assertTrue(cache.size() > 9000);
+        assertEquals(cache.size(), cache.keySet().size());
+        assertEquals(cache.size(), cache.values().size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 100000; i++) {
+                        int key = random.nextInt(2000);
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.put(key, key);
+                        } else {
+                            assertEquals(key, (int) value);
+                        }
+                        if (i % 100 == 0) {
+                            cache.remove(random.nextInt(2000));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.size() <= 1000);
+        assertEquals(cache.size(), cache.getWeight());
+    }
+
+    /**
+     * Contention benchmark:  lookups of a small working set from many threads, comparing {@link LRUCache} with
+     * {@link ConcurrentLRUCache}.
+     */
+    @Category(LongRunning.class)
+    @Test
+    public void benchmarkContention() throws Exception {
+
+        final int nKeys = 200;
+        final int nOps = 2000000;
+        int nThreads = Math.max(8, Runtime.getRuntime().availableProcessors());
+
+        final LRUCache<String, Object> lruCache = new LRUCache<>(nKeys);
+        final ConcurrentLRUCache<String, Object> concurrentCache = new ConcurrentLRUCache<>(nKeys);
+        final String[] keys = new String[nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            keys[i] = "chr1_" + i;
+            lruCache.put(keys[i], keys[i]);
+            concurrentCache.put(keys[i], keys[i]);
+        }
+
+        for (int rep = 0; rep < 3; rep++) {
+            long t0 = time(nThreads, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < nOps; i++) {
+                    if (lruCache.get(keys[random.nextInt(nKeys)]) == null) fail();
+                }
+            });
+            long t1 = time(nThreads, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < nOps; i++) {
+                    if (concurrentCache.get(keys[random.nextInt(nKeys)]) == null) fail();
+                }
+            });
+            System.out.printf("%d threads x %d gets:  LRUCache %d ms   ConcurrentLRUCache %d ms%n",
+                    nThreads, nOps, t0, t1);
+        }
+    }
+
+    private static long time(int nThreads, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long t0 = System.currentTimeMillis();
+            for (int t = 0; t < nThreads; t++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            return System.currentTimeMillis() - t0;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
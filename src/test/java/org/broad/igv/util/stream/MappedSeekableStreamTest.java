@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedSeekableStreamTest {
+
+    static final int FILE_SIZE = 20000;
+
+    // Small chunks to exercise reads that span mappings
+    static final int CHUNK_SIZE = 1000;
+
+    static byte[] expectedBytes;
+    static File testFile;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        expectedBytes = new byte[FILE_SIZE];
+        new Random(5).nextBytes(expectedBytes);
+        testFile = File.createTempFile("MappedSeekableStreamTest", ".bin");
+        try (FileOutputStream fos = new FileOutputStream(testFile)) {
+            fos.write(expectedBytes);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        testFile.delete();
+    }
+
+    @Test
+    public void testRandomReads() throws Exception {
+        Random random = new Random(11);
+        try (MappedSeekableStream stream = new MappedSeekableStream(testFile, CHUNK_SIZE)) {
+            assertEquals(FILE_SIZE, stream.length());
+            for (int i = 0; i < 1000; i++) {
+                int pos = random.nextInt(FILE_SIZE);
+                int len = random.nextInt(3 * CHUNK_SIZE);
+                int expectedLength = Math.min(len, FILE_SIZE - pos);
+
+                byte[] buffer = new byte[len];
+                stream.seek(pos);
+                assertEquals(expectedLength, stream.read(buffer, 0, len));
+                assertEquals(pos + expectedLength, stream.position());
+                assertArrayEquals(Arrays.copyOfRange(expectedBytes, pos, pos + expectedLength),
+                        Arrays.copyOf(buffer, expectedLength));
+
+                stream.seek(pos);
+                assertEquals(expectedBytes[pos] & 0xFF, stream.read());
+            }
+            stream.seek(FILE_SIZE);
+            assertTrue(stream.eof());
+            assertEquals(-1, stream.read());
+            assertEquals(-1, stream.read(new byte[10], 0, 10));
+        }
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        Random random = new Random(13);
+        try (MappedSeekableStream stream = new MappedSeekableStream(testFile, CHUNK_SIZE)) {
+            for (int i = 0; i < 1000; i++) {
+                int pos = random.nextInt(FILE_SIZE);
+                int len = random.nextInt(Math.min(3 * CHUNK_SIZE, FILE_SIZE - pos));
+                ByteBuffer buffer = stream.getByteBuffer(pos, len);
+                assertEquals(len, buffer.remaining());
+                byte[] bytes = new byte[len];
+                buffer.get(bytes);
+                assertArrayEquals(Arrays.copyOfRange(expectedBytes, pos, pos + len), bytes);
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultChunkSize() throws Exception {
+        try (MappedSeekableStream stream = new MappedSeekableStream(testFile)) {
+            byte[] buffer = new byte[FILE_SIZE];
+            stream.readFully(buffer);
+            assertArrayEquals(expectedBytes, buffer);
+            assertTrue(stream.getByteBuffer(100, 500).isDirect());
+        }
+    }
+}
@@ -35,7 +35,9 @@ import htsjdk.tribble.Feature;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.awt.*;
 import java.util.List;
+import java.util.Random;
 
 import static junit.framework.Assert.assertEquals;
 
@@ -65,4 +67,32 @@ public class VariantTrackTest extends AbstractHeadlessTest {
         }
     }
 
+    @Test
+    public void testGetVisibleRows() throws Exception {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 10000; trial++) {
+            int y0 = random.nextInt(200) - 100;
+            int rowHeight = 1 + random.nextInt(15);
+            int rowCount = random.nextInt(50);
+            Rectangle visibleRectangle = new Rectangle(0, random.nextInt(400) - 100, 100, random.nextInt(100));
+
+            int expectedStart = -1;
+            int expectedEnd = -1;
+            for (int i = 0; i < rowCount; i++) {
+                Rectangle row = new Rectangle(0, y0 + i * rowHeight, 100, rowHeight);
+                if (row.intersects(visibleRectangle)) {
+                    if (expectedStart < 0) expectedStart = i;
+                    expectedEnd = i + 1;
+                }
+            }
+            int[] range = VariantTrack.getVisibleRows(y0, rowHeight, rowCount, visibleRectangle);
+            if (expectedStart < 0) {
+                assertEquals(range[0], range[1]);
+            } else {
+                assertEquals(expectedStart, range[0]);
+                assertEquals(expectedEnd, range[1]);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,265 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2019 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.broad.igv.variant.vcf;
+
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.PositionalBufferedStream;
+import htsjdk.variant.variantcontext.GenotypeType;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.tribble.VCFWrapperCodec;
+import org.broad.igv.track.RenderContext;
+import org.broad.igv.util.TestUtils;
+import org.broad.igv.variant.VariantRenderer;
+import org.broad.igv.variant.VariantTrack;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import util.LongRunning;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.*;
+import java.util.List;
+
+import static htsjdk.variant.variantcontext.GenotypeType.*;
+import static org.junit.Assert.*;
+
+public class GenotypeCallsTest extends AbstractHeadlessTest {
+
+    private static final String HEADER_LINE = "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT";
+
+    @Test
+    public void testDecodeCalls() throws Exception {
+
+        VCFHeader header = new VCFHeader(new HashSet<>(), Arrays.asList("s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9"));
+        GenotypeCalls calls = new GenotypeCalls(header);
+
+        byte[] types = calls.decode("chr1\t100\t.\tA\tC,G\t.\t.\t.\tGT:DP\t0/0:3\t0|1:5\t1/1\t./.\t.\t./1\t2\t1/2\t0/10:4\t10|10");
+        GenotypeType[] expected = {HOM_REF, HET, HOM_VAR, NO_CALL, NO_CALL, MIXED, HOM_VAR, HET, HET, HOM_VAR};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("s" + i, expected[i], GenotypeCalls.getType(types[i]));
+        }
+
+        // Missing trailing samples
+        types = calls.decode("chr1\t100\t.\tA\tC\t.\t.\t.\tGT\t0/0\t0|1");
+        assertEquals(HET, GenotypeCalls.getType(types[1]));
+        assertEquals(UNAVAILABLE, GenotypeCalls.getType(types[2]));
+        assertEquals(UNAVAILABLE, GenotypeCalls.getType(types[9]));
+
+        // No GT field
+        types = calls.decode("chr1\t100\t.\tA\tC\t.\t.\t.\tGTX:DP\t0/0:1\t0/1:2");
+        for (byte type : types) {
+            assertEquals(UNAVAILABLE, GenotypeCalls.getType(type));
+        }
+
+        assertEquals(3, calls.getSampleIndex("s3", 3));
+        assertEquals(3, calls.getSampleIndex("s3", 4));
+        assertEquals(3, calls.getSampleIndex("s3", -1));
+        assertEquals(-1, calls.getSampleIndex("s10", -1));
+    }
+
+    /**
+     * Compare calls decoded from the raw lines with those of fully parsed htsjdk genotypes.
+     */
+    @Test
+    public void testDecodeMatchesHtsjdk() throws Exception {
+        String[] files = {"hc_mod.vcf", "ex2.vcf", "SRP32_v4.0.vcf", "outputPileup.flt1.vcf"};
+        for (String file : files) {
+            String path = TestUtils.DATA_DIR + "vcf/" + file;
+            VCFCodec codec = new VCFCodec();
+            try (InputStream is = new FileInputStream(path)) {
+                LineIterator iter = new AsciiLineReaderIterator(new AsciiLineReader(new PositionalBufferedStream(is)));
+                VCFHeader header = (VCFHeader) codec.readActualHeader(iter);
+                GenotypeCalls calls = new GenotypeCalls(header);
+                List<String> samples = calls.getSampleNames();
+                assertTrue(file, samples.size() > 0);
+                int nVariants = 0;
+                while (iter.hasNext()) {
+                    String line = iter.next();
+                    VariantContext vc = codec.decode(line);
+                    byte[] types = calls.decode(line);
+                    for (int i = 0; i < samples.size(); i++) {
+                        assertEquals(file + " " + vc.getContig() + ":" + vc.getStart() + " " + samples.get(i),
+                                vc.getGenotype(samples.get(i)).getType(), GenotypeCalls.getType(types[i]));
+                    }
+                    nVariants++;
+                }
+                assertTrue(file, nVariants > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testVariantGenotypes() throws Exception {
+        String path = TestUtils.DATA_DIR + "vcf/hc_mod.vcf";
+        VCFWrapperCodec codec = new VCFWrapperCodec(new VCFCodec(), null);
+        try (InputStream is = new FileInputStream(path)) {
+            LineIterator iter = new AsciiLineReaderIterator(new AsciiLineReader(new PositionalBufferedStream(is)));
+            VCFHeader header = (VCFHeader) codec.readActualHeader(iter);
+            List<String> samples = header.getGenotypeSamples();
+            while (iter.hasNext()) {
+                VCFVariant variant = codec.decode(iter.next());
+                assertEquals(samples, new ArrayList<>(variant.getSampleNames()));
+                VariantContext vc = variant.getVariantContext();
+                for (int i = 0; i < samples.size(); i++) {
+                    String sample = samples.get(i);
+                    org.broad.igv.variant.Genotype genotype = variant.getGenotype(sample);
+                    GenotypeType type = genotype.getType();
+                    assertEquals(type, variant.getGenotypeType(sample, i));
+                    assertEquals(type, variant.getGenotypeType(sample, -1));
+                    assertEquals(type, variant.getGenotypeType(sample, (i + 1) % samples.size()));
+
+                    // Single sample decoding matches decoding all samples
+                    VCFGenotype expected = new VCFGenotype(vc.getGenotype(sample));
+                    assertEquals(expected.getGenotypeString(), genotype.getGenotypeString());
+                    assertEquals(expected.getPhredScaledQual(), genotype.getPhredScaledQual(), 0);
+                    assertEquals(expected.getAttributeAsDouble("DP"), genotype.getAttributeAsDouble("DP"), 0);
+                }
+                assertNull(variant.getGenotypeType("NotASample", -1));
+                assertNull(variant.getGenotype("NotASample"));
+                assertEquals(samples.size(), vc.getNSamples());
+
+                // Decoded genotypes are not retained by the variant
+                assertNotSame(vc, variant.getVariantContext());
+            }
+        }
+    }
+
+    /**
+     * Heap use and genotype band render time for a window of variants, compact calls vs materialized genotypes.
+     */
+    @Test
+    @Category(LongRunning.class)
+    public void benchmarkGenotypes() throws Exception {
+
+        final int nVariants = 100;
+        for (int nSamples : new int[]{1000, 10000, 100000}) {
+
+            List<String> samples = new ArrayList<>(nSamples);
+            StringBuilder text = new StringBuilder("##fileformat=VCFv4.2\n");
+            text.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+            text.append("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n");
+            text.append("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n");
+            text.append("##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depths\">\n");
+            text.append(HEADER_LINE);
+            for (int i = 0; i < nSamples; i++) {
+                samples.add("S" + i);
+                text.append('\t').append("S").append(i);
+            }
+            text.append('\n');
+            long heap0 = usedHeap();
+            String[] gts = {"0/0", "0/1", "1/1", "./.", "0|0", "1|0"};
+            Random random = new Random(nSamples);
+            List<String> lines = new ArrayList<>(nVariants);
+            for (int v = 0; v < nVariants; v++) {
+                StringBuilder line = new StringBuilder("chr1\t" + (1000 + v * 100) + "\t.\tA\tC\t50\tPASS\t.\tGT:DP:GQ:AD");
+                for (int i = 0; i < nSamples; i++) {
+                    int dp = random.nextInt(60);
+                    line.append('\t').append(gts[random.nextInt(gts.length)]).append(':').append(dp)
+                            .append(':').append(random.nextInt(99)).append(':').append(dp / 2).append(',').append(dp - dp / 2);
+                }
+                lines.add(line.toString());
+            }
+
+            VCFWrapperCodec codec = new VCFWrapperCodec(new VCFCodec(), null);
+            codec.readActualHeader(new AsciiLineReaderIterator(new AsciiLineReader(
+                    new PositionalBufferedStream(new ByteArrayInputStream(text.toString().getBytes())))));
+
+            long t0 = System.currentTimeMillis();
+            List<VCFVariant> variants = new ArrayList<>(nVariants);
+            for (String line : lines) {
+                variants.add(codec.decode(line));
+            }
+            long loadTime = System.currentTimeMillis() - t0;
+            lines.clear();     // Retained only by the variants
+            long compactHeap = usedHeap() - heap0;
+
+            long[] renderTimes = {render(variants, samples, true), render(variants, samples, false)};
+
+            // Materialize genotypes,  as was done for every variant when loading before calls were stored
+            // compactly.  Limited to a subset of variants at large sample counts to fit the test heap.
+            int nMaterialized = Math.min(nVariants, 2000000 / nSamples);
+            t0 = System.currentTimeMillis();
+            List<Object> genotypes = new ArrayList<>(nMaterialized * nSamples);
+            for (VCFVariant variant : variants.subList(0, nMaterialized)) {
+                VariantContext vc = variant.getVariantContext();
+                for (String sample : samples) {
+                    org.broad.igv.variant.Genotype genotype = new VCFGenotype(vc.getGenotype(sample));
+                    genotype.getAttributes();
+                    genotypes.add(genotype);
+                }
+            }
+            long materializeTime = System.currentTimeMillis() - t0;
+            long fullHeap = usedHeap() - heap0 - compactHeap;
+
+            System.out.println(String.format("%d variants x %d samples: load %d ms, %.1f KB/variant; render by " +
+                            "column %d ms, by name %d ms; materializing genotypes %.1f ms/variant, %.1f KB/variant",
+                    nVariants, nSamples, loadTime, compactHeap / 1.0e3 / nVariants, renderTimes[0], renderTimes[1],
+                    (double) materializeTime / nMaterialized, fullHeap / 1.0e3 / nMaterialized));
+            assertEquals(nMaterialized * nSamples, genotypes.size());
+        }
+    }
+
+    private static long render(List<VCFVariant> variants, List<String> samples, boolean byColumn) {
+        VariantTrack track = new VariantTrack("benchmark", null);
+        track.setDisplayMode(VariantTrack.DisplayMode.SQUISHED);
+        VariantRenderer renderer = new VariantRenderer(track);
+        BufferedImage image = new BufferedImage(1000, 1000, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        RenderContext context = new RenderContext(null, g, null, new Rectangle(0, 0, 1000, 1000));
+        Rectangle band = new Rectangle(0, 0, 1000, 1);
+        long t0 = System.currentTimeMillis();
+        for (int pass = 0; pass < 2; pass++) {
+            t0 = System.currentTimeMillis();    // First pass warms up
+            int x = 0;
+            for (VCFVariant variant : variants) {
+                band.y = 0;
+                for (int i = 0; i < samples.size(); i++) {
+                    renderer.renderGenotypeBandSNP(variant, context, band, x, 10, samples.get(i), byColumn ? i : -1,
+                            VariantTrack.ColorMode.GENOTYPE, false);
+                    band.y = (band.y + 1) % 1000;
+                }
+                x += 10;
+            }
+        }
+        g.dispose();
+        return System.currentTimeMillis() - t0;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}